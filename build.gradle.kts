@@ -6,6 +6,7 @@ plugins {
     id("com.gradleup.shadow") version "9.2.2"
     id("net.kyori.blossom") version "2.2.0"
     id("org.jetbrains.gradle.plugin.idea-ext") version "1.3" // IntelliJ + Blossom integration
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.gmail.tracebachi"
@@ -19,11 +20,21 @@ repositories {
 }
 
 dependencies {
-    compileOnly("io.netty:netty-all:4.0.23.Final")
+    compileOnly("io.netty:netty-all:4.1.25.Final")
     compileOnly("net.md-5:bungeecord-api:1.21-R0.3")
     compileOnly("org.spigotmc:spigot-api:1.13.2-R0.1-SNAPSHOT")
     compileOnly("com.velocitypowered:velocity-api:3.0.1")
     annotationProcessor("com.velocitypowered:velocity-api:3.0.1")
+
+    // Netty and Guava are provided by the platform at runtime, so benchmarks need their own copy
+    jmh("io.netty:netty-all:4.1.25.Final")
+    jmh("io.netty:netty-transport-native-epoll:4.1.25.Final:linux-x86_64")
+    jmh("com.google.guava:guava:21.0")
+
+    testImplementation("io.netty:netty-all:4.1.25.Final")
+    testImplementation("com.google.guava:guava:21.0")
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 java {
@@ -49,6 +60,15 @@ sourceSets {
     }
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+}
+
 tasks.getByName<ShadowJar>("shadowJar") {
     minimize()
 }
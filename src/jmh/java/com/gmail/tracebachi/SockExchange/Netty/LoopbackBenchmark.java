@@ -0,0 +1,169 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Measures Spigot-to-Spigot messaging through a {@link LoopbackHarness}. Every message
+ * goes from a client to the server and is relayed to another client, so the numbers
+ * include two encodes, two decodes and two loopback socket hops.
+ * <p>
+ * {@link #sendWithoutConsumer} reports messages per second for fire-and-forget sends.
+ * {@link #sendWithConsumer} reports round trips per second and, in sample mode, the
+ * p50/p99 latency of a request and its response. Run with {@code -t} to add senders.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark
+{
+  private static final String ECHO_CHANNEL = "LoopbackEcho";
+  private static final String SINK_CHANNEL_PREFIX = "LoopbackSink-";
+  private static final int BATCH_SIZE = 100;
+  private static final long TIMEOUT_IN_MILLIS = 5000;
+
+  @State(Scope.Benchmark)
+  public static class HubState
+  {
+    @Param({"2", "8"})
+    public int clientCount;
+
+    @Param({"64", "4096"})
+    public int payloadSize;
+
+    @Param({"1", "64"})
+    public int flushMaxPackets;
+
+    LoopbackHarness harness;
+    final AtomicInteger senderCounter = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception
+    {
+      harness = new LoopbackHarness(clientCount, 4);
+      harness.setFlushMaxPackets(flushMaxPackets);
+      harness.start(TimeUnit.SECONDS.toMillis(30));
+
+      for (int i = 0; i < clientCount; i++)
+      {
+        harness.getClientNotifier(i).register(ECHO_CHANNEL,
+          (message) -> message.respond(message.getMessageBytes()));
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+      harness.shutdown();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class SenderState
+  {
+    SpigotToBungeeConnection source;
+    String destServerName;
+    String sinkChannelName;
+    byte[] payload;
+    final AtomicLong received = new AtomicLong();
+
+    private Consumer<ReceivedMessage> sinkConsumer;
+    private int destIndex;
+    private HubState hubState;
+
+    @Setup(Level.Trial)
+    public void setup(HubState hubState)
+    {
+      LoopbackHarness harness = hubState.harness;
+      int senderIndex = hubState.senderCounter.getAndIncrement();
+      int sourceIndex = senderIndex % harness.getClientCount();
+
+      this.hubState = hubState;
+      this.destIndex = (sourceIndex + 1) % harness.getClientCount();
+      this.source = harness.getClientConnection(sourceIndex);
+      this.destServerName = harness.getServerName(destIndex);
+      this.sinkChannelName = SINK_CHANNEL_PREFIX + senderIndex;
+      this.payload = new byte[hubState.payloadSize];
+      this.sinkConsumer = (message) -> received.incrementAndGet();
+
+      ThreadLocalRandom.current().nextBytes(payload);
+      harness.getClientNotifier(destIndex).register(sinkChannelName, sinkConsumer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+      hubState.harness.getClientNotifier(destIndex).unregister(sinkChannelName, sinkConsumer);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @OperationsPerInvocation(BATCH_SIZE)
+  public long sendWithoutConsumer(HubState hubState, SenderState state)
+  {
+    long target = state.received.get() + BATCH_SIZE;
+
+    for (int i = 0; i < BATCH_SIZE; i++)
+    {
+      state.source.sendToServer(state.sinkChannelName, state.payload, state.destServerName,
+        null, 0);
+    }
+
+    // Wait for the whole batch to be delivered so the send rate cannot outrun the hub
+    while (state.received.get() < target)
+    {
+      Thread.yield();
+    }
+
+    return target;
+  }
+
+  @Benchmark
+  @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public ResponseMessage sendWithConsumer(HubState hubState, SenderState state) throws Exception
+  {
+    CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+
+    state.source.sendToServer(ECHO_CHANNEL, state.payload, state.destServerName,
+      future::complete, TIMEOUT_IN_MILLIS);
+
+    ResponseMessage responseMessage = future.get(TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+
+    if (!responseMessage.getResponseStatus().isOk())
+    {
+      throw new IllegalStateException("Unexpected response: " + responseMessage.getResponseStatus());
+    }
+
+    return responseMessage;
+  }
+}
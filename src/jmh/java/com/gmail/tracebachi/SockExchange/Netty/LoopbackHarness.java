@@ -0,0 +1,300 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Bungee.BungeeTieIn;
+import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
+import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
+import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
+import com.gmail.tracebachi.SockExchange.Utilities.CaseInsensitiveMap;
+import com.gmail.tracebachi.SockExchange.Utilities.JulBasicLogger;
+import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * In-process hub with one {@link SockExchangeServer} and N {@link SockExchangeClient}s
+ * connected over localhost or a Unix domain socket. Every component is wired the same way the plugins wire
+ * them, minus the platform specific parts.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class LoopbackHarness implements BungeeTieIn
+{
+  public static final String PING_CHANNEL = "LoopbackPing";
+  private static final String PASSWORD = "LoopbackPassword";
+
+  private final int clientCount;
+  private final BasicLogger basicLogger;
+  private final ExecutorService threadPool;
+  private final AwaitableExecutor bungeeExecutor;
+  private final ReceivedMessageNotifier bungeeNotifier;
+  private final LongIdCounterMap<ExpirableConsumer<ResponseMessage>> bungeeConsumerMap;
+  private final PacketBroadcaster packetBroadcaster;
+  private final CaseInsensitiveMap<BungeeToSpigotConnection> spigotConnectionMap;
+  private final List<SpigotToBungeeConnection> clientConnections;
+  private final List<ReceivedMessageNotifier> clientNotifiers;
+  private final List<SockExchangeClient> clients;
+
+  private SockExchangeServer server;
+  private int flushMaxPackets = 1;
+  private String domainSocketPath = null;
+
+  public LoopbackHarness(int clientCount, int workerThreads)
+  {
+    Preconditions.checkArgument(clientCount >= 2, "clientCount must be >= 2");
+    Preconditions.checkArgument(workerThreads >= 1, "workerThreads must be >= 1");
+
+    this.clientCount = clientCount;
+    this.basicLogger = new JulBasicLogger(Logger.getLogger("LoopbackHarness"), false);
+    this.threadPool = Executors.newFixedThreadPool(workerThreads);
+    this.bungeeExecutor = new AwaitableExecutor(threadPool);
+    this.bungeeNotifier = new ReceivedMessageNotifier(bungeeExecutor);
+    this.bungeeConsumerMap = new LongIdCounterMap<>();
+    this.packetBroadcaster = new PacketBroadcaster(new TrafficStatistics());
+    this.spigotConnectionMap = new CaseInsensitiveMap<>(new ConcurrentHashMap<>());
+    this.clientConnections = new ArrayList<>(clientCount);
+    this.clientNotifiers = new ArrayList<>(clientCount);
+    this.clients = new ArrayList<>(clientCount);
+
+    for (int i = 0; i < clientCount; i++)
+    {
+      String serverName = getServerName(i);
+      BungeeToSpigotConnection connection = new BungeeToSpigotConnection(
+        serverName, bungeeExecutor, bungeeNotifier, bungeeConsumerMap, basicLogger, this,
+        packetBroadcaster);
+
+      spigotConnectionMap.put(serverName, connection);
+    }
+  }
+
+  public void setFlushMaxPackets(int flushMaxPackets)
+  {
+    Preconditions.checkArgument(flushMaxPackets > 0, "flushMaxPackets must be > 0");
+
+    this.flushMaxPackets = flushMaxPackets;
+
+    for (BungeeToSpigotConnection connection : spigotConnectionMap.values())
+    {
+      connection.setFlushConsolidation(flushMaxPackets);
+    }
+  }
+
+  /**
+   * Makes clients connect through a Unix domain socket instead of TCP. Requires the
+   * epoll transport.
+   *
+   * @param domainSocketPath Path of the socket file or null to use TCP
+   */
+  public void setDomainSocketPath(String domainSocketPath)
+  {
+    this.domainSocketPath = domainSocketPath;
+  }
+
+  public void start(long timeoutInMillis) throws Exception
+  {
+    int port = findFreePort();
+    TransportOptions transportOptions = new TransportOptions();
+    transportOptions.setDomainSocketPath(domainSocketPath);
+
+    server = new SockExchangeServer(port, 2, this, transportOptions);
+    server.start();
+
+    String hostname = (domainSocketPath != null)
+      ? NettyTransport.DOMAIN_SOCKET_PREFIX + domainSocketPath
+      : "127.0.0.1";
+
+    for (int i = 0; i < clientCount; i++)
+    {
+      AwaitableExecutor clientExecutor = new AwaitableExecutor(threadPool);
+      ReceivedMessageNotifier clientNotifier = new ReceivedMessageNotifier(clientExecutor);
+      SpigotToBungeeConnection connection = new SpigotToBungeeConnection(
+        getServerName(i), PASSWORD, clientExecutor, clientNotifier, new LongIdCounterMap<>(),
+        basicLogger);
+      connection.setFlushConsolidation(flushMaxPackets);
+
+      // Every client answers pings so registration can be confirmed end-to-end
+      clientNotifier.register(PING_CHANNEL, (message) -> message.respond());
+
+      SockExchangeClient client = new SockExchangeClient(hostname, port, connection,
+        transportOptions);
+      client.start();
+
+      clientConnections.add(connection);
+      clientNotifiers.add(clientNotifier);
+      clients.add(client);
+    }
+
+    awaitRegistration(timeoutInMillis);
+  }
+
+  public void shutdown()
+  {
+    for (SockExchangeClient client : clients)
+    {
+      client.shutdown();
+    }
+
+    if (server != null)
+    {
+      server.shutdown();
+      server = null;
+    }
+
+    threadPool.shutdownNow();
+  }
+
+  public int getClientCount()
+  {
+    return clientCount;
+  }
+
+  public String getServerName(int index)
+  {
+    return "loopback-" + index;
+  }
+
+  public SpigotToBungeeConnection getClientConnection(int index)
+  {
+    return clientConnections.get(index);
+  }
+
+  public ReceivedMessageNotifier getClientNotifier(int index)
+  {
+    return clientNotifiers.get(index);
+  }
+
+  @Override
+  public boolean doesRegistrationPasswordMatch(String password)
+  {
+    return PASSWORD.equals(password);
+  }
+
+  @Override
+  public BungeeToSpigotConnection getConnection(String spigotServerName)
+  {
+    return spigotConnectionMap.get(spigotServerName);
+  }
+
+  @Override
+  public Collection<BungeeToSpigotConnection> getConnections()
+  {
+    return Collections.unmodifiableCollection(spigotConnectionMap.values());
+  }
+
+  @Override
+  public SpigotServerInfo getServerInfo(String serverName)
+  {
+    BungeeToSpigotConnection connection = spigotConnectionMap.get(serverName);
+
+    if (connection == null)
+    {
+      return null;
+    }
+
+    return new SpigotServerInfo(connection.getServerName(), connection.hasChannel(), false);
+  }
+
+  @Override
+  public List<SpigotServerInfo> getServerInfos()
+  {
+    List<SpigotServerInfo> result = new ArrayList<>(spigotConnectionMap.size());
+
+    for (BungeeToSpigotConnection connection : spigotConnectionMap.values())
+    {
+      result.add(new SpigotServerInfo(connection.getServerName(), connection.hasChannel(), false));
+    }
+
+    return result;
+  }
+
+  @Override
+  public String getServerNameForPlayer(String playerName)
+  {
+    return null;
+  }
+
+  @Override
+  public void sendChatMessagesToPlayer(String playerName, List<String> messages)
+  {
+  }
+
+  @Override
+  public void sendChatMessagesToConsole(List<String> messages)
+  {
+  }
+
+  private void awaitRegistration(long timeoutInMillis) throws Exception
+  {
+    long giveUpAtMillis = System.currentTimeMillis() + timeoutInMillis;
+
+    // A client is registered once a ping from it to its neighbour comes back OK.
+    // Until then, the ping will complete with NOT_CONNECTED or SERVER_OFFLINE.
+    for (int i = 0; i < clientCount; i++)
+    {
+      SpigotToBungeeConnection source = clientConnections.get(i);
+      String destServerName = getServerName((i + 1) % clientCount);
+
+      while (true)
+      {
+        CompletableFuture<ResponseStatus> future = new CompletableFuture<>();
+        source.sendToServer(PING_CHANNEL, new byte[0], destServerName,
+          (response) -> future.complete(response.getResponseStatus()), 1000);
+
+        try
+        {
+          if (future.get(2, TimeUnit.SECONDS) == ResponseStatus.OK)
+          {
+            break;
+          }
+        }
+        catch (TimeoutException ex)
+        {
+          // A slow registration is retried until the deadline below
+        }
+
+        if (System.currentTimeMillis() > giveUpAtMillis)
+        {
+          throw new TimeoutException("Client " + source.getServerName() + " did not register");
+        }
+
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  private static int findFreePort() throws IOException
+  {
+    try (ServerSocket socket = new ServerSocket(0))
+    {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Netty.PacketRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding of every packet known to {@link PacketRegistry}
+ * at several payload sizes and in both wire format versions. Packets without a payload
+ * ignore the payload size.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCodecBenchmark
+{
+  @Param({
+    "PacketToBungeeRegister",
+    "PacketToSpigotRegister",
+    "PacketToBungeeRequest",
+    "PacketToSpigotRequest",
+    "PacketToAnyResponse",
+    "PacketToBungeeForward",
+    "PacketToBungeeGather"})
+  public String packetName;
+
+  @Param({"0", "64", "1024", "65536"})
+  public int payloadSize;
+
+  @Param({"1", "2"})
+  public int wireVersion;
+
+  private final WireFormat wireFormat = new WireFormat();
+  private AbstractPacket packet;
+  private byte packetId;
+  private ByteBuf encodeBuffer;
+  private ByteBuf decodeBuffer;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    byte[] payload = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(payload);
+
+    wireFormat.setVersion(wireVersion);
+    packet = createPacket(packetName, payload);
+    packetId = packet.getPacketId();
+
+    int capacity = payloadSize + 1024;
+    encodeBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(capacity);
+    decodeBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(capacity);
+
+    decodeBuffer.writeByte(packetId);
+    packet.write(decodeBuffer, wireFormat);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    encodeBuffer.release();
+    decodeBuffer.release();
+  }
+
+  @Benchmark
+  public int encode()
+  {
+    encodeBuffer.clear();
+    encodeBuffer.writeByte(packet.getPacketId());
+    packet.write(encodeBuffer, wireFormat);
+    return encodeBuffer.writerIndex();
+  }
+
+  @Benchmark
+  public AbstractPacket decode()
+  {
+    decodeBuffer.readerIndex(0);
+
+    byte readId = decodeBuffer.readByte();
+    AbstractPacket readPacket = PacketRegistry.get(readId).newPacket();
+    readPacket.read(decodeBuffer, wireFormat);
+
+    // Payloads are read as retained slices of the input
+    readPacket.release();
+    return readPacket;
+  }
+
+  static AbstractPacket createPacket(String packetName, byte[] payload)
+  {
+    switch (packetName)
+    {
+      case "PacketToBungeeRegister":
+      {
+        PacketToBungeeRegister packet = new PacketToBungeeRegister();
+        packet.setPassword("FreshSocks");
+        packet.setServerName("lobby-01");
+        return packet;
+      }
+      case "PacketToSpigotRegister":
+      {
+        PacketToSpigotRegister packet = new PacketToSpigotRegister();
+        packet.setResult(PacketToSpigotRegister.Result.SUCCESS);
+        return packet;
+      }
+      case "PacketToBungeeRequest":
+      {
+        PacketToBungeeRequest packet = new PacketToBungeeRequest();
+        packet.setDestinationType(PacketToBungeeRequest.DestinationType.SERVER_NAME);
+        packet.setServerOrPlayerName("survival-02");
+        packet.setChannelName("Benchmark-Channel");
+        packet.setMessageBytes(payload);
+        packet.setConsumerId(12345L);
+        packet.setTimeoutInMillis(500);
+        return packet;
+      }
+      case "PacketToSpigotRequest":
+      {
+        PacketToSpigotRequest packet = new PacketToSpigotRequest();
+        packet.setChannelName("Benchmark-Channel");
+        packet.setMessageBytes(payload);
+        packet.setConsumerId(12345L);
+        return packet;
+      }
+      case "PacketToAnyResponse":
+      {
+        PacketToAnyResponse packet = new PacketToAnyResponse();
+        packet.setConsumerId(12345L);
+        packet.setResponseStatus(ResponseStatus.OK);
+        packet.setMessageBytes(payload);
+        return packet;
+      }
+      case "PacketToBungeeForward":
+      {
+        PacketToBungeeForward packet = new PacketToBungeeForward();
+        packet.setServerNames(Arrays.asList("lobby-01", "lobby-02", "survival-01"));
+        packet.setChannelName("Benchmark-Channel");
+        packet.setMessageBytes(payload);
+        return packet;
+      }
+      case "PacketToBungeeGather":
+      {
+        PacketToBungeeGather packet = new PacketToBungeeGather();
+        packet.setServerNames(Arrays.asList("lobby-01", "lobby-02", "survival-01"));
+        packet.setChannelName("Benchmark-Channel");
+        packet.setConsumerId(12345L);
+        packet.setTimeoutInMillis(500);
+        packet.setMessageBytes(payload);
+        return packet;
+      }
+    }
+
+    throw new IllegalArgumentException("Unknown packet name: " + packetName);
+  }
+}
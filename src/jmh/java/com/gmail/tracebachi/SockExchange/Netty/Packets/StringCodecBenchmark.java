@@ -0,0 +1,120 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the string codec of {@link AbstractPacket} with the previous codec, which
+ * copied every string through a temporary array. Both write the length in bytes, so
+ * they produce the same bytes. Run with {@code -prof gc} to compare allocations.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringCodecBenchmark
+{
+  @Param({"ascii", "latin", "cjk", "emoji"})
+  public String script;
+
+  private String value;
+  private ByteBuf encodeBuffer;
+  private ByteBuf decodeBuffer;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    value = createValue(script);
+    encodeBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(256);
+    decodeBuffer = PooledByteBufAllocator.DEFAULT.directBuffer(256);
+
+    AbstractPacket.writeString(decodeBuffer, value);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    encodeBuffer.release();
+    decodeBuffer.release();
+  }
+
+  @Benchmark
+  public int encode()
+  {
+    encodeBuffer.clear();
+    AbstractPacket.writeString(encodeBuffer, value);
+    return encodeBuffer.writerIndex();
+  }
+
+  @Benchmark
+  public int encodeWithArray()
+  {
+    encodeBuffer.clear();
+
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    AbstractPacket.writeVarInt(encodeBuffer, bytes.length);
+    encodeBuffer.writeBytes(bytes);
+    return encodeBuffer.writerIndex();
+  }
+
+  @Benchmark
+  public String decode()
+  {
+    decodeBuffer.readerIndex(0);
+    return AbstractPacket.readString(decodeBuffer);
+  }
+
+  @Benchmark
+  public String decodeWithArray()
+  {
+    decodeBuffer.readerIndex(0);
+
+    byte[] bytes = new byte[AbstractPacket.readVarInt(decodeBuffer)];
+    decodeBuffer.readBytes(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static String createValue(String script)
+  {
+    // Each value is about as long as a typical channel name. Non-ASCII characters are
+    // escaped so the source does not depend on the platform encoding.
+    switch (script)
+    {
+      case "ascii":
+        return "SockExchange-Benchmark";
+      case "latin":
+        return "\u00DCbersicht-Spielerliste";
+      case "cjk":
+        return "\u9891\u9053\u540D\u79F0-\u670D\u52A1\u5668-\u73A9\u5BB6\u5217\u8868";
+      case "emoji":
+        return "Channel-\uD83D\uDE80\uD83C\uDF0D-Benchmark";
+    }
+
+    throw new IllegalArgumentException("Unknown script: " + script);
+  }
+}
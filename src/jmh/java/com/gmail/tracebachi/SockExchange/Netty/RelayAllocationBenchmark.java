@@ -0,0 +1,250 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Bungee.BungeeTieIn;
+import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToAnyResponse;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeRequest;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRequest;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.WireFormat;
+import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
+import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
+import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Bungee side of relaying a request from one server to another and
+ * relaying the response back, without sockets. Run with {@code -prof gc} to compare
+ * the allocation rate (gc.alloc.rate.norm) of pooled packets in {@link #relay()}
+ * against unpooled packets in {@link #relayUnpooled()}.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayAllocationBenchmark
+{
+  private static final String CHANNEL_NAME = "Benchmark-Channel";
+
+  @Param({"64", "1024"})
+  public int payloadSize;
+
+  private EmbeddedChannel sourceChannel;
+  private EmbeddedChannel destChannel;
+  private BungeeToSpigotConnection sourceConnection;
+  private BungeeToSpigotConnection destConnection;
+  private ByteBuf requestFrame;
+  private byte[] responseBytes;
+
+  // Version 1 without channel name IDs, so packets are read like the frame is written
+  private final WireFormat wireFormat = new WireFormat();
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    Executor executor = Runnable::run;
+    BasicLogger basicLogger = new NoopLogger();
+    LongIdCounterMap<ExpirableConsumer<ResponseMessage>> waitingForResponse =
+      new LongIdCounterMap<>();
+    ReceivedMessageNotifier notifier = new ReceivedMessageNotifier(executor);
+    PacketBroadcaster packetBroadcaster = new PacketBroadcaster(new TrafficStatistics());
+    TwoServerTieIn tieIn = new TwoServerTieIn();
+
+    sourceConnection = new BungeeToSpigotConnection("source", executor, notifier,
+      waitingForResponse, basicLogger, tieIn, packetBroadcaster);
+    destConnection = new BungeeToSpigotConnection("dest", executor, notifier,
+      waitingForResponse, basicLogger, tieIn, packetBroadcaster);
+    tieIn.connections = Arrays.asList(sourceConnection, destConnection);
+
+    // Outbound packets are encoded so the benchmark includes returning them to the pool
+    sourceChannel = new EmbeddedChannel(new BungeePacketEncoder());
+    destChannel = new EmbeddedChannel(new BungeePacketEncoder());
+    sourceConnection.onChannelActive(sourceChannel);
+    destConnection.onChannelActive(destChannel);
+
+    byte[] payload = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(payload);
+    responseBytes = Arrays.copyOf(payload, payload.length);
+
+    PacketToBungeeRequest request = new PacketToBungeeRequest();
+    request.setDestinationType(PacketToBungeeRequest.DestinationType.SERVER_NAME);
+    request.setServerOrPlayerName("dest");
+    request.setChannelName(CHANNEL_NAME);
+    request.setMessageBytes(payload);
+    request.setConsumerId(12345L);
+    request.setTimeoutInMillis(60000);
+
+    requestFrame = PooledByteBufAllocator.DEFAULT.directBuffer(payloadSize + 256);
+    requestFrame.writeByte(request.getPacketId());
+    request.write(requestFrame);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    sourceChannel.finishAndReleaseAll();
+    destChannel.finishAndReleaseAll();
+    requestFrame.release();
+  }
+
+  @Benchmark
+  public long relay()
+  {
+    return relayOnce();
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dsockexchange.packetPoolCapacity=0")
+  public long relayUnpooled()
+  {
+    return relayOnce();
+  }
+
+  private long relayOnce()
+  {
+    // Source server sends a request for the destination server
+    requestFrame.readerIndex(0);
+    byte packetId = requestFrame.readByte();
+    PacketRegistry.get(packetId).readAndHandle(requestFrame, sourceConnection, wireFormat);
+
+    // Destination server reads the relayed request
+    ByteBuf relayed = destChannel.readOutbound();
+    relayed.readByte();
+    PacketToSpigotRequest relayedRequest = PacketToSpigotRequest.newInstance();
+    relayedRequest.read(relayed);
+    long consumerId = relayedRequest.getConsumerId();
+    relayedRequest.release();
+    relayed.release();
+
+    // Destination server responds and the response is relayed to the source server
+    PacketToAnyResponse response = PacketToAnyResponse.newInstance();
+    response.setConsumerId(consumerId);
+    response.setResponseStatus(ResponseStatus.OK);
+    response.setMessageBytes(responseBytes);
+    try
+    {
+      destConnection.handle(response);
+    }
+    finally
+    {
+      // The decoder releases received packets after they are handled
+      response.release();
+    }
+
+    ByteBuf relayedResponse = sourceChannel.readOutbound();
+    long length = relayedResponse.readableBytes();
+    relayedResponse.release();
+    return length;
+  }
+
+  private static class NoopLogger implements BasicLogger
+  {
+    @Override
+    public void info(String format, Object... params)
+    {
+    }
+
+    @Override
+    public void debug(String format, Object... params)
+    {
+    }
+
+    @Override
+    public void severe(String format, Object... params)
+    {
+    }
+  }
+
+  private static class TwoServerTieIn implements BungeeTieIn
+  {
+    private List<BungeeToSpigotConnection> connections = Collections.emptyList();
+
+    @Override
+    public boolean doesRegistrationPasswordMatch(String password)
+    {
+      return false;
+    }
+
+    @Override
+    public BungeeToSpigotConnection getConnection(String spigotServerName)
+    {
+      for (BungeeToSpigotConnection connection : connections)
+      {
+        if (connection.getServerName().equalsIgnoreCase(spigotServerName))
+        {
+          return connection;
+        }
+      }
+
+      return null;
+    }
+
+    @Override
+    public Collection<BungeeToSpigotConnection> getConnections()
+    {
+      return connections;
+    }
+
+    @Override
+    public SpigotServerInfo getServerInfo(String serverName)
+    {
+      return null;
+    }
+
+    @Override
+    public List<SpigotServerInfo> getServerInfos()
+    {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public String getServerNameForPlayer(String playerName)
+    {
+      return null;
+    }
+
+    @Override
+    public void sendChatMessagesToPlayer(String playerName, List<String> messages)
+    {
+    }
+
+    @Override
+    public void sendChatMessagesToConsole(List<String> messages)
+    {
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the round trip latency of a request and its response between two clients
+ * connected over loopback TCP and over a Unix domain socket. The domain socket
+ * transport requires Linux with the native epoll transport.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransportLatencyBenchmark
+{
+  private static final String ECHO_CHANNEL = "LatencyEcho";
+  private static final long TIMEOUT_IN_MILLIS = 5000;
+
+  @Param({"tcp", "domain"})
+  public String transport;
+
+  @Param({"64", "4096"})
+  public int payloadSize;
+
+  private LoopbackHarness harness;
+  private SpigotToBungeeConnection source;
+  private String destServerName;
+  private byte[] payload;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    harness = new LoopbackHarness(2, 2);
+
+    if ("domain".equals(transport))
+    {
+      File socketFile = File.createTempFile("sockexchange-", ".sock");
+      socketFile.delete();
+      socketFile.deleteOnExit();
+      harness.setDomainSocketPath(socketFile.getAbsolutePath());
+    }
+
+    harness.start(TimeUnit.SECONDS.toMillis(30));
+    harness.getClientNotifier(1).register(ECHO_CHANNEL,
+      (message) -> message.respond(message.getMessageBytes()));
+
+    source = harness.getClientConnection(0);
+    destServerName = harness.getServerName(1);
+    payload = new byte[payloadSize];
+    ThreadLocalRandom.current().nextBytes(payload);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    harness.shutdown();
+  }
+
+  @Benchmark
+  public ResponseMessage roundTrip() throws Exception
+  {
+    CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+
+    source.sendToServer(ECHO_CHANNEL, payload, destServerName, future::complete,
+      TIMEOUT_IN_MILLIS);
+
+    ResponseMessage responseMessage = future.get(TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+
+    if (!responseMessage.getResponseStatus().isOk())
+    {
+      throw new IllegalStateException("Unexpected response: " + responseMessage.getResponseStatus());
+    }
+
+    return responseMessage;
+  }
+}
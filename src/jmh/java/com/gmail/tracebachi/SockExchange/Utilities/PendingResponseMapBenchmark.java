@@ -0,0 +1,139 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Utilities;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares {@link StripedLongObjectMap} with the {@link ConcurrentHashMap} that
+ * {@link LongIdCounterMap} used before for the put-once/remove-once pattern of pending
+ * responses. Every operation puts a new id and removes the id that was put
+ * {@code inFlight} operations earlier, so the map size stays at {@code inFlight}.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PendingResponseMapBenchmark
+{
+  private static final Object VALUE = new Object();
+
+  @State(Scope.Benchmark)
+  public static class MapState
+  {
+    @Param({"ConcurrentHashMap", "StripedLongObjectMap"})
+    public String implementation;
+
+    @Param({"10000", "100000", "1000000"})
+    public int inFlight;
+
+    private final AtomicLong idCounter = new AtomicLong(0L);
+    private PendingMap map;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+      map = createMap(implementation);
+      idCounter.set(0);
+
+      for (int i = 0; i < inFlight; i++)
+      {
+        map.put(idCounter.incrementAndGet(), VALUE);
+      }
+    }
+  }
+
+  @Benchmark
+  public Object putThenRemove(MapState state)
+  {
+    return putThenRemoveOldest(state);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Object putThenRemoveContended(MapState state)
+  {
+    return putThenRemoveOldest(state);
+  }
+
+  private static Object putThenRemoveOldest(MapState state)
+  {
+    long id = state.idCounter.incrementAndGet();
+    state.map.put(id, VALUE);
+    return state.map.remove(id - state.inFlight);
+  }
+
+  private static PendingMap createMap(String implementation)
+  {
+    switch (implementation)
+    {
+      case "ConcurrentHashMap":
+      {
+        ConcurrentHashMap<Long, Object> map = new ConcurrentHashMap<>();
+        return new PendingMap()
+        {
+          @Override
+          public void put(long id, Object value)
+          {
+            map.put(id, value);
+          }
+
+          @Override
+          public Object remove(long id)
+          {
+            return map.remove(id);
+          }
+        };
+      }
+      case "StripedLongObjectMap":
+      {
+        StripedLongObjectMap<Object> map = new StripedLongObjectMap<>();
+        return new PendingMap()
+        {
+          @Override
+          public void put(long id, Object value)
+          {
+            map.put(id, value);
+          }
+
+          @Override
+          public Object remove(long id)
+          {
+            return map.remove(id);
+          }
+        };
+      }
+    }
+
+    throw new IllegalArgumentException("Unknown implementation: " + implementation);
+  }
+
+  private interface PendingMap
+  {
+    void put(long id, Object value);
+
+    Object remove(long id);
+  }
+}
@@ -17,18 +17,29 @@
  */
 package com.gmail.tracebachi.SockExchange.Bungee;
 
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.KeepAliveTypes;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
 import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
 import java.util.List;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
+ * Pushes the status of all servers whenever a server connects or disconnects. Between
+ * changes, only a heartbeat with the current status version is sent so servers can
+ * request the full status if they missed an update. Servers of a version without these
+ * updates are sent the full status on every heartbeat as before.
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class BungeeKeepAliveSender implements Registerable
@@ -36,6 +47,10 @@ public class BungeeKeepAliveSender implements Registerable
   private final BungeeTieIn bungeeTieIn;
   private final SockExchangeApi api;
   private final long updatePeriodMillis;
+  private final Consumer<ReceivedMessage> onChannelMessage;
+  private final Object lock = new Object();
+  private final long epoch = ThreadLocalRandom.current().nextLong();
+  private long version = 0;
   private ScheduledFuture<?> updateFuture;
 
   public BungeeKeepAliveSender(
@@ -48,13 +63,16 @@ public class BungeeKeepAliveSender implements Registerable
     this.bungeeTieIn = bungeeTieIn;
     this.api = api;
     this.updatePeriodMillis = updatePeriodMillis;
+    this.onChannelMessage = this::onKeepAliveChannelMessage;
   }
 
   @Override
   public void register()
   {
+    api.getMessageNotifier().register(Channels.KEEP_ALIVE, onChannelMessage);
+
     updateFuture = api.getScheduledExecutorService().scheduleAtFixedRate(
-      this::sendKeepAlive, updatePeriodMillis, updatePeriodMillis,
+      this::sendHeartbeat, updatePeriodMillis, updatePeriodMillis,
       TimeUnit.MILLISECONDS);
   }
 
@@ -66,13 +84,90 @@ public class BungeeKeepAliveSender implements Registerable
       updateFuture.cancel(false);
       updateFuture = null;
     }
+
+    api.getMessageNotifier().unregister(Channels.KEEP_ALIVE, onChannelMessage);
   }
 
-  private void sendKeepAlive()
+  /**
+   * Sends the status of all servers after a server connected or disconnected
+   */
+  public void onServerStatusChange()
+  {
+    List<String> serverNames = api.getServerNames(Capabilities.SERVER_STATUS_PUSH, true);
+    List<String> legacyServerNames = api.getServerNames(Capabilities.SERVER_STATUS_PUSH, false);
+
+    byte[] statusBytes;
+
+    synchronized (lock)
+    {
+      version++;
+      statusBytes = getStatusBytes();
+    }
+
+    // Sent outside the lock so a slow server cannot stall other senders. Servers ignore
+    // a status or heartbeat older than the status they have.
+    sendToServers(statusBytes, serverNames);
+    sendLegacyStatus(legacyServerNames);
+  }
+
+  private void sendHeartbeat()
+  {
+    List<String> serverNames = api.getServerNames(Capabilities.SERVER_STATUS_PUSH, true);
+    List<String> legacyServerNames = api.getServerNames(Capabilities.SERVER_STATUS_PUSH, false);
+    ByteArrayDataOutput out = ByteStreams.newDataOutput(17);
+
+    out.writeByte(KeepAliveTypes.HEARTBEAT);
+    out.writeLong(epoch);
+
+    synchronized (lock)
+    {
+      out.writeLong(version);
+    }
+
+    sendToServers(out.toByteArray(), serverNames);
+
+    // Older servers cannot detect a missed update, so they get the full list each time
+    sendLegacyStatus(legacyServerNames);
+  }
+
+  private void sendLegacyStatus(List<String> legacyServerNames)
+  {
+    if (legacyServerNames.isEmpty())
+    {
+      return;
+    }
+
+    ByteArrayDataOutput out = ByteStreams.newDataOutput(256);
+    writeServerInfos(out);
+
+    sendToServers(out.toByteArray(), legacyServerNames);
+  }
+
+  private void sendToServers(byte[] messageBytes, List<String> serverNames)
+  {
+    // An empty list would send the message to every server
+    if (!serverNames.isEmpty())
+    {
+      api.sendToServers(Channels.KEEP_ALIVE, messageBytes, serverNames);
+    }
+  }
+
+  private byte[] getStatusBytes()
   {
-    List<SpigotServerInfo> serverInfos = bungeeTieIn.getServerInfos();
     ByteArrayDataOutput out = ByteStreams.newDataOutput(256);
 
+    out.writeByte(KeepAliveTypes.STATUS);
+    out.writeLong(epoch);
+    out.writeLong(version);
+    writeServerInfos(out);
+
+    return out.toByteArray();
+  }
+
+  private void writeServerInfos(ByteArrayDataOutput out)
+  {
+    List<SpigotServerInfo> serverInfos = bungeeTieIn.getServerInfos();
+
     out.writeInt(serverInfos.size());
 
     for (SpigotServerInfo serverInfo : serverInfos)
@@ -81,7 +176,25 @@ public class BungeeKeepAliveSender implements Registerable
       out.writeBoolean(serverInfo.isOnline());
       out.writeBoolean(serverInfo.isPrivate());
     }
+  }
+
+  private void onKeepAliveChannelMessage(ReceivedMessage receivedMessage)
+  {
+    ByteArrayDataInput in = receivedMessage.getDataInput();
+
+    // Servers also send single byte keep alive messages on this channel
+    if (in.readByte() != KeepAliveTypes.RESYNC_REQUEST)
+    {
+      return;
+    }
+
+    byte[] statusBytes;
+
+    synchronized (lock)
+    {
+      statusBytes = getStatusBytes();
+    }
 
-    api.sendToServers(Channels.KEEP_ALIVE, out.toByteArray());
+    receivedMessage.respond(statusBytes);
   }
 }
@@ -43,4 +43,15 @@ public interface BungeeTieIn
   void sendChatMessagesToPlayer(String playerName, List<String> messages);
 
   void sendChatMessagesToConsole(List<String> messages);
+
+  /**
+   * Called when a Spigot server registers or its connection closes. Does nothing
+   * unless it is overridden.
+   *
+   * @param serverName Name of the server
+   * @param online True if the server registered or false if it disconnected
+   */
+  default void onServerStatusChange(String serverName, boolean online)
+  {
+  }
 }
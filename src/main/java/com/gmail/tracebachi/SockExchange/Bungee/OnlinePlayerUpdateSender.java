@@ -17,69 +17,68 @@
  */
 package com.gmail.tracebachi.SockExchange.Bungee;
 
-import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
 import com.google.common.base.Preconditions;
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
-public class OnlinePlayerUpdateSender implements Registerable
+public class OnlinePlayerUpdateSender implements Registerable, Listener
 {
   private final SockExchangePlugin plugin;
-  private final SockExchangeApi api;
-  private final long updatePeriodMillis;
-  private ScheduledFuture<?> updateFuture;
+  private final PlayerUpdateStream playerUpdateStream;
 
   public OnlinePlayerUpdateSender(
-    SockExchangePlugin plugin, SockExchangeApi api, long updatePeriodMillis)
+    SockExchangePlugin plugin, SockExchangeApi api, long snapshotPeriodMillis)
   {
     Preconditions.checkNotNull(plugin, "plugin");
     Preconditions.checkNotNull(api, "api");
-    Preconditions.checkArgument(updatePeriodMillis > 0, "updatePeriodMillis");
+    Preconditions.checkArgument(snapshotPeriodMillis > 0, "snapshotPeriodMillis");
+
+    Collection<ProxiedPlayer> players = plugin.getProxy().getPlayers();
+    List<String> playerNames = new ArrayList<>(players.size());
+
+    for (ProxiedPlayer proxiedPlayer : players)
+    {
+      playerNames.add(proxiedPlayer.getName());
+    }
 
     this.plugin = plugin;
-    this.api = api;
-    this.updatePeriodMillis = updatePeriodMillis;
+    this.playerUpdateStream = new PlayerUpdateStream(api, playerNames, snapshotPeriodMillis);
   }
 
   @Override
   public void register()
   {
-    updateFuture = api.getScheduledExecutorService().scheduleAtFixedRate(
-      this::sendPlayerUpdate, updatePeriodMillis, updatePeriodMillis,
-      TimeUnit.MILLISECONDS);
+    playerUpdateStream.register();
+    plugin.getProxy().getPluginManager().registerListener(plugin, this);
   }
 
   @Override
   public void unregister()
   {
-    if (updateFuture != null)
-    {
-      updateFuture.cancel(false);
-      updateFuture = null;
-    }
+    plugin.getProxy().getPluginManager().unregisterListener(this);
+    playerUpdateStream.unregister();
   }
 
-  private void sendPlayerUpdate()
+  @EventHandler
+  public void onPostLogin(PostLoginEvent event)
   {
-    ByteArrayDataOutput out = ByteStreams.newDataOutput(1024);
-    Collection<ProxiedPlayer> players = plugin.getProxy().getPlayers();
-
-    out.writeInt(players.size());
-
-    for (ProxiedPlayer proxiedPlayer : players)
-    {
-      out.writeUTF(proxiedPlayer.getName());
-    }
+    playerUpdateStream.onJoin(event.getPlayer().getName());
+  }
 
-    api.sendToServers(Channels.PLAYER_UPDATE, out.toByteArray());
+  @EventHandler
+  public void onPlayerDisconnect(PlayerDisconnectEvent event)
+  {
+    playerUpdateStream.onLeave(event.getPlayer().getName());
   }
 }
@@ -0,0 +1,271 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Bungee;
+
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.PlayerUpdateTypes;
+import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Sends a sequenced stream of player joins and leaves to all servers. Full snapshots are
+ * only sent on request (when a server detects a gap) and on a long period as a fallback.
+ * <p>
+ * The epoch is random for every stream so servers can tell when the proxy restarted.
+ * Servers of a version without the stream are sent the full list of players on a short
+ * period as before.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PlayerUpdateStream implements Registerable
+{
+  private static final long LEGACY_UPDATE_PERIOD_MILLIS = 5000;
+
+  private final SockExchangeApi api;
+  private final long snapshotPeriodMillis;
+  private final Consumer<ReceivedMessage> onChannelMessage;
+  private final Object lock = new Object();
+  private final Map<String, Integer> connectionCounts = new HashMap<>();
+  private final long epoch = ThreadLocalRandom.current().nextLong();
+  private long sequence = 0;
+  private ScheduledFuture<?> snapshotFuture;
+  private ScheduledFuture<?> legacyUpdateFuture;
+
+  public PlayerUpdateStream(
+    SockExchangeApi api, Collection<String> onlinePlayerNames, long snapshotPeriodMillis)
+  {
+    Preconditions.checkNotNull(api, "api");
+    Preconditions.checkNotNull(onlinePlayerNames, "onlinePlayerNames");
+    Preconditions.checkArgument(snapshotPeriodMillis > 0, "snapshotPeriodMillis");
+
+    this.api = api;
+    this.snapshotPeriodMillis = snapshotPeriodMillis;
+    this.onChannelMessage = this::onPlayerUpdateChannelMessage;
+
+    for (String playerName : onlinePlayerNames)
+    {
+      connectionCounts.merge(playerName, 1, Integer::sum);
+    }
+  }
+
+  @Override
+  public void register()
+  {
+    api.getMessageNotifier().register(Channels.PLAYER_UPDATE, onChannelMessage);
+
+    snapshotFuture = api.getScheduledExecutorService().scheduleAtFixedRate(
+      this::sendSnapshot, snapshotPeriodMillis, snapshotPeriodMillis, TimeUnit.MILLISECONDS);
+    legacyUpdateFuture = api.getScheduledExecutorService().scheduleAtFixedRate(
+      this::sendLegacyUpdate, LEGACY_UPDATE_PERIOD_MILLIS, LEGACY_UPDATE_PERIOD_MILLIS,
+      TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void unregister()
+  {
+    if (snapshotFuture != null)
+    {
+      snapshotFuture.cancel(false);
+      snapshotFuture = null;
+    }
+
+    if (legacyUpdateFuture != null)
+    {
+      legacyUpdateFuture.cancel(false);
+      legacyUpdateFuture = null;
+    }
+
+    api.getMessageNotifier().unregister(Channels.PLAYER_UPDATE, onChannelMessage);
+  }
+
+  /**
+   * Records a player that finished logging in
+   *
+   * @param playerName Name of the player
+   */
+  public void onJoin(String playerName)
+  {
+    Preconditions.checkNotNull(playerName, "playerName");
+
+    byte[] deltaBytes;
+
+    synchronized (lock)
+    {
+      // A player can briefly have two connections while a duplicate login is kicked
+      if (connectionCounts.merge(playerName, 1, Integer::sum) != 1)
+      {
+        return;
+      }
+
+      deltaBytes = getDeltaBytes(PlayerUpdateTypes.JOIN, playerName);
+    }
+
+    sendDelta(deltaBytes);
+  }
+
+  /**
+   * Records a player that disconnected after logging in
+   *
+   * @param playerName Name of the player
+   */
+  public void onLeave(String playerName)
+  {
+    Preconditions.checkNotNull(playerName, "playerName");
+
+    byte[] deltaBytes;
+
+    synchronized (lock)
+    {
+      Integer count = connectionCounts.get(playerName);
+
+      if (count == null)
+      {
+        return;
+      }
+
+      if (count > 1)
+      {
+        connectionCounts.put(playerName, count - 1);
+        return;
+      }
+
+      connectionCounts.remove(playerName);
+      deltaBytes = getDeltaBytes(PlayerUpdateTypes.LEAVE, playerName);
+    }
+
+    sendDelta(deltaBytes);
+  }
+
+  private byte[] getDeltaBytes(byte type, String playerName)
+  {
+    // Sequence numbers are assigned under the lock so they match the order of changes
+    sequence++;
+
+    ByteArrayDataOutput out = ByteStreams.newDataOutput(64);
+    out.writeByte(type);
+    out.writeLong(epoch);
+    out.writeLong(sequence);
+    out.writeUTF(playerName);
+
+    return out.toByteArray();
+  }
+
+  private void sendDelta(byte[] deltaBytes)
+  {
+    // Sent outside the lock so a slow server cannot stall logins. Servers hold deltas
+    // that arrive out of order until the ones before them arrive.
+    sendToServers(deltaBytes, api.getServerNames(Capabilities.PLAYER_UPDATE_STREAM, true));
+  }
+
+  private void sendSnapshot()
+  {
+    List<String> serverNames = api.getServerNames(Capabilities.PLAYER_UPDATE_STREAM, true);
+    byte[] snapshotBytes;
+
+    synchronized (lock)
+    {
+      snapshotBytes = getSnapshotBytes();
+    }
+
+    sendToServers(snapshotBytes, serverNames);
+  }
+
+  private void sendLegacyUpdate()
+  {
+    List<String> legacyServerNames = api.getServerNames(Capabilities.PLAYER_UPDATE_STREAM,
+      false);
+
+    if (legacyServerNames.isEmpty())
+    {
+      return;
+    }
+
+    ByteArrayDataOutput out;
+
+    synchronized (lock)
+    {
+      out = ByteStreams.newDataOutput(connectionCounts.size() * 18 + 4);
+      writePlayerNames(out);
+    }
+
+    sendToServers(out.toByteArray(), legacyServerNames);
+  }
+
+  private void sendToServers(byte[] messageBytes, List<String> serverNames)
+  {
+    // An empty list would send the message to every server
+    if (!serverNames.isEmpty())
+    {
+      api.sendToServers(Channels.PLAYER_UPDATE, messageBytes, serverNames);
+    }
+  }
+
+  private byte[] getSnapshotBytes()
+  {
+    ByteArrayDataOutput out = ByteStreams.newDataOutput(connectionCounts.size() * 18 + 32);
+    out.writeByte(PlayerUpdateTypes.SNAPSHOT);
+    out.writeLong(epoch);
+    out.writeLong(sequence);
+    writePlayerNames(out);
+
+    return out.toByteArray();
+  }
+
+  private void writePlayerNames(ByteArrayDataOutput out)
+  {
+    out.writeInt(connectionCounts.size());
+
+    for (String playerName : connectionCounts.keySet())
+    {
+      out.writeUTF(playerName);
+    }
+  }
+
+  private void onPlayerUpdateChannelMessage(ReceivedMessage receivedMessage)
+  {
+    ByteArrayDataInput in = receivedMessage.getDataInput();
+
+    if (in.readByte() != PlayerUpdateTypes.RESYNC_REQUEST)
+    {
+      return;
+    }
+
+    byte[] snapshotBytes;
+
+    synchronized (lock)
+    {
+      snapshotBytes = getSnapshotBytes();
+    }
+
+    receivedMessage.respond(snapshotBytes);
+  }
+}
@@ -17,19 +17,31 @@
  */
 package com.gmail.tracebachi.SockExchange.Bungee;
 
+import com.gmail.tracebachi.SockExchange.InlineConsumer;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.BungeeToSpigotConnection;
+import com.gmail.tracebachi.SockExchange.Netty.PacketBroadcaster;
+import com.gmail.tracebachi.SockExchange.Netty.TrafficStatistics;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
+import com.gmail.tracebachi.SockExchange.Streams.StreamHandler;
+import com.gmail.tracebachi.SockExchange.Streams.StreamReceiver;
+import com.gmail.tracebachi.SockExchange.Streams.StreamSender;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
@@ -56,19 +68,31 @@ public class SockExchangeApi
 
   private final BungeeTieIn bungeeTieIn;
   private final ScheduledExecutorService scheduledExecutorService;
+  private final WorkerPool workerPool;
   private final ReceivedMessageNotifier messageNotifier;
+  private final PacketBroadcaster packetBroadcaster;
+  private final StreamReceiver streamReceiver;
+  private final StreamSender streamSender;
 
   public SockExchangeApi(
     BungeeTieIn bungeeTieIn, ScheduledExecutorService scheduledExecutorService,
-    ReceivedMessageNotifier messageNotifier)
+    WorkerPool workerPool, ReceivedMessageNotifier messageNotifier,
+    PacketBroadcaster packetBroadcaster, StreamReceiver streamReceiver)
   {
     Preconditions.checkNotNull(bungeeTieIn, "bungeeTieIn");
     Preconditions.checkNotNull(scheduledExecutorService, "scheduledExecutorService");
+    Preconditions.checkNotNull(workerPool, "workerPool");
     Preconditions.checkNotNull(messageNotifier, "messageNotifier");
+    Preconditions.checkNotNull(packetBroadcaster, "packetBroadcaster");
+    Preconditions.checkNotNull(streamReceiver, "streamReceiver");
 
     this.bungeeTieIn = bungeeTieIn;
     this.scheduledExecutorService = scheduledExecutorService;
+    this.workerPool = workerPool;
     this.messageNotifier = messageNotifier;
+    this.packetBroadcaster = packetBroadcaster;
+    this.streamReceiver = streamReceiver;
+    this.streamSender = new StreamSender(workerPool.getExecutorService());
   }
 
   /**
@@ -99,6 +123,16 @@ public class SockExchangeApi
     return scheduledExecutorService;
   }
 
+  /**
+   * @return {@link WorkerPool} that runs message consumers and immediate
+   * tasks of the {@link ScheduledExecutorService}, for monitoring its
+   * queue depth and active thread count
+   */
+  public WorkerPool getWorkerPool()
+  {
+    return workerPool;
+  }
+
   /**
    * @return {@link ReceivedMessageNotifier} used for registering and
    * un-registering listeners
@@ -108,6 +142,23 @@ public class SockExchangeApi
     return messageNotifier;
   }
 
+  /**
+   * @return {@link StreamReceiver} used for registering the {@link StreamHandler}
+   * of a channel that streams are sent to
+   */
+  public StreamReceiver getStreamReceiver()
+  {
+    return streamReceiver;
+  }
+
+  /**
+   * @return {@link TrafficStatistics} for traffic sent by SockExchange
+   */
+  public TrafficStatistics getTrafficStatistics()
+  {
+    return packetBroadcaster.getTrafficStatistics();
+  }
+
   /**
    * Sends bytes to one server (if online)
    * <p>
@@ -145,6 +196,62 @@ public class SockExchangeApi
     connection.sendToServer(channelName, messageBytes, consumer, timeoutInMillis);
   }
 
+  /**
+   * Sends bytes to one server (if online) and returns a future for the response
+   * <p>
+   * The future is completed with the response (or a failure response) on a SockExchange
+   * thread, which may be a network thread. Use the async methods of the future with
+   * another executor for work that is not trivial.
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param serverName Name of the server to send to
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   *
+   * @return Future that is completed once there is a response (or a failure)
+   */
+  public CompletableFuture<ResponseMessage> sendToServer(
+    String channelName, byte[] messageBytes, String serverName, long timeoutInMillis)
+  {
+    CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+    InlineConsumer<ResponseMessage> consumer = future::complete;
+
+    sendToServer(channelName, messageBytes, serverName, consumer, timeoutInMillis);
+    return future;
+  }
+
+  /**
+   * Streams bytes to one server (if online) in chunks
+   * <p>
+   * Use this for payloads that can be larger than one message, like world or schematic
+   * snapshots. The input is read on a worker thread and sent in chunks that other
+   * messages are interleaved with. Only a few chunks are sent before the receiver has
+   * handled them. The input stream is closed once the transfer ends. A
+   * {@link java.nio.channels.ReadableByteChannel} can be sent by wrapping it with
+   * {@link java.nio.channels.Channels#newInputStream}.
+   *
+   * @param channelName Name of channel that the receiver registered a {@link StreamHandler} for
+   * @param headerBytes Bytes passed to the receiver when the stream is opened (like a file name)
+   * @param inputStream Stream of the bytes to send
+   * @param serverName Name of the server to send to
+   * @param timeoutInMillis Milliseconds to wait for each chunk to be handled
+   *
+   * @return Future that is completed with {@link ResponseStatus#OK} once the receiver has
+   * handled every chunk, a failure status otherwise, or exceptionally if the input stream
+   * could not be read
+   */
+  public CompletableFuture<ResponseStatus> sendStreamToServer(
+    String channelName, byte[] headerBytes, InputStream inputStream, String serverName,
+    long timeoutInMillis)
+  {
+    return streamSender.send(channelName, headerBytes, inputStream,
+      (bytes, consumer) -> sendToServer(Channels.STREAM, bytes, serverName, consumer,
+        timeoutInMillis));
+  }
+
   /**
    * Sends bytes to all online servers
    * <p>
@@ -177,13 +284,12 @@ public class SockExchangeApi
 
     if (serverNames == null || serverNames.isEmpty())
     {
-      for (BungeeToSpigotConnection connection : bungeeTieIn.getConnections())
-      {
-        connection.sendToServer(channelName, messageBytes, null, 0);
-      }
+      packetBroadcaster.broadcast(channelName, messageBytes, bungeeTieIn.getConnections(), null);
     }
     else
     {
+      List<BungeeToSpigotConnection> connections = new ArrayList<>(serverNames.size());
+
       for (String serverName : serverNames)
       {
         if (serverName == null || serverName.isEmpty())
@@ -198,8 +304,10 @@ public class SockExchangeApi
           continue;
         }
 
-        connection.sendToServer(channelName, messageBytes, null, 0);
+        connections.add(connection);
       }
+
+      packetBroadcaster.broadcast(channelName, messageBytes, connections, null);
     }
   }
 
@@ -261,6 +369,31 @@ public class SockExchangeApi
     sendToServer(Channels.CHAT_MESSAGES, messageBytes, serverName);
   }
 
+  /**
+   * Used by the built-in channels that send an older message format to servers that
+   * did not accept a newer one
+   *
+   * @param capability One of the flags in {@link Capabilities}
+   * @param accepted True for servers that accepted the capability or false for the
+   * others
+   *
+   * @return Names of online servers that did or did not accept the capability
+   */
+  List<String> getServerNames(int capability, boolean accepted)
+  {
+    List<String> serverNames = new ArrayList<>();
+
+    for (BungeeToSpigotConnection connection : bungeeTieIn.getConnections())
+    {
+      if (connection.hasChannel() && connection.hasCapability(capability) == accepted)
+      {
+        serverNames.add(connection.getServerName());
+      }
+    }
+
+    return serverNames;
+  }
+
   private byte[] getBytesForSendingCommands(List<String> commands)
   {
     int commandsCount = commands.size();
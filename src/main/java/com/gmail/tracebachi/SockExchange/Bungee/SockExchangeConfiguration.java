@@ -17,6 +17,9 @@
  */
 package com.gmail.tracebachi.SockExchange.Bungee;
 
+import com.gmail.tracebachi.SockExchange.Netty.OverflowPolicy;
+import com.gmail.tracebachi.SockExchange.Netty.TransportOptions;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
 import com.gmail.tracebachi.SockExchange.Utilities.CaseInsensitiveSet;
 import com.gmail.tracebachi.SockExchange.Utilities.MessageFormatMap;
 import net.md_5.bungee.api.ChatColor;
@@ -33,6 +36,16 @@ class SockExchangeConfiguration
   private int port;
   private int connectionThreads;
   private String registrationPassword;
+  private boolean flushConsolidationEnabled;
+  private int flushConsolidationMaxPackets;
+  private long timeoutTickMillis;
+  private WorkerPool.Type workerPoolType;
+  private int workerPoolThreads;
+  private TransportOptions transportOptions;
+  private int writeBufferLowWaterMark;
+  private int writeBufferHighWaterMark;
+  private OverflowPolicy overflowPolicy;
+  private long overflowMaxBlockMillis;
   private MessageFormatMap messageFormatMap;
   private boolean debugMode;
   private CaseInsensitiveSet privateServers = new CaseInsensitiveSet(new HashSet<>());
@@ -42,6 +55,43 @@ class SockExchangeConfiguration
     port = configuration.getInt("SockExchangeServer.Port", 20000);
     connectionThreads = configuration.getInt("SockExchangeServer.Threads", 2);
     registrationPassword = configuration.getString("SockExchangeServer.Password", "FreshSocks");
+    flushConsolidationEnabled = configuration.getBoolean(
+      "SockExchangeServer.FlushConsolidation.Enabled", false);
+    flushConsolidationMaxPackets = configuration.getInt(
+      "SockExchangeServer.FlushConsolidation.MaxPackets", 64);
+    timeoutTickMillis = configuration.getLong("SockExchangeServer.TimeoutTickMillis", 10);
+    workerPoolType = WorkerPool.Type.fromName(configuration.getString(
+      "SockExchangeServer.WorkerPool.Type", "WORK_STEALING"), WorkerPool.Type.WORK_STEALING);
+    workerPoolThreads = configuration.getInt("SockExchangeServer.WorkerPool.Threads", 0);
+
+    transportOptions = new TransportOptions();
+    transportOptions.setNativeTransportPreferred(configuration.getBoolean(
+      "SockExchangeServer.Transport.Native", true));
+    transportOptions.setTcpNoDelay(configuration.getBoolean(
+      "SockExchangeServer.Transport.TcpNoDelay", true));
+    transportOptions.setKeepAlive(configuration.getBoolean(
+      "SockExchangeServer.Transport.KeepAlive", true));
+    transportOptions.setReceiveBufferSize(configuration.getInt(
+      "SockExchangeServer.Transport.ReceiveBufferSize", 0));
+    transportOptions.setSendBufferSize(configuration.getInt(
+      "SockExchangeServer.Transport.SendBufferSize", 0));
+    transportOptions.setBacklog(configuration.getInt(
+      "SockExchangeServer.Transport.Backlog", 128));
+    transportOptions.setDomainSocketPath(configuration.getString(
+      "SockExchangeServer.Transport.DomainSocketPath", ""));
+    transportOptions.setCompressionThreshold(configuration.getInt(
+      "SockExchangeServer.Compression.Threshold", 0));
+    transportOptions.setCompressionLevel(configuration.getInt(
+      "SockExchangeServer.Compression.Level", 6));
+
+    writeBufferLowWaterMark = configuration.getInt(
+      "SockExchangeServer.Backpressure.LowWaterMark", 1024 * 1024);
+    writeBufferHighWaterMark = configuration.getInt(
+      "SockExchangeServer.Backpressure.HighWaterMark", 8 * 1024 * 1024);
+    overflowPolicy = OverflowPolicy.fromName(configuration.getString(
+      "SockExchangeServer.Backpressure.Policy", "QUEUE"), OverflowPolicy.QUEUE);
+    overflowMaxBlockMillis = configuration.getLong(
+      "SockExchangeServer.Backpressure.MaxBlockMillis", 50);
     debugMode = configuration.getBoolean("DebugMode", false);
     messageFormatMap = new MessageFormatMap();
 
@@ -74,6 +124,56 @@ class SockExchangeConfiguration
     return Objects.equals(registrationPassword, input);
   }
 
+  boolean isFlushConsolidationEnabled()
+  {
+    return flushConsolidationEnabled;
+  }
+
+  int getFlushConsolidationMaxPackets()
+  {
+    return flushConsolidationMaxPackets;
+  }
+
+  long getTimeoutTickMillis()
+  {
+    return timeoutTickMillis;
+  }
+
+  WorkerPool.Type getWorkerPoolType()
+  {
+    return workerPoolType;
+  }
+
+  int getWorkerPoolThreads()
+  {
+    return workerPoolThreads;
+  }
+
+  TransportOptions getTransportOptions()
+  {
+    return transportOptions;
+  }
+
+  int getWriteBufferLowWaterMark()
+  {
+    return writeBufferLowWaterMark;
+  }
+
+  int getWriteBufferHighWaterMark()
+  {
+    return writeBufferHighWaterMark;
+  }
+
+  OverflowPolicy getOverflowPolicy()
+  {
+    return overflowPolicy;
+  }
+
+  long getOverflowMaxBlockMillis()
+  {
+    return overflowMaxBlockMillis;
+  }
+
   MessageFormatMap getMessageFormatMap()
   {
     return messageFormatMap;
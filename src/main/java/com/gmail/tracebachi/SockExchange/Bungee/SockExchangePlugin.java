@@ -22,10 +22,14 @@ import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.BungeeToSpigotConnection;
+import com.gmail.tracebachi.SockExchange.Netty.PacketBroadcaster;
 import com.gmail.tracebachi.SockExchange.Netty.SockExchangeServer;
+import com.gmail.tracebachi.SockExchange.Netty.TrafficStatistics;
 import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
 import com.gmail.tracebachi.SockExchange.Scheduler.ScheduledExecutorServiceWrapper;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
+import com.gmail.tracebachi.SockExchange.Streams.StreamReceiver;
 import com.gmail.tracebachi.SockExchange.Utilities.*;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -54,12 +58,15 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
 
   private BasicLogger basicLogger;
   private ScheduledThreadPoolExecutor threadPoolExecutor;
+  private WorkerPool workerPool;
   private AwaitableExecutor awaitableExecutor;
   private ReceivedMessageNotifier messageNotifier;
   private LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap;
   private ScheduledFuture<?> consumerTimeoutCleanupFuture;
+  private PacketBroadcaster packetBroadcaster;
   private CaseInsensitiveMap<BungeeToSpigotConnection> spigotConnectionMap;
   private SockExchangeServer sockExchangeServer;
+  private StreamReceiver streamReceiver;
 
   private OnlinePlayerUpdateSender onlinePlayerUpdateSender;
   private BungeeKeepAliveSender bungeeKeepAliveSender;
@@ -84,10 +91,18 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
     // Create the logger based on Java.Util.Logging
     basicLogger = new JulBasicLogger(getLogger(), debugMode);
 
-    // Create the shared thread pool executor
+    // Create the scheduler for timers and the worker pool for everything else
     buildThreadPoolExecutor();
+    workerPool = new WorkerPool(
+      configuration.getWorkerPoolType(), configuration.getWorkerPoolThreads());
+    if (workerPool.getType() != configuration.getWorkerPoolType())
+    {
+      getLogger().warning("WorkerPool type " + configuration.getWorkerPoolType() +
+        " is not available. Using " + workerPool.getType() + " instead.");
+    }
+
     ScheduledExecutorServiceWrapper wrappedThreadPool =
-      new ScheduledExecutorServiceWrapper(threadPoolExecutor);
+      new ScheduledExecutorServiceWrapper(threadPoolExecutor, workerPool.getExecutorService());
 
     // Create the AwaitableExecutor
     awaitableExecutor = new AwaitableExecutor(wrappedThreadPool);
@@ -96,27 +111,48 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
     messageNotifier = new ReceivedMessageNotifier(awaitableExecutor);
 
     // Create the map that manages consumers for responses to sent message
-    responseConsumerMap = new LongIdCounterMap<>();
+    long timeoutTickMillis = configuration.getTimeoutTickMillis();
+    responseConsumerMap = new LongIdCounterMap<>(timeoutTickMillis);
 
-    // Schedule a task to clean up the responseConsumerMap (handling timeouts)
-    consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleWithFixedDelay(
-      this::checkForConsumerTimeouts, 5, 5, TimeUnit.SECONDS);
+    // Schedule a task to expire consumers in the responseConsumerMap every tick
+    consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleAtFixedRate(
+      this::checkForConsumerTimeouts, timeoutTickMillis, timeoutTickMillis,
+      TimeUnit.MILLISECONDS);
+
+    // Create the broadcaster which encodes messages for many servers once
+    packetBroadcaster = new PacketBroadcaster(new TrafficStatistics());
 
     // Create the map of known spigot servers that can connect to Bungee
     spigotConnectionMap = new CaseInsensitiveMap<>(new ConcurrentHashMap<>());
     for (String serverName : getProxy().getServers().keySet())
     {
       BungeeToSpigotConnection connection = new BungeeToSpigotConnection(
-        serverName, awaitableExecutor, messageNotifier, responseConsumerMap, basicLogger, this);
+        serverName, awaitableExecutor, messageNotifier, responseConsumerMap, basicLogger, this,
+        packetBroadcaster);
+
+      if (configuration.isFlushConsolidationEnabled())
+      {
+        connection.setFlushConsolidation(configuration.getFlushConsolidationMaxPackets());
+      }
+
+      connection.setBackpressure(configuration.getWriteBufferLowWaterMark(),
+        configuration.getWriteBufferHighWaterMark(), configuration.getOverflowPolicy(),
+        configuration.getOverflowMaxBlockMillis());
 
       spigotConnectionMap.put(serverName, connection);
     }
 
+    // Create the receiver that reassembles streams sent to this server
+    streamReceiver = new StreamReceiver(messageNotifier, wrappedThreadPool, basicLogger);
+
     // Create the API
-    SockExchangeApi api = new SockExchangeApi(this, wrappedThreadPool, messageNotifier);
+    SockExchangeApi api = new SockExchangeApi(this, wrappedThreadPool, workerPool,
+      messageNotifier, packetBroadcaster, streamReceiver);
     SockExchangeApi.setInstance(api);
 
-    onlinePlayerUpdateSender = new OnlinePlayerUpdateSender(this, api, 5000);
+    streamReceiver.register();
+
+    onlinePlayerUpdateSender = new OnlinePlayerUpdateSender(this, api, 60000);
     onlinePlayerUpdateSender.register();
 
     bungeeKeepAliveSender = new BungeeKeepAliveSender(this, api, 2000);
@@ -136,8 +172,18 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
 
     try
     {
-      sockExchangeServer = new SockExchangeServer(port, connectionThreads, this);
+      sockExchangeServer = new SockExchangeServer(port, connectionThreads, this,
+        configuration.getTransportOptions(), packetBroadcaster.getTrafficStatistics());
       sockExchangeServer.start();
+
+      getLogger().info("SockExchange server started using the " +
+        (sockExchangeServer.isEpoll() ? "epoll" : "NIO") + " transport");
+
+      if (sockExchangeServer.getDomainSocketPath() != null)
+      {
+        getLogger().info("SockExchange server also listening on " +
+          sockExchangeServer.getDomainSocketPath());
+      }
     }
     catch (Exception e)
     {
@@ -201,6 +247,12 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
       onlinePlayerUpdateSender = null;
     }
 
+    if (streamReceiver != null)
+    {
+      streamReceiver.unregister();
+      streamReceiver = null;
+    }
+
     SockExchangeApi.setInstance(null);
 
     if (spigotConnectionMap != null)
@@ -223,10 +275,17 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
 
     if (threadPoolExecutor != null)
     {
-      shutdownThreadPoolExecutor();
+      shutdownExecutor(threadPoolExecutor, "ScheduledThreadPoolExecutor");
       threadPoolExecutor = null;
     }
 
+    if (workerPool != null)
+    {
+      shutdownExecutor(workerPool.getExecutorService(), "WorkerPool");
+      workerPool = null;
+    }
+
+    packetBroadcaster = null;
     messageNotifier = null;
     basicLogger = null;
   }
@@ -335,6 +394,17 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
     }
   }
 
+  @Override
+  public void onServerStatusChange(String serverName, boolean online)
+  {
+    BungeeKeepAliveSender keepAliveSender = bungeeKeepAliveSender;
+
+    if (keepAliveSender != null)
+    {
+      keepAliveSender.onServerStatusChange();
+    }
+  }
+
   private boolean reloadConfiguration()
   {
     ConfigurationProvider yamlProvider = ConfigurationProvider.getProvider(YamlConfiguration.class);
@@ -359,26 +429,10 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
 
   private void checkForConsumerTimeouts()
   {
-    long currentTimeMillis = System.currentTimeMillis();
-
-    responseConsumerMap.removeIf((entry) ->
+    responseConsumerMap.expire(System.currentTimeMillis(), (responseConsumer) ->
     {
-      ExpirableConsumer<ResponseMessage> responseConsumer = entry.getValue();
-
-      if (responseConsumer.getExpiresAtMillis() > currentTimeMillis)
-      {
-        // Keep the entry
-        return false;
-      }
-
-      awaitableExecutor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
-        responseConsumer.accept(responseMessage);
-      });
-
-      // Remove the entry
-      return true;
+      ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
+      responseConsumer.acceptOn(awaitableExecutor, responseMessage);
     });
   }
 
@@ -387,7 +441,7 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
     try
     {
       awaitableExecutor.setAcceptingTasks(false);
-      awaitableExecutor.awaitTasksWithSleep(10, 1000);
+      awaitableExecutor.awaitQuiescence(10, TimeUnit.SECONDS);
       awaitableExecutor.shutdown();
     }
     catch (InterruptedException ex)
@@ -404,45 +458,44 @@ public class SockExchangePlugin extends Plugin implements BungeeTieIn
     ThreadFactory threadFactory = factoryBuilder.build();
     threadPoolExecutor = new ScheduledThreadPoolExecutor(2, threadFactory);
 
-    threadPoolExecutor.setMaximumPoolSize(8);
     threadPoolExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
     threadPoolExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
   }
 
-  private void shutdownThreadPoolExecutor()
+  private void shutdownExecutor(ExecutorService executor, String executorName)
   {
-    if (!threadPoolExecutor.isShutdown())
+    if (!executor.isShutdown())
     {
       // Disable new tasks from being submitted to service
-      threadPoolExecutor.shutdown();
+      executor.shutdown();
 
-      getLogger().info("ScheduledThreadPoolExecutor being shutdown()");
+      getLogger().info(executorName + " being shutdown()");
 
       try
       {
         // Await termination for a minute
-        if (!threadPoolExecutor.awaitTermination(60, TimeUnit.SECONDS))
+        if (!executor.awaitTermination(60, TimeUnit.SECONDS))
         {
           // Force shutdown
-          threadPoolExecutor.shutdownNow();
+          executor.shutdownNow();
 
-          getLogger().severe("ScheduledThreadPoolExecutor being shutdownNow()");
+          getLogger().severe(executorName + " being shutdownNow()");
 
           // Await termination again for another minute
-          if (!threadPoolExecutor.awaitTermination(60, TimeUnit.SECONDS))
+          if (!executor.awaitTermination(60, TimeUnit.SECONDS))
           {
-            getLogger().severe("ScheduledThreadPoolExecutor not shutdown after shutdownNow()");
+            getLogger().severe(executorName + " not shutdown after shutdownNow()");
           }
         }
       }
       catch (InterruptedException ex)
       {
-        getLogger().severe("ScheduledThreadPoolExecutor shutdown interrupted");
+        getLogger().severe(executorName + " shutdown interrupted");
 
         // Re-cancel if current thread also interrupted
-        threadPoolExecutor.shutdownNow();
+        executor.shutdownNow();
 
-        getLogger().severe("ScheduledThreadPoolExecutor being shutdownNow()");
+        getLogger().severe(executorName + " being shutdownNow()");
 
         // Preserve interrupt status
         Thread.currentThread().interrupt();
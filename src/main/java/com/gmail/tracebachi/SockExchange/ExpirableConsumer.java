@@ -19,6 +19,7 @@ package com.gmail.tracebachi.SockExchange;
 
 import com.google.common.base.Preconditions;
 
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
@@ -37,11 +38,35 @@ public class ExpirableConsumer<T> implements Consumer<T>
     this.expiresAtMillis = expiresAtMillis;
   }
 
+  /**
+   * Creates a consumer that is its own inner consumer, which saves an allocation on hot
+   * paths. Subclasses must override {@link #accept(Object)}.
+   *
+   * @param expiresAtMillis Time at which the consumer expires
+   */
+  protected ExpirableConsumer(long expiresAtMillis)
+  {
+    this.innerConsumer = this;
+    this.expiresAtMillis = expiresAtMillis;
+  }
+
   public long getExpiresAtMillis()
   {
     return expiresAtMillis;
   }
 
+  /**
+   * Accepts the value on the executor, or on the current thread if the inner consumer
+   * is an {@link InlineConsumer}
+   *
+   * @param executor Executor to run the consumer on
+   * @param value Value to accept
+   */
+  public void acceptOn(Executor executor, T value)
+  {
+    InlineConsumer.accept(executor, innerConsumer, value);
+  }
+
   @Override
   public void accept(T responseMessage)
   {
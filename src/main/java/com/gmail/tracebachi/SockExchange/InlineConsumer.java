@@ -0,0 +1,56 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Consumer that is cheap and safe to run on whichever thread produced the value (like
+ * completing a future or writing a packet), so it does not need a hop to an executor
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@FunctionalInterface
+public interface InlineConsumer<T> extends Consumer<T>
+{
+  /**
+   * Runs the consumer on the current thread if it is an {@link InlineConsumer}, or on
+   * the executor otherwise
+   *
+   * @param executor Executor to run other consumers on
+   * @param consumer Consumer to run
+   * @param value Value to accept
+   */
+  static <T> void accept(Executor executor, Consumer<T> consumer, T value)
+  {
+    Preconditions.checkNotNull(executor, "executor");
+    Preconditions.checkNotNull(consumer, "consumer");
+
+    if (consumer instanceof InlineConsumer)
+    {
+      consumer.accept(value);
+    }
+    else
+    {
+      executor.execute(() -> consumer.accept(value));
+    }
+  }
+}
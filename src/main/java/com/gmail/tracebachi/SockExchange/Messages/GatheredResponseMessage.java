@@ -0,0 +1,153 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Responses of many servers to a single gathered request
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class GatheredResponseMessage
+{
+  private final ResponseStatus responseStatus;
+  private final Map<String, ResponseMessage> responses;
+
+  /**
+   * @param responseStatus Status of sending the gathered request
+   * @param responses Response of each server by server name
+   */
+  public GatheredResponseMessage(
+    ResponseStatus responseStatus, Map<String, ResponseMessage> responses)
+  {
+    Preconditions.checkNotNull(responseStatus, "responseStatus");
+    Preconditions.checkNotNull(responses, "responses");
+
+    this.responseStatus = responseStatus;
+    this.responses = Collections.unmodifiableMap(responses);
+  }
+
+  /**
+   * @return Status of sending the gathered request to Bungee. If it is not OK, there
+   * are no responses. It is {@link ResponseStatus#REJECTED} if Bungee does not support
+   * gathered requests.
+   */
+  public ResponseStatus getResponseStatus()
+  {
+    return responseStatus;
+  }
+
+  /**
+   * @return Unmodifiable map of the response of each server by server name. Servers
+   * that did not respond in time have a {@link ResponseStatus#TIMED_OUT} response.
+   */
+  public Map<String, ResponseMessage> getResponses()
+  {
+    return responses;
+  }
+
+  /**
+   * Reads the responses from the response to a gathered request
+   *
+   * @param responseMessage Response from Bungee
+   *
+   * @return GatheredResponseMessage
+   */
+  public static GatheredResponseMessage fromResponse(ResponseMessage responseMessage)
+  {
+    Preconditions.checkNotNull(responseMessage, "responseMessage");
+
+    ResponseStatus responseStatus = responseMessage.getResponseStatus();
+
+    if (!responseStatus.isOk())
+    {
+      return new GatheredResponseMessage(responseStatus, Collections.emptyMap());
+    }
+
+    ByteArrayDataInput in = responseMessage.getDataInput();
+    int count = in.readInt();
+    Map<String, ResponseMessage> responses = new LinkedHashMap<>(count * 2);
+
+    for (int i = 0; i < count; i++)
+    {
+      String serverName = in.readUTF();
+      ResponseStatus serverResponseStatus = ResponseStatus.fromOrdinal(in.readByte());
+      byte[] messageBytes = null;
+
+      if (serverResponseStatus.isOk())
+      {
+        messageBytes = new byte[in.readInt()];
+        in.readFully(messageBytes);
+      }
+
+      responses.put(serverName, new ResponseMessage(serverResponseStatus, messageBytes));
+    }
+
+    return new GatheredResponseMessage(responseStatus, responses);
+  }
+
+  /**
+   * Writes responses to the bytes of a response to a gathered request
+   *
+   * @param responses Response of each server by server name
+   *
+   * @return Bytes to respond with
+   */
+  public static byte[] toBytes(Map<String, ResponseMessage> responses)
+  {
+    Preconditions.checkNotNull(responses, "responses");
+
+    int approxSize = 4;
+    for (ResponseMessage response : responses.values())
+    {
+      byte[] messageBytes = response.getMessageBytes();
+      approxSize += 64 + (messageBytes != null ? messageBytes.length : 0);
+    }
+
+    ByteArrayDataOutput out = ByteStreams.newDataOutput(approxSize);
+    out.writeInt(responses.size());
+
+    for (Map.Entry<String, ResponseMessage> entry : responses.entrySet())
+    {
+      ResponseMessage response = entry.getValue();
+      ResponseStatus responseStatus = response.getResponseStatus();
+
+      out.writeUTF(entry.getKey());
+      out.writeByte(responseStatus.ordinal());
+
+      if (responseStatus.isOk())
+      {
+        byte[] messageBytes = response.getMessageBytes();
+        messageBytes = messageBytes != null ? messageBytes : new byte[0];
+
+        out.writeInt(messageBytes.length);
+        out.write(messageBytes);
+      }
+    }
+
+    return out.toByteArray();
+  }
+}
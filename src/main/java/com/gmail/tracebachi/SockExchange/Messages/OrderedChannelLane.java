@@ -0,0 +1,135 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
+import com.google.common.base.Preconditions;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs the consumers of one channel for one message at a time, in the order the messages
+ * were added. Messages are queued without locking and drained in batches by a single
+ * task on the executor, which is only submitted when the lane is not already scheduled.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+class OrderedChannelLane implements Runnable
+{
+  private static final int MAX_BATCH_SIZE = 64;
+
+  private final Executor executor;
+  private final Supplier<Set<Consumer<ReceivedMessage>>> consumerSetSupplier;
+  private final ConcurrentLinkedQueue<ReceivedMessage> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  OrderedChannelLane(
+    Executor executor, Supplier<Set<Consumer<ReceivedMessage>>> consumerSetSupplier)
+  {
+    Preconditions.checkNotNull(executor, "executor");
+    Preconditions.checkNotNull(consumerSetSupplier, "consumerSetSupplier");
+
+    this.executor = executor;
+    this.consumerSetSupplier = consumerSetSupplier;
+  }
+
+  void add(ReceivedMessage receivedMessage)
+  {
+    queue.offer(receivedMessage);
+    schedule();
+  }
+
+  @Override
+  public void run()
+  {
+    try
+    {
+      // Drain a limited batch so one busy channel does not hold a thread forever
+      for (int i = 0; i < MAX_BATCH_SIZE; i++)
+      {
+        ReceivedMessage receivedMessage = queue.poll();
+
+        if (receivedMessage == null)
+        {
+          break;
+        }
+
+        deliver(receivedMessage);
+      }
+    }
+    finally
+    {
+      scheduled.set(false);
+
+      // Messages added after the last poll could not schedule the lane, so check again
+      if (!queue.isEmpty())
+      {
+        schedule();
+      }
+    }
+  }
+
+  private void schedule()
+  {
+    if (!scheduled.compareAndSet(false, true))
+    {
+      return;
+    }
+
+    // An AwaitableExecutor drops tasks while it is not accepting them. The messages stay
+    // queued and the next message will try to schedule the lane again.
+    if (executor instanceof AwaitableExecutor)
+    {
+      if (!((AwaitableExecutor) executor).submit(this))
+      {
+        scheduled.set(false);
+      }
+    }
+    else
+    {
+      executor.execute(this);
+    }
+  }
+
+  private void deliver(ReceivedMessage receivedMessage)
+  {
+    Set<Consumer<ReceivedMessage>> consumerSet = consumerSetSupplier.get();
+
+    if (consumerSet == null)
+    {
+      return;
+    }
+
+    for (Consumer<ReceivedMessage> consumer : consumerSet)
+    {
+      try
+      {
+        consumer.accept(receivedMessage);
+      }
+      catch (Exception ex)
+      {
+        ex.printStackTrace();
+      }
+    }
+  }
+}
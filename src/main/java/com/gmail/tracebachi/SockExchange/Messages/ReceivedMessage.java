@@ -33,17 +33,33 @@ public class ReceivedMessage
   private static final byte[] SINGLE_BYTE_RESPONSE = { 0 };
 
   private final String channelName;
+  private final String sourceServerName;
   private final byte[] messageBytes;
   private final Consumer<byte[]> onResponseConsumer;
   private final AtomicBoolean canRespond;
 
   public ReceivedMessage(
     String channelName, byte[] messageBytes, Consumer<byte[]> onResponseConsumer)
+  {
+    this(channelName, null, messageBytes, onResponseConsumer);
+  }
+
+  /**
+   * @param channelName Name of the channel the message was sent on
+   * @param sourceServerName Name of the server that sent the message or null if unknown
+   * @param messageBytes Bytes of the message
+   * @param onResponseConsumer Consumer that sends a response or null if the sender
+   * does not expect one
+   */
+  public ReceivedMessage(
+    String channelName, String sourceServerName, byte[] messageBytes,
+    Consumer<byte[]> onResponseConsumer)
   {
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(messageBytes, "messageBytes");
 
     this.channelName = channelName;
+    this.sourceServerName = sourceServerName;
     this.messageBytes = messageBytes;
     this.onResponseConsumer = onResponseConsumer;
     this.canRespond = new AtomicBoolean(onResponseConsumer != null);
@@ -54,6 +70,15 @@ public class ReceivedMessage
     return channelName;
   }
 
+  /**
+   * @return Name of the server that sent the message or null if it is unknown, which
+   * is the case for messages that Bungee forwarded from another server
+   */
+  public String getSourceServerName()
+  {
+    return sourceServerName;
+  }
+
   public byte[] getMessageBytes()
   {
     return messageBytes;
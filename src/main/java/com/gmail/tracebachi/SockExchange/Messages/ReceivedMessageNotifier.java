@@ -34,6 +34,7 @@ public class ReceivedMessageNotifier
 {
   private final Executor executor;
   private final ConcurrentHashMap<String, CopyOnWriteArraySet<Consumer<ReceivedMessage>>> channelToConsumerSetMap;
+  private final ConcurrentHashMap<String, OrderedChannelLane> channelToOrderedLaneMap;
 
   public ReceivedMessageNotifier(Executor executor)
   {
@@ -41,6 +42,7 @@ public class ReceivedMessageNotifier
 
     this.executor = executor;
     this.channelToConsumerSetMap = new ConcurrentHashMap<>();
+    this.channelToOrderedLaneMap = new ConcurrentHashMap<>();
   }
 
   public void register(String channelName, Consumer<ReceivedMessage> consumer)
@@ -48,6 +50,9 @@ public class ReceivedMessageNotifier
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(consumer, "consumer");
 
+    // Decoded channel names are interned, so interned keys match them by reference
+    channelName = channelName.intern();
+
     // Create a set containing the consumer (assuming the channel will not be found)
     CopyOnWriteArraySet<Consumer<ReceivedMessage>> newSet = new CopyOnWriteArraySet<>(
       Collections.singleton(consumer));
@@ -77,6 +82,45 @@ public class ReceivedMessageNotifier
     });
   }
 
+  /**
+   * Sets if messages on a channel are handled in the order they were received
+   * <p>
+   * Messages on an ordered channel are handled one at a time. Each message is passed to
+   * all consumers of the channel before the next message is handled. Messages on other
+   * channels are still handled concurrently. By default, channels are not ordered and
+   * consumers may run concurrently and out of order.
+   *
+   * @param channelName Name of the channel
+   * @param ordered True to handle messages in order or false otherwise
+   */
+  public void setOrdered(String channelName, boolean ordered)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+
+    if (ordered)
+    {
+      channelToOrderedLaneMap.computeIfAbsent(channelName, (key) ->
+        new OrderedChannelLane(executor, () -> channelToConsumerSetMap.get(key)));
+    }
+    else
+    {
+      // Messages already in the lane are still handled by it
+      channelToOrderedLaneMap.remove(channelName);
+    }
+  }
+
+  /**
+   * @param channelName Name of the channel
+   *
+   * @return True if messages on the channel are handled in order or false otherwise
+   */
+  public boolean isOrdered(String channelName)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+
+    return channelToOrderedLaneMap.containsKey(channelName);
+  }
+
   public void notify(String channelName, ReceivedMessage receivedMessage)
   {
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
@@ -89,6 +133,15 @@ public class ReceivedMessageNotifier
       return;
     }
 
+    OrderedChannelLane orderedLane = channelToOrderedLaneMap.get(channelName);
+
+    if (orderedLane != null)
+    {
+      // The lane runs the consumers registered when the message is handled
+      orderedLane.add(receivedMessage);
+      return;
+    }
+
     for (Consumer<ReceivedMessage> consumer : consumerSet)
     {
       executor.execute(() -> consumer.accept(receivedMessage));
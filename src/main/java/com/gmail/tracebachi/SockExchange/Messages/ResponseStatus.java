@@ -27,7 +27,9 @@ public enum ResponseStatus
   TIMED_OUT,
   SERVER_OFFLINE,
   SERVER_NOT_FOUND,
-  PLAYER_NOT_FOUND;
+  PLAYER_NOT_FOUND,
+  SERVER_BUSY,
+  REJECTED;
 
   public boolean isOk()
   {
@@ -50,6 +52,10 @@ public enum ResponseStatus
         return SERVER_NOT_FOUND;
       case 5:
         return PLAYER_NOT_FOUND;
+      case 6:
+        return SERVER_BUSY;
+      case 7:
+        return REJECTED;
     }
 
     throw new IllegalArgumentException("Unknown mapping for ordinal");
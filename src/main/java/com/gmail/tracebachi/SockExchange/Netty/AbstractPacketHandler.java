@@ -19,14 +19,25 @@ package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
 import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBufHolder;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.flush.FlushConsolidationHandler;
+
+import java.util.function.BiConsumer;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public abstract class AbstractPacketHandler
 {
+  private static final String FLUSH_CONSOLIDATOR = "flush-consolidator";
+
   protected volatile Channel channel;
+  private volatile int flushMaxPackets = 1;
+  private volatile OverflowPolicy writeOverflowPolicy = OverflowPolicy.QUEUE;
+  private volatile int maxQueuedWriteBytes = PriorityWriteScheduler.DEFAULT_MAX_QUEUED_BYTES;
 
   /**
    * @return True if the handler has a channel or false if not
@@ -36,6 +47,37 @@ public abstract class AbstractPacketHandler
     return channel != null;
   }
 
+  /**
+   * Enables flush consolidation for channels that become active after this call. Flushes
+   * are delayed to the next pass through the event loop, or until the channel's reads
+   * are done, unless {@code maxPackets} flushes are waiting. A max of 1 packet flushes
+   * every packet, which is the same as disabling it.
+   *
+   * @param maxPackets Max number of packets to write before forcing a flush
+   */
+  public void setFlushConsolidation(int maxPackets)
+  {
+    Preconditions.checkArgument(maxPackets > 0, "maxPackets must be > 0");
+
+    this.flushMaxPackets = maxPackets;
+  }
+
+  /**
+   * Sets how many bytes of writes can wait for channels that become active after this
+   * call to become writable, and the policy for request and broadcast writes over it
+   *
+   * @param overflowPolicy Policy for writes over the limit
+   * @param maxQueuedBytes Max number of message bytes to hold per channel
+   */
+  public void setWriteOverflow(OverflowPolicy overflowPolicy, int maxQueuedBytes)
+  {
+    Preconditions.checkNotNull(overflowPolicy, "overflowPolicy");
+    Preconditions.checkArgument(maxQueuedBytes > 0, "maxQueuedBytes must be > 0");
+
+    this.writeOverflowPolicy = overflowPolicy;
+    this.maxQueuedWriteBytes = maxQueuedBytes;
+  }
+
   /**
    * Informs the packet handler that the passed channel is now active
    */
@@ -44,6 +86,8 @@ public abstract class AbstractPacketHandler
     Preconditions.checkNotNull(channel, "channel");
     Preconditions.checkState(this.channel == null, "Channel is active");
 
+    addFlushConsolidation(channel);
+    applyWriteOverflow(channel);
     this.channel = channel;
   }
 
@@ -57,6 +101,113 @@ public abstract class AbstractPacketHandler
     this.channel = null;
   }
 
+  /**
+   * Informs the packet handler that the writability of the channel changed because its
+   * outbound buffer crossed a water mark
+   */
+  public void onChannelWritabilityChanged()
+  {
+  }
+
+  /**
+   * Writes a packet to the channel of the handler, such as a packet of a type that a
+   * plugin registered in {@link PacketRegistry}. The handler takes ownership of the packet.
+   *
+   * @param packet Packet to write
+   *
+   * @return True if the packet was written or false if the handler has no channel
+   */
+  public boolean sendPacket(AbstractPacket packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+
+    Channel channel = this.channel;
+
+    if (channel == null)
+    {
+      packet.release();
+      return false;
+    }
+
+    writeAndFlush(channel, packet);
+    return true;
+  }
+
+  /**
+   * Adds a flush consolidation handler to the channel if flush consolidation is enabled.
+   * It is the first outbound handler, so it sees every flush of the channel.
+   *
+   * @param channel Channel that will be written to
+   */
+  protected void addFlushConsolidation(Channel channel)
+  {
+    int maxPackets = flushMaxPackets;
+
+    if (maxPackets > 1 && channel.pipeline().get(FLUSH_CONSOLIDATOR) == null)
+    {
+      channel.pipeline().addLast(FLUSH_CONSOLIDATOR,
+        new FlushConsolidationHandler(maxPackets, true));
+    }
+  }
+
+  /**
+   * Applies the write overflow settings to the priority scheduler of the channel
+   *
+   * @param channel Channel that will be written to
+   */
+  protected void applyWriteOverflow(Channel channel)
+  {
+    PriorityWriteScheduler scheduler = channel.pipeline().get(PriorityWriteScheduler.class);
+
+    if (scheduler != null)
+    {
+      scheduler.setOverflow(writeOverflowPolicy, maxQueuedWriteBytes);
+    }
+  }
+
+  /**
+   * Writes the packet to the channel and flushes it, either right away or with other
+   * packets if flush consolidation is enabled
+   *
+   * @param channel Channel to write to
+   * @param packet Packet to write
+   *
+   * @return Future that completes when the packet is written
+   */
+  protected ChannelFuture writeAndFlush(Channel channel, AbstractPacket packet)
+  {
+    ChannelPromise promise = channel.newPromise();
+
+    // The encoder releases the packet, but it is never reached if the write fails early.
+    // A pooled packet may be reused once the encoder released it, so check its generation.
+    int generation = packet.getGeneration();
+    promise.addListener((future) ->
+    {
+      if (!future.isSuccess())
+      {
+        packet.release(generation);
+      }
+    });
+
+    return channel.writeAndFlush(packet, promise);
+  }
+
+  /**
+   * Writes an already encoded packet to the channel and flushes it, either right away or
+   * with other packets if flush consolidation is enabled. The buffer is released by Netty.
+   *
+   * @param channel Channel to write to
+   * @param encodedPacket Buffer holding the packet, which an encoder may still complete
+   * @param priority Priority of the packet if it has to wait for the channel
+   *
+   * @return Future that completes when the packet is written
+   */
+  protected ChannelFuture writeAndFlush(
+    Channel channel, ByteBufHolder encodedPacket, MessagePriority priority)
+  {
+    return channel.writeAndFlush(new PrioritizedMessage(encodedPacket, priority));
+  }
+
   /**
    * Handles registration start
    *
@@ -112,6 +263,17 @@ public abstract class AbstractPacketHandler
       "Received an unsupported packet. Type: " + PacketToBungeeForward.class.getName());
   }
 
+  /**
+   * Handles forwarding packets with gathered responses
+   *
+   * @param packet Packet to handle
+   */
+  public void handle(PacketToBungeeGather packet)
+  {
+    throw new IllegalArgumentException(
+      "Received an unsupported packet. Type: " + PacketToBungeeGather.class.getName());
+  }
+
   /**
    * Handles response packets
    *
@@ -122,4 +284,17 @@ public abstract class AbstractPacketHandler
     throw new IllegalArgumentException(
       "Received an unsupported packet. Type: " + PacketToAnyResponse.class.getName());
   }
+
+  /**
+   * Handles packets of types that plugins registered in {@link PacketRegistry}
+   *
+   * @param packet Packet to handle
+   * @param listener Listener of the packet type
+   */
+  public <P extends AbstractPacket> void handle(
+    P packet, BiConsumer<AbstractPacketHandler, P> listener)
+  {
+    throw new IllegalArgumentException(
+      "Received an unsupported packet. Type: " + packet.getClass().getName());
+  }
 }
@@ -0,0 +1,51 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * Request without a response consumer that is broadcast to many connections. Its
+ * message is shared by every connection, and the encoder of each connection writes the
+ * rest of the packet around it in the format of the connection.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+final class BroadcastRequest extends DefaultByteBufHolder
+{
+  private final String channelName;
+
+  BroadcastRequest(String channelName, ByteBuf messageBuf)
+  {
+    super(messageBuf);
+
+    this.channelName = channelName;
+  }
+
+  String getChannelName()
+  {
+    return channelName;
+  }
+
+  @Override
+  public BroadcastRequest replace(ByteBuf content)
+  {
+    return new BroadcastRequest(channelName, content);
+  }
+}
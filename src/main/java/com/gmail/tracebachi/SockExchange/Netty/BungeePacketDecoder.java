@@ -17,10 +17,7 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToAnyResponse;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeForward;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeRegister;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeRequest;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.WireFormat;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -28,14 +25,13 @@ import io.netty.handler.codec.MessageToMessageDecoder;
 
 import java.util.List;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class BungeePacketDecoder extends MessageToMessageDecoder<ByteBuf>
 {
   private volatile AbstractPacketHandler packetHandler;
+  private final WireFormat wireFormat = new WireFormat();
 
   public BungeePacketDecoder(AbstractPacketHandler packetHandler)
   {
@@ -51,45 +47,31 @@ public class BungeePacketDecoder extends MessageToMessageDecoder<ByteBuf>
     this.packetHandler = packetHandler;
   }
 
+  /**
+   * @return Format of packets received on the connection
+   */
+  public WireFormat getWireFormat()
+  {
+    return wireFormat;
+  }
+
   @Override
   protected void decode(
     ChannelHandlerContext ctx, ByteBuf in, List<Object> list) throws Exception
   {
     byte packetId = in.readByte();
+    PacketType<?> packetType = PacketRegistry.get(packetId);
 
-    if (isIdForPacket(packetId, PacketToBungeeRegister.class))
-    {
-      PacketToBungeeRegister packet = new PacketToBungeeRegister();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToBungeeRequest.class))
-    {
-      PacketToBungeeRequest packet = new PacketToBungeeRequest();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToAnyResponse.class))
+    if (packetType != null && packetType.getDirection().isToBungee())
     {
-      PacketToAnyResponse packet = new PacketToAnyResponse();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToBungeeForward.class))
-    {
-      PacketToBungeeForward packet = new PacketToBungeeForward();
-      packet.read(in);
-
-      packetHandler.handle(packet);
+      packetType.readAndHandle(in, packetHandler, wireFormat);
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
+      // Only packets registered for this side are accepted.
       System.err.println("[BungeePacketDecoder] Unexpected packetId: " + packetId);
       ctx.close();
+      return;
     }
 
     if (in.isReadable())
@@ -114,6 +96,13 @@ public class BungeePacketDecoder extends MessageToMessageDecoder<ByteBuf>
     super.channelInactive(ctx);
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+  {
+    packetHandler.onChannelWritabilityChanged();
+    super.channelWritabilityChanged(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable throwable) throws Exception
   {
@@ -17,39 +17,123 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
-import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.WireFormat;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRequest;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class BungeePacketEncoder extends MessageToByteEncoder<AbstractPacket>
 {
+  private final WireFormat wireFormat = new WireFormat();
+
+  /**
+   * @return Format of packets sent on the connection
+   */
+  public WireFormat getWireFormat()
+  {
+    return wireFormat;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object message, ChannelPromise promise)
+    throws Exception
+  {
+    if (message instanceof BroadcastRequest)
+    {
+      ctx.write(encodeBroadcast(ctx, (BroadcastRequest) message), promise);
+    }
+    else
+    {
+      super.write(ctx, message, promise);
+    }
+  }
+
   @Override
   protected void encode(ChannelHandlerContext ctx, AbstractPacket packet, ByteBuf out)
     throws Exception
   {
-    byte packetId = PacketIdMapping.packetToId(packet.getClass());
+    try
+    {
+      encodePacket(ctx, packet, out);
+    }
+    catch (Exception ex)
+    {
+      // The packet may have defined a channel name that the other side never reads
+      if (wireFormat.getChannelNames().isEnabled())
+      {
+        ctx.close();
+      }
+
+      throw ex;
+    }
+    finally
+    {
+      packet.release();
+    }
+  }
+
+  private void encodePacket(ChannelHandlerContext ctx, AbstractPacket packet, ByteBuf out)
+  {
+    byte packetId = packet.getPacketId();
+    PacketType<?> packetType = PacketRegistry.get(packetId);
 
-    if (isIdForPacket(packetId, PacketToSpigotRegister.class) ||
-      isIdForPacket(packetId, PacketToSpigotRequest.class) ||
-      isIdForPacket(packetId, PacketToAnyResponse.class))
+    if (packetType != null && packetType.getDirection().isToSpigot())
     {
       out.writeByte(packetId);
-      packet.write(out);
+      packet.write(out, wireFormat);
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
+      // Only packets registered for the other side are sent.
       System.err.println("[BungeePacketEncoder] Unexpected packetId: " + packetId);
       ctx.close();
     }
   }
 
+  private ByteBuf encodeBroadcast(ChannelHandlerContext ctx, BroadcastRequest request)
+  {
+    ByteBuf messageBuf = request.content();
+    ByteBuf header = ctx.alloc().ioBuffer();
+    ByteBuf trailer = null;
+
+    try
+    {
+      header.writeByte(PacketToSpigotRequest.PACKET_ID);
+      PacketToSpigotRequest.writeBroadcastHeader(header, request.getChannelName(),
+        messageBuf.readableBytes(), wireFormat);
+
+      trailer = ctx.alloc().ioBuffer(1);
+      PacketToSpigotRequest.writeBroadcastTrailer(trailer);
+    }
+    catch (RuntimeException ex)
+    {
+      header.release();
+      request.release();
+
+      if (trailer != null)
+      {
+        trailer.release();
+      }
+
+      // The channel name may have been defined in a dictionary the other side never reads
+      if (wireFormat.getChannelNames().isEnabled())
+      {
+        ctx.close();
+      }
+
+      throw ex;
+    }
+
+    // The message is shared with the other connections, so it is not copied
+    return ctx.alloc().compositeBuffer(3).addComponents(true, header, messageBuf, trailer);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable throwable) throws Exception
   {
@@ -22,8 +22,6 @@ import com.google.common.base.Preconditions;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 
 import java.util.concurrent.TimeUnit;
@@ -36,20 +34,33 @@ public class BungeePipelineInitializer extends ChannelInitializer
   private static final String READ_TIMEOUT_HANDLER = "read-timeout-handler";
   private static final String FRAME_DECODER = "frame-decoder";
   private static final String FRAME_PREPENDER = "frame-prepender";
+  private static final String FRAME_DECOMPRESSOR = "frame-decompressor";
+  private static final String FRAME_COMPRESSOR = "frame-compressor";
   private static final String PACKET_DECODER = "packet-decoder";
   private static final String PACKET_ENCODER = "packet-encoder";
+  private static final String PRIORITY_SCHEDULER = "priority-scheduler";
   private static final int MAX_FRAME_SIZE = 4 * 1024 * 1024; // 4 MB
-  private static final int FRAME_LENGTH_FIELD_OFFSET = 0;
-  private static final int FRAME_LENGTH_FIELD_LENGTH = 3;
-  private static final int FRAME_LENGTH_ADJUSTMENT = 0;
 
   private final BungeeTieIn tieIn;
+  private final TransportOptions transportOptions;
+  private final TrafficStatistics trafficStatistics;
 
   public BungeePipelineInitializer(BungeeTieIn tieIn)
+  {
+    this(tieIn, new TransportOptions(), new TrafficStatistics());
+  }
+
+  public BungeePipelineInitializer(
+    BungeeTieIn tieIn, TransportOptions transportOptions,
+    TrafficStatistics trafficStatistics)
   {
     Preconditions.checkNotNull(tieIn, "tieIn");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
 
     this.tieIn = tieIn;
+    this.transportOptions = transportOptions;
+    this.trafficStatistics = trafficStatistics;
   }
 
   @Override
@@ -62,17 +73,27 @@ public class BungeePipelineInitializer extends ChannelInitializer
     ReadTimeoutHandler timeoutHandler = new ReadTimeoutHandler(15, TimeUnit.SECONDS);
     pipeline.addLast(READ_TIMEOUT_HANDLER, timeoutHandler);
 
-    // Add a frame decoder
-    LengthFieldBasedFrameDecoder frameDecoder = new LengthFieldBasedFrameDecoder(MAX_FRAME_SIZE,
-      FRAME_LENGTH_FIELD_OFFSET, FRAME_LENGTH_FIELD_LENGTH, FRAME_LENGTH_ADJUSTMENT,
-      FRAME_LENGTH_FIELD_LENGTH);
-    pipeline.addLast(FRAME_DECODER, frameDecoder);
+    // Add a frame decoder and prepender. Frame lengths are 3-byte mediums until
+    // registration switches both sides to VarInts.
+    pipeline.addLast(FRAME_DECODER, new FrameDecoder(MAX_FRAME_SIZE));
+    pipeline.addLast(FRAME_PREPENDER, new FramePrepender());
 
-    // Add a frame prepender
-    pipeline.addLast(FRAME_PREPENDER, new LengthFieldPrepender(FRAME_LENGTH_FIELD_LENGTH, false));
+    // Add compression handlers if compression can be negotiated
+    if (transportOptions.getCompressionThreshold() > 0)
+    {
+      pipeline.addLast(FRAME_DECOMPRESSOR,
+        new FrameDecompressor(MAX_FRAME_SIZE, trafficStatistics));
+      pipeline.addLast(FRAME_COMPRESSOR, new FrameCompressor(
+        transportOptions.getCompressionThreshold(), transportOptions.getCompressionLevel(),
+        trafficStatistics));
+    }
 
     // Add a packet decoder and encoder
     pipeline.addLast(PACKET_DECODER, new BungeePacketDecoder(packetHandler));
     pipeline.addLast(PACKET_ENCODER, new BungeePacketEncoder());
+
+    // Add a scheduler that writes waiting messages by priority. It is the first
+    // outbound handler so it still sees packets before they are encoded.
+    pipeline.addLast(PRIORITY_SCHEDULER, new PriorityWriteScheduler(trafficStatistics));
   }
 }
@@ -20,7 +20,10 @@ package com.gmail.tracebachi.SockExchange.Netty;
 import com.gmail.tracebachi.SockExchange.Bungee.BungeeTieIn;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeRegister;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRegister;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.WireFormat;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.google.common.base.Preconditions;
+import io.netty.handler.timeout.ReadTimeoutHandler;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
@@ -62,6 +65,12 @@ public class BungeeRegistrationPacketHandler extends AbstractPacketHandler
       return;
     }
 
+    if (packet.getLaneIndex() != 0)
+    {
+      registerLane(packet, connection, response);
+      return;
+    }
+
     if (connection.hasChannel())
     {
       response.setResult(PacketToSpigotRegister.Result.ALREADY_REGISTERED);
@@ -69,13 +78,135 @@ public class BungeeRegistrationPacketHandler extends AbstractPacketHandler
       return;
     }
 
+    // Compress before anything is written if both sides support it
+    int capabilities = enableCompressionIfOffered(packet.getCapabilities());
+
+    // Accept extra connections and gathered requests from clients that can send them
+    capabilities |= packet.getCapabilities() & Capabilities.CONNECTION_POOL;
+    capabilities |= packet.getCapabilities() & Capabilities.GATHER;
+    capabilities |= packet.getCapabilities() & Capabilities.SERVER_STATUS_PUSH;
+    capabilities |= packet.getCapabilities() & Capabilities.PLAYER_UPDATE_STREAM;
+    capabilities |= enableResponseStatusesIfOffered(packet.getCapabilities());
+    capabilities |= enableChannelNamesIfOffered(packet.getCapabilities());
+    capabilities |= readProtocolVersion2IfOffered(packet.getCapabilities());
+
     // Set up the BungeeToSpigotConnection for incoming packets
+    connection.setCapabilities(capabilities);
     connection.onChannelActive(channel);
 
     // Replace the decoder's packet handler with the BungeeToSpigotConnection
     channel.pipeline().get(BungeePacketDecoder.class).setPacketHandler(connection);
 
     response.setResult(PacketToSpigotRegister.Result.SUCCESS);
+    response.setCapabilities(capabilities);
+    channel.writeAndFlush(response);
+    writeProtocolVersion2IfAccepted(capabilities);
+  }
+
+  private void registerLane(
+    PacketToBungeeRegister packet, BungeeToSpigotConnection connection,
+    PacketToSpigotRegister response)
+  {
+    // Lanes are only accepted for a registered server
+    if (!connection.hasChannel())
+    {
+      response.setResult(PacketToSpigotRegister.Result.UNKNOWN_SERVER_NAME);
+      channel.writeAndFlush(response).addListener((future) -> channel.close());
+      return;
+    }
+
+    int capabilities = enableCompressionIfOffered(packet.getCapabilities());
+    capabilities |= enableChannelNamesIfOffered(packet.getCapabilities());
+    capabilities |= enableResponseStatusesIfOffered(packet.getCapabilities());
+    capabilities |= readProtocolVersion2IfOffered(packet.getCapabilities());
+    AbstractPacketHandler laneHandler = connection.onLaneActive(packet.getLaneIndex(),
+      packet.getLaneCount(), channel);
+
+    if (laneHandler == null)
+    {
+      response.setResult(PacketToSpigotRegister.Result.ALREADY_REGISTERED);
+      channel.writeAndFlush(response).addListener((future) -> channel.close());
+      return;
+    }
+
+    // Liveness is checked on the registering connection, which closes every lane
+    channel.pipeline().remove(ReadTimeoutHandler.class);
+
+    // Replace the decoder's packet handler with the lane of the BungeeToSpigotConnection
+    channel.pipeline().get(BungeePacketDecoder.class).setPacketHandler(laneHandler);
+
+    response.setResult(PacketToSpigotRegister.Result.SUCCESS);
+    response.setCapabilities(capabilities);
     channel.writeAndFlush(response);
+    writeProtocolVersion2IfAccepted(capabilities);
+  }
+
+  private int enableCompressionIfOffered(int offeredCapabilities)
+  {
+    FrameCompressor compressor = channel.pipeline().get(FrameCompressor.class);
+
+    if (compressor != null && (offeredCapabilities & Capabilities.DEFLATE) != 0)
+    {
+      compressor.setEnabled(true);
+      return Capabilities.DEFLATE;
+    }
+
+    return 0;
+  }
+
+  private int enableChannelNamesIfOffered(int offeredCapabilities)
+  {
+    if ((offeredCapabilities & Capabilities.CHANNEL_NAME_DICTIONARY) == 0)
+    {
+      return 0;
+    }
+
+    // The client enables its side once it reads the registration response, and
+    // nothing with a channel name is written to the client before the response
+    channel.pipeline().get(BungeePacketDecoder.class).getWireFormat()
+      .getChannelNames().setEnabled(true);
+    channel.pipeline().get(BungeePacketEncoder.class).getWireFormat()
+      .getChannelNames().setEnabled(true);
+    return Capabilities.CHANNEL_NAME_DICTIONARY;
+  }
+
+  private int enableResponseStatusesIfOffered(int offeredCapabilities)
+  {
+    // Statuses the client cannot decode are written as older statuses instead
+    int accepted = offeredCapabilities & WireFormat.RESPONSE_STATUS_CAPABILITIES;
+    channel.pipeline().get(BungeePacketEncoder.class).getWireFormat()
+      .setResponseStatusCapabilities(accepted);
+    return accepted;
+  }
+
+  private int readProtocolVersion2IfOffered(int offeredCapabilities)
+  {
+    if ((offeredCapabilities & Capabilities.PROTOCOL_VERSION_2) == 0)
+    {
+      return 0;
+    }
+
+    // The client only writes version 2 once it reads the registration response, so
+    // everything read after the register packet uses version 2
+    channel.pipeline().get(FrameDecoder.class).setVarIntLength(true);
+    channel.pipeline().get(BungeePacketDecoder.class).getWireFormat()
+      .setVersion(WireFormat.VERSION_2);
+    return Capabilities.PROTOCOL_VERSION_2;
+  }
+
+  private void writeProtocolVersion2IfAccepted(int acceptedCapabilities)
+  {
+    if ((acceptedCapabilities & Capabilities.PROTOCOL_VERSION_2) == 0)
+    {
+      return;
+    }
+
+    // The response is written on the event loop and PriorityWriteScheduler never holds
+    // control packets, so it has already been encoded and framed with version 1.
+    // Packets written by other threads are queued on the event loop and are framed
+    // with version 2 after it.
+    channel.pipeline().get(FramePrepender.class).setVarIntLength(true);
+    channel.pipeline().get(BungeePacketEncoder.class).getWireFormat()
+      .setVersion(WireFormat.VERSION_2);
   }
 }
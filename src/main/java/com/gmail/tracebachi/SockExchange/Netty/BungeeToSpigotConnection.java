@@ -19,19 +19,32 @@ package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.gmail.tracebachi.SockExchange.Bungee.BungeeTieIn;
 import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
+import com.gmail.tracebachi.SockExchange.InlineConsumer;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
 import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import io.netty.util.concurrent.Future;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
@@ -45,11 +58,20 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
   private final LongIdCounterMap<ExpirableConsumer<ResponseMessage>> waitingForResponse;
   private final BasicLogger basicLogger;
   private final BungeeTieIn bungeeTieIn;
+  private final PacketBroadcaster packetBroadcaster;
+  private final ConnectionLanes lanes = new ConnectionLanes();
+  private final Object writabilityLock = new Object();
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+  private volatile int writeBufferLowWaterMark = 0;
+  private volatile int writeBufferHighWaterMark = 0;
+  private volatile OverflowPolicy overflowPolicy = OverflowPolicy.QUEUE;
+  private volatile long maxBlockMillis = 0;
+  private volatile int capabilities = 0;
 
   public BungeeToSpigotConnection(
     String serverName, Executor executor, ReceivedMessageNotifier receivedMessageNotifier,
     LongIdCounterMap<ExpirableConsumer<ResponseMessage>> waitingForResponse,
-    BasicLogger basicLogger, BungeeTieIn bungeeTieIn)
+    BasicLogger basicLogger, BungeeTieIn bungeeTieIn, PacketBroadcaster packetBroadcaster)
   {
     ExtraPreconditions.checkNotEmpty(serverName, "serverName");
     Preconditions.checkNotNull(executor, "executor");
@@ -57,6 +79,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     Preconditions.checkNotNull(waitingForResponse, "waitingForResponse");
     Preconditions.checkNotNull(basicLogger, "basicLogger");
     Preconditions.checkNotNull(bungeeTieIn, "bungeeTieIn");
+    Preconditions.checkNotNull(packetBroadcaster, "packetBroadcaster");
 
     this.serverName = serverName;
     this.executor = executor;
@@ -64,6 +87,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     this.waitingForResponse = waitingForResponse;
     this.basicLogger = basicLogger;
     this.bungeeTieIn = bungeeTieIn;
+    this.packetBroadcaster = packetBroadcaster;
   }
 
   public String getServerName()
@@ -71,12 +95,102 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     return serverName;
   }
 
+  /**
+   * Sets the water marks of the outbound buffer and what to do with messages while
+   * the buffer is above the high water mark. The water marks are applied to channels
+   * that become active after this call. The priority scheduler of a channel holds at
+   * most the high water mark of bytes more before the policy is applied to it as well.
+   *
+   * @param lowWaterMark Buffer size in bytes below which the channel is writable again
+   * @param highWaterMark Buffer size in bytes above which the channel is not writable
+   * @param overflowPolicy Policy for messages sent while the channel is not writable
+   * @param maxBlockMillis Max time to block for {@link OverflowPolicy#BLOCK}
+   */
+  public void setBackpressure(
+    int lowWaterMark, int highWaterMark, OverflowPolicy overflowPolicy, long maxBlockMillis)
+  {
+    Preconditions.checkArgument(lowWaterMark > 0, "lowWaterMark must be > 0");
+    Preconditions.checkArgument(highWaterMark >= lowWaterMark,
+      "highWaterMark must be >= lowWaterMark");
+    Preconditions.checkNotNull(overflowPolicy, "overflowPolicy");
+    Preconditions.checkArgument(maxBlockMillis >= 0, "maxBlockMillis must be >= 0");
+
+    this.writeBufferLowWaterMark = lowWaterMark;
+    this.writeBufferHighWaterMark = highWaterMark;
+    this.overflowPolicy = overflowPolicy;
+    this.maxBlockMillis = maxBlockMillis;
+
+    // Writes held by the priority scheduler are limited like the outbound buffer
+    setWriteOverflow(overflowPolicy, highWaterMark);
+  }
+
+  /**
+   * Sets the capabilities accepted while the server registered
+   *
+   * @param capabilities Capabilities of the connection
+   */
+  public void setCapabilities(int capabilities)
+  {
+    this.capabilities = capabilities;
+  }
+
+  /**
+   * @param capability One of the flags in {@link Capabilities}
+   *
+   * @return True if the capability was accepted when the server last registered
+   */
+  public boolean hasCapability(int capability)
+  {
+    return (capabilities & capability) != 0;
+  }
+
+  /**
+   * @return True if the server is online and its outbound buffer is below the high
+   * water mark or false if not
+   */
+  public boolean isWritable()
+  {
+    Channel channel = this.channel;
+    return channel != null && channel.isWritable();
+  }
+
+  /**
+   * @return Number of request and broadcast bytes written to the channel that have not
+   * been flushed to the socket yet
+   */
+  public long getQueuedBytes()
+  {
+    return queuedBytes.get();
+  }
+
+  /**
+   * @return Number of connections the server asked for including the one that
+   * registered it
+   */
+  public int getLaneCount()
+  {
+    return lanes.getLaneCount();
+  }
+
+  /**
+   * @return Number of extra connections of the server that are registered
+   */
+  public int getConnectedLaneCount()
+  {
+    return lanes.getConnectedCount();
+  }
+
   @Override
   public void onChannelActive(Channel channel)
   {
+    applyWaterMarks(channel);
+
     super.onChannelActive(channel);
 
     basicLogger.debug("[%s connection] Channel is now active", serverName);
+
+    // Notified on the executor so the registration response is written first
+    executor.execute(() -> bungeeTieIn.onServerStatusChange(serverName, true));
   }
 
   @Override
@@ -85,6 +199,72 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     basicLogger.debug("[%s connection] Channel is now inactive", serverName);
 
     super.onChannelInactive();
+
+    // Extra connections only exist while the server is registered
+    lanes.closeAll();
+    lanes.setLaneCount(1);
+
+    // Wake up blocked senders so they see the server is offline
+    synchronized (writabilityLock)
+    {
+      writabilityLock.notifyAll();
+    }
+
+    executor.execute(() -> bungeeTieIn.onServerStatusChange(serverName, false));
+  }
+
+  @Override
+  public void onChannelWritabilityChanged()
+  {
+    synchronized (writabilityLock)
+    {
+      writabilityLock.notifyAll();
+    }
+  }
+
+  /**
+   * Registers an extra connection of the server as a lane of this connection
+   *
+   * @param laneIndex Index of the lane from 1 to the lane count - 1
+   * @param laneCount Number of connections the server opens including the one that
+   * registered it
+   * @param channel Channel of the extra connection
+   *
+   * @return Packet handler for the lane or null if the server is not registered or the
+   * lane is out of range or already registered
+   */
+  public AbstractPacketHandler onLaneActive(int laneIndex, int laneCount, Channel channel)
+  {
+    Preconditions.checkNotNull(channel, "channel");
+
+    if (this.channel == null || laneCount < 1 || laneCount > ConnectionLanes.MAX_LANE_COUNT)
+    {
+      return null;
+    }
+
+    applyWaterMarks(channel);
+    lanes.setLaneCount(laneCount);
+
+    addFlushConsolidation(channel);
+    applyWriteOverflow(channel);
+
+    if (!lanes.add(laneIndex, channel))
+    {
+      return null;
+    }
+
+    // Lanes are closed after the channel is cleared, so check again
+    if (this.channel == null)
+    {
+      lanes.remove(laneIndex, channel);
+      return null;
+    }
+
+    LaneHandler laneHandler = new LaneHandler(laneIndex);
+    laneHandler.onChannelActive(channel);
+
+    basicLogger.debug("[%s connection] Lane %s is now active", serverName, laneIndex);
+    return laneHandler;
   }
 
   @Override
@@ -102,7 +282,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       basicLogger.debug(
         "[%s connection] Received request. DestinationType: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
         serverName, destinationType.name(), packet.getChannelName(),
-        packet.getMessageBytes().length, consumerId);
+        packet.getMessageLength(), consumerId);
 
       handleRequestForBungee(packet);
       return;
@@ -116,7 +296,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       basicLogger.debug(
         "[%s connection] Received request. DestinationType: '%s'. ServerName: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
         serverName, destinationType.name(), destServerName, packet.getChannelName(),
-        packet.getMessageBytes().length, consumerId);
+        packet.getMessageLength(), consumerId);
 
       BungeeToSpigotConnection connection = bungeeTieIn.getConnection(destServerName);
 
@@ -125,12 +305,12 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       {
         if (packet.hasConsumer())
         {
-          PacketToAnyResponse responsePacket = new PacketToAnyResponse();
+          PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
           responsePacket.setConsumerId(packet.getConsumerId());
           responsePacket.setResponseStatus(ResponseStatus.SERVER_NOT_FOUND);
           responsePacket.setMessageBytes(null);
 
-          sendPacket(responsePacket);
+          sendResponse(responsePacket);
         }
         return;
       }
@@ -147,7 +327,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       basicLogger.debug(
         "[%s connection] Received request. DestinationType: '%s'. PlayerName: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
         serverName, destinationType.name(), playerName, packet.getChannelName(),
-        packet.getMessageBytes().length, consumerId);
+        packet.getMessageLength(), consumerId);
 
       String destServerName = bungeeTieIn.getServerNameForPlayer(playerName);
 
@@ -156,12 +336,12 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       {
         if (packet.hasConsumer())
         {
-          PacketToAnyResponse responsePacket = new PacketToAnyResponse();
+          PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
           responsePacket.setConsumerId(packet.getConsumerId());
           responsePacket.setResponseStatus(ResponseStatus.PLAYER_NOT_FOUND);
           responsePacket.setMessageBytes(null);
 
-          sendPacket(responsePacket);
+          sendResponse(responsePacket);
         }
         return;
       }
@@ -173,12 +353,12 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       {
         if (packet.hasConsumer())
         {
-          PacketToAnyResponse responsePacket = new PacketToAnyResponse();
+          PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
           responsePacket.setConsumerId(packet.getConsumerId());
           responsePacket.setResponseStatus(ResponseStatus.SERVER_NOT_FOUND);
           responsePacket.setMessageBytes(null);
 
-          sendPacket(responsePacket);
+          sendResponse(responsePacket);
         }
         return;
       }
@@ -207,11 +387,8 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
 
     if (foundConsumer)
     {
-      executor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(responseStatus, messageBytes);
-        responseConsumer.accept(responseMessage);
-      });
+      ResponseMessage responseMessage = new ResponseMessage(responseStatus, messageBytes);
+      responseConsumer.acceptOn(executor, responseMessage);
     }
   }
 
@@ -222,18 +399,63 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     Preconditions.checkState(channel != null, "Channel is not active");
 
     String channelName = packet.getChannelName();
-    byte[] messageBytes = packet.getMessageBytes();
+    ByteBuf messageBuf = packet.getMessageBuf();
     List<String> serverNames = packet.getServerNames();
 
     // Debug
     basicLogger.debug(
       "[%s connection] Received forward request. ChannelName: '%s'. NumBytes: '%s'. ServerNamesCount: '%s'.",
-      serverName, channelName, messageBytes.length, serverNames.size());
+      serverName, channelName, packet.getMessageLength(), serverNames.size());
+
+    if (serverNames.isEmpty())
+    {
+      // An empty set should send to all servers excluding source.
+      packetBroadcaster.broadcast(channelName, messageBuf, bungeeTieIn.getConnections(), this);
+    }
+    else
+    {
+      // If a set is specified, forward to all matched servers.
+      List<BungeeToSpigotConnection> connections = new ArrayList<>(serverNames.size());
+
+      for (String serverName : serverNames)
+      {
+        BungeeToSpigotConnection connection = bungeeTieIn.getConnection(serverName);
+
+        if (connection != null)
+        {
+          connections.add(connection);
+        }
+      }
+
+      packetBroadcaster.broadcast(channelName, messageBuf, connections, null);
+    }
+  }
+
+  @Override
+  public void handle(PacketToBungeeGather packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    String channelName = packet.getChannelName();
+    List<String> serverNames = packet.getServerNames();
+    long consumerId = packet.getConsumerId();
+    long timeoutInMillis = packet.getTimeoutInMillis();
 
-    PacketToSpigotRequest packetToForward = new PacketToSpigotRequest();
-    packetToForward.setChannelName(channelName);
-    packetToForward.setMessageBytes(messageBytes);
-    packetToForward.setConsumerId(null);
+    // Debug
+    basicLogger.debug(
+      "[%s connection] Received gather request. ChannelName: '%s'. NumBytes: '%s'. ServerNamesCount: '%s'. ConsumerId: '%s'.",
+      serverName, channelName, packet.getMessageLength(), serverNames.size(), consumerId);
+
+    // A request that cannot wait for a response has already timed out
+    if (timeoutInMillis <= 0)
+    {
+      sendTimedOutResponse(consumerId, timeoutInMillis);
+      return;
+    }
+
+    // Map each target to its connection (or null if unknown) without duplicates
+    Map<String, BungeeToSpigotConnection> targets = new LinkedHashMap<>();
 
     if (serverNames.isEmpty())
     {
@@ -242,22 +464,47 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       {
         if (connection != this)
         {
-          connection.sendPacket(packetToForward);
+          targets.put(connection.getServerName(), connection);
         }
       }
     }
     else
     {
-      // If a set is specified, forward to all matched servers.
       for (String serverName : serverNames)
       {
         BungeeToSpigotConnection connection = bungeeTieIn.getConnection(serverName);
+        targets.putIfAbsent(connection != null ? connection.getServerName() : serverName,
+          connection);
+      }
+    }
 
-        if (connection != null)
-        {
-          connection.sendPacket(packetToForward);
-        }
+    // Every request shares the same timeout, so the gathered response is sent once the
+    // last server responds or the deadline passes
+    ResponseGatherer gatherer = new ResponseGatherer(targets.size(), (gatheredBytes) ->
+    {
+      PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
+      responsePacket.setConsumerId(consumerId);
+      responsePacket.setResponseStatus(ResponseStatus.OK);
+      responsePacket.setMessageBytes(gatheredBytes);
+
+      sendResponse(responsePacket);
+    });
+
+    for (Map.Entry<String, BungeeToSpigotConnection> entry : targets.entrySet())
+    {
+      String targetName = entry.getKey();
+      BungeeToSpigotConnection connection = entry.getValue();
+
+      if (connection == null)
+      {
+        gatherer.accept(targetName, new ResponseMessage(ResponseStatus.SERVER_NOT_FOUND));
+        continue;
       }
+
+      // The packet releases its own reference after it is handled, so retain another.
+      ByteBuf messageBuf = packet.getMessageBuf().retainedDuplicate();
+      connection.sendToServer(channelName, messageBuf, gatherer.consumerFor(targetName),
+        timeoutInMillis);
     }
   }
 
@@ -268,46 +515,314 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(messageBytes, "messageBytes");
 
+    PacketToSpigotRequest packetToSend = PacketToSpigotRequest.newInstance();
+    packetToSend.setChannelName(channelName);
+    packetToSend.setMessageBytes(messageBytes);
+
+    sendRequest(packetToSend, consumer, timeoutInMillis);
+  }
+
+  /**
+   * Sends a message that is already in a buffer, such as a slice of a received frame.
+   * The connection takes ownership of one reference and releases it once the message
+   * is written or dropped.
+   *
+   * @param channelName Name of the channel to send to
+   * @param messageBuf Buffer containing the message
+   * @param consumer Consumer of the response or null
+   * @param timeoutInMillis Time to wait for a response
+   */
+  public void sendToServer(
+    String channelName, ByteBuf messageBuf, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis)
+  {
+    Preconditions.checkNotNull(messageBuf, "messageBuf");
+
+    PacketToSpigotRequest packetToSend = PacketToSpigotRequest.newInstance();
+    packetToSend.setMessageBuf(messageBuf);
+
+    if (channelName == null || channelName.isEmpty())
+    {
+      packetToSend.release();
+      throw new IllegalArgumentException("Null or empty channelName");
+    }
+
+    packetToSend.setChannelName(channelName);
+
+    sendRequest(packetToSend, consumer, timeoutInMillis);
+  }
+
+  private void sendRequest(
+    PacketToSpigotRequest packetToSend, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis)
+  {
+    // Requests of the same channel use the same lane so they stay in order
+    Channel channel = lanes.select(packetToSend.getChannelName().hashCode(), this.channel);
+
     // If the connection does not have a channel, the server is offline.
-    if (!hasChannel())
+    if (channel == null)
     {
+      packetToSend.release();
+
       // If there is a consumer, respond with SERVER_OFFLINE.
       if (consumer != null)
       {
-        executor.execute(() ->
-        {
-          ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.SERVER_OFFLINE);
-          consumer.accept(responseMessage);
-        });
+        ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.SERVER_OFFLINE);
+        InlineConsumer.accept(executor, consumer, responseMessage);
       }
       return;
     }
 
-    PacketToSpigotRequest packetToSend = new PacketToSpigotRequest();
-    packetToSend.setChannelName(channelName);
-    packetToSend.setMessageBytes(messageBytes);
+    if (consumer != null && timeoutInMillis <= 0)
+    {
+      packetToSend.release();
+      throw new IllegalArgumentException("timeoutInMillis must be > 0");
+    }
+
+    int messageLength = packetToSend.getMessageLength();
+    MessagePriority priority = MessagePriority.of(packetToSend);
+
+    // If the server is not reading fast enough, apply the overflow policy.
+    // Control messages are always written since the connection times out without them.
+    if (priority != MessagePriority.CONTROL && !canWrite(channel, consumer != null))
+    {
+      packetToSend.release();
+      packetBroadcaster.getTrafficStatistics().recordDropped(messageLength);
+
+      basicLogger.debug("[%s connection] Channel is not writable. Dropped request. NumBytes: '%s'.",
+        serverName, messageLength);
+
+      // If there is a consumer, respond with SERVER_BUSY.
+      if (consumer != null)
+      {
+        ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.SERVER_BUSY);
+        InlineConsumer.accept(executor, consumer, responseMessage);
+      }
+      return;
+    }
 
     // If the consumer is specified, save the consumer.
     if (consumer != null)
     {
-      Preconditions.checkArgument(timeoutInMillis > 0, "timeoutInMillis must be > 0");
+      // Relayed responses already carry their expiry, so they are not wrapped again
+      ExpirableConsumer<ResponseMessage> responseConsumer =
+        (consumer instanceof RelayedResponseConsumer)
+          ? (RelayedResponseConsumer) consumer
+          : new ExpirableConsumer<>(consumer, System.currentTimeMillis() + timeoutInMillis);
+
+      packetToSend.setConsumerId(waitingForResponse.put(responseConsumer,
+        responseConsumer.getExpiresAtMillis()));
+    }
 
-      ExpirableConsumer<ResponseMessage> responseConsumer = new ExpirableConsumer<>(consumer,
-        System.currentTimeMillis() + timeoutInMillis);
+    // Send the packet
+    Long consumerId = packetToSend.getConsumerId();
+    queuedBytes.addAndGet(messageLength);
+    writeAndFlush(channel, packetToSend).addListener((future) ->
+    {
+      queuedBytes.addAndGet(-messageLength);
 
-      packetToSend.setConsumerId(waitingForResponse.put(responseConsumer));
+      if (consumerId != null)
+      {
+        respondBusyIfDropped(future, consumerId);
+      }
+    });
+  }
+
+  /**
+   * Answers the consumer of a request that the priority scheduler dropped with
+   * {@link ResponseStatus#SERVER_BUSY} instead of letting it time out
+   *
+   * @param future Future of the write of the request
+   * @param consumerId Id of the consumer of the request
+   */
+  private void respondBusyIfDropped(Future<?> future, long consumerId)
+  {
+    if (!(future.cause() instanceof PriorityWriteScheduler.QueueFullException))
+    {
+      return;
     }
 
-    // Send the packet
-    sendPacket(packetToSend);
+    ExpirableConsumer<ResponseMessage> responseConsumer = waitingForResponse.remove(consumerId);
+
+    if (responseConsumer != null)
+    {
+      responseConsumer.acceptOn(executor, new ResponseMessage(ResponseStatus.SERVER_BUSY));
+    }
   }
 
-  private void sendPacket(AbstractPacket packet)
+  /**
+   * Answers a request whose timeout is not positive. Throwing from the handler would
+   * close the whole connection for one bad request.
+   *
+   * @param consumerId Id of the consumer of the source server
+   * @param timeoutInMillis Timeout that was received
+   */
+  private void sendTimedOutResponse(long consumerId, long timeoutInMillis)
   {
+    basicLogger.debug("[%s connection] Rejected request with timeout '%s'. ConsumerId: '%s'.",
+      serverName, timeoutInMillis, consumerId);
+
+    PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
+    responsePacket.setConsumerId(consumerId);
+    responsePacket.setResponseStatus(ResponseStatus.TIMED_OUT);
+
+    sendResponse(responsePacket);
+  }
+
+  private void sendResponse(PacketToAnyResponse packet)
+  {
+    // Responses do not need to be in order, so they are spread by consumer ID
+    Channel channel = lanes.select(Long.hashCode(packet.getConsumerId()), this.channel);
+
     if (channel != null)
     {
-      channel.writeAndFlush(packet);
+      writeAndFlush(channel, packet);
+    }
+    else
+    {
+      packet.release();
+    }
+  }
+
+  /**
+   * Writes a broadcast request if the connection has a channel. The connection takes
+   * ownership of the request.
+   *
+   * @param request Request with a message shared by the broadcast
+   * @param priority Priority of the request
+   * @param laneHash Hash of the channel name of the request
+   *
+   * @return True if the request was written or false if the server is offline or the
+   * request was dropped by the overflow policy
+   */
+  boolean sendBroadcast(BroadcastRequest request, MessagePriority priority, int laneHash)
+  {
+    Channel channel = lanes.select(laneHash, this.channel);
+
+    if (channel == null)
+    {
+      request.release();
+      return false;
+    }
+
+    int messageLength = request.content().readableBytes();
+
+    if (priority != MessagePriority.CONTROL && !canWrite(channel, false))
+    {
+      request.release();
+      packetBroadcaster.getTrafficStatistics().recordDropped(messageLength);
+      return false;
+    }
+
+    queuedBytes.addAndGet(messageLength);
+    writeAndFlush(channel, request, priority).addListener(
+      (future) -> queuedBytes.addAndGet(-messageLength));
+    return true;
+  }
+
+  /**
+   * Checks if a message can be written to the channel using the overflow policy
+   *
+   * @param channel Channel to write to
+   * @param hasConsumer True if the message is a request with a response consumer
+   *
+   * @return True if the message should be written or false if it should be dropped
+   */
+  private boolean canWrite(Channel channel, boolean hasConsumer)
+  {
+    if (channel.isWritable())
+    {
+      return true;
+    }
+
+    switch (overflowPolicy)
+    {
+      case QUEUE:
+        return true;
+      case DROP_BROADCASTS:
+        return hasConsumer;
+      case BLOCK:
+        // Broadcasts come from callers like login events that must not stall
+        return hasConsumer && awaitWritable(channel);
+      default:
+        return false;
+    }
+  }
+
+  private boolean awaitWritable(Channel channel)
+  {
+    long maxBlockMillis = this.maxBlockMillis;
+
+    // Blocking a Netty thread would also stall the connections that share it
+    if (maxBlockMillis <= 0 || isNettyThread(channel))
+    {
+      return false;
+    }
+
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBlockMillis);
+
+    synchronized (writabilityLock)
+    {
+      while (!channel.isWritable())
+      {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+
+        if (remainingMillis <= 0 || !channel.isActive())
+        {
+          return false;
+        }
+
+        try
+        {
+          writabilityLock.wait(remainingMillis);
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  @Override
+  public <P extends AbstractPacket> void handle(
+    P packet, BiConsumer<AbstractPacketHandler, P> listener)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    listener.accept(this, packet);
+  }
+
+  private void applyWaterMarks(Channel channel)
+  {
+    if (writeBufferHighWaterMark > 0)
+    {
+      channel.config().setWriteBufferWaterMark(
+        new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark));
+    }
+  }
+
+  private static boolean isNettyThread(Channel channel)
+  {
+    // Event loops of other groups, like Velocity's, use FastThreadLocalThreads
+    if (Thread.currentThread() instanceof FastThreadLocalThread)
+    {
+      return true;
     }
+
+    for (EventExecutor eventExecutor : channel.eventLoop().parent())
+    {
+      if (eventExecutor.inEventLoop())
+      {
+        return true;
+      }
+    }
+
+    return false;
   }
 
   private void handleRequestForBungee(PacketToBungeeRequest packet)
@@ -325,18 +840,18 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       // server that sent the request
       onResponseConsumer = (bytes) ->
       {
-        PacketToAnyResponse responsePacket = new PacketToAnyResponse();
+        PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
         responsePacket.setConsumerId(consumerId);
         responsePacket.setResponseStatus(ResponseStatus.OK);
         responsePacket.setMessageBytes(bytes);
 
-        sendPacket(responsePacket);
+        sendResponse(responsePacket);
       };
     }
 
     // Notify channel listeners of the request
-    ReceivedMessage receivedMessage = new ReceivedMessage(channelName, messageBytes,
-      onResponseConsumer);
+    ReceivedMessage receivedMessage = new ReceivedMessage(channelName, serverName,
+      messageBytes, onResponseConsumer);
     receivedMessageNotifier.notify(channelName, receivedMessage);
   }
 
@@ -344,32 +859,126 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     PacketToBungeeRequest packet, BungeeToSpigotConnection destConnection)
   {
     String channelName = packet.getChannelName();
-    byte[] messageBytes = packet.getMessageBytes();
 
     // If the packet does not have a consumer ID, there is no need to create a consumer.
+    // The message is relayed as a slice of the received frame instead of being copied.
+    // The packet releases its own reference after it is handled, so retain another.
     if (!packet.hasConsumer())
     {
-      destConnection.sendToServer(channelName, messageBytes, null, 0);
+      destConnection.sendToServer(channelName, packet.getMessageBuf().retainedDuplicate(),
+        null, 0);
       return;
     }
 
-    long consumerId = packet.getConsumerId();
     long timeoutInMillis = packet.getTimeoutInMillis();
-    Consumer<ResponseMessage> messageConsumer = (responseMessage) ->
+
+    // A request that cannot wait for a response has already timed out
+    if (timeoutInMillis <= 0)
     {
-      PacketToAnyResponse responsePacket = new PacketToAnyResponse();
-      responsePacket.setConsumerId(consumerId);
-      responsePacket.setResponseStatus(responseMessage.getResponseStatus());
-      responsePacket.setMessageBytes(responseMessage.getMessageBytes());
+      sendTimedOutResponse(packet.getConsumerId(), timeoutInMillis);
+      return;
+    }
 
-      // Send the response packet from this connection
-      sendPacket(responsePacket);
-    };
+    ByteBuf messageBuf = packet.getMessageBuf().retainedDuplicate();
+    RelayedResponseConsumer messageConsumer = new RelayedResponseConsumer(
+      packet.getConsumerId(), System.currentTimeMillis() + timeoutInMillis);
 
     // ServerA makes the request and sends it to Bungee
     // Bungee makes a request to ServerB on behalf of ServerA
     // ServerB responds to Bungee
     // Bungee responds to ServerA
-    destConnection.sendToServer(channelName, messageBytes, messageConsumer, timeoutInMillis);
+    destConnection.sendToServer(channelName, messageBuf, messageConsumer, timeoutInMillis);
+  }
+
+  /**
+   * Relays the response of a server back to the server that sent the request through
+   * this connection. It is its own expirable consumer, so relaying a request allocates
+   * one object instead of a consumer and a wrapper. Relaying the response is only a
+   * write, so it does not need an executor hop.
+   */
+  private final class RelayedResponseConsumer extends ExpirableConsumer<ResponseMessage>
+    implements InlineConsumer<ResponseMessage>
+  {
+    private final long consumerId;
+
+    private RelayedResponseConsumer(long consumerId, long expiresAtMillis)
+    {
+      super(expiresAtMillis);
+
+      this.consumerId = consumerId;
+    }
+
+    @Override
+    public void accept(ResponseMessage responseMessage)
+    {
+      PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
+      responsePacket.setConsumerId(consumerId);
+      responsePacket.setResponseStatus(responseMessage.getResponseStatus());
+      responsePacket.setMessageBytes(responseMessage.getMessageBytes());
+
+      // Send the response packet from this connection
+      sendResponse(responsePacket);
+    }
+  }
+
+  /**
+   * Handler of an extra connection of the server that passes received packets to
+   * the connection
+   */
+  private class LaneHandler extends AbstractPacketHandler
+  {
+    private final int laneIndex;
+
+    private LaneHandler(int laneIndex)
+    {
+      this.laneIndex = laneIndex;
+    }
+
+    @Override
+    public void onChannelInactive()
+    {
+      basicLogger.debug("[%s connection] Lane %s is now inactive", serverName, laneIndex);
+
+      lanes.remove(laneIndex, channel);
+
+      super.onChannelInactive();
+    }
+
+    @Override
+    public void onChannelWritabilityChanged()
+    {
+      BungeeToSpigotConnection.this.onChannelWritabilityChanged();
+    }
+
+    @Override
+    public void handle(PacketToBungeeRequest packet)
+    {
+      BungeeToSpigotConnection.this.handle(packet);
+    }
+
+    @Override
+    public void handle(PacketToAnyResponse packet)
+    {
+      BungeeToSpigotConnection.this.handle(packet);
+    }
+
+    @Override
+    public void handle(PacketToBungeeForward packet)
+    {
+      BungeeToSpigotConnection.this.handle(packet);
+    }
+
+    @Override
+    public void handle(PacketToBungeeGather packet)
+    {
+      BungeeToSpigotConnection.this.handle(packet);
+    }
+
+    @Override
+    public <P extends AbstractPacket> void handle(
+      P packet, BiConsumer<AbstractPacketHandler, P> listener)
+    {
+      BungeeToSpigotConnection.this.handle(packet, listener);
+    }
   }
 }
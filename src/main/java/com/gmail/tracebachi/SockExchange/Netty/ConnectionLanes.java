@@ -0,0 +1,152 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.channel.Channel;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Extra connections (lanes) of a server next to the connection that registered it.
+ * Messages are spread across the lanes by the hash of their channel name, so messages
+ * of the same channel keep their order while different channels are written and read
+ * by different event loop threads.
+ * <p>
+ * Lane 0 is always the registering connection, which is owned by the packet handler.
+ * A message whose lane is not connected (yet) falls back to lane 0, so ordering is only
+ * guaranteed while the lanes of a pool stay connected.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ConnectionLanes
+{
+  public static final int MAX_LANE_COUNT = 8;
+
+  private final AtomicReferenceArray<Channel> lanes = new AtomicReferenceArray<>(MAX_LANE_COUNT);
+  private volatile int laneCount = 1;
+
+  /**
+   * @return Number of lanes including lane 0
+   */
+  public int getLaneCount()
+  {
+    return laneCount;
+  }
+
+  public void setLaneCount(int laneCount)
+  {
+    Preconditions.checkArgument(laneCount >= 1 && laneCount <= MAX_LANE_COUNT,
+      "laneCount must be between 1 and " + MAX_LANE_COUNT);
+
+    this.laneCount = laneCount;
+  }
+
+  /**
+   * @return Number of extra lanes that are connected
+   */
+  public int getConnectedCount()
+  {
+    int count = 0;
+
+    for (int i = 1; i < MAX_LANE_COUNT; i++)
+    {
+      if (lanes.get(i) != null)
+      {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Adds the channel of an extra lane
+   *
+   * @param laneIndex Index of the lane from 1 to the lane count - 1
+   * @param channel Channel of the lane
+   *
+   * @return True if the lane was added or false if the index is out of range or
+   * the lane is already connected
+   */
+  public boolean add(int laneIndex, Channel channel)
+  {
+    Preconditions.checkNotNull(channel, "channel");
+
+    if (laneIndex < 1 || laneIndex >= laneCount)
+    {
+      return false;
+    }
+
+    return lanes.compareAndSet(laneIndex, null, channel);
+  }
+
+  /**
+   * Removes the channel of an extra lane if it is still the channel of that lane
+   *
+   * @param laneIndex Index of the lane
+   * @param channel Channel of the lane
+   */
+  public void remove(int laneIndex, Channel channel)
+  {
+    if (laneIndex < 1 || laneIndex >= MAX_LANE_COUNT)
+    {
+      return;
+    }
+
+    lanes.compareAndSet(laneIndex, channel, null);
+  }
+
+  /**
+   * @param hash Hash of the channel name or another key whose messages must stay in order
+   * @param primary Channel of lane 0 or null
+   *
+   * @return Channel of the lane for the hash or the primary channel if that lane is
+   * not connected
+   */
+  public Channel select(int hash, Channel primary)
+  {
+    int laneCount = this.laneCount;
+
+    if (laneCount == 1 || primary == null)
+    {
+      return primary;
+    }
+
+    int laneIndex = (hash & Integer.MAX_VALUE) % laneCount;
+    Channel lane = laneIndex == 0 ? null : lanes.get(laneIndex);
+
+    return lane != null ? lane : primary;
+  }
+
+  /**
+   * Closes and removes all extra lanes
+   */
+  public void closeAll()
+  {
+    for (int i = 1; i < MAX_LANE_COUNT; i++)
+    {
+      Channel lane = lanes.getAndSet(i, null);
+
+      if (lane != null)
+      {
+        lane.close();
+      }
+    }
+  }
+}
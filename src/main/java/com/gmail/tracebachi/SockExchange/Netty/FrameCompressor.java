@@ -0,0 +1,166 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates encoded packets that are at least as large as the threshold. A compressed
+ * frame has {@link #COMPRESSED_FLAG} set on its packet ID and is followed by the
+ * uncompressed body length and the deflated body. Frames below the threshold, or that
+ * do not get smaller, are written unchanged.
+ * <p>
+ * Compression stays off until both sides agree on it during registration.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class FrameCompressor extends MessageToMessageEncoder<ByteBuf>
+{
+  public static final int COMPRESSED_FLAG = 0x80;
+  static final int COMPRESSED_HEADER_LENGTH = 5;
+
+  private final int threshold;
+  private final int level;
+  private final TrafficStatistics trafficStatistics;
+  private Deflater deflater;
+  private volatile boolean enabled;
+
+  public FrameCompressor(int threshold, int level, TrafficStatistics trafficStatistics)
+  {
+    Preconditions.checkArgument(threshold > 0, "threshold must be > 0");
+    Preconditions.checkArgument(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION,
+      "level must be between 1 and 9");
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
+
+    this.threshold = threshold;
+    this.level = level;
+    this.trafficStatistics = trafficStatistics;
+  }
+
+  /**
+   * @return True if frames at or above the threshold are compressed
+   */
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+  {
+    if (deflater != null)
+    {
+      deflater.end();
+      deflater = null;
+    }
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out)
+    throws Exception
+  {
+    int frameLength = frame.readableBytes();
+
+    if (!enabled || frameLength < threshold || frameLength <= COMPRESSED_HEADER_LENGTH)
+    {
+      out.add(frame.retain());
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    ByteBuf compressed = deflate(ctx, frame, frameLength);
+
+    if (compressed == null)
+    {
+      out.add(frame.retain());
+      return;
+    }
+
+    trafficStatistics.recordCompression(frameLength, compressed.readableBytes(),
+      System.nanoTime() - startNanos);
+    out.add(compressed);
+  }
+
+  private ByteBuf deflate(ChannelHandlerContext ctx, ByteBuf frame, int frameLength)
+  {
+    int packetId = frame.getUnsignedByte(frame.readerIndex());
+    int bodyLength = frameLength - 1;
+    byte[] input;
+    int inputOffset;
+
+    if (frame.hasArray())
+    {
+      input = frame.array();
+      inputOffset = frame.arrayOffset() + frame.readerIndex() + 1;
+    }
+    else
+    {
+      input = new byte[bodyLength];
+      inputOffset = 0;
+      frame.getBytes(frame.readerIndex() + 1, input);
+    }
+
+    if (deflater == null)
+    {
+      deflater = new Deflater(level);
+    }
+
+    // The output is never allowed to grow past the original frame
+    ByteBuf compressed = ctx.alloc().heapBuffer(frameLength, frameLength);
+    compressed.writeByte(packetId | COMPRESSED_FLAG);
+    compressed.writeInt(bodyLength);
+
+    try
+    {
+      deflater.setInput(input, inputOffset, bodyLength);
+      deflater.finish();
+
+      while (!deflater.finished())
+      {
+        int writable = compressed.writableBytes();
+
+        if (writable == 0)
+        {
+          compressed.release();
+          return null;
+        }
+
+        int written = deflater.deflate(compressed.array(),
+          compressed.arrayOffset() + compressed.writerIndex(), writable);
+        compressed.writerIndex(compressed.writerIndex() + written);
+      }
+
+      return compressed;
+    }
+    finally
+    {
+      deflater.reset();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+/**
+ * Splits the input into frames written by {@link FramePrepender}. The frame length is a
+ * 3-byte medium until {@link #setVarIntLength(boolean)} switches to a VarInt of at most
+ * five bytes, which takes one byte for frames below 128 bytes.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class FrameDecoder extends ByteToMessageDecoder
+{
+  private static final int MEDIUM_LENGTH = 3;
+  private static final int MAX_VAR_INT_LENGTH = 5;
+
+  private final int maxFrameLength;
+  private volatile boolean varIntLength;
+
+  public FrameDecoder(int maxFrameLength)
+  {
+    Preconditions.checkArgument(maxFrameLength > 0, "maxFrameLength must be > 0");
+
+    this.maxFrameLength = maxFrameLength;
+  }
+
+  /**
+   * @return True if frame lengths are read as VarInts
+   */
+  public boolean isVarIntLength()
+  {
+    return varIntLength;
+  }
+
+  /**
+   * Sets how the lengths of frames that are not yet read are encoded. It must be called
+   * on the event loop between two frames.
+   *
+   * @param varIntLength True for VarInts or false for 3-byte mediums
+   */
+  public void setVarIntLength(boolean varIntLength)
+  {
+    this.varIntLength = varIntLength;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+    throws Exception
+  {
+    int readerIndex = in.readerIndex();
+    int headerLength;
+    int frameLength;
+
+    if (varIntLength)
+    {
+      headerLength = 0;
+      frameLength = 0;
+
+      while (true)
+      {
+        if (headerLength == in.readableBytes())
+        {
+          return;
+        }
+
+        if (headerLength == MAX_VAR_INT_LENGTH)
+        {
+          throw new CorruptedFrameException("Frame length is longer than " +
+            MAX_VAR_INT_LENGTH + " bytes");
+        }
+
+        byte read = in.getByte(readerIndex + headerLength);
+        frameLength |= (read & 0x7F) << (7 * headerLength);
+        headerLength++;
+
+        if ((read & 0x80) == 0)
+        {
+          break;
+        }
+      }
+    }
+    else
+    {
+      if (in.readableBytes() < MEDIUM_LENGTH)
+      {
+        return;
+      }
+
+      headerLength = MEDIUM_LENGTH;
+      frameLength = in.getUnsignedMedium(readerIndex);
+    }
+
+    if (frameLength < 0)
+    {
+      in.skipBytes(in.readableBytes());
+      throw new CorruptedFrameException("Negative frame length: " + frameLength);
+    }
+
+    if (frameLength > maxFrameLength)
+    {
+      in.skipBytes(in.readableBytes());
+      throw new TooLongFrameException("Frame length of " + frameLength +
+        " bytes is above the maximum of " + maxFrameLength);
+    }
+
+    if (in.readableBytes() < headerLength + frameLength)
+    {
+      return;
+    }
+
+    in.skipBytes(headerLength);
+    out.add(in.readRetainedSlice(frameLength));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates frames written by {@link FrameCompressor} and passes every other frame
+ * through unchanged. Frames that inflate to more than the maximum frame size are
+ * rejected so a small frame cannot expand into a large allocation.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class FrameDecompressor extends MessageToMessageDecoder<ByteBuf>
+{
+  private final int maxFrameSize;
+  private final TrafficStatistics trafficStatistics;
+  private Inflater inflater;
+
+  public FrameDecompressor(int maxFrameSize, TrafficStatistics trafficStatistics)
+  {
+    Preconditions.checkArgument(maxFrameSize > 0, "maxFrameSize must be > 0");
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
+
+    this.maxFrameSize = maxFrameSize;
+    this.trafficStatistics = trafficStatistics;
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+  {
+    if (inflater != null)
+    {
+      inflater.end();
+      inflater = null;
+    }
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out)
+    throws Exception
+  {
+    if (!frame.isReadable() ||
+      (frame.getUnsignedByte(frame.readerIndex()) & FrameCompressor.COMPRESSED_FLAG) == 0)
+    {
+      out.add(frame.retain());
+      return;
+    }
+
+    if (frame.readableBytes() < FrameCompressor.COMPRESSED_HEADER_LENGTH)
+    {
+      throw new CorruptedFrameException("Compressed frame is missing its header");
+    }
+
+    long startNanos = System.nanoTime();
+    int packetId = frame.readUnsignedByte() & ~FrameCompressor.COMPRESSED_FLAG;
+    int bodyLength = frame.readInt();
+
+    if (bodyLength < 0 || bodyLength >= maxFrameSize)
+    {
+      throw new CorruptedFrameException("Compressed frame inflates to " + bodyLength +
+        " bytes which is above the maximum of " + maxFrameSize);
+    }
+
+    int inputLength = frame.readableBytes();
+    byte[] input;
+    int inputOffset;
+
+    if (frame.hasArray())
+    {
+      input = frame.array();
+      inputOffset = frame.arrayOffset() + frame.readerIndex();
+    }
+    else
+    {
+      input = new byte[inputLength];
+      inputOffset = 0;
+      frame.getBytes(frame.readerIndex(), input);
+    }
+
+    frame.skipBytes(inputLength);
+
+    if (inflater == null)
+    {
+      inflater = new Inflater();
+    }
+
+    ByteBuf decompressed = ctx.alloc().heapBuffer(bodyLength + 1, bodyLength + 1);
+    boolean success = false;
+
+    try
+    {
+      decompressed.writeByte(packetId);
+      inflater.setInput(input, inputOffset, inputLength);
+
+      int written = inflater.inflate(decompressed.array(),
+        decompressed.arrayOffset() + decompressed.writerIndex(), bodyLength);
+      decompressed.writerIndex(decompressed.writerIndex() + written);
+
+      if (written != bodyLength || !inflater.finished())
+      {
+        throw new CorruptedFrameException("Compressed frame did not inflate to " +
+          bodyLength + " bytes");
+      }
+
+      trafficStatistics.recordDecompression(System.nanoTime() - startNanos);
+      out.add(decompressed);
+      success = true;
+    }
+    catch (DataFormatException ex)
+    {
+      throw new CorruptedFrameException(ex);
+    }
+    finally
+    {
+      inflater.reset();
+
+      if (!success)
+      {
+        decompressed.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * Prepends the length of each frame as a 3-byte medium until
+ * {@link #setVarIntLength(boolean)} switches to a VarInt. The frame itself is not
+ * copied.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class FramePrepender extends MessageToMessageEncoder<ByteBuf>
+{
+  private static final int MEDIUM_LENGTH = 3;
+  private static final int MAX_VAR_INT_LENGTH = 5;
+  private static final int MAX_MEDIUM_VALUE = (1 << 24) - 1;
+
+  private volatile boolean varIntLength;
+
+  /**
+   * @return True if frame lengths are written as VarInts
+   */
+  public boolean isVarIntLength()
+  {
+    return varIntLength;
+  }
+
+  /**
+   * Sets how the lengths of frames that are not yet written are encoded. It must be
+   * called on the event loop between two frames.
+   *
+   * @param varIntLength True for VarInts or false for 3-byte mediums
+   */
+  public void setVarIntLength(boolean varIntLength)
+  {
+    this.varIntLength = varIntLength;
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out)
+    throws Exception
+  {
+    int frameLength = frame.readableBytes();
+    ByteBuf header;
+
+    if (varIntLength)
+    {
+      header = ctx.alloc().ioBuffer(MAX_VAR_INT_LENGTH);
+
+      while ((frameLength & ~0x7F) != 0)
+      {
+        header.writeByte((frameLength & 0x7F) | 0x80);
+        frameLength >>>= 7;
+      }
+
+      header.writeByte(frameLength);
+    }
+    else
+    {
+      if (frameLength > MAX_MEDIUM_VALUE)
+      {
+        throw new EncoderException("Frame length of " + frameLength +
+          " bytes does not fit in " + MEDIUM_LENGTH + " bytes");
+      }
+
+      header = ctx.alloc().ioBuffer(MEDIUM_LENGTH);
+      header.writeMedium(frameLength);
+    }
+
+    out.add(header);
+    out.add(frame.retain());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Order in which {@link PriorityWriteScheduler} writes messages that are waiting for a
+ * channel to become writable. Earlier constants are written first.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public enum MessagePriority
+{
+  /**
+   * Registration and keep-alives, which close the connection if they are late
+   */
+  CONTROL,
+
+  /**
+   * Responses that a consumer on another server is waiting for
+   */
+  RESPONSE,
+
+  /**
+   * Requests sent to one server
+   */
+  REQUEST,
+
+  /**
+   * Broadcasts and stream chunks
+   */
+  BULK;
+
+  /**
+   * @param message Packet or encoded packet written to a channel
+   *
+   * @return Priority of the message
+   */
+  public static MessagePriority of(Object message)
+  {
+    if (message instanceof PacketToSpigotRequest)
+    {
+      return forChannel(((PacketToSpigotRequest) message).getChannelName(), REQUEST);
+    }
+    else if (message instanceof PacketToBungeeRequest)
+    {
+      return forChannel(((PacketToBungeeRequest) message).getChannelName(), REQUEST);
+    }
+    else if (message instanceof PacketToAnyResponse)
+    {
+      return RESPONSE;
+    }
+    else if (message instanceof PacketToBungeeForward)
+    {
+      return forChannel(((PacketToBungeeForward) message).getChannelName(), BULK);
+    }
+    else if (message instanceof PacketToBungeeRegister ||
+      message instanceof PacketToSpigotRegister)
+    {
+      return CONTROL;
+    }
+    else if (message instanceof ByteBuf)
+    {
+      // Encoded packets are only written for broadcasts
+      return BULK;
+    }
+
+    return REQUEST;
+  }
+
+  /**
+   * @param channelName Name of the channel a message is sent to
+   * @param defaultPriority Priority of messages on other channels
+   *
+   * @return Priority of a message sent to the channel
+   */
+  public static MessagePriority forChannel(String channelName, MessagePriority defaultPriority)
+  {
+    if (Channels.KEEP_ALIVE.equals(channelName))
+    {
+      return CONTROL;
+    }
+    else if (Channels.STREAM.equals(channelName))
+    {
+      return BULK;
+    }
+
+    return defaultPriority;
+  }
+}
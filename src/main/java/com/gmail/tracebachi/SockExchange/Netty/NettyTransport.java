@@ -0,0 +1,182 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * Chooses between the epoll and NIO transports and applies {@link TransportOptions}
+ * to bootstraps
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+final class NettyTransport
+{
+  /**
+   * Prefix of a client host name that is a Unix domain socket path
+   */
+  static final String DOMAIN_SOCKET_PREFIX = "socket:";
+
+  private final boolean epoll;
+
+  private NettyTransport(boolean epoll)
+  {
+    this.epoll = epoll;
+  }
+
+  /**
+   * @param options Options that say if epoll is preferred
+   * @return Epoll transport if it is preferred and available or NIO if not
+   */
+  static NettyTransport select(TransportOptions options)
+  {
+    return new NettyTransport(options.isNativeTransportPreferred() && isEpollAvailable());
+  }
+
+  boolean isEpoll()
+  {
+    return epoll;
+  }
+
+  EventLoopGroup newEventLoopGroup(int threads)
+  {
+    return epoll ? new EpollEventLoopGroup(threads) : new NioEventLoopGroup(threads);
+  }
+
+  Class<? extends ServerChannel> serverChannelClass()
+  {
+    return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+  }
+
+  Class<? extends Channel> channelClass()
+  {
+    return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+  }
+
+  Class<? extends ServerChannel> serverDomainSocketChannelClass()
+  {
+    checkDomainSocketSupport();
+    return EpollServerDomainSocketChannel.class;
+  }
+
+  Class<? extends Channel> domainSocketChannelClass()
+  {
+    checkDomainSocketSupport();
+    return EpollDomainSocketChannel.class;
+  }
+
+  private void checkDomainSocketSupport()
+  {
+    if (!epoll)
+    {
+      throw new IllegalStateException(
+        "Unix domain sockets require the native epoll transport which is not in use");
+    }
+  }
+
+  /**
+   * Applies the options of the listening socket and accepted sockets
+   */
+  static void applyServerOptions(ServerBootstrap bootstrap, TransportOptions options)
+  {
+    bootstrap.option(ChannelOption.SO_BACKLOG, options.getBacklog());
+    bootstrap.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    bootstrap.childOption(ChannelOption.TCP_NODELAY, options.isTcpNoDelay());
+    bootstrap.childOption(ChannelOption.SO_KEEPALIVE, options.isKeepAlive());
+
+    if (options.getReceiveBufferSize() > 0)
+    {
+      // Set on the listening socket too so accepted sockets can use a large TCP window
+      bootstrap.option(ChannelOption.SO_RCVBUF, options.getReceiveBufferSize());
+      bootstrap.childOption(ChannelOption.SO_RCVBUF, options.getReceiveBufferSize());
+    }
+
+    if (options.getSendBufferSize() > 0)
+    {
+      bootstrap.childOption(ChannelOption.SO_SNDBUF, options.getSendBufferSize());
+    }
+  }
+
+  /**
+   * Applies the options of a Unix domain socket server, which are the server options
+   * without the TCP ones
+   */
+  static void applyDomainSocketServerOptions(ServerBootstrap bootstrap, TransportOptions options)
+  {
+    bootstrap.option(ChannelOption.SO_BACKLOG, options.getBacklog());
+    bootstrap.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+    if (options.getReceiveBufferSize() > 0)
+    {
+      bootstrap.childOption(ChannelOption.SO_RCVBUF, options.getReceiveBufferSize());
+    }
+
+    if (options.getSendBufferSize() > 0)
+    {
+      bootstrap.childOption(ChannelOption.SO_SNDBUF, options.getSendBufferSize());
+    }
+  }
+
+  /**
+   * Applies the options of the connecting socket
+   */
+  static void applyClientOptions(Bootstrap bootstrap, TransportOptions options)
+  {
+    bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    bootstrap.option(ChannelOption.TCP_NODELAY, options.isTcpNoDelay());
+    bootstrap.option(ChannelOption.SO_KEEPALIVE, options.isKeepAlive());
+
+    if (options.getReceiveBufferSize() > 0)
+    {
+      bootstrap.option(ChannelOption.SO_RCVBUF, options.getReceiveBufferSize());
+    }
+
+    if (options.getSendBufferSize() > 0)
+    {
+      bootstrap.option(ChannelOption.SO_SNDBUF, options.getSendBufferSize());
+    }
+  }
+
+  private static boolean isEpollAvailable()
+  {
+    try
+    {
+      return Epoll.isAvailable();
+    }
+    catch (Throwable ex)
+    {
+      // The platform may ship Netty without the native transport classes
+      return false;
+    }
+  }
+}
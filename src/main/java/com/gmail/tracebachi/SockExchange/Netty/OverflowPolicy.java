@@ -0,0 +1,78 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+/**
+ * What a {@link BungeeToSpigotConnection} does with a message when its channel is
+ * not writable because the outbound buffer is above the high water mark. Responses
+ * are always written so that requests on the other side can complete.
+ * <p>
+ * {@link PriorityWriteScheduler} applies the same policy on both sides once the
+ * writes it holds for an unwritable channel reach their limit.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public enum OverflowPolicy
+{
+  /**
+   * Write every message regardless of the outbound buffer size
+   */
+  QUEUE,
+
+  /**
+   * Drop messages without a response consumer but still write requests
+   */
+  DROP_BROADCASTS,
+
+  /**
+   * Drop messages without a response consumer and fail requests with
+   * {@link com.gmail.tracebachi.SockExchange.Messages.ResponseStatus#SERVER_BUSY}
+   */
+  FAIL_FAST,
+
+  /**
+   * Block the thread sending a request until the channel is writable or the max block
+   * time passes, then behave like {@link #FAIL_FAST}. Messages without a response
+   * consumer are dropped without blocking, and threads of SockExchange's event loops
+   * or other {@link io.netty.util.concurrent.FastThreadLocalThread}s never block.
+   */
+  BLOCK;
+
+  /**
+   * @param name Name of the policy which is case-insensitive
+   * @param defaultPolicy Policy to return if the name is null or unknown
+   * @return Matching policy or the default policy
+   */
+  public static OverflowPolicy fromName(String name, OverflowPolicy defaultPolicy)
+  {
+    if (name == null)
+    {
+      return defaultPolicy;
+    }
+
+    for (OverflowPolicy policy : values())
+    {
+      if (policy.name().equalsIgnoreCase(name.trim()))
+      {
+        return policy;
+      }
+    }
+
+    return defaultPolicy;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Sends the same request to many Spigot servers by writing a retained duplicate of the
+ * message to each channel. The rest of the request is encoded by each channel, so it
+ * can use the wire format negotiated by the connection.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketBroadcaster
+{
+  private final TrafficStatistics trafficStatistics;
+
+  public PacketBroadcaster(TrafficStatistics trafficStatistics)
+  {
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
+
+    this.trafficStatistics = trafficStatistics;
+  }
+
+  public TrafficStatistics getTrafficStatistics()
+  {
+    return trafficStatistics;
+  }
+
+  /**
+   * Sends a message without a response consumer to all connections
+   *
+   * @param channelName Name of the channel to send to
+   * @param messageBytes Bytes to send
+   * @param connections Connections to send to
+   * @param excluded Connection to skip or null
+   */
+  public void broadcast(
+    String channelName, byte[] messageBytes, Iterable<BungeeToSpigotConnection> connections,
+    BungeeToSpigotConnection excluded)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkNotNull(connections, "connections");
+
+    // The array may be modified after this method returns, so it is copied once
+    ByteBuf messageBuf = PooledByteBufAllocator.DEFAULT.directBuffer(messageBytes.length);
+
+    try
+    {
+      messageBuf.writeBytes(messageBytes);
+      broadcastMessage(channelName, messageBuf, connections, excluded);
+    }
+    finally
+    {
+      messageBuf.release();
+    }
+  }
+
+  /**
+   * Sends a message without a response consumer to all connections. The caller keeps
+   * ownership of the buffer and its indexes are not modified.
+   *
+   * @param channelName Name of the channel to send to
+   * @param messageBuf Buffer containing the message
+   * @param connections Connections to send to
+   * @param excluded Connection to skip or null
+   */
+  public void broadcast(
+    String channelName, ByteBuf messageBuf, Iterable<BungeeToSpigotConnection> connections,
+    BungeeToSpigotConnection excluded)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBuf, "messageBuf");
+    Preconditions.checkNotNull(connections, "connections");
+
+    broadcastMessage(channelName, messageBuf, connections, excluded);
+  }
+
+  private void broadcastMessage(
+    String channelName, ByteBuf messageBuf, Iterable<BungeeToSpigotConnection> connections,
+    BungeeToSpigotConnection excluded)
+  {
+    MessagePriority priority = MessagePriority.forChannel(channelName, MessagePriority.BULK);
+    int laneHash = channelName.hashCode();
+    int messageLength = messageBuf.readableBytes();
+    int recipientCount = 0;
+
+    for (BungeeToSpigotConnection connection : connections)
+    {
+      if (connection != excluded && connection.sendBroadcast(
+        new BroadcastRequest(channelName, messageBuf.retainedDuplicate()), priority, laneHash))
+      {
+        recipientCount++;
+      }
+    }
+
+    trafficStatistics.recordBroadcast(messageLength, recipientCount);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
+import com.gmail.tracebachi.SockExchange.Netty.PacketType.Direction;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Packet types indexed by their packet ID, shared by the Bungee and Spigot codecs.
+ * Looking up a type is a single array read, so decoding and encoding do not search
+ * through every known packet.
+ * <p>
+ * IDs below {@link #FIRST_PLUGIN_PACKET_ID} are reserved for SockExchange. Plugins can
+ * register their own packet types with the IDs above it, which both sides must agree on.
+ * The high bit of the ID byte marks compressed frames, so IDs stop at {@link #MAX_PACKET_ID}.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public final class PacketRegistry
+{
+  public static final int FIRST_PLUGIN_PACKET_ID = 64;
+  public static final int MAX_PACKET_ID = 127;
+
+  private static final Object lock = new Object();
+  // Replaced as a whole on registration so lookups do not need a lock
+  private static volatile PacketType<?>[] packetTypes = new PacketType<?>[MAX_PACKET_ID + 1];
+
+  static
+  {
+    // Registration packets
+    add(PacketType.builtIn(PacketToBungeeRegister.PACKET_ID, PacketToBungeeRegister.class,
+      PacketToBungeeRegister::new, Direction.TO_BUNGEE, AbstractPacketHandler::handle));
+    add(PacketType.builtIn(PacketToSpigotRegister.PACKET_ID, PacketToSpigotRegister.class,
+      PacketToSpigotRegister::new, Direction.TO_SPIGOT, AbstractPacketHandler::handle));
+
+    // Request and response packets
+    add(PacketType.builtIn(PacketToBungeeRequest.PACKET_ID, PacketToBungeeRequest.class,
+      PacketToBungeeRequest::newInstance, Direction.TO_BUNGEE, AbstractPacketHandler::handle));
+    add(PacketType.builtIn(PacketToSpigotRequest.PACKET_ID, PacketToSpigotRequest.class,
+      PacketToSpigotRequest::newInstance, Direction.TO_SPIGOT, AbstractPacketHandler::handle));
+    add(PacketType.builtIn(PacketToAnyResponse.PACKET_ID, PacketToAnyResponse.class,
+      PacketToAnyResponse::newInstance, Direction.BOTH, AbstractPacketHandler::handle));
+
+    // Forward packet
+    add(PacketType.builtIn(PacketToBungeeForward.PACKET_ID, PacketToBungeeForward.class,
+      PacketToBungeeForward::newInstance, Direction.TO_BUNGEE, AbstractPacketHandler::handle));
+
+    // Forward packet with gathered responses
+    add(PacketType.builtIn(PacketToBungeeGather.PACKET_ID, PacketToBungeeGather.class,
+      PacketToBungeeGather::newInstance, Direction.TO_BUNGEE, AbstractPacketHandler::handle));
+  }
+
+  private PacketRegistry()
+  {
+  }
+
+  /**
+   * @param packetId ID of the packet
+   *
+   * @return Type of the packet or null if no type is registered with the ID
+   */
+  public static PacketType<?> get(byte packetId)
+  {
+    // Negative IDs are compressed frames or invalid
+    return packetId < 0 ? null : packetTypes[packetId];
+  }
+
+  /**
+   * Registers a packet type added by a plugin
+   *
+   * @param packetType Packet type with an ID from {@link #FIRST_PLUGIN_PACKET_ID} to
+   * {@link #MAX_PACKET_ID} that is not registered yet
+   */
+  public static void register(PacketType<?> packetType)
+  {
+    Preconditions.checkNotNull(packetType, "packetType");
+    Preconditions.checkArgument(packetType.getPacketId() >= FIRST_PLUGIN_PACKET_ID,
+      "Packet IDs below %s are reserved", FIRST_PLUGIN_PACKET_ID);
+
+    add(packetType);
+  }
+
+  /**
+   * Unregisters a packet type added by a plugin
+   *
+   * @param packetType Packet type to unregister
+   *
+   * @return True if the packet type was registered or false if not
+   */
+  public static boolean unregister(PacketType<?> packetType)
+  {
+    Preconditions.checkNotNull(packetType, "packetType");
+
+    synchronized (lock)
+    {
+      int packetId = packetType.getPacketId();
+
+      if (packetId < FIRST_PLUGIN_PACKET_ID || packetTypes[packetId] != packetType)
+      {
+        return false;
+      }
+
+      PacketType<?>[] updated = Arrays.copyOf(packetTypes, packetTypes.length);
+      updated[packetId] = null;
+      packetTypes = updated;
+      return true;
+    }
+  }
+
+  private static void add(PacketType<?> packetType)
+  {
+    int packetId = packetType.getPacketId();
+    Preconditions.checkArgument(packetId > 0, "Packet IDs must be between 1 and %s",
+      MAX_PACKET_ID);
+
+    // Pooled types take the probe from their pool, so it has to be given back
+    AbstractPacket probe = packetType.newPacket();
+    int probePacketId = probe.getPacketId();
+    probe.release();
+
+    Preconditions.checkArgument(probePacketId == packetId,
+      "Packets of the type must use packet ID %s", packetId);
+
+    synchronized (lock)
+    {
+      Preconditions.checkArgument(packetTypes[packetId] == null,
+        "Packet ID %s is already registered", packetId);
+
+      PacketType<?>[] updated = Arrays.copyOf(packetTypes, packetTypes.length);
+      updated[packetId] = packetType;
+      packetTypes = updated;
+    }
+  }
+}
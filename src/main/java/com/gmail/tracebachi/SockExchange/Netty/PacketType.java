@@ -0,0 +1,151 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.WireFormat;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Describes how a packet with a given ID is created, which side receives it and how it
+ * is passed to the {@link AbstractPacketHandler} of the connection it arrived on
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public final class PacketType<P extends AbstractPacket>
+{
+  public enum Direction
+  {
+    TO_BUNGEE,
+    TO_SPIGOT,
+    BOTH;
+
+    public boolean isToBungee()
+    {
+      return this != TO_SPIGOT;
+    }
+
+    public boolean isToSpigot()
+    {
+      return this != TO_BUNGEE;
+    }
+  }
+
+  private final byte packetId;
+  private final Class<P> packetClass;
+  private final Supplier<P> factory;
+  private final Direction direction;
+  private final BiConsumer<AbstractPacketHandler, P> dispatcher;
+
+  private PacketType(
+    byte packetId, Class<P> packetClass, Supplier<P> factory, Direction direction,
+    BiConsumer<AbstractPacketHandler, P> dispatcher)
+  {
+    Preconditions.checkNotNull(packetClass, "packetClass");
+    Preconditions.checkNotNull(factory, "factory");
+    Preconditions.checkNotNull(direction, "direction");
+    Preconditions.checkNotNull(dispatcher, "dispatcher");
+
+    this.packetId = packetId;
+    this.packetClass = packetClass;
+    this.factory = factory;
+    this.direction = direction;
+    this.dispatcher = dispatcher;
+  }
+
+  /**
+   * Creates the type of a packet that a plugin adds to the protocol. Received packets
+   * are only passed to the listener by registered connections.
+   *
+   * @param packetId ID of the packet from {@link PacketRegistry#FIRST_PLUGIN_PACKET_ID}
+   * to {@link PacketRegistry#MAX_PACKET_ID}
+   * @param packetClass Class of the packet
+   * @param factory Creates empty packets to read received packets into
+   * @param direction Side that receives the packet
+   * @param listener Listener for received packets, which is called on the Netty thread
+   * with the connection the packet arrived on
+   *
+   * @return Packet type to pass to {@link PacketRegistry#register(PacketType)}
+   */
+  public static <P extends AbstractPacket> PacketType<P> custom(
+    byte packetId, Class<P> packetClass, Supplier<P> factory, Direction direction,
+    BiConsumer<AbstractPacketHandler, P> listener)
+  {
+    Preconditions.checkNotNull(listener, "listener");
+
+    return new PacketType<>(packetId, packetClass, factory, direction,
+      (packetHandler, packet) -> packetHandler.handle(packet, listener));
+  }
+
+  static <P extends AbstractPacket> PacketType<P> builtIn(
+    byte packetId, Class<P> packetClass, Supplier<P> factory, Direction direction,
+    BiConsumer<AbstractPacketHandler, P> dispatcher)
+  {
+    return new PacketType<>(packetId, packetClass, factory, direction, dispatcher);
+  }
+
+  public byte getPacketId()
+  {
+    return packetId;
+  }
+
+  public Class<P> getPacketClass()
+  {
+    return packetClass;
+  }
+
+  public Direction getDirection()
+  {
+    return direction;
+  }
+
+  /**
+   * @return New empty packet of this type
+   */
+  public P newPacket()
+  {
+    return factory.get();
+  }
+
+  /**
+   * Reads a packet of this type and passes it to the packet handler. The packet is
+   * released afterwards, so handlers that keep its message buffer retain it themselves.
+   *
+   * @param in Buffer positioned after the packet ID
+   * @param packetHandler Handler of the connection the packet arrived on
+   * @param format Format of packets received on the connection
+   */
+  void readAndHandle(ByteBuf in, AbstractPacketHandler packetHandler, WireFormat format)
+  {
+    P packet = factory.get();
+
+    try
+    {
+      packet.read(in, format);
+      dispatcher.accept(packetHandler, packet);
+    }
+    finally
+    {
+      packet.release();
+    }
+  }
+}
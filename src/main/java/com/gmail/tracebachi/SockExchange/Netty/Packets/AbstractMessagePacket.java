@@ -0,0 +1,160 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
+/**
+ * Packet that carries a message. A packet read from a channel keeps the message as a
+ * retained slice of the frame and only copies it into an array when
+ * {@link #getMessageBytes()} is called. A packet created to be written can hold either.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public abstract class AbstractMessagePacket extends AbstractPacket
+{
+  private byte[] messageBytes;
+  private ByteBuf messageBuf;
+
+  protected AbstractMessagePacket()
+  {
+  }
+
+  /**
+   * @param recyclerHandle Handle of the pool the packet is returned to when released
+   */
+  protected AbstractMessagePacket(Recycler.Handle<? extends AbstractPacket> recyclerHandle)
+  {
+    super(recyclerHandle);
+  }
+
+  /**
+   * @return Message bytes, copied out of the message buffer on first use if the
+   * packet was read from a channel
+   */
+  public byte[] getMessageBytes()
+  {
+    if (messageBytes == null && messageBuf != null)
+    {
+      messageBytes = copyMessageBytes(messageBuf);
+    }
+
+    return messageBytes;
+  }
+
+  public void setMessageBytes(byte[] messageBytes)
+  {
+    releaseMessageBuf();
+    this.messageBytes = messageBytes;
+  }
+
+  /**
+   * @return Message buffer if the packet was read from a channel or null. The buffer is
+   * released with the packet, so it must be retained to be used afterwards.
+   */
+  public ByteBuf getMessageBuf()
+  {
+    return messageBuf;
+  }
+
+  /**
+   * Sets the message to a buffer. The packet takes ownership of one reference, which is
+   * released when the packet is written or released.
+   *
+   * @param messageBuf Buffer containing the message
+   */
+  public void setMessageBuf(ByteBuf messageBuf)
+  {
+    releaseMessageBuf();
+    this.messageBytes = null;
+    this.messageBuf = messageBuf;
+  }
+
+  /**
+   * @return Length of the message or -1 if there is no message
+   */
+  public int getMessageLength()
+  {
+    if (messageBuf != null)
+    {
+      return messageBuf.readableBytes();
+    }
+
+    return messageBytes != null ? messageBytes.length : -1;
+  }
+
+  /**
+   * @return True if the packet has a message as an array or a buffer
+   */
+  public boolean hasMessage()
+  {
+    return messageBuf != null || messageBytes != null;
+  }
+
+  /**
+   * Reads a length-prefixed message as a retained slice of the input
+   *
+   * @param in Input ByteBuf
+   * @param format Format of the connection or null for version 1
+   */
+  protected void readMessage(ByteBuf in, WireFormat format)
+  {
+    clearMessage();
+    messageBuf = readMessageBuf(in, format);
+  }
+
+  /**
+   * Writes the message with a length prefix
+   *
+   * @param out Output ByteBuf
+   * @param format Format of the connection or null for version 1
+   */
+  protected void writeMessage(ByteBuf out, WireFormat format)
+  {
+    Preconditions.checkState(hasMessage(), "messageBytes");
+
+    writeMessage(out, messageBytes, messageBuf, format);
+  }
+
+  /**
+   * Removes the message and releases its buffer if it has one
+   */
+  protected void clearMessage()
+  {
+    releaseMessageBuf();
+    messageBytes = null;
+  }
+
+  @Override
+  protected void deallocate()
+  {
+    // Pooled packets are reused, so the message may not outlive the release
+    clearMessage();
+  }
+
+  private void releaseMessageBuf()
+  {
+    if (messageBuf != null)
+    {
+      messageBuf.release();
+      messageBuf = null;
+    }
+  }
+}
@@ -18,14 +18,53 @@
 package com.gmail.tracebachi.SockExchange.Netty.Packets;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.Recycler;
 
 import java.nio.charset.StandardCharsets;
 
 /**
+ * Base class of all packets. The request and response packets are pooled: instances
+ * from {@code newInstance()} are returned to a {@link Recycler} when they are released,
+ * so a packet must not be used after {@link #release()}. Inbound packets are released
+ * after their handler returns and outbound packets after they are encoded.
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public abstract class AbstractPacket
 {
+  /**
+   * Max number of pooled packets per thread and packet type. Setting the
+   * "sockexchange.packetPoolCapacity" system property to 0 disables pooling.
+   */
+  protected static final int POOL_CAPACITY = Integer.getInteger(
+    "sockexchange.packetPoolCapacity", 4096);
+
+  private final Recycler.Handle<AbstractPacket> recyclerHandle;
+  private volatile int generation;
+  private boolean released;
+
+  protected AbstractPacket()
+  {
+    this.recyclerHandle = null;
+  }
+
+  /**
+   * @param recyclerHandle Handle of the pool the packet is returned to when released
+   */
+  @SuppressWarnings("unchecked")
+  protected AbstractPacket(Recycler.Handle<? extends AbstractPacket> recyclerHandle)
+  {
+    this.recyclerHandle = (Recycler.Handle<AbstractPacket>) recyclerHandle;
+  }
+
+  /**
+   * @return ID that the packet is written with, which is the ID it is registered with
+   */
+  public abstract byte getPacketId();
+
   /**
    * Reads the packet from a {@link ByteBuf}
    *
@@ -40,6 +79,248 @@ public abstract class AbstractPacket
    */
   public abstract void write(ByteBuf out);
 
+  /**
+   * Reads the packet from a {@link ByteBuf} in the format of the connection. Packets
+   * that depend on the format override it.
+   *
+   * @param in ByteBuf to read from
+   * @param format Format of the connection or null to read version 1 without a
+   * channel name dictionary
+   */
+  public void read(ByteBuf in, WireFormat format)
+  {
+    read(in);
+  }
+
+  /**
+   * Writes the packet to a {@link ByteBuf} in the format of the connection. Packets
+   * that depend on the format override it.
+   *
+   * @param out ByteBuf to write to
+   * @param format Format of the connection or null to write version 1 without a
+   * channel name dictionary
+   */
+  public void write(ByteBuf out, WireFormat format)
+  {
+    write(out);
+  }
+
+  /**
+   * Releases any buffers held by the packet and returns a pooled packet to its pool.
+   * Calling it more than once has no effect until the packet is taken from the pool again.
+   */
+  public final void release()
+  {
+    if (recyclerHandle == null)
+    {
+      deallocate();
+      return;
+    }
+
+    if (!released)
+    {
+      released = true;
+      deallocate();
+
+      generation++;
+      recyclerHandle.recycle(this);
+    }
+  }
+
+  /**
+   * Releases the packet only if it has not been returned to its pool since the
+   * generation was read. It is used where ownership of a written packet is unclear,
+   * such as a failed write that may have reached the encoder.
+   *
+   * @param generation Value of {@link #getGeneration()} when ownership was handed over
+   */
+  public final void release(int generation)
+  {
+    if (this.generation == generation)
+    {
+      release();
+    }
+  }
+
+  /**
+   * @return Number of times the packet was returned to its pool
+   */
+  public final int getGeneration()
+  {
+    return generation;
+  }
+
+  /**
+   * Releases any buffers held by the packet and clears references to other objects so
+   * a pooled packet does not keep them alive. Calling it more than once has no effect.
+   */
+  protected void deallocate()
+  {
+  }
+
+  /**
+   * Marks a packet taken from a pool as in use
+   *
+   * @param packet Packet from a pool
+   *
+   * @return The same packet
+   */
+  protected static <P extends AbstractPacket> P reuse(P packet)
+  {
+    ((AbstractPacket) packet).released = false;
+    return packet;
+  }
+
+  /**
+   * Helper method to read a length-prefixed message as a retained slice of the input.
+   * The caller is responsible for releasing the returned buffer. Slices of pooled
+   * buffers are pooled as well.
+   *
+   * @param in Input ByteBuf
+   *
+   * @return Retained slice of the message
+   */
+  protected static ByteBuf readMessageBuf(ByteBuf in)
+  {
+    return readMessageBuf(in, null);
+  }
+
+  /**
+   * Helper method to read a length-prefixed message in the format of the connection
+   *
+   * @param in Input ByteBuf
+   * @param format Format of the connection or null for version 1
+   *
+   * @return Retained slice of the message
+   *
+   * @see #readMessageBuf(ByteBuf)
+   */
+  protected static ByteBuf readMessageBuf(ByteBuf in, WireFormat format)
+  {
+    int length = readCompactInt(in, format);
+    return in.readRetainedSlice(length);
+  }
+
+  /**
+   * Helper method to write a length-prefixed message from either a buffer or an array.
+   * The buffer is used if it is not null and its indexes are not modified.
+   *
+   * @param out Output ByteBuf
+   * @param messageBytes Message as an array
+   * @param messageBuf Message as a buffer
+   */
+  protected static void writeMessage(ByteBuf out, byte[] messageBytes, ByteBuf messageBuf)
+  {
+    writeMessage(out, messageBytes, messageBuf, null);
+  }
+
+  /**
+   * Helper method to write a length-prefixed message in the format of the connection
+   *
+   * @param out Output ByteBuf
+   * @param messageBytes Message as an array
+   * @param messageBuf Message as a buffer
+   * @param format Format of the connection or null for version 1
+   *
+   * @see #writeMessage(ByteBuf, byte[], ByteBuf)
+   */
+  protected static void writeMessage(
+    ByteBuf out, byte[] messageBytes, ByteBuf messageBuf, WireFormat format)
+  {
+    if (messageBuf != null)
+    {
+      int length = messageBuf.readableBytes();
+      writeCompactInt(out, length, format);
+      out.writeBytes(messageBuf, messageBuf.readerIndex(), length);
+    }
+    else
+    {
+      writeCompactInt(out, messageBytes.length, format);
+      out.writeBytes(messageBytes);
+    }
+  }
+
+  /**
+   * Helper method to write a non-negative int as a VarInt in version 2 or as an int
+   * before
+   *
+   * @param out Output ByteBuf
+   * @param value Value to write
+   * @param format Format of the connection or null for version 1
+   */
+  protected static void writeCompactInt(ByteBuf out, int value, WireFormat format)
+  {
+    if (WireFormat.isCompact(format))
+    {
+      writeVarInt(out, value);
+    }
+    else
+    {
+      out.writeInt(value);
+    }
+  }
+
+  /**
+   * Helper method to read an int written by {@link #writeCompactInt(ByteBuf, int, WireFormat)}
+   *
+   * @param in Input ByteBuf
+   * @param format Format of the connection or null for version 1
+   *
+   * @return Integer
+   */
+  protected static int readCompactInt(ByteBuf in, WireFormat format)
+  {
+    return WireFormat.isCompact(format) ? readVarInt(in) : in.readInt();
+  }
+
+  /**
+   * Helper method to write a non-negative long as a VarLong in version 2 or as a long
+   * before. Consumer IDs start at 1 and timeouts are small, so they usually take one
+   * to three bytes instead of eight.
+   *
+   * @param out Output ByteBuf
+   * @param value Value to write
+   * @param format Format of the connection or null for version 1
+   */
+  protected static void writeCompactLong(ByteBuf out, long value, WireFormat format)
+  {
+    if (WireFormat.isCompact(format))
+    {
+      writeVarLong(out, value);
+    }
+    else
+    {
+      out.writeLong(value);
+    }
+  }
+
+  /**
+   * Helper method to read a long written by {@link #writeCompactLong(ByteBuf, long, WireFormat)}
+   *
+   * @param in Input ByteBuf
+   * @param format Format of the connection or null for version 1
+   *
+   * @return Long
+   */
+  protected static long readCompactLong(ByteBuf in, WireFormat format)
+  {
+    return WireFormat.isCompact(format) ? readVarLong(in) : in.readLong();
+  }
+
+  /**
+   * Helper method to copy the readable bytes of a buffer without modifying its indexes
+   *
+   * @param messageBuf Buffer to copy from
+   *
+   * @return Copied bytes
+   */
+  protected static byte[] copyMessageBytes(ByteBuf messageBuf)
+  {
+    byte[] bytes = new byte[messageBuf.readableBytes()];
+    messageBuf.getBytes(messageBuf.readerIndex(), bytes);
+    return bytes;
+  }
+
   /**
    * Helper method to write a VarShort
    *
@@ -58,7 +339,7 @@ public abstract class AbstractPacket
    * @param out Output ByteBuf
    * @param value Value to write
    */
-  private static void writeVarInt(ByteBuf out, int value)
+  protected static void writeVarInt(ByteBuf out, int value)
   {
     // Long conversion required for AND-ing with 64 bits
     writeVarLong(out, (((long) 1 << 32) - 1) & value);
@@ -89,7 +370,9 @@ public abstract class AbstractPacket
   }
 
   /**
-   * Helper method to write a string
+   * Helper method to write a string as UTF-8 prefixed by its length in bytes. It is
+   * encoded directly into the output without a temporary array unless it contains
+   * surrogates. Unpaired surrogates are written as '?' like {@link String#getBytes}.
    *
    * @param out Output ByteBuf
    * @param str Value to write
@@ -101,11 +384,70 @@ public abstract class AbstractPacket
       throw new NullPointerException("str");
     }
 
-    int length = str.length();
+    // Netty does not encode unpaired surrogates like the JDK, and its byte count can
+    // disagree with the bytes it writes for them, which would corrupt the frame
+    if (hasSurrogate(str))
+    {
+      byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(out, bytes.length);
+      out.writeBytes(bytes);
+      return;
+    }
+
+    int length = ByteBufUtil.utf8Bytes(str);
     writeVarInt(out, length);
+    int written = ByteBufUtil.writeUtf8(out, str);
+
+    if (written != length)
+    {
+      throw new EncoderException("Wrote " + written + " bytes for a string of " + length);
+    }
+  }
+
+  private static boolean hasSurrogate(String str)
+  {
+    for (int i = 0; i < str.length(); i++)
+    {
+      if (Character.isSurrogate(str.charAt(i)))
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
 
-    byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
-    out.writeBytes(strBytes);
+  /**
+   * Helper method to write a channel name. It is written after the packet is validated
+   * since the dictionary of the connection may define the name.
+   *
+   * @param out Output ByteBuf
+   * @param channelName Value to write
+   * @param format Format of the connection or null to write a plain string
+   */
+  protected static void writeChannelName(ByteBuf out, String channelName, WireFormat format)
+  {
+    if (format != null)
+    {
+      format.getChannelNames().write(out, channelName);
+    }
+    else
+    {
+      writeString(out, channelName);
+    }
+  }
+
+  /**
+   * Helper method to read a channel name
+   *
+   * @param in Input ByteBuf
+   * @param format Format of the connection or null to read a plain string
+   *
+   * @return Channel name
+   */
+  protected static String readChannelName(ByteBuf in, WireFormat format)
+  {
+    return (format != null) ? format.getChannelNames().read(in) : readString(in);
   }
 
   /**
@@ -127,7 +469,7 @@ public abstract class AbstractPacket
    *
    * @return Integer
    */
-  private static int readVarInt(ByteBuf in)
+  protected static int readVarInt(ByteBuf in)
   {
     return (int) readVarLong(in, 5);
   }
@@ -145,7 +487,8 @@ public abstract class AbstractPacket
   }
 
   /**
-   * Helper method to read a string
+   * Helper method to read a string written by {@link #writeString(ByteBuf, String)}.
+   * It is decoded directly from the input without a temporary array.
    *
    * @param in Input ByteBuf
    *
@@ -154,10 +497,15 @@ public abstract class AbstractPacket
   protected static String readString(ByteBuf in)
   {
     int length = readVarInt(in);
-    byte[] bytes = new byte[length];
 
-    in.readBytes(bytes);
-    return new String(bytes, StandardCharsets.UTF_8);
+    if (length < 0 || length > in.readableBytes())
+    {
+      throw new CorruptedFrameException("String length out of range: " + length);
+    }
+
+    String str = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+    in.skipBytes(length);
+    return str;
   }
 
   private static long readVarLong(ByteBuf out, int maxBytes)
@@ -0,0 +1,156 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Channel names of one direction of a connection. The encoder keeps the names it sent
+ * and the decoder keeps the names it received. Once enabled, the first packet with a
+ * channel name defines it with the next ID and later packets only send the ID as a
+ * VarInt. Both sides assign IDs in the order packets are written, so IDs are never
+ * acknowledged.
+ * <p>
+ * A channel name is written as a VarInt. It is followed by the name if it is
+ * {@link #LITERAL} or {@link #DEFINE}, and any other value is the ID of the name plus
+ * {@link #FIRST_ID}. Names are written as literals once {@link #MAX_SIZE} are defined.
+ * Names are written as plain strings while the dictionary is disabled.
+ * <p>
+ * A dictionary is only used by the event loop of its channel.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ChannelNameDictionary
+{
+  public static final int MAX_SIZE = 1024;
+
+  static final int LITERAL = 0;
+  static final int DEFINE = 1;
+  static final int FIRST_ID = 2;
+
+  private final HashMap<String, Integer> sentIds = new HashMap<>();
+  private String[] receivedNames = new String[16];
+  private int receivedCount = 0;
+  private volatile boolean enabled = false;
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * Enables the dictionary for packets written or read after this call. It is enabled
+   * on both sides of a connection during registration.
+   *
+   * @param enabled True to write channel names using the dictionary or false otherwise
+   */
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Writes a channel name, defining it if it was not sent before
+   *
+   * @param out Output ByteBuf
+   * @param channelName Channel name to write
+   */
+  public void write(ByteBuf out, String channelName)
+  {
+    if (!enabled)
+    {
+      AbstractPacket.writeString(out, channelName);
+      return;
+    }
+
+    Integer id = sentIds.get(channelName);
+
+    if (id != null)
+    {
+      AbstractPacket.writeVarInt(out, id + FIRST_ID);
+      return;
+    }
+
+    if (sentIds.size() < MAX_SIZE)
+    {
+      sentIds.put(channelName, sentIds.size());
+      AbstractPacket.writeVarInt(out, DEFINE);
+    }
+    else
+    {
+      AbstractPacket.writeVarInt(out, LITERAL);
+    }
+
+    AbstractPacket.writeString(out, channelName);
+  }
+
+  /**
+   * Reads a channel name. A defined name is interned once and returned as that instance
+   * every time. Lookups by the name use its cached hash code, and they match keys that
+   * are interned as well by reference instead of comparing characters.
+   *
+   * @param in Input ByteBuf
+   *
+   * @return Channel name
+   */
+  public String read(ByteBuf in)
+  {
+    if (!enabled)
+    {
+      return AbstractPacket.readString(in);
+    }
+
+    int value = AbstractPacket.readVarInt(in);
+
+    if (value == LITERAL)
+    {
+      return AbstractPacket.readString(in);
+    }
+
+    if (value == DEFINE)
+    {
+      if (receivedCount == MAX_SIZE)
+      {
+        throw new CorruptedFrameException("Too many channel names defined");
+      }
+
+      String channelName = AbstractPacket.readString(in).intern();
+
+      if (receivedCount == receivedNames.length)
+      {
+        receivedNames = Arrays.copyOf(receivedNames, receivedCount * 2);
+      }
+
+      receivedNames[receivedCount++] = channelName;
+      return channelName;
+    }
+
+    int id = value - FIRST_ID;
+
+    if (id < 0 || id >= receivedCount)
+    {
+      throw new CorruptedFrameException("Unknown channel name ID: " + id);
+    }
+
+    return receivedNames[id];
+  }
+}
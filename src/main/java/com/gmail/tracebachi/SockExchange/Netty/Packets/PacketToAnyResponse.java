@@ -20,15 +20,44 @@ package com.gmail.tracebachi.SockExchange.Netty.Packets;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
-public class PacketToAnyResponse extends AbstractPacket
+public class PacketToAnyResponse extends AbstractMessagePacket
 {
+  public static final byte PACKET_ID = 5;
+
+  private static final Recycler<PacketToAnyResponse> RECYCLER =
+    new Recycler<PacketToAnyResponse>(POOL_CAPACITY)
+    {
+      @Override
+      protected PacketToAnyResponse newObject(Handle<PacketToAnyResponse> handle)
+      {
+        return new PacketToAnyResponse(handle);
+      }
+    };
+
   private long consumerId;
   private ResponseStatus responseStatus;
-  private byte[] messageBytes;
+
+  public PacketToAnyResponse()
+  {
+  }
+
+  private PacketToAnyResponse(Recycler.Handle<PacketToAnyResponse> recyclerHandle)
+  {
+    super(recyclerHandle);
+  }
+
+  /**
+   * @return Packet from the pool, which goes back to the pool when it is released
+   */
+  public static PacketToAnyResponse newInstance()
+  {
+    return reuse(RECYCLER.get());
+  }
 
   public long getConsumerId()
   {
@@ -50,21 +79,23 @@ public class PacketToAnyResponse extends AbstractPacket
     this.responseStatus = responseStatus;
   }
 
-  public byte[] getMessageBytes()
+  @Override
+  public byte getPacketId()
   {
-    return messageBytes;
+    return PACKET_ID;
   }
 
-  public void setMessageBytes(byte[] messageBytes)
+  @Override
+  public void read(ByteBuf in)
   {
-    this.messageBytes = messageBytes;
+    read(in, null);
   }
 
   @Override
-  public void read(ByteBuf in)
+  public void read(ByteBuf in, WireFormat format)
   {
     // Read the consumer ID
-    consumerId = in.readLong();
+    consumerId = readCompactLong(in, format);
 
     // Read the ResponseStatus
     responseStatus = ResponseStatus.fromOrdinal(in.readByte());
@@ -72,35 +103,45 @@ public class PacketToAnyResponse extends AbstractPacket
     // Read the message bytes only if ResponseStatus was OK
     if (responseStatus.isOk())
     {
-      int messageBytesCount = in.readInt();
-      messageBytes = new byte[messageBytesCount];
-      in.readBytes(messageBytes);
+      readMessage(in, format);
     }
     else
     {
-      messageBytes = null;
+      clearMessage();
     }
   }
 
   @Override
   public void write(ByteBuf out)
+  {
+    write(out, null);
+  }
+
+  @Override
+  public void write(ByteBuf out, WireFormat format)
   {
     Preconditions.checkNotNull(responseStatus, "responseStatus");
 
     // Write the consumer ID
-    out.writeLong(consumerId);
+    writeCompactLong(out, consumerId, format);
 
     // Write the ResponseStatus
-    out.writeByte(responseStatus.ordinal());
+    out.writeByte(WireFormat.toWritableStatus(responseStatus, format).ordinal());
 
     // Write the message bytes only if ResponseStatus is OK
     if (responseStatus.isOk())
     {
-      Preconditions.checkNotNull(messageBytes, "messageBytes");
-
-      out.writeInt(messageBytes.length);
-      out.writeBytes(messageBytes);
+      writeMessage(out, format);
     }
   }
-}
 
+  @Override
+  protected void deallocate()
+  {
+    super.deallocate();
+
+    // Pooled packets are reused, so nothing may outlive the release
+    consumerId = 0;
+    responseStatus = null;
+  }
+}
@@ -20,6 +20,7 @@ package com.gmail.tracebachi.SockExchange.Netty.Packets;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -27,11 +28,39 @@ import java.util.List;
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
-public class PacketToBungeeForward extends AbstractPacket
+public class PacketToBungeeForward extends AbstractMessagePacket
 {
+  public static final byte PACKET_ID = 6;
+
+  private static final Recycler<PacketToBungeeForward> RECYCLER =
+    new Recycler<PacketToBungeeForward>(POOL_CAPACITY)
+    {
+      @Override
+      protected PacketToBungeeForward newObject(Handle<PacketToBungeeForward> handle)
+      {
+        return new PacketToBungeeForward(handle);
+      }
+    };
+
   private List<String> serverNames;
   private String channelName;
-  private byte[] messageBytes;
+
+  public PacketToBungeeForward()
+  {
+  }
+
+  private PacketToBungeeForward(Recycler.Handle<PacketToBungeeForward> recyclerHandle)
+  {
+    super(recyclerHandle);
+  }
+
+  /**
+   * @return Packet from the pool, which goes back to the pool when it is released
+   */
+  public static PacketToBungeeForward newInstance()
+  {
+    return reuse(RECYCLER.get());
+  }
 
   public List<String> getServerNames()
   {
@@ -53,21 +82,23 @@ public class PacketToBungeeForward extends AbstractPacket
     this.channelName = channelName;
   }
 
-  public byte[] getMessageBytes()
+  @Override
+  public byte getPacketId()
   {
-    return messageBytes;
+    return PACKET_ID;
   }
 
-  public void setMessageBytes(byte[] messageBytes)
+  @Override
+  public void read(ByteBuf in)
   {
-    this.messageBytes = messageBytes;
+    read(in, null);
   }
 
   @Override
-  public void read(ByteBuf in)
+  public void read(ByteBuf in, WireFormat format)
   {
     // Read the server names
-    int serverNameCount = in.readInt();
+    int serverNameCount = readCompactInt(in, format);
     serverNames = new ArrayList<>(serverNameCount);
     for (int i = 0; i < serverNameCount; i++)
     {
@@ -75,23 +106,27 @@ public class PacketToBungeeForward extends AbstractPacket
     }
 
     // Read the channel name
-    channelName = readString(in);
+    channelName = readChannelName(in, format);
 
     // Read the message bytes
-    int messageBytesCount = in.readInt();
-    messageBytes = new byte[messageBytesCount];
-    in.readBytes(messageBytes);
+    readMessage(in, format);
   }
 
   @Override
   public void write(ByteBuf out)
+  {
+    write(out, null);
+  }
+
+  @Override
+  public void write(ByteBuf out, WireFormat format)
   {
     Preconditions.checkNotNull(serverNames, "serverNames");
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
-    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkState(hasMessage(), "messageBytes");
 
     // Write the server names
-    out.writeInt(serverNames.size());
+    writeCompactInt(out, serverNames.size(), format);
     for (String serverName : serverNames)
     {
       ExtraPreconditions.checkNotEmpty(serverName, "serverName");
@@ -99,11 +134,19 @@ public class PacketToBungeeForward extends AbstractPacket
     }
 
     // Write the channel name
-    writeString(out, channelName);
+    writeChannelName(out, channelName, format);
 
     // Write the message bytes
-    out.writeInt(messageBytes.length);
-    out.writeBytes(messageBytes);
+    writeMessage(out, format);
   }
-}
 
+  @Override
+  protected void deallocate()
+  {
+    super.deallocate();
+
+    // Pooled packets are reused, so nothing may outlive the release
+    serverNames = null;
+    channelName = null;
+  }
+}
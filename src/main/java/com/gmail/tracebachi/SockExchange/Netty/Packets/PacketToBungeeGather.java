@@ -0,0 +1,188 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forwards a request to many servers. Bungee collects the responses until the timeout
+ * and answers with a single response containing all of them.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketToBungeeGather extends AbstractMessagePacket
+{
+  public static final byte PACKET_ID = 7;
+
+  private static final Recycler<PacketToBungeeGather> RECYCLER =
+    new Recycler<PacketToBungeeGather>(POOL_CAPACITY)
+    {
+      @Override
+      protected PacketToBungeeGather newObject(Handle<PacketToBungeeGather> handle)
+      {
+        return new PacketToBungeeGather(handle);
+      }
+    };
+
+  private List<String> serverNames;
+  private String channelName;
+  private long consumerId;
+  private long timeoutInMillis;
+
+  public PacketToBungeeGather()
+  {
+  }
+
+  private PacketToBungeeGather(Recycler.Handle<PacketToBungeeGather> recyclerHandle)
+  {
+    super(recyclerHandle);
+  }
+
+  /**
+   * @return Packet from the pool, which goes back to the pool when it is released
+   */
+  public static PacketToBungeeGather newInstance()
+  {
+    return reuse(RECYCLER.get());
+  }
+
+  public List<String> getServerNames()
+  {
+    return serverNames;
+  }
+
+  public void setServerNames(List<String> serverNames)
+  {
+    this.serverNames = serverNames;
+  }
+
+  public String getChannelName()
+  {
+    return channelName;
+  }
+
+  public void setChannelName(String channelName)
+  {
+    this.channelName = channelName;
+  }
+
+  public long getConsumerId()
+  {
+    return consumerId;
+  }
+
+  public void setConsumerId(long consumerId)
+  {
+    this.consumerId = consumerId;
+  }
+
+  public long getTimeoutInMillis()
+  {
+    return timeoutInMillis;
+  }
+
+  public void setTimeoutInMillis(long timeoutInMillis)
+  {
+    this.timeoutInMillis = timeoutInMillis;
+  }
+
+  @Override
+  public byte getPacketId()
+  {
+    return PACKET_ID;
+  }
+
+  @Override
+  public void read(ByteBuf in)
+  {
+    read(in, null);
+  }
+
+  @Override
+  public void read(ByteBuf in, WireFormat format)
+  {
+    // Read the server names
+    int serverNameCount = readCompactInt(in, format);
+    serverNames = new ArrayList<>(serverNameCount);
+    for (int i = 0; i < serverNameCount; i++)
+    {
+      serverNames.add(readString(in));
+    }
+
+    // Read the channel name
+    channelName = readChannelName(in, format);
+
+    // Read the consumer ID and timeout
+    consumerId = readCompactLong(in, format);
+    timeoutInMillis = readCompactLong(in, format);
+
+    // Read the message bytes
+    readMessage(in, format);
+  }
+
+  @Override
+  public void write(ByteBuf out)
+  {
+    write(out, null);
+  }
+
+  @Override
+  public void write(ByteBuf out, WireFormat format)
+  {
+    Preconditions.checkNotNull(serverNames, "serverNames");
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkState(timeoutInMillis > 0, "timeoutInMillis");
+    Preconditions.checkState(hasMessage(), "messageBytes");
+
+    // Write the server names
+    writeCompactInt(out, serverNames.size(), format);
+    for (String serverName : serverNames)
+    {
+      ExtraPreconditions.checkNotEmpty(serverName, "serverName");
+      writeString(out, serverName);
+    }
+
+    // Write the channel name
+    writeChannelName(out, channelName, format);
+
+    // Write the consumer ID and timeout
+    writeCompactLong(out, consumerId, format);
+    writeCompactLong(out, timeoutInMillis, format);
+
+    // Write the message bytes
+    writeMessage(out, format);
+  }
+
+  @Override
+  protected void deallocate()
+  {
+    super.deallocate();
+
+    // Pooled packets are reused, so nothing may outlive the release
+    serverNames = null;
+    channelName = null;
+    consumerId = 0;
+    timeoutInMillis = 0;
+  }
+}
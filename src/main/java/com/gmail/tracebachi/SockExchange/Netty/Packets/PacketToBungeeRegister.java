@@ -25,8 +25,13 @@ import io.netty.buffer.ByteBuf;
  */
 public class PacketToBungeeRegister extends AbstractPacket
 {
+  public static final byte PACKET_ID = 1;
+
   private String password;
   private String serverName;
+  private int capabilities;
+  private int laneIndex;
+  private int laneCount = 1;
 
   public String getPassword()
   {
@@ -48,11 +53,72 @@ public class PacketToBungeeRegister extends AbstractPacket
     this.serverName = serverName;
   }
 
+  /**
+   * @return Capabilities supported by the client or 0 if it did not send any
+   */
+  public int getCapabilities()
+  {
+    return capabilities;
+  }
+
+  public void setCapabilities(int capabilities)
+  {
+    this.capabilities = capabilities;
+  }
+
+  /**
+   * @return Index of the connection in the client's connection pool where 0 is the
+   * connection that registers the server
+   */
+  public int getLaneIndex()
+  {
+    return laneIndex;
+  }
+
+  public void setLaneIndex(int laneIndex)
+  {
+    this.laneIndex = laneIndex;
+  }
+
+  /**
+   * @return Number of connections in the client's connection pool
+   */
+  public int getLaneCount()
+  {
+    return laneCount;
+  }
+
+  public void setLaneCount(int laneCount)
+  {
+    this.laneCount = laneCount;
+  }
+
+  @Override
+  public byte getPacketId()
+  {
+    return PACKET_ID;
+  }
+
   @Override
   public void read(ByteBuf in)
   {
     password = readString(in);
     serverName = readString(in);
+
+    // Older clients do not send capabilities
+    capabilities = in.isReadable() ? in.readInt() : 0;
+
+    // Only extra connections of a pool send their lane
+    if (in.isReadable())
+    {
+      laneIndex = in.readUnsignedByte();
+      laneCount = in.readUnsignedByte();
+    }
+    else
+    {
+      laneIndex = 0;
+      laneCount = 1;
+    }
   }
 
   @Override
@@ -62,5 +128,16 @@ public class PacketToBungeeRegister extends AbstractPacket
 
     writeString(out, password);
     writeString(out, serverName);
+
+    if (laneIndex != 0)
+    {
+      out.writeInt(capabilities);
+      out.writeByte(laneIndex);
+      out.writeByte(laneCount);
+    }
+    else if (capabilities != 0)
+    {
+      out.writeInt(capabilities);
+    }
   }
 }
@@ -19,19 +19,48 @@ package com.gmail.tracebachi.SockExchange.Netty.Packets;
 
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
-public class PacketToBungeeRequest extends AbstractPacket
+public class PacketToBungeeRequest extends AbstractMessagePacket
 {
+  public static final byte PACKET_ID = 3;
+
+  private static final Recycler<PacketToBungeeRequest> RECYCLER =
+    new Recycler<PacketToBungeeRequest>(POOL_CAPACITY)
+    {
+      @Override
+      protected PacketToBungeeRequest newObject(Handle<PacketToBungeeRequest> handle)
+      {
+        return new PacketToBungeeRequest(handle);
+      }
+    };
+
   private DestinationType destinationType;
   private String serverOrPlayerName;
   private String channelName;
-  private byte[] messageBytes;
   private Long consumerId;
   private long timeoutInMillis;
 
+  public PacketToBungeeRequest()
+  {
+  }
+
+  private PacketToBungeeRequest(Recycler.Handle<PacketToBungeeRequest> recyclerHandle)
+  {
+    super(recyclerHandle);
+  }
+
+  /**
+   * @return Packet from the pool, which goes back to the pool when it is released
+   */
+  public static PacketToBungeeRequest newInstance()
+  {
+    return reuse(RECYCLER.get());
+  }
+
   public DestinationType getDestinationType()
   {
     return destinationType;
@@ -62,16 +91,6 @@ public class PacketToBungeeRequest extends AbstractPacket
     this.channelName = channelName;
   }
 
-  public byte[] getMessageBytes()
-  {
-    return messageBytes;
-  }
-
-  public void setMessageBytes(byte[] messageBytes)
-  {
-    this.messageBytes = messageBytes;
-  }
-
   public Long getConsumerId()
   {
     return consumerId;
@@ -97,8 +116,20 @@ public class PacketToBungeeRequest extends AbstractPacket
     this.timeoutInMillis = timeoutInMillis;
   }
 
+  @Override
+  public byte getPacketId()
+  {
+    return PACKET_ID;
+  }
+
   @Override
   public void read(ByteBuf in)
+  {
+    read(in, null);
+  }
+
+  @Override
+  public void read(ByteBuf in, WireFormat format)
   {
     // Read the DestinationType
     destinationType = DestinationType.fromOrdinal(in.readByte());
@@ -110,18 +141,16 @@ public class PacketToBungeeRequest extends AbstractPacket
     }
 
     // Read the channel name
-    channelName = readString(in);
+    channelName = readChannelName(in, format);
 
     // Read the message bytes
-    int messageBytesCount = in.readInt();
-    messageBytes = new byte[messageBytesCount];
-    in.readBytes(messageBytes);
+    readMessage(in, format);
 
     // Read the consumer ID and timeout if there is a consumer for a response
     if (in.readBoolean())
     {
-      consumerId = in.readLong();
-      timeoutInMillis = in.readLong();
+      consumerId = readCompactLong(in, format);
+      timeoutInMillis = readCompactLong(in, format);
     }
     else
     {
@@ -132,10 +161,16 @@ public class PacketToBungeeRequest extends AbstractPacket
 
   @Override
   public void write(ByteBuf out)
+  {
+    write(out, null);
+  }
+
+  @Override
+  public void write(ByteBuf out, WireFormat format)
   {
     Preconditions.checkNotNull(destinationType, "destinationType");
     Preconditions.checkNotNull(channelName, "channelName");
-    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkState(hasMessage(), "messageBytes");
 
     // Write the DestinationType
     out.writeByte(destinationType.ordinal());
@@ -149,18 +184,17 @@ public class PacketToBungeeRequest extends AbstractPacket
     }
 
     // Write the channel name
-    writeString(out, channelName);
+    writeChannelName(out, channelName, format);
 
     // Write the message bytes
-    out.writeInt(messageBytes.length);
-    out.writeBytes(messageBytes);
+    writeMessage(out, format);
 
     // Write the consumer ID and timeout if there is a consumer for a response
     out.writeBoolean(consumerId != null);
     if (consumerId != null)
     {
-      out.writeLong(consumerId);
-      out.writeLong(timeoutInMillis);
+      writeCompactLong(out, consumerId, format);
+      writeCompactLong(out, timeoutInMillis, format);
     }
   }
 
@@ -185,5 +219,17 @@ public class PacketToBungeeRequest extends AbstractPacket
       throw new IllegalArgumentException("Unknown mapping for ordinal");
     }
   }
-}
 
+  @Override
+  protected void deallocate()
+  {
+    super.deallocate();
+
+    // Pooled packets are reused, so nothing may outlive the release
+    destinationType = null;
+    serverOrPlayerName = null;
+    channelName = null;
+    consumerId = null;
+    timeoutInMillis = 0;
+  }
+}
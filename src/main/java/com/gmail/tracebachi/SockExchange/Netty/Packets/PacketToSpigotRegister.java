@@ -25,6 +25,8 @@ import io.netty.buffer.ByteBuf;
  */
 public class PacketToSpigotRegister extends AbstractPacket
 {
+  public static final byte PACKET_ID = 2;
+
   public enum Result
   {
     SUCCESS,
@@ -56,6 +58,7 @@ public class PacketToSpigotRegister extends AbstractPacket
   }
 
   private Result result;
+  private int capabilities;
 
   public Result getResult()
   {
@@ -67,10 +70,32 @@ public class PacketToSpigotRegister extends AbstractPacket
     this.result = result;
   }
 
+  /**
+   * @return Capabilities the server enabled for the connection or 0 if none
+   */
+  public int getCapabilities()
+  {
+    return capabilities;
+  }
+
+  public void setCapabilities(int capabilities)
+  {
+    this.capabilities = capabilities;
+  }
+
+  @Override
+  public byte getPacketId()
+  {
+    return PACKET_ID;
+  }
+
   @Override
   public void read(ByteBuf in)
   {
     result = Result.fromOrdinal(in.readByte());
+
+    // Only sent to clients that sent capabilities, since older clients reject extra bytes
+    capabilities = in.isReadable() ? in.readInt() : 0;
   }
 
   @Override
@@ -79,5 +104,10 @@ public class PacketToSpigotRegister extends AbstractPacket
     Preconditions.checkNotNull(result, "result");
 
     out.writeByte(result.ordinal());
+
+    if (capabilities != 0)
+    {
+      out.writeInt(capabilities);
+    }
   }
 }
@@ -19,34 +19,53 @@ package com.gmail.tracebachi.SockExchange.Netty.Packets;
 
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
-public class PacketToSpigotRequest extends AbstractPacket
+public class PacketToSpigotRequest extends AbstractMessagePacket
 {
+  public static final byte PACKET_ID = 4;
+
+  private static final Recycler<PacketToSpigotRequest> RECYCLER =
+    new Recycler<PacketToSpigotRequest>(POOL_CAPACITY)
+    {
+      @Override
+      protected PacketToSpigotRequest newObject(Handle<PacketToSpigotRequest> handle)
+      {
+        return new PacketToSpigotRequest(handle);
+      }
+    };
+
   private String channelName;
-  private byte[] messageBytes;
   private Long consumerId;
 
-  public String getChannelName()
+  public PacketToSpigotRequest()
   {
-    return channelName;
   }
 
-  public void setChannelName(String channelName)
+  private PacketToSpigotRequest(Recycler.Handle<PacketToSpigotRequest> recyclerHandle)
   {
-    this.channelName = channelName;
+    super(recyclerHandle);
   }
 
-  public byte[] getMessageBytes()
+  /**
+   * @return Packet from the pool, which goes back to the pool when it is released
+   */
+  public static PacketToSpigotRequest newInstance()
   {
-    return messageBytes;
+    return reuse(RECYCLER.get());
   }
 
-  public void setMessageBytes(byte[] messageBytes)
+  public String getChannelName()
   {
-    this.messageBytes = messageBytes;
+    return channelName;
+  }
+
+  public void setChannelName(String channelName)
+  {
+    this.channelName = channelName;
   }
 
   public Long getConsumerId()
@@ -64,21 +83,31 @@ public class PacketToSpigotRequest extends AbstractPacket
     this.consumerId = consumerId;
   }
 
+  @Override
+  public byte getPacketId()
+  {
+    return PACKET_ID;
+  }
+
   @Override
   public void read(ByteBuf in)
+  {
+    read(in, null);
+  }
+
+  @Override
+  public void read(ByteBuf in, WireFormat format)
   {
     // Read the channel name
-    channelName = readString(in);
+    channelName = readChannelName(in, format);
 
     // Read the message bytes
-    int messageBytesCount = in.readInt();
-    messageBytes = new byte[messageBytesCount];
-    in.readBytes(messageBytes);
+    readMessage(in, format);
 
     // Read the consumer ID and timeout if there is a consumer for a response
     if (in.readBoolean())
     {
-      consumerId = in.readLong();
+      consumerId = readCompactLong(in, format);
     }
     else
     {
@@ -88,23 +117,64 @@ public class PacketToSpigotRequest extends AbstractPacket
 
   @Override
   public void write(ByteBuf out)
+  {
+    write(out, null);
+  }
+
+  @Override
+  public void write(ByteBuf out, WireFormat format)
   {
     Preconditions.checkNotNull(channelName, "channelName");
-    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkState(hasMessage(), "messageBytes");
 
     // Write the channel name
-    writeString(out, channelName);
+    writeChannelName(out, channelName, format);
 
     // Write the message bytes
-    out.writeInt(messageBytes.length);
-    out.writeBytes(messageBytes);
+    writeMessage(out, format);
 
     // Write the consumer ID and timeout if there is a consumer for a response
     out.writeBoolean(consumerId != null);
     if (consumerId != null)
     {
-      out.writeLong(consumerId);
+      writeCompactLong(out, consumerId, format);
     }
   }
-}
 
+  /**
+   * Writes the fields of a request without a consumer that come before its message. A
+   * broadcast writes its shared message between these fields and the ones written by
+   * {@link #writeBroadcastTrailer(ByteBuf)}, so the message is never copied.
+   *
+   * @param out ByteBuf to write to
+   * @param channelName Name of the channel
+   * @param messageLength Length of the message in bytes
+   * @param format Format of the connection
+   */
+  public static void writeBroadcastHeader(
+    ByteBuf out, String channelName, int messageLength, WireFormat format)
+  {
+    writeChannelName(out, channelName, format);
+    writeCompactInt(out, messageLength, format);
+  }
+
+  /**
+   * Writes the fields of a request without a consumer that come after its message
+   *
+   * @param out ByteBuf to write to
+   */
+  public static void writeBroadcastTrailer(ByteBuf out)
+  {
+    out.writeBoolean(false);
+  }
+
+  @Override
+  protected void deallocate()
+  {
+    super.deallocate();
+
+    // Pooled packets are reused, so nothing may outlive the release
+    channelName = null;
+    consumerId = null;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
+import com.google.common.base.Preconditions;
+
+/**
+ * Encoding of packets on one direction of a connection. Version 1 writes lengths,
+ * counts, consumer IDs and timeouts as fixed-width ints and longs, and version 2 writes
+ * them as VarInts and VarLongs. Both sides start with version 1 and switch to version 2
+ * during registration if both support it, so register packets always use version 1.
+ * It also holds the {@link ChannelNameDictionary} of the direction and the response
+ * statuses the peer can decode.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class WireFormat
+{
+  public static final int VERSION_1 = 1;
+  public static final int VERSION_2 = 2;
+
+  /**
+   * Capabilities that allow response statuses newer than
+   * {@link ResponseStatus#PLAYER_NOT_FOUND} to be written
+   */
+  public static final int RESPONSE_STATUS_CAPABILITIES =
+    Capabilities.SERVER_BUSY_STATUS | Capabilities.REJECTED_STATUS;
+
+  private final ChannelNameDictionary channelNames = new ChannelNameDictionary();
+  private volatile int version = VERSION_1;
+  private volatile int responseStatusCapabilities = 0;
+
+  /**
+   * @return Channel names of the direction
+   */
+  public ChannelNameDictionary getChannelNames()
+  {
+    return channelNames;
+  }
+
+  public int getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Sets the version used for packets written or read after this call
+   *
+   * @param version {@link #VERSION_1} or {@link #VERSION_2}
+   */
+  public void setVersion(int version)
+  {
+    Preconditions.checkArgument(version == VERSION_1 || version == VERSION_2,
+      "Unknown version: %s", version);
+
+    this.version = version;
+  }
+
+  /**
+   * Sets the capabilities that allow response statuses newer than
+   * {@link ResponseStatus#PLAYER_NOT_FOUND} to be written
+   *
+   * @param capabilities Capabilities negotiated for the connection
+   */
+  public void setResponseStatusCapabilities(int capabilities)
+  {
+    this.responseStatusCapabilities = capabilities;
+  }
+
+  /**
+   * Replaces a status the peer did not negotiate with {@link ResponseStatus#TIMED_OUT},
+   * which is what the peer saw before the status existed, since the request would not
+   * have been answered. Peers throw on ordinals they do not know, which would close the
+   * connection.
+   *
+   * @param status Status to write
+   * @param format Format of the connection or null for a plain version 1 format
+   *
+   * @return Status that the peer can decode
+   */
+  static ResponseStatus toWritableStatus(ResponseStatus status, WireFormat format)
+  {
+    int capabilities = format != null ? format.responseStatusCapabilities : 0;
+
+    if (status == ResponseStatus.SERVER_BUSY &&
+      (capabilities & Capabilities.SERVER_BUSY_STATUS) == 0)
+    {
+      return ResponseStatus.TIMED_OUT;
+    }
+
+    if (status == ResponseStatus.REJECTED &&
+      (capabilities & Capabilities.REJECTED_STATUS) == 0)
+    {
+      return ResponseStatus.TIMED_OUT;
+    }
+
+    return status;
+  }
+
+  /**
+   * @param format Format of the connection or null for a plain version 1 format
+   *
+   * @return True if fixed-width numbers are written as VarInts and VarLongs
+   */
+  static boolean isCompact(WireFormat format)
+  {
+    return format != null && format.version >= VERSION_2;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+/**
+ * Message written with a priority that {@link MessagePriority#of(Object)} cannot
+ * tell from the message itself, like an encoded broadcast. It is unwrapped by
+ * {@link PriorityWriteScheduler}.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+final class PrioritizedMessage
+{
+  private final Object message;
+  private final MessagePriority priority;
+
+  PrioritizedMessage(Object message, MessagePriority priority)
+  {
+    this.message = message;
+    this.priority = priority;
+  }
+
+  Object getMessage()
+  {
+    return message;
+  }
+
+  MessagePriority getPriority()
+  {
+    return priority;
+  }
+}
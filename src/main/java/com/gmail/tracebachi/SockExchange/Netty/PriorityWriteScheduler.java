@@ -0,0 +1,328 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractMessagePacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeGather;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeRequest;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRequest;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+
+/**
+ * Holds writes while the channel is not writable and writes them by
+ * {@link MessagePriority} once it is, so keep-alives and responses are not stuck
+ * behind a backlog of broadcasts
+ * <p>
+ * While the channel is writable and nothing is waiting, writes are passed through
+ * unchanged. Control messages are always passed through, so registration can rely on
+ * its response being encoded before the codec is switched. Messages of the same
+ * priority keep their order. Only messages that have not reached the outbound buffer
+ * can be reordered, so a lower high water mark lets control messages skip more of a
+ * backlog.
+ * <p>
+ * The bytes held are limited. A request or bulk write that would go over the limit is
+ * handled by the {@link OverflowPolicy}. With {@link OverflowPolicy#QUEUE}, the held
+ * writes are moved to the outbound buffer in priority order so nothing is dropped.
+ * Otherwise, the write is dropped and its promise is failed with a
+ * {@link QueueFullException}. {@link OverflowPolicy#DROP_BROADCASTS} only drops writes
+ * that do not expect a response. Responses are always held.
+ * <p>
+ * Every method runs on the channel's event loop, so the queues are not synchronized.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PriorityWriteScheduler extends ChannelDuplexHandler
+{
+  public static final int DEFAULT_MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+  private static final MessagePriority[] PRIORITIES = MessagePriority.values();
+
+  private final TrafficStatistics trafficStatistics;
+  private final ArrayDeque<PendingWrite>[] queues;
+  private volatile OverflowPolicy overflowPolicy = OverflowPolicy.QUEUE;
+  private volatile int maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+  private int queuedCount = 0;
+  private long queuedBytes = 0;
+
+  @SuppressWarnings("unchecked")
+  public PriorityWriteScheduler(TrafficStatistics trafficStatistics)
+  {
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
+
+    this.trafficStatistics = trafficStatistics;
+    this.queues = new ArrayDeque[PRIORITIES.length];
+
+    for (int i = 0; i < queues.length; i++)
+    {
+      queues[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * Sets how many bytes can be held and what happens to writes that would hold more
+   *
+   * @param overflowPolicy Policy for request and bulk writes over the limit
+   * @param maxQueuedBytes Max number of message bytes to hold
+   */
+  public void setOverflow(OverflowPolicy overflowPolicy, int maxQueuedBytes)
+  {
+    Preconditions.checkNotNull(overflowPolicy, "overflowPolicy");
+    Preconditions.checkArgument(maxQueuedBytes > 0, "maxQueuedBytes must be > 0");
+
+    this.overflowPolicy = overflowPolicy;
+    this.maxQueuedBytes = maxQueuedBytes;
+  }
+
+  /**
+   * @return Number of writes waiting for the channel to become writable
+   */
+  public int getQueuedCount()
+  {
+    return queuedCount;
+  }
+
+  /**
+   * @return Number of message bytes waiting for the channel to become writable
+   */
+  public long getQueuedBytes()
+  {
+    return queuedBytes;
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object message, ChannelPromise promise)
+    throws Exception
+  {
+    MessagePriority priority;
+
+    if (message instanceof PrioritizedMessage)
+    {
+      PrioritizedMessage prioritizedMessage = (PrioritizedMessage) message;
+      priority = prioritizedMessage.getPriority();
+      message = prioritizedMessage.getMessage();
+    }
+    else
+    {
+      priority = MessagePriority.of(message);
+    }
+
+    if (priority == MessagePriority.CONTROL || (queuedCount == 0 && ctx.channel().isWritable()))
+    {
+      trafficStatistics.recordQueueLatency(priority, 0);
+      ctx.write(message, promise);
+      return;
+    }
+
+    int messageBytes = sizeOf(message);
+
+    if (queuedBytes + messageBytes > maxQueuedBytes && isOverflowHandled(priority))
+    {
+      overflow(ctx, message, promise, priority, messageBytes);
+      return;
+    }
+
+    queues[priority.ordinal()].add(new PendingWrite(message, promise, priority, messageBytes));
+    queuedCount++;
+    queuedBytes += messageBytes;
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx) throws Exception
+  {
+    writeQueued(ctx);
+    ctx.flush();
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+  {
+    if (queuedCount > 0 && ctx.channel().isWritable())
+    {
+      writeQueued(ctx);
+      ctx.flush();
+    }
+
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception
+  {
+    failQueued(new ClosedChannelException());
+    ctx.close(promise);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception
+  {
+    failQueued(new ClosedChannelException());
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+  {
+    failQueued(new ClosedChannelException());
+  }
+
+  /**
+   * Applies the overflow policy to a write that would hold more than the max bytes
+   */
+  private void overflow(
+    ChannelHandlerContext ctx, Object message, ChannelPromise promise,
+    MessagePriority priority, int messageBytes)
+  {
+    OverflowPolicy overflowPolicy = this.overflowPolicy;
+
+    if (overflowPolicy == OverflowPolicy.QUEUE ||
+      (overflowPolicy == OverflowPolicy.DROP_BROADCASTS && expectsResponse(message)))
+    {
+      // Held writes go to the outbound buffer first so writes of a priority stay in order
+      writeQueued(ctx, true);
+      trafficStatistics.recordQueueLatency(priority, 0);
+      ctx.write(message, promise);
+      return;
+    }
+
+    // BLOCK has already waited before writing, and the event loop cannot block here
+    ReferenceCountUtil.release(message);
+    trafficStatistics.recordDropped(messageBytes);
+    promise.tryFailure(new QueueFullException(queuedBytes));
+  }
+
+  private void writeQueued(ChannelHandlerContext ctx)
+  {
+    writeQueued(ctx, false);
+  }
+
+  private void writeQueued(ChannelHandlerContext ctx, boolean evenIfNotWritable)
+  {
+    long nowNanos = System.nanoTime();
+
+    while (queuedCount > 0 && (evenIfNotWritable || ctx.channel().isWritable()))
+    {
+      PendingWrite pendingWrite = pollHighestPriority();
+      trafficStatistics.recordQueueLatency(pendingWrite.priority,
+        nowNanos - pendingWrite.queuedAtNanos);
+      ctx.write(pendingWrite.message, pendingWrite.promise);
+    }
+  }
+
+  private PendingWrite pollHighestPriority()
+  {
+    for (ArrayDeque<PendingWrite> queue : queues)
+    {
+      PendingWrite pendingWrite = queue.poll();
+
+      if (pendingWrite != null)
+      {
+        queuedCount--;
+        queuedBytes -= pendingWrite.messageBytes;
+        return pendingWrite;
+      }
+    }
+
+    throw new IllegalStateException("No queued writes");
+  }
+
+  private void failQueued(Throwable cause)
+  {
+    while (queuedCount > 0)
+    {
+      PendingWrite pendingWrite = pollHighestPriority();
+      ReferenceCountUtil.release(pendingWrite.message);
+      pendingWrite.promise.tryFailure(cause);
+    }
+  }
+
+  private static boolean isOverflowHandled(MessagePriority priority)
+  {
+    return priority == MessagePriority.REQUEST || priority == MessagePriority.BULK;
+  }
+
+  private static boolean expectsResponse(Object message)
+  {
+    if (message instanceof PacketToBungeeRequest)
+    {
+      return ((PacketToBungeeRequest) message).hasConsumer();
+    }
+    else if (message instanceof PacketToSpigotRequest)
+    {
+      return ((PacketToSpigotRequest) message).hasConsumer();
+    }
+
+    return message instanceof PacketToBungeeGather;
+  }
+
+  private static int sizeOf(Object message)
+  {
+    if (message instanceof AbstractMessagePacket)
+    {
+      return Math.max(0, ((AbstractMessagePacket) message).getMessageLength());
+    }
+    else if (message instanceof ByteBufHolder)
+    {
+      return ((ByteBufHolder) message).content().readableBytes();
+    }
+    else if (message instanceof ByteBuf)
+    {
+      return ((ByteBuf) message).readableBytes();
+    }
+
+    return 0;
+  }
+
+  /**
+   * Cause of a failed write that was dropped because too many bytes were waiting for
+   * the channel to become writable
+   */
+  public static final class QueueFullException extends ChannelException
+  {
+    private QueueFullException(long queuedBytes)
+    {
+      super("Dropped a write with " + queuedBytes + " bytes already waiting");
+    }
+  }
+
+  private static class PendingWrite
+  {
+    private final Object message;
+    private final ChannelPromise promise;
+    private final MessagePriority priority;
+    private final int messageBytes;
+    private final long queuedAtNanos = System.nanoTime();
+
+    private PendingWrite(
+      Object message, ChannelPromise promise, MessagePriority priority, int messageBytes)
+    {
+      this.message = message;
+      this.promise = promise;
+      this.priority = priority;
+      this.messageBytes = messageBytes;
+    }
+  }
+}
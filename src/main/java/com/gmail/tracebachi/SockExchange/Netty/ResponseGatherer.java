@@ -0,0 +1,91 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.InlineConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.GatheredResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.google.common.base.Preconditions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Collects the responses of many servers to one forwarded request. Once every server
+ * has responded (or timed out), the gathered response bytes are passed to a consumer.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+class ResponseGatherer
+{
+  private final Map<String, ResponseMessage> responses;
+  private final Consumer<byte[]> onComplete;
+  private int remaining;
+
+  ResponseGatherer(int expectedCount, Consumer<byte[]> onComplete)
+  {
+    Preconditions.checkArgument(expectedCount >= 0, "expectedCount");
+    Preconditions.checkNotNull(onComplete, "onComplete");
+
+    this.responses = new LinkedHashMap<>(expectedCount * 2);
+    this.onComplete = onComplete;
+    this.remaining = expectedCount;
+
+    if (expectedCount == 0)
+    {
+      onComplete.accept(GatheredResponseMessage.toBytes(responses));
+    }
+  }
+
+  /**
+   * @param serverName Name of the server the consumer is for
+   *
+   * @return Consumer for the response of the server. Recording a response is cheap, so
+   * it runs inline.
+   */
+  InlineConsumer<ResponseMessage> consumerFor(String serverName)
+  {
+    return (responseMessage) -> accept(serverName, responseMessage);
+  }
+
+  void accept(String serverName, ResponseMessage responseMessage)
+  {
+    byte[] gatheredBytes;
+
+    synchronized (this)
+    {
+      if (remaining == 0 || responses.containsKey(serverName))
+      {
+        return;
+      }
+
+      responses.put(serverName, responseMessage);
+      remaining--;
+
+      if (remaining != 0)
+      {
+        return;
+      }
+
+      gatheredBytes = GatheredResponseMessage.toBytes(responses);
+    }
+
+    onComplete.accept(gatheredBytes);
+  }
+}
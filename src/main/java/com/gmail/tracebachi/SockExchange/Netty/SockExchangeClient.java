@@ -19,13 +19,18 @@ package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.google.common.base.Preconditions;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 import io.netty.util.concurrent.Future;
 
 import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -35,36 +40,135 @@ import java.util.concurrent.TimeUnit;
  */
 public class SockExchangeClient
 {
-  private final String hostname;
-  private final int port;
-  private final Bootstrap bootstrap;
-  private final EventLoopGroup workerGroup = new NioEventLoopGroup(1);
+  private final SocketAddress remoteAddress;
+  private final Bootstrap[] bootstraps;
+  private final EventLoopGroup workerGroup;
+  private final boolean epoll;
+  private final SpigotToBungeeConnection pooledConnection;
   private final ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
-
-  private ConnectionState connectionState = ConnectionState.INITIAL;
+  private final ConnectionState[] connectionStates;
 
   public SockExchangeClient(String hostname, int port, AbstractPacketHandler packetHandler)
+  {
+    this(hostname, port, packetHandler, new TransportOptions());
+  }
+
+  /**
+   * @param hostname Host name of the server or "socket:" followed by the path of the
+   * Unix domain socket of a server on the same machine
+   * @param port Port of the server which is ignored for Unix domain sockets
+   * @param packetHandler Handler for packets from the server
+   * @param transportOptions Transport and socket options
+   */
+  public SockExchangeClient(
+    String hostname, int port, AbstractPacketHandler packetHandler,
+    TransportOptions transportOptions)
+  {
+    this(hostname, port, packetHandler, transportOptions, new TrafficStatistics());
+  }
+
+  /**
+   * @param hostname Host name of the server or "socket:" followed by the path of the
+   * Unix domain socket of a server on the same machine
+   * @param port Port of the server which is ignored for Unix domain sockets
+   * @param packetHandler Handler for packets from the server
+   * @param transportOptions Transport, socket, compression and connection pool options.
+   * A connection count above 1 requires a {@link SpigotToBungeeConnection}.
+   * @param trafficStatistics Statistics that compression is recorded in
+   */
+  public SockExchangeClient(
+    String hostname, int port, AbstractPacketHandler packetHandler,
+    TransportOptions transportOptions, TrafficStatistics trafficStatistics)
   {
     Preconditions.checkArgument(hostname != null && !hostname.isEmpty(), "hostname");
-    Preconditions.checkArgument(port > 0, "port");
     Preconditions.checkNotNull(packetHandler, "packetHandler");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
 
-    this.hostname = hostname;
-    this.port = port;
-    this.bootstrap = new Bootstrap()
-      .group(workerGroup)
-      .channel(NioSocketChannel.class)
-      .handler(new SpigotPipelineInitializer(packetHandler));
+    int connectionCount = transportOptions.getConnectionCount();
+    Preconditions.checkArgument(
+      connectionCount == 1 || packetHandler instanceof SpigotToBungeeConnection,
+      "A connection count above 1 requires a SpigotToBungeeConnection");
+
+    NettyTransport transport = NettyTransport.select(transportOptions);
+    Class<? extends Channel> channelClass;
+
+    if (hostname.startsWith(NettyTransport.DOMAIN_SOCKET_PREFIX))
+    {
+      String path = hostname.substring(NettyTransport.DOMAIN_SOCKET_PREFIX.length());
+      Preconditions.checkArgument(!path.isEmpty(), "Empty domain socket path");
+
+      channelClass = transport.domainSocketChannelClass();
+      this.remoteAddress = new DomainSocketAddress(path);
+    }
+    else
+    {
+      Preconditions.checkArgument(port > 0, "port");
+
+      channelClass = transport.channelClass();
+      // Left unresolved so every connection attempt resolves the host name again
+      this.remoteAddress = InetSocketAddress.createUnresolved(hostname, port);
+    }
+
+    this.epoll = transport.isEpoll();
+    // One thread per connection so a pool spreads its I/O across cores
+    this.workerGroup = transport.newEventLoopGroup(connectionCount);
+    this.bootstraps = new Bootstrap[connectionCount];
+    this.connectionStates = new ConnectionState[connectionCount];
+    this.pooledConnection = connectionCount > 1 ? (SpigotToBungeeConnection) packetHandler : null;
+
+    if (pooledConnection != null)
+    {
+      pooledConnection.setLaneCount(connectionCount);
+    }
+
+    for (int i = 0; i < connectionCount; i++)
+    {
+      AbstractPacketHandler laneHandler = (i == 0)
+        ? packetHandler
+        : pooledConnection.newLaneHandler(i);
+
+      bootstraps[i] = newBootstrap(channelClass,
+        new SpigotPipelineInitializer(laneHandler, transportOptions, trafficStatistics),
+        transportOptions);
+      connectionStates[i] = ConnectionState.INITIAL;
+    }
+  }
+
+  /**
+   * @return True if the client connects through a Unix domain socket or false if it
+   * connects through TCP
+   */
+  public boolean isDomainSocket()
+  {
+    return remoteAddress instanceof DomainSocketAddress;
+  }
+
+  /**
+   * @return True if the client uses the native epoll transport or false if it uses NIO
+   */
+  public boolean isEpoll()
+  {
+    return epoll;
+  }
+
+  /**
+   * @return Number of connections the client opens including extra connections that
+   * are only opened if the server accepts them
+   */
+  public int getConnectionCount()
+  {
+    return bootstraps.length;
   }
 
   public synchronized void start() throws Exception
   {
-    if (connectionState != ConnectionState.INITIAL)
+    if (connectionStates[0] != ConnectionState.INITIAL)
     {
       throw new IllegalStateException("SockExchangeClient has already been started");
     }
 
-    connectionState = ConnectionState.NOT_CONNECTED;
+    Arrays.fill(connectionStates, ConnectionState.NOT_CONNECTED);
 
     // Schedule task to try and connect if disconnected
     executorService.scheduleAtFixedRate(this::connect, 1, 1, TimeUnit.SECONDS);
@@ -75,7 +179,7 @@ public class SockExchangeClient
 
   public synchronized void shutdown()
   {
-    if (connectionState == ConnectionState.INITIAL)
+    if (connectionStates[0] == ConnectionState.INITIAL)
     {
       throw new IllegalStateException("SockExchangeClient has not been started");
     }
@@ -86,53 +190,87 @@ public class SockExchangeClient
 
   private synchronized void connect()
   {
-    if (connectionState == ConnectionState.NOT_CONNECTED)
-    {
-      // Mark state at connecting
-      connectionState = ConnectionState.CONNECTING;
+    connect(0);
 
-      // Use the bootstrap to start
-      ChannelFuture future = bootstrap.connect(hostname, port);
-      future.addListener(this::handleChannelConnectFuture);
-      future.channel().closeFuture().addListener(this::handleChannelCloseFuture);
+    // Extra connections register as lanes of the first one, so they wait for it
+    if (pooledConnection != null && pooledConnection.canOpenLanes())
+    {
+      for (int i = 1; i < bootstraps.length; i++)
+      {
+        connect(i);
+      }
     }
   }
 
   private synchronized void connectNow() throws Exception
   {
-    if (connectionState == ConnectionState.NOT_CONNECTED)
-    {
-      // Mark state at connecting
-      connectionState = ConnectionState.CONNECTING;
-
-      // Use the bootstrap to start
-      ChannelFuture future = bootstrap.connect(hostname, port);
-      future.addListener(this::handleChannelConnectFuture);
-      future.channel().closeFuture().addListener(this::handleChannelCloseFuture);
+    ChannelFuture future = connect(0);
 
+    if (future != null)
+    {
       // Wait for the connection attempt to finish
       future.await();
     }
   }
 
-  private synchronized void handleChannelConnectFuture(Future<? super Void> future)
+  private synchronized ChannelFuture connect(int laneIndex)
+  {
+    if (connectionStates[laneIndex] != ConnectionState.NOT_CONNECTED)
+    {
+      return null;
+    }
+
+    // Mark state at connecting
+    connectionStates[laneIndex] = ConnectionState.CONNECTING;
+
+    // Use the bootstrap to start
+    ChannelFuture future = bootstraps[laneIndex].connect(remoteAddress);
+    future.addListener((f) -> handleChannelConnectFuture(laneIndex, f));
+    future.channel().closeFuture().addListener((f) -> handleChannelCloseFuture(laneIndex, f));
+    return future;
+  }
+
+  private synchronized void handleChannelConnectFuture(
+    int laneIndex, Future<? super Void> future)
   {
     if (future.isSuccess())
     {
-      connectionState = ConnectionState.CONNECTED;
+      connectionStates[laneIndex] = ConnectionState.CONNECTED;
     }
     else
     {
-      connectionState = ConnectionState.NOT_CONNECTED;
+      connectionStates[laneIndex] = ConnectionState.NOT_CONNECTED;
 
       Throwable cause = future.cause();
       printCauseToSystemErr(cause);
     }
   }
 
-  private synchronized void handleChannelCloseFuture(Future<? super Void> future)
+  private synchronized void handleChannelCloseFuture(int laneIndex, Future<? super Void> future)
   {
-    connectionState = ConnectionState.NOT_CONNECTED;
+    connectionStates[laneIndex] = ConnectionState.NOT_CONNECTED;
+  }
+
+  private Bootstrap newBootstrap(
+    Class<? extends Channel> channelClass, SpigotPipelineInitializer initializer,
+    TransportOptions transportOptions)
+  {
+    Bootstrap bootstrap = new Bootstrap()
+      .group(workerGroup)
+      .channel(channelClass)
+      .handler(initializer);
+
+    if (remoteAddress instanceof InetSocketAddress)
+    {
+      NettyTransport.applyClientOptions(bootstrap, transportOptions);
+    }
+    else
+    {
+      // TCP options do not apply to Unix domain sockets
+      bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    }
+
+    return bootstrap;
   }
 
   private void printCauseToSystemErr(Throwable cause)
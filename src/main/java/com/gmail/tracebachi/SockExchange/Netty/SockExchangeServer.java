@@ -21,34 +21,90 @@ import com.gmail.tracebachi.SockExchange.Bungee.BungeeTieIn;
 import com.google.common.base.Preconditions;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class SockExchangeServer
 {
+  // File type bits of st_mode, see stat(2)
+  private static final int S_IFMT = 0170000;
+  private static final int S_IFSOCK = 0140000;
+
   private final int port;
   private final ServerBootstrap bootstrap;
+  private final ServerBootstrap domainSocketBootstrap;
+  private final String domainSocketPath;
   private final EventLoopGroup bossAndWorkerGroup;
+  private final boolean epoll;
 
   private boolean started = false;
 
   public SockExchangeServer(int port, int threads, BungeeTieIn tieIn)
+  {
+    this(port, threads, tieIn, new TransportOptions());
+  }
+
+  public SockExchangeServer(
+    int port, int threads, BungeeTieIn tieIn, TransportOptions transportOptions)
+  {
+    this(port, threads, tieIn, transportOptions, new TrafficStatistics());
+  }
+
+  public SockExchangeServer(
+    int port, int threads, BungeeTieIn tieIn, TransportOptions transportOptions,
+    TrafficStatistics trafficStatistics)
   {
     Preconditions.checkArgument(port > 0, "port");
     Preconditions.checkNotNull(tieIn, "tieIn");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
+
+    NettyTransport transport = NettyTransport.select(transportOptions);
 
     this.port = port;
-    this.bossAndWorkerGroup = new NioEventLoopGroup(Math.max(1, threads));
+    this.epoll = transport.isEpoll();
+    this.bossAndWorkerGroup = transport.newEventLoopGroup(Math.max(1, threads));
     this.bootstrap = new ServerBootstrap()
       .group(bossAndWorkerGroup)
-      .channel(NioServerSocketChannel.class)
-      .childHandler(new BungeePipelineInitializer(tieIn))
-      .option(ChannelOption.SO_BACKLOG, 16);
+      .channel(transport.serverChannelClass())
+      .childHandler(new BungeePipelineInitializer(tieIn, transportOptions, trafficStatistics));
+
+    NettyTransport.applyServerOptions(bootstrap, transportOptions);
+
+    // Co-located servers can connect through a Unix domain socket and skip the TCP stack.
+    // Compression is never offered there since bandwidth is not a concern.
+    this.domainSocketPath = transportOptions.getDomainSocketPath();
+    if (domainSocketPath != null)
+    {
+      this.domainSocketBootstrap = new ServerBootstrap()
+        .group(bossAndWorkerGroup)
+        .channel(transport.serverDomainSocketChannelClass())
+        .childHandler(new BungeePipelineInitializer(tieIn,
+          transportOptions.withoutCompression(), trafficStatistics));
+
+      NettyTransport.applyDomainSocketServerOptions(domainSocketBootstrap, transportOptions);
+    }
+    else
+    {
+      this.domainSocketBootstrap = null;
+    }
+  }
+
+  /**
+   * @return True if the server uses the native epoll transport or false if it uses NIO
+   */
+  public boolean isEpoll()
+  {
+    return epoll;
   }
 
   public synchronized void start() throws Exception
@@ -64,10 +120,75 @@ public class SockExchangeServer
     {
       throw new Exception(bindFuture.cause());
     }
-    else
+
+    if (domainSocketBootstrap != null)
     {
-      started = true;
+      try
+      {
+        deleteStaleSocketFile(Paths.get(domainSocketPath));
+      }
+      catch (IOException ex)
+      {
+        bindFuture.channel().close();
+        throw ex;
+      }
+
+      ChannelFuture domainBindFuture = domainSocketBootstrap.bind(
+        new DomainSocketAddress(domainSocketPath));
+      domainBindFuture.await();
+
+      if (!domainBindFuture.isSuccess())
+      {
+        bindFuture.channel().close();
+        throw new Exception(domainBindFuture.cause());
+      }
     }
+
+    started = true;
+  }
+
+  /**
+   * Deletes a socket file left behind by a crash, which would make the bind fail
+   * <p>
+   * Only sockets are deleted so a misconfigured path can never remove a regular file.
+   *
+   * @param path Path of the Unix domain socket
+   * @throws IOException If the path is not a socket or could not be deleted
+   */
+  private static void deleteStaleSocketFile(Path path) throws IOException
+  {
+    if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+    {
+      return;
+    }
+
+    int mode;
+
+    try
+    {
+      mode = (Integer) Files.getAttribute(path, "unix:mode", LinkOption.NOFOLLOW_LINKS);
+    }
+    catch (UnsupportedOperationException ex)
+    {
+      throw new IOException("Could not check if " + path + " is a socket", ex);
+    }
+
+    if ((mode & S_IFMT) != S_IFSOCK)
+    {
+      throw new IOException("Refusing to bind to " + path +
+        " because it exists and is not a socket");
+    }
+
+    Files.deleteIfExists(path);
+  }
+
+  /**
+   * @return Path of the Unix domain socket the server listens on or null if it only
+   * listens on TCP
+   */
+  public String getDomainSocketPath()
+  {
+    return domainSocketPath;
   }
 
   public synchronized void shutdown()
@@ -17,9 +17,7 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToAnyResponse;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRegister;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRequest;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.WireFormat;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -27,14 +25,13 @@ import io.netty.handler.codec.MessageToMessageDecoder;
 
 import java.util.List;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class SpigotPacketDecoder extends MessageToMessageDecoder<ByteBuf>
 {
   private final AbstractPacketHandler packetHandler;
+  private final WireFormat wireFormat = new WireFormat();
 
   public SpigotPacketDecoder(AbstractPacketHandler packetHandler)
   {
@@ -43,37 +40,30 @@ public class SpigotPacketDecoder extends MessageToMessageDecoder<ByteBuf>
     this.packetHandler = packetHandler;
   }
 
+  /**
+   * @return Format of packets received on the connection
+   */
+  public WireFormat getWireFormat()
+  {
+    return wireFormat;
+  }
+
   @Override
   protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> list) throws Exception
   {
     byte packetId = in.readByte();
+    PacketType<?> packetType = PacketRegistry.get(packetId);
 
-    if (isIdForPacket(packetId, PacketToSpigotRegister.class))
+    if (packetType != null && packetType.getDirection().isToSpigot())
     {
-      PacketToSpigotRegister packet = new PacketToSpigotRegister();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToSpigotRequest.class))
-    {
-      PacketToSpigotRequest packet = new PacketToSpigotRequest();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToAnyResponse.class))
-    {
-      PacketToAnyResponse packet = new PacketToAnyResponse();
-      packet.read(in);
-
-      packetHandler.handle(packet);
+      packetType.readAndHandle(in, packetHandler, wireFormat);
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
+      // Only packets registered for this side are accepted.
       System.err.println("[SpigotPacketDecoder] Unexpected packetId: " + packetId);
       ctx.close();
+      return;
     }
 
     if (in.isReadable())
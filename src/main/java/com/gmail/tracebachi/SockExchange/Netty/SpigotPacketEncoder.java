@@ -17,35 +17,64 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
-import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.WireFormat;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class SpigotPacketEncoder extends MessageToByteEncoder<AbstractPacket>
 {
+  private final WireFormat wireFormat = new WireFormat();
+
+  /**
+   * @return Format of packets sent on the connection
+   */
+  public WireFormat getWireFormat()
+  {
+    return wireFormat;
+  }
+
   @Override
   protected void encode(ChannelHandlerContext ctx, AbstractPacket packet, ByteBuf out)
     throws Exception
   {
-    byte packetId = PacketIdMapping.packetToId(packet.getClass());
+    try
+    {
+      encodePacket(ctx, packet, out);
+    }
+    catch (Exception ex)
+    {
+      // The packet may have defined a channel name that the other side never reads
+      if (wireFormat.getChannelNames().isEnabled())
+      {
+        ctx.close();
+      }
+
+      throw ex;
+    }
+    finally
+    {
+      packet.release();
+    }
+  }
+
+  private void encodePacket(ChannelHandlerContext ctx, AbstractPacket packet, ByteBuf out)
+  {
+    byte packetId = packet.getPacketId();
+    PacketType<?> packetType = PacketRegistry.get(packetId);
 
-    if (isIdForPacket(packetId, PacketToBungeeRegister.class) ||
-      isIdForPacket(packetId, PacketToBungeeRequest.class) ||
-      isIdForPacket(packetId, PacketToAnyResponse.class) ||
-      isIdForPacket(packetId, PacketToBungeeForward.class))
+    if (packetType != null && packetType.getDirection().isToBungee())
     {
       out.writeByte(packetId);
-      packet.write(out);
+      packet.write(out, wireFormat);
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
+      // Only packets registered for the other side are sent.
       System.err.println("[SpigotPacketEncoder] Unexpected packetId: " + packetId);
       ctx.close();
     }
@@ -18,21 +18,28 @@
 package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
+import com.gmail.tracebachi.SockExchange.InlineConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.GatheredResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToBungeeRequest.DestinationType;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
 import com.google.common.base.Preconditions;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.concurrent.Future;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
@@ -40,13 +47,19 @@ import java.util.function.Consumer;
  */
 public class SpigotToBungeeConnection extends AbstractPacketHandler
 {
+  private static final long GATHER_TIMEOUT_GRACE_MILLIS = 1000;
+
   private final String serverName;
   private final String password;
   private final Executor executor;
   private final ReceivedMessageNotifier messageNotifier;
   private final LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap;
   private final BasicLogger basicLogger;
+  private final ConnectionLanes lanes = new ConnectionLanes();
   private volatile boolean registered;
+  private volatile boolean poolAccepted;
+  private volatile boolean gatherAccepted;
+  private volatile int acceptedCapabilities;
 
   public SpigotToBungeeConnection(
     String serverName, String password, Executor executor, ReceivedMessageNotifier messageNotifier,
@@ -73,6 +86,62 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     return serverName;
   }
 
+  /**
+   * Sets the number of connections to Bungee including the one that registers the
+   * server. Extra connections are only opened if Bungee accepts them.
+   *
+   * @param laneCount Number of connections from 1 to {@link ConnectionLanes#MAX_LANE_COUNT}
+   */
+  public void setLaneCount(int laneCount)
+  {
+    lanes.setLaneCount(laneCount);
+  }
+
+  public int getLaneCount()
+  {
+    return lanes.getLaneCount();
+  }
+
+  /**
+   * @return Number of extra connections that are registered
+   */
+  public int getConnectedLaneCount()
+  {
+    return lanes.getConnectedCount();
+  }
+
+  /**
+   * @return True if the server is registered and Bungee accepted extra connections
+   */
+  public boolean canOpenLanes()
+  {
+    return registered && poolAccepted;
+  }
+
+  /**
+   * @param capability One of the flags in {@link Capabilities}
+   *
+   * @return True if Bungee accepted the capability when the server last registered
+   */
+  public boolean isCapabilityAccepted(int capability)
+  {
+    return (acceptedCapabilities & capability) != 0;
+  }
+
+  /**
+   * @param laneIndex Index of the extra connection from 1 to the lane count - 1
+   *
+   * @return Packet handler for an extra connection that registers itself as a lane of
+   * this connection
+   */
+  public AbstractPacketHandler newLaneHandler(int laneIndex)
+  {
+    Preconditions.checkArgument(laneIndex >= 1 && laneIndex < lanes.getLaneCount(),
+      "laneIndex out of range");
+
+    return new LaneHandler(laneIndex);
+  }
+
   @Override
   public void onChannelActive(Channel channel)
   {
@@ -82,6 +151,8 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     packet.setPassword(password);
     packet.setServerName(serverName);
 
+    packet.setCapabilities(getOfferedCapabilities(channel));
+
     this.channel.writeAndFlush(packet);
 
     basicLogger.debug("Channel is now active.");
@@ -93,6 +164,11 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     basicLogger.debug("Channel is now inactive.");
 
     registered = false;
+    poolAccepted = false;
+    gatherAccepted = false;
+
+    // Extra connections only exist while the server is registered
+    lanes.closeAll();
 
     super.onChannelInactive();
   }
@@ -115,6 +191,14 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     }
     else
     {
+      enableCompressionIfAccepted(channel, packet.getCapabilities());
+      enableChannelNamesIfAccepted(channel, packet.getCapabilities());
+      useProtocolVersion2IfAccepted(channel, packet.getCapabilities());
+      enableResponseStatusesIfAccepted(channel, packet.getCapabilities());
+
+      poolAccepted = (packet.getCapabilities() & Capabilities.CONNECTION_POOL) != 0;
+      gatherAccepted = (packet.getCapabilities() & Capabilities.GATHER) != 0;
+      acceptedCapabilities = packet.getCapabilities();
       registered = true;
       basicLogger.debug("Channel is now registered.");
     }
@@ -138,12 +222,12 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     {
       onResponseConsumer = (bytes) ->
       {
-        PacketToAnyResponse responsePacket = new PacketToAnyResponse();
+        PacketToAnyResponse responsePacket = PacketToAnyResponse.newInstance();
         responsePacket.setConsumerId(consumerId);
         responsePacket.setResponseStatus(ResponseStatus.OK);
         responsePacket.setMessageBytes(bytes);
 
-        sendPacketIfRegistered(responsePacket);
+        sendPacketIfRegistered(responsePacket, consumerId.hashCode());
       };
     }
 
@@ -170,11 +254,8 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     // If there is a consumer, execute it with the response.
     if (hasConsumer)
     {
-      executor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(responseStatus, messageBytes);
-        responseConsumer.accept(responseMessage);
-      });
+      ResponseMessage responseMessage = new ResponseMessage(responseStatus, messageBytes);
+      responseConsumer.acceptOn(executor, responseMessage);
     }
   }
 
@@ -185,7 +266,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(messageBytes, "messageBytes");
 
-    PacketToBungeeRequest packet = new PacketToBungeeRequest();
+    PacketToBungeeRequest packet = PacketToBungeeRequest.newInstance();
     packet.setDestinationType(DestinationType.BUNGEE);
     packet.setChannelName(channelName);
     packet.setMessageBytes(messageBytes);
@@ -201,7 +282,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
       saveConsumerAndUpdatePacket(consumer, timeoutInMillis, packet);
     }
 
-    sendPacketIfRegistered(packet);
+    sendRequestIfRegistered(packet, channelName.hashCode());
   }
 
   public void sendToServer(
@@ -219,7 +300,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
       return;
     }
 
-    PacketToBungeeRequest packet = new PacketToBungeeRequest();
+    PacketToBungeeRequest packet = PacketToBungeeRequest.newInstance();
     packet.setDestinationType(DestinationType.SERVER_NAME);
     packet.setServerOrPlayerName(destServerName);
     packet.setChannelName(channelName);
@@ -236,7 +317,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
       saveConsumerAndUpdatePacket(consumer, timeoutInMillis, packet);
     }
 
-    sendPacketIfRegistered(packet);
+    sendRequestIfRegistered(packet, channelName.hashCode());
   }
 
   public void sendToServerOfPlayer(
@@ -247,7 +328,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     Preconditions.checkNotNull(messageBytes, "messageBytes");
     ExtraPreconditions.checkNotEmpty(playerName, "playerName");
 
-    PacketToBungeeRequest packet = new PacketToBungeeRequest();
+    PacketToBungeeRequest packet = PacketToBungeeRequest.newInstance();
     packet.setDestinationType(DestinationType.PLAYER_NAME);
     packet.setServerOrPlayerName(playerName);
     packet.setChannelName(channelName);
@@ -264,7 +345,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
       saveConsumerAndUpdatePacket(consumer, timeoutInMillis, packet);
     }
 
-    sendPacketIfRegistered(packet);
+    sendRequestIfRegistered(packet, channelName.hashCode());
   }
 
   public void sendToServers(
@@ -279,12 +360,75 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     ExtraPreconditions.checkElements(serverNameList, (str) -> str != null && !str.isEmpty(),
       "Null or empty string in serverNameList");
 
-    PacketToBungeeForward packet = new PacketToBungeeForward();
+    PacketToBungeeForward packet = PacketToBungeeForward.newInstance();
+    packet.setServerNames(serverNameList);
+    packet.setChannelName(channelName);
+    packet.setMessageBytes(messageBytes);
+
+    sendPacketIfRegistered(packet, channelName.hashCode());
+  }
+
+  public void sendToServersAndGather(
+    String channelName, byte[] messageBytes, List<String> serverNameList,
+    Consumer<GatheredResponseMessage> consumer, long timeoutInMillis)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkNotNull(consumer, "consumer");
+    Preconditions.checkArgument(timeoutInMillis > 0, "timeoutInMillis must be > 0");
+
+    // Null or empty lists are used to send to all connected servers.
+    serverNameList = serverNameList == null ? Collections.emptyList() : serverNameList;
+
+    ExtraPreconditions.checkElements(serverNameList, (str) -> str != null && !str.isEmpty(),
+      "Null or empty string in serverNameList");
+
+    // Keep running the consumer inline if it was meant to be
+    Consumer<ResponseMessage> responseConsumer;
+    if (consumer instanceof InlineConsumer)
+    {
+      responseConsumer = (InlineConsumer<ResponseMessage>) (responseMessage) ->
+        consumer.accept(GatheredResponseMessage.fromResponse(responseMessage));
+    }
+    else
+    {
+      responseConsumer = (responseMessage) ->
+        consumer.accept(GatheredResponseMessage.fromResponse(responseMessage));
+    }
+
+    if (executeConsumerIfNotConnected(responseConsumer))
+    {
+      return;
+    }
+
+    // Older versions of Bungee close the connection on a gather packet
+    if (!gatherAccepted)
+    {
+      InlineConsumer.accept(executor, responseConsumer,
+        new ResponseMessage(ResponseStatus.REJECTED));
+      return;
+    }
+
+    // Bungee responds once its own requests time out, so wait a little longer for it
+    long expiresAtMillis = System.currentTimeMillis() + timeoutInMillis +
+      GATHER_TIMEOUT_GRACE_MILLIS;
+    ExpirableConsumer<ResponseMessage> expirableConsumer = new ExpirableConsumer<>(
+      responseConsumer, expiresAtMillis);
+
+    PacketToBungeeGather packet = PacketToBungeeGather.newInstance();
     packet.setServerNames(serverNameList);
     packet.setChannelName(channelName);
+    long consumerId = responseConsumerMap.put(expirableConsumer, expiresAtMillis);
+    packet.setConsumerId(consumerId);
+    packet.setTimeoutInMillis(timeoutInMillis);
     packet.setMessageBytes(messageBytes);
 
-    sendPacketIfRegistered(packet);
+    ChannelFuture future = sendPacketIfRegistered(packet, channelName.hashCode());
+
+    if (future != null)
+    {
+      future.addListener((f) -> respondBusyIfDropped(f, consumerId));
+    }
   }
 
   private void checkPacketAndRegistered(AbstractPacket packet)
@@ -301,11 +445,157 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
     channel.close();
   }
 
-  private void sendPacketIfRegistered(AbstractPacket packet)
+  @Override
+  public <P extends AbstractPacket> void handle(
+    P packet, BiConsumer<AbstractPacketHandler, P> listener)
+  {
+    checkPacketAndRegistered(packet);
+
+    if (registered)
+    {
+      listener.accept(this, packet);
+    }
+  }
+
+  /**
+   * Writes a packet to Bungee if the server is registered. The connection takes
+   * ownership of the packet.
+   *
+   * @param packet Packet to write
+   *
+   * @return True if the packet was written or false if the server is not registered
+   */
+  @Override
+  public boolean sendPacket(AbstractPacket packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+
+    if (!registered)
+    {
+      packet.release();
+      return false;
+    }
+
+    return super.sendPacket(packet);
+  }
+
+  private int getOfferedCapabilities(Channel channel)
+  {
+    int capabilities = 0;
+
+    // Offer compression if it is configured for this connection
+    if (channel.pipeline().get(FrameCompressor.class) != null)
+    {
+      capabilities |= Capabilities.DEFLATE;
+    }
+
+    if (lanes.getLaneCount() > 1)
+    {
+      capabilities |= Capabilities.CONNECTION_POOL;
+    }
+
+    return capabilities | Capabilities.CHANNEL_NAME_DICTIONARY |
+      Capabilities.PROTOCOL_VERSION_2 | Capabilities.GATHER |
+      Capabilities.SERVER_STATUS_PUSH | Capabilities.PLAYER_UPDATE_STREAM |
+      WireFormat.RESPONSE_STATUS_CAPABILITIES;
+  }
+
+  private void enableCompressionIfAccepted(Channel channel, int acceptedCapabilities)
   {
+    FrameCompressor compressor = channel.pipeline().get(FrameCompressor.class);
+
+    if (compressor != null && (acceptedCapabilities & Capabilities.DEFLATE) != 0)
+    {
+      compressor.setEnabled(true);
+      basicLogger.debug("Compression enabled.");
+    }
+  }
+
+  private void enableChannelNamesIfAccepted(Channel channel, int acceptedCapabilities)
+  {
+    if ((acceptedCapabilities & Capabilities.CHANNEL_NAME_DICTIONARY) != 0)
+    {
+      // Enabled while the registration response is read, so the next packet uses it
+      channel.pipeline().get(SpigotPacketDecoder.class).getWireFormat()
+        .getChannelNames().setEnabled(true);
+      channel.pipeline().get(SpigotPacketEncoder.class).getWireFormat()
+        .getChannelNames().setEnabled(true);
+    }
+  }
+
+  private void enableResponseStatusesIfAccepted(Channel channel, int acceptedCapabilities)
+  {
+    // Statuses the server cannot decode are written as older statuses instead
+    channel.pipeline().get(SpigotPacketEncoder.class).getWireFormat()
+      .setResponseStatusCapabilities(acceptedCapabilities & WireFormat.RESPONSE_STATUS_CAPABILITIES);
+  }
+
+  private void useProtocolVersion2IfAccepted(Channel channel, int acceptedCapabilities)
+  {
+    if ((acceptedCapabilities & Capabilities.PROTOCOL_VERSION_2) != 0)
+    {
+      // Switched while the registration response is read, so the next frame read or
+      // written in either direction uses version 2
+      channel.pipeline().get(FrameDecoder.class).setVarIntLength(true);
+      channel.pipeline().get(FramePrepender.class).setVarIntLength(true);
+      channel.pipeline().get(SpigotPacketDecoder.class).getWireFormat()
+        .setVersion(WireFormat.VERSION_2);
+      channel.pipeline().get(SpigotPacketEncoder.class).getWireFormat()
+        .setVersion(WireFormat.VERSION_2);
+      basicLogger.debug("Protocol version 2 enabled.");
+    }
+  }
+
+  /**
+   * Writes the packet to the lane of the hash if the server is registered
+   *
+   * @param packet Packet to send
+   * @param laneHash Hash of the channel name, or of the consumer ID for responses
+   */
+  private ChannelFuture sendPacketIfRegistered(AbstractPacket packet, int laneHash)
+  {
+    Channel channel = lanes.select(laneHash, this.channel);
+
     if (registered && channel != null)
     {
-      channel.writeAndFlush(packet);
+      return writeAndFlush(channel, packet);
+    }
+
+    packet.release();
+    return null;
+  }
+
+  private void sendRequestIfRegistered(PacketToBungeeRequest packet, int laneHash)
+  {
+    // The packet may be reused once it is written, so read the ID first
+    Long consumerId = packet.getConsumerId();
+    ChannelFuture future = sendPacketIfRegistered(packet, laneHash);
+
+    if (future != null && consumerId != null)
+    {
+      future.addListener((f) -> respondBusyIfDropped(f, consumerId));
+    }
+  }
+
+  /**
+   * Answers the consumer of a request that the priority scheduler dropped with
+   * {@link ResponseStatus#SERVER_BUSY} instead of letting it time out
+   *
+   * @param future Future of the write of the request
+   * @param consumerId Id of the consumer of the request
+   */
+  private void respondBusyIfDropped(Future<?> future, long consumerId)
+  {
+    if (!(future.cause() instanceof PriorityWriteScheduler.QueueFullException))
+    {
+      return;
+    }
+
+    ExpirableConsumer<ResponseMessage> responseConsumer = responseConsumerMap.remove(consumerId);
+
+    if (responseConsumer != null)
+    {
+      responseConsumer.acceptOn(executor, new ResponseMessage(ResponseStatus.SERVER_BUSY));
     }
   }
 
@@ -321,7 +611,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
       long expiresAtMillis = System.currentTimeMillis() + timeoutInMillis;
       ExpirableConsumer<ResponseMessage> responseConsumer = new ExpirableConsumer<>(consumer,
         expiresAtMillis);
-      long consumerId = responseConsumerMap.put(responseConsumer);
+      long consumerId = responseConsumerMap.put(responseConsumer, expiresAtMillis);
 
       onResponseConsumer = (bytes) ->
       {
@@ -329,16 +619,14 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
 
         if (foundConsumer != null)
         {
-          executor.execute(() ->
-          {
-            ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.OK, bytes);
-            foundConsumer.accept(responseMessage);
-          });
+          ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.OK, bytes);
+          foundConsumer.acceptOn(executor, responseMessage);
         }
       };
     }
 
-    ReceivedMessage message = new ReceivedMessage(channelName, messageBytes, onResponseConsumer);
+    ReceivedMessage message = new ReceivedMessage(channelName, serverName, messageBytes,
+      onResponseConsumer);
     messageNotifier.notify(channelName, message);
   }
 
@@ -349,10 +637,7 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
       return false;
     }
 
-    executor.execute(() ->
-    {
-      consumer.accept(new ResponseMessage(ResponseStatus.NOT_CONNECTED));
-    });
+    InlineConsumer.accept(executor, consumer, new ResponseMessage(ResponseStatus.NOT_CONNECTED));
 
     return true;
   }
@@ -364,10 +649,112 @@ public class SpigotToBungeeConnection extends AbstractPacketHandler
 
     ExpirableConsumer<ResponseMessage> responseConsumer = new ExpirableConsumer<>(
       consumer, System.currentTimeMillis() + timeoutInMillis);
-    long assignedConsumerId = responseConsumerMap.put(responseConsumer);
+    long assignedConsumerId = responseConsumerMap.put(responseConsumer,
+      responseConsumer.getExpiresAtMillis());
 
     // Update the packet
     packet.setConsumerId(assignedConsumerId);
     packet.setTimeoutInMillis(timeoutInMillis);
   }
+
+  /**
+   * Handler of an extra connection. It registers the connection as a lane once the
+   * server is registered and passes received packets to the connection.
+   */
+  private class LaneHandler extends AbstractPacketHandler
+  {
+    private final int laneIndex;
+
+    private LaneHandler(int laneIndex)
+    {
+      this.laneIndex = laneIndex;
+    }
+
+    @Override
+    public void onChannelActive(Channel channel)
+    {
+      super.onChannelActive(channel);
+
+      PacketToBungeeRegister packet = new PacketToBungeeRegister();
+      packet.setPassword(password);
+      packet.setServerName(serverName);
+      packet.setCapabilities(getOfferedCapabilities(channel));
+      packet.setLaneIndex(laneIndex);
+      packet.setLaneCount(lanes.getLaneCount());
+
+      channel.writeAndFlush(packet);
+
+      basicLogger.debug("Lane %s is now active.", laneIndex);
+    }
+
+    @Override
+    public void onChannelInactive()
+    {
+      basicLogger.debug("Lane %s is now inactive.", laneIndex);
+
+      lanes.remove(laneIndex, channel);
+
+      super.onChannelInactive();
+    }
+
+    @Override
+    public void handle(PacketToSpigotRegister packet)
+    {
+      Preconditions.checkNotNull(packet, "packet");
+      Preconditions.checkState(channel != null, "Channel is not active");
+
+      if (!packet.getResult().isSuccess())
+      {
+        channel.close();
+        basicLogger.severe("Lane %s registration failed: %s", laneIndex, packet.getResult());
+        return;
+      }
+
+      enableCompressionIfAccepted(channel, packet.getCapabilities());
+      enableChannelNamesIfAccepted(channel, packet.getCapabilities());
+      useProtocolVersion2IfAccepted(channel, packet.getCapabilities());
+      enableResponseStatusesIfAccepted(channel, packet.getCapabilities());
+
+      // Liveness is checked on the registering connection, which closes every lane
+      channel.pipeline().remove(ReadTimeoutHandler.class);
+
+      addFlushConsolidation(channel);
+      applyWriteOverflow(channel);
+
+      if (!lanes.add(laneIndex, channel))
+      {
+        channel.close();
+        return;
+      }
+
+      // Lanes are closed after the server is marked as unregistered, so check again
+      if (!registered)
+      {
+        lanes.remove(laneIndex, channel);
+        channel.close();
+        return;
+      }
+
+      basicLogger.debug("Lane %s is now registered.", laneIndex);
+    }
+
+    @Override
+    public void handle(PacketToSpigotRequest packet)
+    {
+      SpigotToBungeeConnection.this.handle(packet);
+    }
+
+    @Override
+    public void handle(PacketToAnyResponse packet)
+    {
+      SpigotToBungeeConnection.this.handle(packet);
+    }
+
+    @Override
+    public <P extends AbstractPacket> void handle(
+      P packet, BiConsumer<AbstractPacketHandler, P> listener)
+    {
+      SpigotToBungeeConnection.this.handle(packet, listener);
+    }
+  }
 }
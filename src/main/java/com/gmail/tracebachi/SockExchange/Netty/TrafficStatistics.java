@@ -0,0 +1,271 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for traffic sent by SockExchange that are cheap to update from any thread
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class TrafficStatistics
+{
+  private final LongAdder broadcastCount = new LongAdder();
+  private final LongAdder broadcastMessageBytes = new LongAdder();
+  private final LongAdder broadcastMessageBytesSent = new LongAdder();
+  private final LongAdder droppedCount = new LongAdder();
+  private final LongAdder droppedBytes = new LongAdder();
+  private final LongAdder compressedFrameCount = new LongAdder();
+  private final LongAdder bytesBeforeCompression = new LongAdder();
+  private final LongAdder bytesAfterCompression = new LongAdder();
+  private final LongAdder compressionNanos = new LongAdder();
+  private final LongAdder decompressedFrameCount = new LongAdder();
+  private final LongAdder decompressionNanos = new LongAdder();
+  private final LongAdder[] writeCounts = newAdders(MessagePriority.values().length);
+  private final LongAdder[] queueLatencyNanos = newAdders(MessagePriority.values().length);
+  private final LongAccumulator[] maxQueueLatencyNanos = newMaxAccumulators(
+    MessagePriority.values().length);
+
+  /**
+   * Records a broadcast whose message was copied once and written to multiple channels.
+   * Each channel encodes its own packet header around the shared message.
+   *
+   * @param messageBytes Size of the message without a packet header
+   * @param recipientCount Number of channels the message was written to
+   */
+  public void recordBroadcast(int messageBytes, int recipientCount)
+  {
+    broadcastCount.increment();
+    broadcastMessageBytes.add(messageBytes);
+    broadcastMessageBytesSent.add((long) messageBytes * recipientCount);
+  }
+
+  /**
+   * Records a message that was not written because its connection was not writable
+   *
+   * @param messageBytes Size of the message that was dropped
+   */
+  public void recordDropped(int messageBytes)
+  {
+    droppedCount.increment();
+    droppedBytes.add(messageBytes);
+  }
+
+  /**
+   * Records a frame that was compressed before it was written
+   *
+   * @param uncompressedBytes Size of the frame before compression
+   * @param compressedBytes Size of the frame after compression
+   * @param nanos Time spent compressing
+   */
+  public void recordCompression(int uncompressedBytes, int compressedBytes, long nanos)
+  {
+    compressedFrameCount.increment();
+    bytesBeforeCompression.add(uncompressedBytes);
+    bytesAfterCompression.add(compressedBytes);
+    compressionNanos.add(nanos);
+  }
+
+  /**
+   * Records a frame that was decompressed after it was read
+   *
+   * @param nanos Time spent decompressing
+   */
+  public void recordDecompression(long nanos)
+  {
+    decompressedFrameCount.increment();
+    decompressionNanos.add(nanos);
+  }
+
+  /**
+   * Records how long a write waited in a {@link PriorityWriteScheduler}
+   *
+   * @param priority Priority of the write
+   * @param nanos Time the write waited for the channel to become writable
+   */
+  public void recordQueueLatency(MessagePriority priority, long nanos)
+  {
+    int index = priority.ordinal();
+    writeCounts[index].increment();
+
+    if (nanos > 0)
+    {
+      queueLatencyNanos[index].add(nanos);
+      maxQueueLatencyNanos[index].accumulate(nanos);
+    }
+  }
+
+  /**
+   * @return Number of broadcasts sent
+   */
+  public long getBroadcastCount()
+  {
+    return broadcastCount.sum();
+  }
+
+  /**
+   * @return Number of message bytes of broadcasts, which are copied once per broadcast.
+   * Packet headers are not included.
+   */
+  public long getBroadcastMessageBytes()
+  {
+    return broadcastMessageBytes.sum();
+  }
+
+  /**
+   * @return Number of message bytes written to channels for broadcasts, which is the
+   * message bytes times the number of channels. Packet headers are not included.
+   */
+  public long getBroadcastMessageBytesSent()
+  {
+    return broadcastMessageBytesSent.sum();
+  }
+
+  /**
+   * @return Number of messages dropped or failed because a connection was not writable
+   */
+  public long getDroppedCount()
+  {
+    return droppedCount.sum();
+  }
+
+  /**
+   * @return Number of message bytes dropped or failed because a connection was not writable
+   */
+  public long getDroppedBytes()
+  {
+    return droppedBytes.sum();
+  }
+
+  /**
+   * @return Number of frames compressed before being written
+   */
+  public long getCompressedFrameCount()
+  {
+    return compressedFrameCount.sum();
+  }
+
+  /**
+   * @return Number of bytes of compressed frames before compression
+   */
+  public long getBytesBeforeCompression()
+  {
+    return bytesBeforeCompression.sum();
+  }
+
+  /**
+   * @return Number of bytes of compressed frames after compression
+   */
+  public long getBytesAfterCompression()
+  {
+    return bytesAfterCompression.sum();
+  }
+
+  /**
+   * @return Compressed size divided by uncompressed size of all compressed frames or 1
+   * if no frames were compressed
+   */
+  public double getCompressionRatio()
+  {
+    long before = bytesBeforeCompression.sum();
+    return (before == 0) ? 1.0 : (double) bytesAfterCompression.sum() / before;
+  }
+
+  /**
+   * @return Time in nanoseconds spent compressing frames
+   */
+  public long getCompressionNanos()
+  {
+    return compressionNanos.sum();
+  }
+
+  /**
+   * @return Number of compressed frames read and decompressed
+   */
+  public long getDecompressedFrameCount()
+  {
+    return decompressedFrameCount.sum();
+  }
+
+  /**
+   * @return Time in nanoseconds spent decompressing frames
+   */
+  public long getDecompressionNanos()
+  {
+    return decompressionNanos.sum();
+  }
+
+  /**
+   * @param priority Priority of writes
+   *
+   * @return Number of writes of the priority
+   */
+  public long getWriteCount(MessagePriority priority)
+  {
+    return writeCounts[priority.ordinal()].sum();
+  }
+
+  /**
+   * @param priority Priority of writes
+   *
+   * @return Average time in nanoseconds that writes of the priority waited for the
+   * channel to become writable, including writes that did not wait
+   */
+  public double getAverageQueueLatencyNanos(MessagePriority priority)
+  {
+    long count = writeCounts[priority.ordinal()].sum();
+    return (count == 0) ? 0 : (double) queueLatencyNanos[priority.ordinal()].sum() / count;
+  }
+
+  /**
+   * @param priority Priority of writes
+   *
+   * @return Longest time in nanoseconds that a write of the priority waited for the
+   * channel to become writable
+   */
+  public long getMaxQueueLatencyNanos(MessagePriority priority)
+  {
+    return maxQueueLatencyNanos[priority.ordinal()].get();
+  }
+
+  private static LongAdder[] newAdders(int length)
+  {
+    LongAdder[] adders = new LongAdder[length];
+
+    for (int i = 0; i < length; i++)
+    {
+      adders[i] = new LongAdder();
+    }
+
+    return adders;
+  }
+
+  private static LongAccumulator[] newMaxAccumulators(int length)
+  {
+    LongAccumulator[] accumulators = new LongAccumulator[length];
+
+    for (int i = 0; i < length; i++)
+    {
+      accumulators[i] = new LongAccumulator(Math::max, 0);
+    }
+
+    return accumulators;
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Socket and transport settings shared by {@link SockExchangeServer} and
+ * {@link SockExchangeClient}. Sizes of 0 leave the operating system defaults in place.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class TransportOptions
+{
+  private boolean nativeTransportPreferred = true;
+  private boolean tcpNoDelay = true;
+  private boolean keepAlive = true;
+  private int receiveBufferSize = 0;
+  private int sendBufferSize = 0;
+  private int backlog = 128;
+  private String domainSocketPath = null;
+  private int compressionThreshold = 0;
+  private int compressionLevel = 6;
+  private int connectionCount = 1;
+
+  /**
+   * @return True if epoll should be used when it is available or false to always
+   * use NIO
+   */
+  public boolean isNativeTransportPreferred()
+  {
+    return nativeTransportPreferred;
+  }
+
+  public void setNativeTransportPreferred(boolean nativeTransportPreferred)
+  {
+    this.nativeTransportPreferred = nativeTransportPreferred;
+  }
+
+  /**
+   * @return True if TCP_NODELAY is set on connections
+   */
+  public boolean isTcpNoDelay()
+  {
+    return tcpNoDelay;
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay)
+  {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  /**
+   * @return True if SO_KEEPALIVE is set on connections
+   */
+  public boolean isKeepAlive()
+  {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(boolean keepAlive)
+  {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * @return SO_RCVBUF in bytes or 0 to use the operating system default
+   */
+  public int getReceiveBufferSize()
+  {
+    return receiveBufferSize;
+  }
+
+  public void setReceiveBufferSize(int receiveBufferSize)
+  {
+    Preconditions.checkArgument(receiveBufferSize >= 0, "receiveBufferSize must be >= 0");
+
+    this.receiveBufferSize = receiveBufferSize;
+  }
+
+  /**
+   * @return SO_SNDBUF in bytes or 0 to use the operating system default
+   */
+  public int getSendBufferSize()
+  {
+    return sendBufferSize;
+  }
+
+  public void setSendBufferSize(int sendBufferSize)
+  {
+    Preconditions.checkArgument(sendBufferSize >= 0, "sendBufferSize must be >= 0");
+
+    this.sendBufferSize = sendBufferSize;
+  }
+
+  /**
+   * @return SO_BACKLOG of the server which is the number of connections that can wait
+   * to be accepted
+   */
+  public int getBacklog()
+  {
+    return backlog;
+  }
+
+  public void setBacklog(int backlog)
+  {
+    Preconditions.checkArgument(backlog > 0, "backlog must be > 0");
+
+    this.backlog = backlog;
+  }
+
+  /**
+   * @return Path of the Unix domain socket the server also listens on or null to
+   * only listen on TCP
+   */
+  public String getDomainSocketPath()
+  {
+    return domainSocketPath;
+  }
+
+  public void setDomainSocketPath(String domainSocketPath)
+  {
+    this.domainSocketPath = (domainSocketPath == null || domainSocketPath.isEmpty())
+      ? null
+      : domainSocketPath;
+  }
+
+  /**
+   * @return Size in bytes at which encoded packets are compressed or 0 to never
+   * compress or offer compression
+   */
+  public int getCompressionThreshold()
+  {
+    return compressionThreshold;
+  }
+
+  public void setCompressionThreshold(int compressionThreshold)
+  {
+    Preconditions.checkArgument(compressionThreshold >= 0, "compressionThreshold must be >= 0");
+
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * @return Deflate level from 1 (fastest) to 9 (smallest)
+   */
+  public int getCompressionLevel()
+  {
+    return compressionLevel;
+  }
+
+  public void setCompressionLevel(int compressionLevel)
+  {
+    Preconditions.checkArgument(compressionLevel >= 1 && compressionLevel <= 9,
+      "compressionLevel must be between 1 and 9");
+
+    this.compressionLevel = compressionLevel;
+  }
+
+  /**
+   * @return Number of connections the client opens to the server. Extra connections
+   * are only opened if the server accepts them.
+   */
+  public int getConnectionCount()
+  {
+    return connectionCount;
+  }
+
+  public void setConnectionCount(int connectionCount)
+  {
+    Preconditions.checkArgument(
+      connectionCount >= 1 && connectionCount <= ConnectionLanes.MAX_LANE_COUNT,
+      "connectionCount must be between 1 and " + ConnectionLanes.MAX_LANE_COUNT);
+
+    this.connectionCount = connectionCount;
+  }
+
+  /**
+   * @return Copy of the options that never compresses or offers compression
+   */
+  public TransportOptions withoutCompression()
+  {
+    TransportOptions copy = new TransportOptions();
+    copy.nativeTransportPreferred = nativeTransportPreferred;
+    copy.tcpNoDelay = tcpNoDelay;
+    copy.keepAlive = keepAlive;
+    copy.receiveBufferSize = receiveBufferSize;
+    copy.sendBufferSize = sendBufferSize;
+    copy.backlog = backlog;
+    copy.domainSocketPath = domainSocketPath;
+    copy.compressionThreshold = 0;
+    copy.compressionLevel = compressionLevel;
+    copy.connectionCount = connectionCount;
+    return copy;
+  }
+}
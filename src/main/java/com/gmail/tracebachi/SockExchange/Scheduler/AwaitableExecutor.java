@@ -19,31 +19,40 @@ package com.gmail.tracebachi.SockExchange.Scheduler;
 
 import com.google.common.base.Preconditions;
 
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Executor that tracks its running tasks so they can be awaited when shutting down
+ * <p>
+ * The state and the number of tasks in flight share one atomic word, so submitting and
+ * completing a task never takes a lock. A lock is only used to wake up threads that are
+ * waiting in {@link #awaitQuiescence(long, TimeUnit)}.
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class AwaitableExecutor implements Executor
 {
-  private static final byte ACCEPTING = 1;
-  private static final byte NOT_ACCEPTING = 2;
-  private static final byte SHUTDOWN = 3;
+  private static final int STATE_SHIFT = 56;
+  private static final long COUNT_MASK = (1L << STATE_SHIFT) - 1;
+  private static final long STATE_MASK = ~COUNT_MASK;
+  private static final long ACCEPTING = 0;
+  private static final long NOT_ACCEPTING = 1L << STATE_SHIFT;
+  private static final long SHUTDOWN = 2L << STATE_SHIFT;
 
-  private final Object lock = new Object();
   private final ExecutorService executorService;
-  private final ConcurrentHashMap.KeySetView<Integer, Boolean> submittedTaskSet;
-  private int taskCounter = 1;
-  private byte stateByte = ACCEPTING;
+  private final AtomicLong stateAndCount = new AtomicLong(ACCEPTING);
+  private final Object quiescenceLock = new Object();
+  private volatile int quiescenceWaiters = 0;
 
   public AwaitableExecutor(ExecutorService executorService)
   {
     Preconditions.checkNotNull(executorService, "executorService");
 
     this.executorService = executorService;
-    this.submittedTaskSet = ConcurrentHashMap.newKeySet();
   }
 
   /**
@@ -61,28 +70,36 @@ public class AwaitableExecutor implements Executor
    */
   public boolean submit(Runnable runnable)
   {
-    synchronized (lock)
-    {
-      if (stateByte != ACCEPTING)
-      {
-        return false;
-      }
+    Preconditions.checkNotNull(runnable, "runnable");
 
-      // If the underlying executorService has shutdown, we must shutdown
-      // this executor.
-      if (executorService.isShutdown())
-      {
-        shutdown();
-        return false;
-      }
+    // Count the task first so a concurrent await cannot miss it
+    long previous = stateAndCount.getAndIncrement();
 
-      int taskId = taskCounter++;
-      Runnable wrappedTask = wrapTask(runnable, taskId);
+    if ((previous & STATE_MASK) != ACCEPTING)
+    {
+      onTaskDone();
+      return false;
+    }
 
-      submittedTaskSet.add(taskId);
-      executorService.execute(wrappedTask);
+    // If the underlying executorService has shutdown, we must shutdown
+    // this executor.
+    if (executorService.isShutdown())
+    {
+      shutdown();
+      onTaskDone();
+      return false;
+    }
+
+    try
+    {
+      executorService.execute(new TrackedTask(runnable));
       return true;
     }
+    catch (RejectedExecutionException ex)
+    {
+      onTaskDone();
+      return false;
+    }
   }
 
   /**
@@ -90,10 +107,7 @@ public class AwaitableExecutor implements Executor
    */
   public boolean isAcceptingTasks()
   {
-    synchronized (lock)
-    {
-      return stateByte == ACCEPTING;
-    }
+    return (stateAndCount.get() & STATE_MASK) == ACCEPTING;
   }
 
   /**
@@ -101,9 +115,13 @@ public class AwaitableExecutor implements Executor
    */
   public void setAcceptingTasks(boolean acceptingTasks)
   {
-    synchronized (lock)
+    long newState = acceptingTasks ? ACCEPTING : NOT_ACCEPTING;
+
+    while (true)
     {
-      if (stateByte == SHUTDOWN)
+      long current = stateAndCount.get();
+
+      if ((current & STATE_MASK) == SHUTDOWN)
       {
         // If the new value was going to stop accepting tasks, then
         // shutdown is like a successful value change.
@@ -112,7 +130,10 @@ public class AwaitableExecutor implements Executor
         return;
       }
 
-      stateByte = (acceptingTasks) ? ACCEPTING : NOT_ACCEPTING;
+      if (stateAndCount.compareAndSet(current, newState | (current & COUNT_MASK)))
+      {
+        return;
+      }
     }
   }
 
@@ -121,10 +142,15 @@ public class AwaitableExecutor implements Executor
    */
   public boolean isShutdown()
   {
-    synchronized (lock)
-    {
-      return stateByte == SHUTDOWN;
-    }
+    return (stateAndCount.get() & STATE_MASK) == SHUTDOWN;
+  }
+
+  /**
+   * @return Number of submitted tasks that have not finished
+   */
+  public long getTasksInFlight()
+  {
+    return stateAndCount.get() & COUNT_MASK;
   }
 
   /**
@@ -137,46 +163,113 @@ public class AwaitableExecutor implements Executor
    */
   public void shutdown()
   {
-    synchronized (lock)
+    while (true)
     {
-      stateByte = SHUTDOWN;
-      submittedTaskSet.clear();
+      long current = stateAndCount.get();
+
+      if (stateAndCount.compareAndSet(current, SHUTDOWN | (current & COUNT_MASK)))
+      {
+        return;
+      }
     }
   }
 
   /**
-   * Sleep to wait for tasks to finish
+   * Waits for all submitted tasks to finish
+   * <p>
+   * Tasks can still be submitted while waiting, so the executor should
+   * stop accepting tasks first.
+   * </p>
    *
-   * @param maxLoops Number of times to run the check-sleep loop
-   * @param millisToSleep Milliseconds to sleep when waiting
+   * @param timeout Maximum time to wait
+   * @param unit Unit of the timeout
    *
    * @return True if there are no more tasks running or false otherwise
    *
-   * @throws InterruptedException If {@link Thread#sleep(long)} is interrupted
+   * @throws InterruptedException If interrupted while waiting
    */
-  public boolean awaitTasksWithSleep(int maxLoops, long millisToSleep) throws InterruptedException
+  public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException
   {
-    int remainingTasks = submittedTaskSet.size();
+    Preconditions.checkNotNull(unit, "unit");
 
-    if (remainingTasks <= 0)
+    if (getTasksInFlight() == 0)
     {
       return true;
     }
 
-    for (int i = 0; i < maxLoops && remainingTasks > 0; i++)
+    long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+
+    synchronized (quiescenceLock)
     {
-      // It is documented that we are using a blocking call to Thread.sleep()
-      Thread.sleep(millisToSleep);
+      quiescenceWaiters++;
+
+      try
+      {
+        while (getTasksInFlight() != 0)
+        {
+          long remainingNanos = deadlineNanos - System.nanoTime();
 
-      remainingTasks = submittedTaskSet.size();
+          if (remainingNanos <= 0)
+          {
+            return false;
+          }
+
+          TimeUnit.NANOSECONDS.timedWait(quiescenceLock, remainingNanos);
+        }
+
+        return true;
+      }
+      finally
+      {
+        quiescenceWaiters--;
+      }
     }
+  }
 
-    return remainingTasks <= 0;
+  /**
+   * Sleep to wait for tasks to finish
+   *
+   * @param maxLoops Number of times to run the check-sleep loop
+   * @param millisToSleep Milliseconds to sleep when waiting
+   *
+   * @return True if there are no more tasks running or false otherwise
+   *
+   * @throws InterruptedException If interrupted while waiting
+   * @deprecated Use {@link #awaitQuiescence(long, TimeUnit)} which does not poll
+   */
+  @Deprecated
+  public boolean awaitTasksWithSleep(int maxLoops, long millisToSleep) throws InterruptedException
+  {
+    return awaitQuiescence(maxLoops * millisToSleep, TimeUnit.MILLISECONDS);
+  }
+
+  private void onTaskDone()
+  {
+    long remaining = stateAndCount.decrementAndGet() & COUNT_MASK;
+
+    // Waiters register under the lock before checking the count, so either they see
+    // zero or this sees them and wakes them up under the lock
+    if (remaining == 0 && quiescenceWaiters > 0)
+    {
+      synchronized (quiescenceLock)
+      {
+        quiescenceLock.notifyAll();
+      }
+    }
   }
 
-  private Runnable wrapTask(Runnable task, int taskId)
+  private class TrackedTask implements Runnable
   {
-    return () -> {
+    private final Runnable task;
+
+    private TrackedTask(Runnable task)
+    {
+      this.task = task;
+    }
+
+    @Override
+    public void run()
+    {
       try
       {
         task.run();
@@ -187,8 +280,8 @@ public class AwaitableExecutor implements Executor
       }
       finally
       {
-        submittedTaskSet.remove(taskId);
+        onTaskDone();
       }
-    };
+    }
   }
 }
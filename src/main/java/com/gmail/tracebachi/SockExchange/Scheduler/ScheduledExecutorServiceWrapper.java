@@ -24,45 +24,59 @@ import java.util.List;
 import java.util.concurrent.*;
 
 /**
+ * Scheduled executor handed to API consumers. Timers run on the scheduler
+ * while immediate tasks ({@code execute}, {@code submit} and {@code invoke*})
+ * run on the worker executor, so long-running consumers do not delay
+ * timers and timers do not take threads away from consumers.
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class ScheduledExecutorServiceWrapper implements ScheduledExecutorService
 {
-  private final ScheduledThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor scheduler;
+  private final ExecutorService workerExecutor;
 
   public ScheduledExecutorServiceWrapper(ScheduledThreadPoolExecutor executor)
   {
-    Preconditions.checkNotNull(executor, "executor");
+    this(executor, executor);
+  }
+
+  public ScheduledExecutorServiceWrapper(
+    ScheduledThreadPoolExecutor scheduler, ExecutorService workerExecutor)
+  {
+    Preconditions.checkNotNull(scheduler, "scheduler");
+    Preconditions.checkNotNull(workerExecutor, "workerExecutor");
 
-    this.executor = executor;
+    this.scheduler = scheduler;
+    this.workerExecutor = workerExecutor;
   }
 
   @Override
   public ScheduledFuture<?> schedule(
     Runnable runnable, long delay, TimeUnit timeUnit)
   {
-    return executor.schedule(runnable, delay ,timeUnit);
+    return scheduler.schedule(runnable, delay, timeUnit);
   }
 
   @Override
   public <V> ScheduledFuture<V> schedule(
     Callable<V> callable, long delay, TimeUnit timeUnit)
   {
-    return executor.schedule(callable, delay, timeUnit);
+    return scheduler.schedule(callable, delay, timeUnit);
   }
 
   @Override
   public ScheduledFuture<?> scheduleAtFixedRate(
     Runnable runnable, long initialDelay, long period, TimeUnit timeUnit)
   {
-    return executor.scheduleWithFixedDelay(runnable, initialDelay, period, timeUnit);
+    return scheduler.scheduleAtFixedRate(runnable, initialDelay, period, timeUnit);
   }
 
   @Override
   public ScheduledFuture<?> scheduleWithFixedDelay(
     Runnable runnable, long initialDelay, long periodDelay, TimeUnit timeUnit)
   {
-    return scheduleWithFixedDelay(runnable, initialDelay, periodDelay, timeUnit);
+    return scheduler.scheduleWithFixedDelay(runnable, initialDelay, periodDelay, timeUnit);
   }
 
   @Override
@@ -80,13 +94,13 @@ public class ScheduledExecutorServiceWrapper implements ScheduledExecutorService
   @Override
   public boolean isShutdown()
   {
-    return executor.isShutdown();
+    return scheduler.isShutdown() || workerExecutor.isShutdown();
   }
 
   @Override
   public boolean isTerminated()
   {
-    return executor.isTerminated();
+    return scheduler.isTerminated() && workerExecutor.isTerminated();
   }
 
   @Override
@@ -98,26 +112,26 @@ public class ScheduledExecutorServiceWrapper implements ScheduledExecutorService
   @Override
   public <T> Future<T> submit(Callable<T> callable)
   {
-    return executor.submit(callable);
+    return workerExecutor.submit(callable);
   }
 
   @Override
   public <T> Future<T> submit(Runnable runnable, T t)
   {
-    return executor.submit(runnable, t);
+    return workerExecutor.submit(runnable, t);
   }
 
   @Override
   public Future<?> submit(Runnable runnable)
   {
-    return executor.submit(runnable);
+    return workerExecutor.submit(runnable);
   }
 
   @Override
   public <T> List<Future<T>> invokeAll(
     Collection<? extends Callable<T>> collection) throws InterruptedException
   {
-    return executor.invokeAll(collection);
+    return workerExecutor.invokeAll(collection);
   }
 
   @Override
@@ -125,14 +139,14 @@ public class ScheduledExecutorServiceWrapper implements ScheduledExecutorService
     Collection<? extends Callable<T>> collection, long l, TimeUnit timeUnit)
     throws InterruptedException
   {
-    return executor.invokeAll(collection, l, timeUnit);
+    return workerExecutor.invokeAll(collection, l, timeUnit);
   }
 
   @Override
   public <T> T invokeAny(Collection<? extends Callable<T>> collection)
     throws InterruptedException, ExecutionException
   {
-    return executor.invokeAny(collection);
+    return workerExecutor.invokeAny(collection);
   }
 
   @Override
@@ -140,12 +154,12 @@ public class ScheduledExecutorServiceWrapper implements ScheduledExecutorService
     Collection<? extends Callable<T>> collection, long l, TimeUnit timeUnit)
     throws InterruptedException, ExecutionException, TimeoutException
   {
-    return executor.invokeAny(collection, l, timeUnit);
+    return workerExecutor.invokeAny(collection, l, timeUnit);
   }
 
   @Override
   public void execute(Runnable runnable)
   {
-    executor.execute(runnable);
+    workerExecutor.execute(runnable);
   }
 }
@@ -0,0 +1,289 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Scheduler;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs message consumers, separate from the scheduler that
+ * runs timers. Its type and size come from the configuration so a busy
+ * network can use more threads than the scheduler needs.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class WorkerPool
+{
+  public enum Type
+  {
+    /**
+     * Fixed number of threads sharing one FIFO queue
+     */
+    FIXED,
+
+    /**
+     * Work-stealing {@link ForkJoinPool} in FIFO (async) mode
+     */
+    WORK_STEALING,
+
+    /**
+     * One virtual thread per task. Requires Java 21 or newer and falls
+     * back to {@link #WORK_STEALING} when virtual threads are not available.
+     */
+    VIRTUAL;
+
+    /**
+     * @param name Name of the type which is case-insensitive and may use
+     * '-' instead of '_'
+     * @param defaultType Type to return if the name is null or unknown
+     * @return Matching type or the default type
+     */
+    public static Type fromName(String name, Type defaultType)
+    {
+      if (name == null)
+      {
+        return defaultType;
+      }
+
+      String normalized = name.trim().replace('-', '_');
+      for (Type type : values())
+      {
+        if (type.name().equalsIgnoreCase(normalized))
+        {
+          return type;
+        }
+      }
+
+      return defaultType;
+    }
+  }
+
+  private static final String THREAD_NAME_PREFIX = "SockExchange-Worker-Thread-";
+
+  private final Type type;
+  private final int threads;
+  private final ExecutorService executorService;
+  private final AtomicInteger virtualThreadsActive;
+
+  /**
+   * @param requestedType Type of pool to create
+   * @param requestedThreads Number of threads for fixed and work-stealing
+   * pools or a number less than 1 to use the number of available processors
+   */
+  public WorkerPool(Type requestedType, int requestedThreads)
+  {
+    Preconditions.checkNotNull(requestedType, "requestedType");
+
+    this.threads = (requestedThreads < 1)
+      ? Runtime.getRuntime().availableProcessors()
+      : requestedThreads;
+
+    ExecutorService virtualExecutor = null;
+    if (requestedType == Type.VIRTUAL)
+    {
+      virtualExecutor = tryCreateVirtualThreadExecutor();
+    }
+
+    if (virtualExecutor != null)
+    {
+      this.type = Type.VIRTUAL;
+      this.executorService = virtualExecutor;
+      this.virtualThreadsActive = new AtomicInteger(0);
+    }
+    else if (requestedType == Type.FIXED)
+    {
+      ThreadFactoryBuilder factoryBuilder = new ThreadFactoryBuilder();
+      factoryBuilder.setNameFormat(THREAD_NAME_PREFIX + "%d");
+
+      this.type = Type.FIXED;
+      this.executorService = new ThreadPoolExecutor(threads, threads, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factoryBuilder.build());
+      this.virtualThreadsActive = null;
+    }
+    else
+    {
+      AtomicInteger threadCounter = new AtomicInteger(0);
+      ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = (pool) ->
+      {
+        ForkJoinWorkerThread thread =
+          ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName(THREAD_NAME_PREFIX + threadCounter.getAndIncrement());
+        return thread;
+      };
+
+      this.type = Type.WORK_STEALING;
+      this.executorService = new ForkJoinPool(threads, threadFactory, null, true);
+      this.virtualThreadsActive = null;
+    }
+  }
+
+  /**
+   * @return Type of the pool that was created which may differ from the
+   * requested type if virtual threads are not available
+   */
+  public Type getType()
+  {
+    return type;
+  }
+
+  /**
+   * @return Configured number of threads (ignored by virtual thread pools)
+   */
+  public int getThreads()
+  {
+    return threads;
+  }
+
+  /**
+   * @return Executor service that runs the tasks
+   */
+  public ExecutorService getExecutorService()
+  {
+    return executorService;
+  }
+
+  /**
+   * @return Estimated number of tasks waiting for a thread. Virtual thread
+   * pools start a thread for every task, so they never queue.
+   */
+  public long getQueueDepth()
+  {
+    if (executorService instanceof ForkJoinPool)
+    {
+      ForkJoinPool pool = (ForkJoinPool) executorService;
+      return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+    }
+    else if (executorService instanceof ThreadPoolExecutor)
+    {
+      return ((ThreadPoolExecutor) executorService).getQueue().size();
+    }
+
+    return 0;
+  }
+
+  /**
+   * @return Estimated number of threads that are running tasks
+   */
+  public int getActiveThreadCount()
+  {
+    if (executorService instanceof ForkJoinPool)
+    {
+      return ((ForkJoinPool) executorService).getActiveThreadCount();
+    }
+    else if (executorService instanceof ThreadPoolExecutor)
+    {
+      return ((ThreadPoolExecutor) executorService).getActiveCount();
+    }
+
+    return virtualThreadsActive.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "WorkerPool{" +
+      "type=" + type +
+      ", threads=" + threads +
+      ", queueDepth=" + getQueueDepth() +
+      ", activeThreads=" + getActiveThreadCount() +
+      '}';
+  }
+
+  private ExecutorService tryCreateVirtualThreadExecutor()
+  {
+    try
+    {
+      // Looked up reflectively so the plugin still runs on Java 8
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      ExecutorService virtualExecutor = (ExecutorService) method.invoke(null);
+      return new CountingExecutorService(virtualExecutor);
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Counts running tasks for executors that do not report an active count
+   */
+  private class CountingExecutorService extends AbstractExecutorService
+  {
+    private final ExecutorService delegate;
+
+    CountingExecutorService(ExecutorService delegate)
+    {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable runnable)
+    {
+      Preconditions.checkNotNull(runnable, "runnable");
+
+      delegate.execute(() ->
+      {
+        virtualThreadsActive.incrementAndGet();
+        try
+        {
+          runnable.run();
+        }
+        finally
+        {
+          virtualThreadsActive.decrementAndGet();
+        }
+      });
+    }
+
+    @Override
+    public void shutdown()
+    {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit timeUnit)
+      throws InterruptedException
+    {
+      return delegate.awaitTermination(timeout, timeUnit);
+    }
+  }
+}
@@ -29,6 +29,78 @@ public class SockExchangeConstants
     public static final String MOVE_PLAYERS = "MovePlayers";
     public static final String CHAT_MESSAGES = "ChatMessages";
     public static final String PLAYER_UPDATE = "PlayerUpdate";
+    public static final String STREAM = "Stream";
+  }
+
+  /**
+   * First byte of messages on the {@link Channels#PLAYER_UPDATE} channel
+   * <p>
+   * Snapshots and deltas are followed by the epoch and sequence number of the stream.
+   * A snapshot contains all players up to and including its sequence number.
+   * <p>
+   * Servers that did not accept {@link Capabilities#PLAYER_UPDATE_STREAM} are sent the
+   * older format instead, which is only the count and list of players without a type.
+   */
+  public static class PlayerUpdateTypes
+  {
+    public static final byte SNAPSHOT = 0;
+    public static final byte JOIN = 1;
+    public static final byte LEAVE = 2;
+    public static final byte RESYNC_REQUEST = 3;
+  }
+
+  /**
+   * First byte of messages on the {@link Channels#KEEP_ALIVE} channel
+   * <p>
+   * Status updates and heartbeats are followed by the epoch and version of the server
+   * status. A status update also contains every server and is sent whenever a server
+   * connects or disconnects. Heartbeats only carry the epoch and version so a server can
+   * detect a missed update and request the full status.
+   * <p>
+   * Servers that did not accept {@link Capabilities#SERVER_STATUS_PUSH} are sent the
+   * older format instead, which is only the count and list of servers without a type.
+   */
+  public static class KeepAliveTypes
+  {
+    public static final byte STATUS = 0;
+    public static final byte HEARTBEAT = 1;
+    public static final byte RESYNC_REQUEST = 2;
+  }
+
+  /**
+   * First byte of messages on the {@link Channels#STREAM} channel and of their responses
+   * <p>
+   * Every message is followed by the ID of the stream. An open also has the channel name,
+   * window size and header of the stream, a chunk has its sequence number and bytes, and
+   * an end has the number of chunks sent. Every message except an abort expects a response
+   * of {@link #ACCEPTED} or {@link #REJECTED}.
+   */
+  public static class StreamTypes
+  {
+    public static final byte OPEN = 0;
+    public static final byte CHUNK = 1;
+    public static final byte END = 2;
+    public static final byte ABORT = 3;
+
+    public static final byte ACCEPTED = 0;
+    public static final byte REJECTED = 1;
+  }
+
+  /**
+   * Bit flags exchanged during registration. A client sends the features it supports
+   * and the server answers with the ones that will be used on the connection.
+   */
+  public static class Capabilities
+  {
+    public static final int DEFLATE = 1;
+    public static final int CONNECTION_POOL = 2;
+    public static final int CHANNEL_NAME_DICTIONARY = 4;
+    public static final int PROTOCOL_VERSION_2 = 8;
+    public static final int SERVER_BUSY_STATUS = 16;
+    public static final int REJECTED_STATUS = 32;
+    public static final int GATHER = 64;
+    public static final int SERVER_STATUS_PUSH = 128;
+    public static final int PLAYER_UPDATE_STREAM = 256;
   }
 
   public static class FormatNames
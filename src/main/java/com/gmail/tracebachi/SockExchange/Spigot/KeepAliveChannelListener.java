@@ -18,7 +18,10 @@
 package com.gmail.tracebachi.SockExchange.Spigot;
 
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.KeepAliveTypes;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
 import com.gmail.tracebachi.SockExchange.Utilities.CaseInsensitiveMap;
 import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
@@ -32,13 +35,28 @@ import java.util.Map;
 import java.util.function.Consumer;
 
 /**
+ * Keeps the status of all servers in sync with the status updates pushed by the proxy
+ * <p>
+ * The server list is only replaced when the status version changes. If a heartbeat
+ * reports a version that was not received, the full status is requested from the proxy.
+ * Older versions of the proxy send the full status with every keep alive instead.
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class KeepAliveChannelListener implements Registerable
 {
+  private static final long RESYNC_TIMEOUT_MILLIS = 5000;
+  private static final byte[] RESYNC_REQUEST_BYTES = new byte[] {
+    KeepAliveTypes.RESYNC_REQUEST };
+
   private final SockExchangeApi api;
   private final Consumer<ReceivedMessage> onChannelMessage;
+  private final Object lock = new Object();
   private volatile Map<String, SpigotServerInfo> serverInfoMap = Collections.emptyMap();
+  private boolean synced = false;
+  private long epoch;
+  private long version;
+  private boolean resyncInProgress = false;
 
   public KeepAliveChannelListener(SockExchangeApi api)
   {
@@ -73,6 +91,79 @@ public class KeepAliveChannelListener implements Registerable
   private void onKeepAliveChannelMessage(ReceivedMessage receivedMessage)
   {
     ByteArrayDataInput in = receivedMessage.getDataInput();
+
+    // Older versions of Bungee send the full status without a type or version
+    if (!api.isCapabilityAccepted(Capabilities.SERVER_STATUS_PUSH))
+    {
+      synchronized (lock)
+      {
+        serverInfoMap = readServerInfos(in);
+        synced = false;
+      }
+      return;
+    }
+
+    byte type = in.readByte();
+    long messageEpoch = in.readLong();
+    long messageVersion = in.readLong();
+
+    if (type == KeepAliveTypes.STATUS)
+    {
+      applyStatus(messageEpoch, messageVersion, in);
+    }
+    else if (type == KeepAliveTypes.HEARTBEAT)
+    {
+      synchronized (lock)
+      {
+        if (isNewer(messageEpoch, messageVersion))
+        {
+          requestResync();
+        }
+      }
+    }
+  }
+
+  private void onResyncResponse(ResponseMessage responseMessage)
+  {
+    synchronized (lock)
+    {
+      resyncInProgress = false;
+    }
+
+    if (!responseMessage.getResponseStatus().isOk())
+    {
+      return;
+    }
+
+    ByteArrayDataInput in = responseMessage.getDataInput();
+    in.readByte();
+    long messageEpoch = in.readLong();
+    long messageVersion = in.readLong();
+
+    applyStatus(messageEpoch, messageVersion, in);
+  }
+
+  private void applyStatus(long messageEpoch, long messageVersion, ByteArrayDataInput in)
+  {
+    synchronized (lock)
+    {
+      // Messages are handled on a thread pool, so an older status can arrive late
+      if (!isNewer(messageEpoch, messageVersion))
+      {
+        return;
+      }
+
+      // Swap with new collection
+      serverInfoMap = readServerInfos(in);
+
+      synced = true;
+      epoch = messageEpoch;
+      version = messageVersion;
+    }
+  }
+
+  private Map<String, SpigotServerInfo> readServerInfos(ByteArrayDataInput in)
+  {
     int count = in.readInt();
     CaseInsensitiveMap<SpigotServerInfo> map = new CaseInsensitiveMap<>(new HashMap<>(count));
 
@@ -86,7 +177,24 @@ public class KeepAliveChannelListener implements Registerable
       map.put(serverName, serverInfo);
     }
 
-    // Swap with new collection
-    serverInfoMap = Collections.unmodifiableMap(map);
+    return Collections.unmodifiableMap(map);
+  }
+
+  private boolean isNewer(long messageEpoch, long messageVersion)
+  {
+    return !synced || messageEpoch != epoch || messageVersion > version;
+  }
+
+  private void requestResync()
+  {
+    if (resyncInProgress)
+    {
+      return;
+    }
+
+    resyncInProgress = true;
+
+    api.sendToBungee(Channels.KEEP_ALIVE, RESYNC_REQUEST_BYTES, this::onResyncResponse,
+      RESYNC_TIMEOUT_MILLIS);
   }
 }
@@ -18,63 +18,292 @@
 package com.gmail.tracebachi.SockExchange.Spigot;
 
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.PlayerUpdateTypes;
 import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteArrayDataInput;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
+ * Keeps the set of online players in sync with the proxy's join/leave stream
+ * <p>
+ * Messages are handled on a thread pool, so deltas can arrive out of order. Deltas after
+ * a gap are held until the gap is filled. If it is not filled in time (or the epoch is
+ * unknown), a snapshot is requested from the proxy. Older versions of the proxy send the
+ * full list of players on a period instead.
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class PlayerUpdateChannelListener implements Registerable
 {
+  private static final int MAX_PENDING_DELTAS = 1024;
+  private static final long GAP_TIMEOUT_MILLIS = 2000;
+  private static final long RESYNC_CHECK_PERIOD_MILLIS = 2500;
+  private static final long RESYNC_TIMEOUT_MILLIS = 5000;
+  private static final byte[] RESYNC_REQUEST_BYTES = new byte[] {
+    PlayerUpdateTypes.RESYNC_REQUEST };
+
   private final SockExchangeApi api;
   private final Consumer<ReceivedMessage> onChannelMessage;
-  private volatile Set<String> onlinePlayerNames = Collections.emptySet();
+  private final Set<String> onlinePlayerNames = ConcurrentHashMap.newKeySet();
+  private final Set<String> unmodifiableOnlinePlayerNames =
+    Collections.unmodifiableSet(onlinePlayerNames);
+  private final Object lock = new Object();
+  private final TreeMap<Long, Delta> pendingDeltas = new TreeMap<>();
+  private boolean synced = false;
+  private long epoch;
+  private long lastSequence;
+  private long gapDetectedAtMillis = 0;
+  private boolean resyncInProgress = false;
+  private ScheduledFuture<?> resyncCheckFuture;
 
   public PlayerUpdateChannelListener(SockExchangeApi api)
   {
     Preconditions.checkNotNull(api, "api");
 
     this.api = api;
-    this.onChannelMessage = this::onServerInfoUpdateChannelMessage;
+    this.onChannelMessage = this::onPlayerUpdateChannelMessage;
   }
 
   @Override
   public void register()
   {
     api.getMessageNotifier().register(Channels.PLAYER_UPDATE, onChannelMessage);
+
+    resyncCheckFuture = api.getScheduledExecutorService().scheduleWithFixedDelay(
+      this::checkForResync, RESYNC_CHECK_PERIOD_MILLIS, RESYNC_CHECK_PERIOD_MILLIS,
+      TimeUnit.MILLISECONDS);
   }
 
   @Override
   public void unregister()
   {
+    if (resyncCheckFuture != null)
+    {
+      resyncCheckFuture.cancel(false);
+      resyncCheckFuture = null;
+    }
+
     api.getMessageNotifier().unregister(Channels.PLAYER_UPDATE, onChannelMessage);
   }
 
+  /**
+   * @return Unmodifiable view of the online players which is updated in place
+   */
   public Set<String> getOnlinePlayerNames()
   {
-    return onlinePlayerNames;
+    return unmodifiableOnlinePlayerNames;
   }
 
-  private void onServerInfoUpdateChannelMessage(ReceivedMessage receivedMessage)
+  private void onPlayerUpdateChannelMessage(ReceivedMessage receivedMessage)
   {
     ByteArrayDataInput in = receivedMessage.getDataInput();
+
+    // Older versions of Bungee send the full list without a type or sequence number
+    if (!api.isCapabilityAccepted(Capabilities.PLAYER_UPDATE_STREAM))
+    {
+      Set<String> playerNames = readPlayerNames(in);
+
+      synchronized (lock)
+      {
+        onlinePlayerNames.retainAll(playerNames);
+        onlinePlayerNames.addAll(playerNames);
+        synced = false;
+        pendingDeltas.clear();
+        gapDetectedAtMillis = 0;
+      }
+      return;
+    }
+
+    byte type = in.readByte();
+    long messageEpoch = in.readLong();
+    long sequence = in.readLong();
+
+    if (type == PlayerUpdateTypes.SNAPSHOT)
+    {
+      applySnapshot(messageEpoch, sequence, readPlayerNames(in));
+    }
+    else if (type == PlayerUpdateTypes.JOIN || type == PlayerUpdateTypes.LEAVE)
+    {
+      applyDelta(messageEpoch, sequence, new Delta(messageEpoch, type, in.readUTF()));
+    }
+  }
+
+  private void onResyncResponse(ResponseMessage responseMessage)
+  {
+    if (!responseMessage.getResponseStatus().isOk())
+    {
+      synchronized (lock)
+      {
+        resyncInProgress = false;
+      }
+      return;
+    }
+
+    ByteArrayDataInput in = responseMessage.getDataInput();
+    in.readByte();
+    long messageEpoch = in.readLong();
+    long sequence = in.readLong();
+    Set<String> playerNames = readPlayerNames(in);
+
+    synchronized (lock)
+    {
+      resyncInProgress = false;
+      applySnapshot(messageEpoch, sequence, playerNames);
+    }
+  }
+
+  private void applySnapshot(long messageEpoch, long sequence, Set<String> playerNames)
+  {
+    synchronized (lock)
+    {
+      // Ignore snapshots older than the deltas that have been applied
+      if (synced && messageEpoch == epoch && sequence <= lastSequence)
+      {
+        return;
+      }
+
+      onlinePlayerNames.retainAll(playerNames);
+      onlinePlayerNames.addAll(playerNames);
+
+      synced = true;
+      epoch = messageEpoch;
+      lastSequence = sequence;
+
+      // Drop pending deltas that are covered by the snapshot or from another epoch
+      pendingDeltas.headMap(sequence, true).clear();
+      pendingDeltas.values().removeIf((delta) -> delta.epoch != messageEpoch);
+      applyPendingDeltas();
+    }
+  }
+
+  private void applyDelta(long messageEpoch, long sequence, Delta delta)
+  {
+    synchronized (lock)
+    {
+      if (synced && messageEpoch == epoch)
+      {
+        if (sequence <= lastSequence)
+        {
+          return;
+        }
+
+        if (sequence == lastSequence + 1)
+        {
+          apply(delta);
+          lastSequence = sequence;
+          applyPendingDeltas();
+          return;
+        }
+      }
+
+      // The delta cannot be applied yet, so hold it until the gap is filled or a
+      // snapshot arrives
+      pendingDeltas.put(sequence, delta);
+
+      if (gapDetectedAtMillis == 0)
+      {
+        gapDetectedAtMillis = System.currentTimeMillis();
+      }
+
+      if (!synced || messageEpoch != epoch || pendingDeltas.size() > MAX_PENDING_DELTAS)
+      {
+        requestResync();
+      }
+    }
+  }
+
+  private void applyPendingDeltas()
+  {
+    while (!pendingDeltas.isEmpty() && pendingDeltas.firstKey() == lastSequence + 1)
+    {
+      apply(pendingDeltas.pollFirstEntry().getValue());
+      lastSequence++;
+    }
+
+    if (pendingDeltas.isEmpty())
+    {
+      gapDetectedAtMillis = 0;
+    }
+  }
+
+  private void apply(Delta delta)
+  {
+    if (delta.type == PlayerUpdateTypes.JOIN)
+    {
+      onlinePlayerNames.add(delta.playerName);
+    }
+    else
+    {
+      onlinePlayerNames.remove(delta.playerName);
+    }
+  }
+
+  private void checkForResync()
+  {
+    // Older versions of Bungee cannot answer a resync request
+    if (!api.isCapabilityAccepted(Capabilities.PLAYER_UPDATE_STREAM))
+    {
+      return;
+    }
+
+    synchronized (lock)
+    {
+      boolean gapTimedOut = gapDetectedAtMillis != 0 &&
+        System.currentTimeMillis() - gapDetectedAtMillis > GAP_TIMEOUT_MILLIS;
+
+      if (!synced || gapTimedOut)
+      {
+        requestResync();
+      }
+    }
+  }
+
+  private void requestResync()
+  {
+    if (resyncInProgress)
+    {
+      return;
+    }
+
+    resyncInProgress = true;
+
+    api.sendToBungee(Channels.PLAYER_UPDATE, RESYNC_REQUEST_BYTES, this::onResyncResponse,
+      RESYNC_TIMEOUT_MILLIS);
+  }
+
+  private static Set<String> readPlayerNames(ByteArrayDataInput in)
+  {
     int count = in.readInt();
-    HashSet<String> set = new HashSet<>();
+    Set<String> playerNames = new HashSet<>(count);
 
     for (int i = 0; i < count; i++)
     {
-      String playerName = in.readUTF();
-      set.add(playerName);
+      playerNames.add(in.readUTF());
     }
 
-    // Swap with new collection
-    onlinePlayerNames = Collections.unmodifiableSet(set);
+    return playerNames;
+  }
+
+  private static class Delta
+  {
+    private final long epoch;
+    private final byte type;
+    private final String playerName;
+
+    private Delta(long epoch, byte type, String playerName)
+    {
+      this.epoch = epoch;
+      this.type = type;
+      this.playerName = playerName;
+    }
   }
 }
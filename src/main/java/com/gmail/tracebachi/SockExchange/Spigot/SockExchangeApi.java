@@ -17,17 +17,28 @@
  */
 package com.gmail.tracebachi.SockExchange.Spigot;
 
+import com.gmail.tracebachi.SockExchange.InlineConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.GatheredResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.SpigotToBungeeConnection;
+import com.gmail.tracebachi.SockExchange.Netty.TrafficStatistics;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Capabilities;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
+import com.gmail.tracebachi.SockExchange.Streams.StreamHandler;
+import com.gmail.tracebachi.SockExchange.Streams.StreamReceiver;
+import com.gmail.tracebachi.SockExchange.Streams.StreamSender;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
@@ -54,22 +65,35 @@ public class SockExchangeApi
 
   private final SpigotTieIn spigotTieIn;
   private final ScheduledExecutorService scheduledExecutorService;
+  private final WorkerPool workerPool;
   private final ReceivedMessageNotifier messageNotifier;
   private final SpigotToBungeeConnection connection;
+  private final TrafficStatistics trafficStatistics;
+  private final StreamReceiver streamReceiver;
+  private final StreamSender streamSender;
 
   protected SockExchangeApi(
     SpigotTieIn spigotTieIn, ScheduledExecutorService scheduledExecutorService,
-    ReceivedMessageNotifier messageNotifier, SpigotToBungeeConnection connection)
+    WorkerPool workerPool, ReceivedMessageNotifier messageNotifier,
+    SpigotToBungeeConnection connection, TrafficStatistics trafficStatistics,
+    StreamReceiver streamReceiver)
   {
     Preconditions.checkNotNull(spigotTieIn, "spigotTieIn");
     Preconditions.checkNotNull(scheduledExecutorService, "scheduledExecutorService");
+    Preconditions.checkNotNull(workerPool, "workerPool");
     Preconditions.checkNotNull(messageNotifier, "messageNotifier");
     Preconditions.checkNotNull(connection, "connection");
+    Preconditions.checkNotNull(trafficStatistics, "trafficStatistics");
+    Preconditions.checkNotNull(streamReceiver, "streamReceiver");
 
     this.spigotTieIn = spigotTieIn;
     this.scheduledExecutorService = scheduledExecutorService;
+    this.workerPool = workerPool;
     this.messageNotifier = messageNotifier;
     this.connection = connection;
+    this.trafficStatistics = trafficStatistics;
+    this.streamReceiver = streamReceiver;
+    this.streamSender = new StreamSender(workerPool.getExecutorService());
   }
 
   /**
@@ -80,6 +104,19 @@ public class SockExchangeApi
     return connection.getServerName();
   }
 
+  /**
+   * Used by the built-in channels to read the older message format from a version of
+   * Bungee that does not send the newer one
+   *
+   * @param capability One of the flags in {@link Capabilities}
+   *
+   * @return True if Bungee accepted the capability when the server last registered
+   */
+  boolean isCapabilityAccepted(int capability)
+  {
+    return connection.isCapabilityAccepted(capability);
+  }
+
   /**
    * Get the SpigotServerInfo for a server using a name
    *
@@ -116,6 +153,24 @@ public class SockExchangeApi
     return scheduledExecutorService;
   }
 
+  /**
+   * @return {@link WorkerPool} that runs message consumers and immediate
+   * tasks of the {@link ScheduledExecutorService}, for monitoring its
+   * queue depth and active thread count
+   */
+  public WorkerPool getWorkerPool()
+  {
+    return workerPool;
+  }
+
+  /**
+   * @return {@link TrafficStatistics} for traffic sent by SockExchange
+   */
+  public TrafficStatistics getTrafficStatistics()
+  {
+    return trafficStatistics;
+  }
+
   /**
    * @return {@link ReceivedMessageNotifier} used for registering and
    * un-registering listeners
@@ -125,6 +180,15 @@ public class SockExchangeApi
     return messageNotifier;
   }
 
+  /**
+   * @return {@link StreamReceiver} used for registering the {@link StreamHandler}
+   * of a channel that streams are sent to
+   */
+  public StreamReceiver getStreamReceiver()
+  {
+    return streamReceiver;
+  }
+
   /**
    * Sends bytes to Bungee (if connected)
    * <p>
@@ -157,6 +221,32 @@ public class SockExchangeApi
     connection.sendToBungee(channelName, messageBytes, consumer, timeoutInMillis);
   }
 
+  /**
+   * Sends bytes to Bungee (if connected) and returns a future for the response
+   * <p>
+   * The future is completed with the response (or a failure response) on a SockExchange
+   * thread, which may be a network thread. Use the async methods of the future with
+   * another executor for work that is not trivial.
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   *
+   * @return Future that is completed once there is a response (or a failure)
+   */
+  public CompletableFuture<ResponseMessage> sendToBungee(
+    String channelName, byte[] messageBytes, long timeoutInMillis)
+  {
+    CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+    InlineConsumer<ResponseMessage> consumer = future::complete;
+
+    sendToBungee(channelName, messageBytes, consumer, timeoutInMillis);
+    return future;
+  }
+
   /**
    * Sends bytes to a server (if online)
    * <p>
@@ -191,6 +281,84 @@ public class SockExchangeApi
     connection.sendToServer(channelName, messageBytes, destServerName, consumer, timeoutInMillis);
   }
 
+  /**
+   * Sends bytes to a server (if online) and returns a future for the response
+   * <p>
+   * The future is completed with the response (or a failure response) on a SockExchange
+   * thread, which may be a network thread. Use the async methods of the future with
+   * another executor for work that is not trivial.
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param destServerName Name of the server to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   *
+   * @return Future that is completed once there is a response (or a failure)
+   */
+  public CompletableFuture<ResponseMessage> sendToServer(
+    String channelName, byte[] messageBytes, String destServerName, long timeoutInMillis)
+  {
+    CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+    InlineConsumer<ResponseMessage> consumer = future::complete;
+
+    sendToServer(channelName, messageBytes, destServerName, consumer, timeoutInMillis);
+    return future;
+  }
+
+  /**
+   * Streams bytes to Bungee (if connected) in chunks
+   * <p>
+   * Use this for payloads that can be larger than one message, like world or schematic
+   * snapshots. The input is read on a worker thread and sent in chunks that other
+   * messages are interleaved with. Only a few chunks are sent before the receiver has
+   * handled them. The input stream is closed once the transfer ends. A
+   * {@link java.nio.channels.ReadableByteChannel} can be sent by wrapping it with
+   * {@link java.nio.channels.Channels#newInputStream}.
+   *
+   * @param channelName Name of channel that the receiver registered a {@link StreamHandler} for
+   * @param headerBytes Bytes passed to the receiver when the stream is opened (like a file name)
+   * @param inputStream Stream of the bytes to send
+   * @param timeoutInMillis Milliseconds to wait for each chunk to be handled
+   *
+   * @return Future that is completed with {@link ResponseStatus#OK} once the receiver has
+   * handled every chunk, a failure status otherwise, or exceptionally if the input stream
+   * could not be read
+   */
+  public CompletableFuture<ResponseStatus> sendStreamToBungee(
+    String channelName, byte[] headerBytes, InputStream inputStream, long timeoutInMillis)
+  {
+    return streamSender.send(channelName, headerBytes, inputStream,
+      (bytes, consumer) -> sendToBungee(Channels.STREAM, bytes, consumer, timeoutInMillis));
+  }
+
+  /**
+   * Streams bytes to a server (if online) in chunks
+   * <p>
+   * Refer to {@link #sendStreamToBungee(String, byte[], InputStream, long)}. The chunks
+   * are forwarded by Bungee.
+   *
+   * @param channelName Name of channel that the receiver registered a {@link StreamHandler} for
+   * @param headerBytes Bytes passed to the receiver when the stream is opened (like a file name)
+   * @param inputStream Stream of the bytes to send
+   * @param destServerName Name of the server to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for each chunk to be handled
+   *
+   * @return Future that is completed with {@link ResponseStatus#OK} once the receiver has
+   * handled every chunk, a failure status otherwise, or exceptionally if the input stream
+   * could not be read
+   */
+  public CompletableFuture<ResponseStatus> sendStreamToServer(
+    String channelName, byte[] headerBytes, InputStream inputStream, String destServerName,
+    long timeoutInMillis)
+  {
+    return streamSender.send(channelName, headerBytes, inputStream,
+      (bytes, consumer) -> sendToServer(Channels.STREAM, bytes, destServerName, consumer,
+        timeoutInMillis));
+  }
+
   /**
    * Sends bytes to a server (if online)
    * <p>
@@ -238,6 +406,33 @@ public class SockExchangeApi
     });
   }
 
+  /**
+   * Sends bytes to the server of a player (if online) and returns a future for the response
+   * <p>
+   * The future is completed with the response (or a failure response) on a SockExchange
+   * thread, which may be a network thread. Use the async methods of the future with
+   * another executor for work that is not trivial.
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param playerName Name of the player to find and then their server to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   *
+   * @return Future that is completed once there is a response (or a failure)
+   */
+  public CompletableFuture<ResponseMessage> sendToServerOfPlayer(
+    String channelName, byte[] messageBytes, String playerName, long timeoutInMillis)
+  {
+    CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+    InlineConsumer<ResponseMessage> consumer = future::complete;
+
+    sendToServerOfPlayer(channelName, messageBytes, playerName, consumer, timeoutInMillis);
+    return future;
+  }
+
   /**
    * Sends bytes to all online servers
    * <p>
@@ -268,6 +463,60 @@ public class SockExchangeApi
     connection.sendToServers(channelName, messageBytes, serverNames);
   }
 
+  /**
+   * Sends bytes to a list of servers (if online) and gathers their responses. Bungee
+   * sends the request to every server and responds once with all of the responses.
+   * <p>
+   * An empty list sends the bytes to all servers except this one. Servers that do not
+   * respond before the timeout have a TIMED_OUT response. If Bungee is a version that
+   * does not support gathered requests, nothing is sent and the status is REJECTED.
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes, serverNames
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param serverNames List of server names to send bytes to
+   * @param consumer Consumer to run once all servers responded (or a failure)
+   * @param timeoutInMillis Milliseconds to wait for the responses of the servers
+   */
+  public void sendToServersAndGather(
+    String channelName, byte[] messageBytes, List<String> serverNames,
+    Consumer<GatheredResponseMessage> consumer, long timeoutInMillis)
+  {
+    connection.sendToServersAndGather(channelName, messageBytes, serverNames, consumer,
+      timeoutInMillis);
+  }
+
+  /**
+   * Sends bytes to a list of servers (if online) and returns a future for their
+   * gathered responses
+   * <p>
+   * The future is completed on a SockExchange thread, which may be a network thread.
+   * Use the async methods of the future with another executor for work that is not
+   * trivial.
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes, serverNames
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param serverNames List of server names to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for the responses of the servers
+   *
+   * @return Future that is completed once all servers responded (or a failure)
+   * @see #sendToServersAndGather(String, byte[], List, Consumer, long)
+   */
+  public CompletableFuture<GatheredResponseMessage> sendToServersAndGather(
+    String channelName, byte[] messageBytes, List<String> serverNames, long timeoutInMillis)
+  {
+    CompletableFuture<GatheredResponseMessage> future = new CompletableFuture<>();
+    InlineConsumer<GatheredResponseMessage> consumer = future::complete;
+
+    sendToServersAndGather(channelName, messageBytes, serverNames, consumer, timeoutInMillis);
+    return future;
+  }
+
   /**
    * Sends players (if they are online) to the server (if the server is online)
    *
@@ -17,6 +17,10 @@
  */
 package com.gmail.tracebachi.SockExchange.Spigot;
 
+import com.gmail.tracebachi.SockExchange.Netty.OverflowPolicy;
+import com.gmail.tracebachi.SockExchange.Netty.PriorityWriteScheduler;
+import com.gmail.tracebachi.SockExchange.Netty.TransportOptions;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
 import com.gmail.tracebachi.SockExchange.Utilities.MessageFormatMap;
 import org.bukkit.ChatColor;
 import org.bukkit.configuration.ConfigurationSection;
@@ -30,6 +34,14 @@ class SockExchangeConfiguration
   private int port;
   private String serverName;
   private String registrationPassword;
+  private boolean flushConsolidationEnabled;
+  private int flushConsolidationMaxPackets;
+  private OverflowPolicy overflowPolicy;
+  private int maxQueuedBytes;
+  private long timeoutTickMillis;
+  private WorkerPool.Type workerPoolType;
+  private int workerPoolThreads;
+  private TransportOptions transportOptions;
   private MessageFormatMap messageFormatMap;
   private boolean debugMode;
 
@@ -39,6 +51,37 @@ class SockExchangeConfiguration
     port = configuration.getInt("SockExchangeClient.Port", 20000);
     serverName = configuration.getString("SockExchangeClient.ServerName", "");
     registrationPassword = configuration.getString("SockExchangeClient.Password", "FreshSocks");
+    flushConsolidationEnabled = configuration.getBoolean(
+      "SockExchangeClient.FlushConsolidation.Enabled", false);
+    flushConsolidationMaxPackets = configuration.getInt(
+      "SockExchangeClient.FlushConsolidation.MaxPackets", 64);
+    overflowPolicy = OverflowPolicy.fromName(configuration.getString(
+      "SockExchangeClient.Backpressure.Policy", "QUEUE"), OverflowPolicy.QUEUE);
+    maxQueuedBytes = configuration.getInt("SockExchangeClient.Backpressure.MaxQueuedBytes",
+      PriorityWriteScheduler.DEFAULT_MAX_QUEUED_BYTES);
+    timeoutTickMillis = configuration.getLong("SockExchangeClient.TimeoutTickMillis", 10);
+    workerPoolType = WorkerPool.Type.fromName(configuration.getString(
+      "SockExchangeClient.WorkerPool.Type", "WORK_STEALING"), WorkerPool.Type.WORK_STEALING);
+    workerPoolThreads = configuration.getInt("SockExchangeClient.WorkerPool.Threads", 0);
+
+    transportOptions = new TransportOptions();
+    transportOptions.setNativeTransportPreferred(configuration.getBoolean(
+      "SockExchangeClient.Transport.Native", true));
+    transportOptions.setTcpNoDelay(configuration.getBoolean(
+      "SockExchangeClient.Transport.TcpNoDelay", true));
+    transportOptions.setKeepAlive(configuration.getBoolean(
+      "SockExchangeClient.Transport.KeepAlive", true));
+    transportOptions.setReceiveBufferSize(configuration.getInt(
+      "SockExchangeClient.Transport.ReceiveBufferSize", 0));
+    transportOptions.setSendBufferSize(configuration.getInt(
+      "SockExchangeClient.Transport.SendBufferSize", 0));
+    transportOptions.setCompressionThreshold(configuration.getInt(
+      "SockExchangeClient.Compression.Threshold", 0));
+    transportOptions.setCompressionLevel(configuration.getInt(
+      "SockExchangeClient.Compression.Level", 6));
+    transportOptions.setConnectionCount(configuration.getInt(
+      "SockExchangeClient.Connections", 1));
+
     debugMode = configuration.getBoolean("DebugMode", false);
     messageFormatMap = new MessageFormatMap();
 
@@ -73,6 +116,46 @@ class SockExchangeConfiguration
     return registrationPassword;
   }
 
+  boolean isFlushConsolidationEnabled()
+  {
+    return flushConsolidationEnabled;
+  }
+
+  int getFlushConsolidationMaxPackets()
+  {
+    return flushConsolidationMaxPackets;
+  }
+
+  OverflowPolicy getOverflowPolicy()
+  {
+    return overflowPolicy;
+  }
+
+  int getMaxQueuedBytes()
+  {
+    return maxQueuedBytes;
+  }
+
+  long getTimeoutTickMillis()
+  {
+    return timeoutTickMillis;
+  }
+
+  WorkerPool.Type getWorkerPoolType()
+  {
+    return workerPoolType;
+  }
+
+  int getWorkerPoolThreads()
+  {
+    return workerPoolThreads;
+  }
+
+  TransportOptions getTransportOptions()
+  {
+    return transportOptions;
+  }
+
   MessageFormatMap getMessageFormatMap()
   {
     return messageFormatMap;
@@ -23,9 +23,12 @@ import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.SockExchangeClient;
 import com.gmail.tracebachi.SockExchange.Netty.SpigotToBungeeConnection;
+import com.gmail.tracebachi.SockExchange.Netty.TrafficStatistics;
 import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
 import com.gmail.tracebachi.SockExchange.Scheduler.ScheduledExecutorServiceWrapper;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
+import com.gmail.tracebachi.SockExchange.Streams.StreamReceiver;
 import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
 import com.gmail.tracebachi.SockExchange.Utilities.JulBasicLogger;
 import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
@@ -39,6 +42,7 @@ import org.bukkit.plugin.java.JavaPlugin;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
@@ -53,12 +57,14 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
   private final SockExchangeConfiguration configuration = new SockExchangeConfiguration();
 
   private ScheduledThreadPoolExecutor threadPoolExecutor;
+  private WorkerPool workerPool;
   private AwaitableExecutor awaitableExecutor;
   private BasicLogger basicLogger;
   private ReceivedMessageNotifier messageNotifier;
   private LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap;
   private SpigotToBungeeConnection connection;
   private SockExchangeClient sockExchangeClient;
+  private StreamReceiver streamReceiver;
   private ScheduledFuture<?> consumerTimeoutCleanupFuture;
 
   private PlayerUpdateChannelListener playerUpdateChannelListener;
@@ -92,10 +98,18 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
     // Create the logger based on Java.Util.Logging
     basicLogger = new JulBasicLogger(getLogger(), debugMode);
 
-    // Create the shared thread pool executor
+    // Create the scheduler for timers and the worker pool for everything else
     buildThreadPoolExecutor();
+    workerPool = new WorkerPool(
+      configuration.getWorkerPoolType(), configuration.getWorkerPoolThreads());
+    if (workerPool.getType() != configuration.getWorkerPoolType())
+    {
+      getLogger().warning("WorkerPool type " + configuration.getWorkerPoolType() +
+        " is not available. Using " + workerPool.getType() + " instead.");
+    }
+
     ScheduledExecutorServiceWrapper wrappedThreadPool =
-      new ScheduledExecutorServiceWrapper(threadPoolExecutor);
+      new ScheduledExecutorServiceWrapper(threadPoolExecutor, workerPool.getExecutorService());
 
     // Create the AwaitableExecutor
     awaitableExecutor = new AwaitableExecutor(wrappedThreadPool);
@@ -104,22 +118,39 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
     messageNotifier = new ReceivedMessageNotifier(awaitableExecutor);
 
     // Create the map that manages consumers for responses to sent message
-    responseConsumerMap = new LongIdCounterMap<>();
+    long timeoutTickMillis = configuration.getTimeoutTickMillis();
+    responseConsumerMap = new LongIdCounterMap<>(timeoutTickMillis);
 
-    // Schedule a task to clean up the responseConsumerMap (handling timeouts)
-    consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleWithFixedDelay(
-      this::checkForConsumerTimeouts, 5, 5, TimeUnit.SECONDS);
+    // Schedule a task to expire consumers in the responseConsumerMap every tick
+    consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleAtFixedRate(
+      this::checkForConsumerTimeouts, timeoutTickMillis, timeoutTickMillis,
+      TimeUnit.MILLISECONDS);
 
     // Create the Spigot-to-Bungee connection
     connection = new SpigotToBungeeConnection(
       serverName, registrationPassword, awaitableExecutor, messageNotifier, responseConsumerMap,
       basicLogger);
 
+    if (configuration.isFlushConsolidationEnabled())
+    {
+      connection.setFlushConsolidation(configuration.getFlushConsolidationMaxPackets());
+    }
+
+    connection.setWriteOverflow(configuration.getOverflowPolicy(),
+      configuration.getMaxQueuedBytes());
+
+    // Create the receiver that reassembles streams sent to this server
+    streamReceiver = new StreamReceiver(messageNotifier, wrappedThreadPool, basicLogger);
+
     // Create the API
+    TrafficStatistics trafficStatistics = new TrafficStatistics();
     SockExchangeApi api = new SockExchangeApi(
-      this, threadPoolExecutor, messageNotifier, connection);
+      this, wrappedThreadPool, workerPool, messageNotifier, connection, trafficStatistics,
+      streamReceiver);
     SockExchangeApi.setInstance(api);
 
+    streamReceiver.register();
+
     playerUpdateChannelListener = new PlayerUpdateChannelListener(api);
     playerUpdateChannelListener.register();
 
@@ -146,7 +177,12 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
 
     try
     {
-      sockExchangeClient = new SockExchangeClient(hostName, port, connection);
+      sockExchangeClient = new SockExchangeClient(hostName, port, connection,
+        configuration.getTransportOptions(), trafficStatistics);
+      getLogger().info("SockExchange client using the " +
+        (sockExchangeClient.isEpoll() ? "epoll" : "NIO") + " transport" +
+        (sockExchangeClient.isDomainSocket() ? " over a Unix domain socket" : ""));
+
       sockExchangeClient.start();
     }
     catch (Exception e)
@@ -224,6 +260,12 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
       playerUpdateChannelListener = null;
     }
 
+    if (streamReceiver != null)
+    {
+      streamReceiver.unregister();
+      streamReceiver = null;
+    }
+
     SockExchangeApi.setInstance(null);
 
     connection = null;
@@ -245,9 +287,15 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
 
     if (threadPoolExecutor != null)
     {
-      shutdownThreadPoolExecutor();
+      shutdownExecutor(threadPoolExecutor, "ScheduledThreadPoolExecutor");
       threadPoolExecutor = null;
     }
+
+    if (workerPool != null)
+    {
+      shutdownExecutor(workerPool.getExecutorService(), "WorkerPool");
+      workerPool = null;
+    }
   }
 
   @Override
@@ -300,26 +348,10 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
 
   private void checkForConsumerTimeouts()
   {
-    long currentTimeMillis = System.currentTimeMillis();
-
-    responseConsumerMap.removeIf((entry) ->
+    responseConsumerMap.expire(System.currentTimeMillis(), (responseConsumer) ->
     {
-      ExpirableConsumer<ResponseMessage> responseConsumer = entry.getValue();
-
-      if (responseConsumer.getExpiresAtMillis() > currentTimeMillis)
-      {
-        // Keep the entry
-        return false;
-      }
-
-      awaitableExecutor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
-        responseConsumer.accept(responseMessage);
-      });
-
-      // Remove the entry
-      return true;
+      ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
+      responseConsumer.acceptOn(awaitableExecutor, responseMessage);
     });
   }
 
@@ -328,7 +360,7 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
     try
     {
       awaitableExecutor.setAcceptingTasks(false);
-      awaitableExecutor.awaitTasksWithSleep(10, 1000);
+      awaitableExecutor.awaitQuiescence(10, TimeUnit.SECONDS);
       awaitableExecutor.shutdown();
     }
     catch (InterruptedException ex)
@@ -345,45 +377,44 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
     ThreadFactory threadFactory = factoryBuilder.build();
     threadPoolExecutor = new ScheduledThreadPoolExecutor(2, threadFactory);
 
-    threadPoolExecutor.setMaximumPoolSize(8);
     threadPoolExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
     threadPoolExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
   }
 
-  private void shutdownThreadPoolExecutor()
+  private void shutdownExecutor(ExecutorService executor, String executorName)
   {
-    if (!threadPoolExecutor.isShutdown())
+    if (!executor.isShutdown())
     {
       // Disable new tasks from being submitted to service
-      threadPoolExecutor.shutdown();
+      executor.shutdown();
 
-      getLogger().info("ScheduledThreadPoolExecutor being shutdown()");
+      getLogger().info(executorName + " being shutdown()");
 
       try
       {
         // Await termination for a minute
-        if (!threadPoolExecutor.awaitTermination(60, TimeUnit.SECONDS))
+        if (!executor.awaitTermination(60, TimeUnit.SECONDS))
         {
           // Force shutdown
-          threadPoolExecutor.shutdownNow();
+          executor.shutdownNow();
 
-          getLogger().severe("ScheduledThreadPoolExecutor being shutdownNow()");
+          getLogger().severe(executorName + " being shutdownNow()");
 
           // Await termination again for another minute
-          if (!threadPoolExecutor.awaitTermination(60, TimeUnit.SECONDS))
+          if (!executor.awaitTermination(60, TimeUnit.SECONDS))
           {
-            getLogger().severe("ScheduledThreadPoolExecutor not shutdown after shutdownNow()");
+            getLogger().severe(executorName + " not shutdown after shutdownNow()");
           }
         }
       }
       catch (InterruptedException ex)
       {
-        getLogger().severe("ScheduledThreadPoolExecutor shutdown interrupted");
+        getLogger().severe(executorName + " shutdown interrupted");
 
         // Re-cancel if current thread also interrupted
-        threadPoolExecutor.shutdownNow();
+        executor.shutdownNow();
 
-        getLogger().severe("ScheduledThreadPoolExecutor being shutdownNow()");
+        getLogger().severe(executorName + " being shutdownNow()");
 
         // Preserve interrupt status
         Thread.currentThread().interrupt();
@@ -0,0 +1,87 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Streams;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Stream that was opened by another server and is waiting for a {@link StreamHandler}
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ReceivedStream
+{
+  private final String channelName;
+  private final String sourceServerName;
+  private final long streamId;
+  private final byte[] headerBytes;
+
+  public ReceivedStream(String channelName, long streamId, byte[] headerBytes)
+  {
+    this(channelName, null, streamId, headerBytes);
+  }
+
+  public ReceivedStream(
+    String channelName, String sourceServerName, long streamId, byte[] headerBytes)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(headerBytes, "headerBytes");
+
+    this.channelName = channelName;
+    this.sourceServerName = sourceServerName;
+    this.streamId = streamId;
+    this.headerBytes = headerBytes;
+  }
+
+  public String getChannelName()
+  {
+    return channelName;
+  }
+
+  /**
+   * @return Name of the server that opened the stream or null if it is unknown
+   */
+  public String getSourceServerName()
+  {
+    return sourceServerName;
+  }
+
+  /**
+   * @return Random ID the sender picked for the stream
+   */
+  public long getStreamId()
+  {
+    return streamId;
+  }
+
+  /**
+   * @return Bytes the sender passed when opening the stream (like a file name)
+   */
+  public byte[] getHeaderBytes()
+  {
+    return headerBytes;
+  }
+
+  public ByteArrayDataInput getHeaderDataInput()
+  {
+    return ByteStreams.newDataInput(headerBytes);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Streams;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the bytes of one incoming stream in order
+ * <p>
+ * Methods are called one at a time on a SockExchange thread. A chunk is only
+ * acknowledged to the sender once a chunk method returns, so a slow handler
+ * slows down the sender instead of having the stream buffered in memory.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public interface StreamHandler
+{
+  /**
+   * Handles the next chunk of the stream
+   *
+   * @param chunkBytes Bytes of the chunk
+   *
+   * @throws Exception If the chunk could not be handled, which aborts the stream
+   */
+  void onChunk(byte[] chunkBytes) throws Exception;
+
+  /**
+   * Handles the next chunk of the stream without copying it out of the received message
+   * <p>
+   * By default, the chunk is copied and passed to {@link #onChunk(byte[])}. Override this
+   * method to read the chunk in place. The buffer is only valid until the method returns.
+   *
+   * @param chunk Read-only buffer positioned at the start of the chunk
+   *
+   * @throws Exception If the chunk could not be handled, which aborts the stream
+   */
+  default void onChunk(ByteBuffer chunk) throws Exception
+  {
+    byte[] chunkBytes = new byte[chunk.remaining()];
+    chunk.get(chunkBytes);
+    onChunk(chunkBytes);
+  }
+
+  /**
+   * Called after the last chunk was handled
+   */
+  void onComplete();
+
+  /**
+   * Called if the stream ends before it is complete. No other methods are called after.
+   *
+   * @param reason Reason the stream was aborted
+   */
+  void onAbort(String reason);
+}
@@ -0,0 +1,580 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Streams;
+
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.StreamTypes;
+import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataInput;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reassembles streams sent by {@link StreamSender} and passes their chunks in order
+ * to the {@link StreamHandler} created for the channel of the stream
+ * <p>
+ * Chunks may be handled by different threads in any order, so chunks that arrive
+ * early are held until the chunks before them are handled. The handler of a stream is
+ * run by one thread at a time outside the lock of the stream, and the threads of other
+ * chunks return once their chunk is held. The sender never has more than its window
+ * size of chunks waiting, which bounds how many are held. Streams that receive nothing
+ * for the idle timeout are aborted.
+ * <p>
+ * Streams are identified by the server that sent them and their ID, so a server can
+ * only send to the streams it opened.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class StreamReceiver implements Registerable
+{
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60 * 1000;
+  private static final byte[] ACCEPTED_BYTES = new byte[] { StreamTypes.ACCEPTED };
+  private static final byte[] REJECTED_BYTES = new byte[] { StreamTypes.REJECTED };
+
+  private final ReceivedMessageNotifier messageNotifier;
+  private final ScheduledExecutorService scheduledExecutorService;
+  private final BasicLogger basicLogger;
+  private final long idleTimeoutMillis;
+  private final Consumer<ReceivedMessage> onChannelMessage;
+  private final ConcurrentHashMap<String, Function<ReceivedStream, StreamHandler>> channelToHandlerFactoryMap;
+  private final ConcurrentHashMap<StreamKey, IncomingStream> streamMap;
+  private ScheduledFuture<?> idleCheckFuture;
+
+  public StreamReceiver(
+    ReceivedMessageNotifier messageNotifier, ScheduledExecutorService scheduledExecutorService,
+    BasicLogger basicLogger)
+  {
+    this(messageNotifier, scheduledExecutorService, basicLogger, DEFAULT_IDLE_TIMEOUT_MILLIS);
+  }
+
+  public StreamReceiver(
+    ReceivedMessageNotifier messageNotifier, ScheduledExecutorService scheduledExecutorService,
+    BasicLogger basicLogger, long idleTimeoutMillis)
+  {
+    Preconditions.checkNotNull(messageNotifier, "messageNotifier");
+    Preconditions.checkNotNull(scheduledExecutorService, "scheduledExecutorService");
+    Preconditions.checkNotNull(basicLogger, "basicLogger");
+    Preconditions.checkArgument(idleTimeoutMillis > 0, "idleTimeoutMillis must be > 0");
+
+    this.messageNotifier = messageNotifier;
+    this.scheduledExecutorService = scheduledExecutorService;
+    this.basicLogger = basicLogger;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.onChannelMessage = this::onStreamChannelMessage;
+    this.channelToHandlerFactoryMap = new ConcurrentHashMap<>();
+    this.streamMap = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public synchronized void register()
+  {
+    messageNotifier.register(Channels.STREAM, onChannelMessage);
+
+    long checkIntervalMillis = Math.max(1000, idleTimeoutMillis / 4);
+    idleCheckFuture = scheduledExecutorService.scheduleWithFixedDelay(this::abortIdleStreams,
+      checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void unregister()
+  {
+    messageNotifier.unregister(Channels.STREAM, onChannelMessage);
+
+    if (idleCheckFuture != null)
+    {
+      idleCheckFuture.cancel(false);
+      idleCheckFuture = null;
+    }
+
+    for (IncomingStream stream : new ArrayList<>(streamMap.values()))
+    {
+      stream.abort("Receiver was unregistered");
+    }
+  }
+
+  /**
+   * Sets the factory that creates a handler for each stream opened on a channel
+   * <p>
+   * The factory may return null to reject a stream. Streams on a channel without a
+   * factory are rejected.
+   *
+   * @param channelName Name of the channel
+   * @param handlerFactory Function that creates a handler for a stream
+   */
+  public void registerHandler(
+    String channelName, Function<ReceivedStream, StreamHandler> handlerFactory)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(handlerFactory, "handlerFactory");
+
+    channelToHandlerFactoryMap.put(channelName, handlerFactory);
+  }
+
+  /**
+   * Removes the handler factory of a channel. Streams that are already open are not
+   * affected.
+   *
+   * @param channelName Name of the channel
+   */
+  public void unregisterHandler(String channelName)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+
+    channelToHandlerFactoryMap.remove(channelName);
+  }
+
+  /**
+   * @return Number of streams that are open
+   */
+  public int getOpenStreamCount()
+  {
+    return streamMap.size();
+  }
+
+  private void onStreamChannelMessage(ReceivedMessage receivedMessage)
+  {
+    ByteArrayDataInput in = receivedMessage.getDataInput();
+    byte type = in.readByte();
+    StreamKey streamKey = new StreamKey(receivedMessage.getSourceServerName(), in.readLong());
+
+    if (type == StreamTypes.OPEN)
+    {
+      onOpen(streamKey, in, receivedMessage);
+      return;
+    }
+
+    IncomingStream stream = streamMap.get(streamKey);
+
+    if (type == StreamTypes.ABORT)
+    {
+      if (stream != null)
+      {
+        stream.abort("Aborted by sender");
+      }
+    }
+    else if (stream == null)
+    {
+      receivedMessage.respond(REJECTED_BYTES);
+    }
+    else if (type == StreamTypes.CHUNK)
+    {
+      stream.onChunk(in.readInt(), receivedMessage);
+    }
+    else if (type == StreamTypes.END)
+    {
+      stream.onEnd(in.readInt(), receivedMessage);
+    }
+    else
+    {
+      basicLogger.severe("Unknown stream message type: %s", type);
+      receivedMessage.respond(REJECTED_BYTES);
+    }
+  }
+
+  private void onOpen(
+    StreamKey streamKey, ByteArrayDataInput in, ReceivedMessage receivedMessage)
+  {
+    String channelName = in.readUTF();
+    int windowSize = in.readInt();
+    byte[] headerBytes = new byte[in.readInt()];
+    in.readFully(headerBytes);
+
+    Function<ReceivedStream, StreamHandler> handlerFactory =
+      channelToHandlerFactoryMap.get(channelName);
+
+    if (handlerFactory == null || windowSize <= 0 || streamMap.containsKey(streamKey))
+    {
+      receivedMessage.respond(REJECTED_BYTES);
+      return;
+    }
+
+    StreamHandler handler;
+
+    try
+    {
+      handler = handlerFactory.apply(new ReceivedStream(channelName,
+        streamKey.sourceServerName, streamKey.streamId, headerBytes));
+    }
+    catch (RuntimeException ex)
+    {
+      basicLogger.severe("Failed to create a handler for a stream on '%s': %s",
+        channelName, ex);
+      receivedMessage.respond(REJECTED_BYTES);
+      return;
+    }
+
+    if (handler == null)
+    {
+      receivedMessage.respond(REJECTED_BYTES);
+      return;
+    }
+
+    IncomingStream stream = new IncomingStream(streamKey, channelName, windowSize, handler);
+
+    if (streamMap.putIfAbsent(streamKey, stream) != null)
+    {
+      receivedMessage.respond(REJECTED_BYTES);
+      stream.notifyAbort("Duplicate stream ID");
+      return;
+    }
+
+    basicLogger.debug("Opened stream %s on '%s'", streamKey, channelName);
+    receivedMessage.respond(ACCEPTED_BYTES);
+  }
+
+  private void abortIdleStreams()
+  {
+    long idleSinceMillis = System.currentTimeMillis() - idleTimeoutMillis;
+
+    for (IncomingStream stream : streamMap.values())
+    {
+      if (stream.lastActivityMillis < idleSinceMillis)
+      {
+        stream.abort("Nothing received for " + idleTimeoutMillis + " ms");
+      }
+    }
+  }
+
+  private final class IncomingStream
+  {
+    private final StreamKey streamKey;
+    private final String channelName;
+    private final int windowSize;
+    private final StreamHandler handler;
+    private final HashMap<Integer, ReceivedMessage> pendingChunkMap = new HashMap<>();
+    private int nextSequence = 0;
+    private boolean closed = false;
+    private boolean draining = false;
+    private ReceivedMessage endMessage;
+    private int endChunkCount;
+    private String abortReason;
+    private volatile long lastActivityMillis = System.currentTimeMillis();
+
+    private IncomingStream(
+      StreamKey streamKey, String channelName, int windowSize, StreamHandler handler)
+    {
+      this.streamKey = streamKey;
+      this.channelName = channelName;
+      this.windowSize = windowSize;
+      this.handler = handler;
+    }
+
+    private void onChunk(int sequence, ReceivedMessage receivedMessage)
+    {
+      lastActivityMillis = System.currentTimeMillis();
+      String unexpectedReason = null;
+
+      synchronized (this)
+      {
+        if (closed)
+        {
+          receivedMessage.respond(REJECTED_BYTES);
+          return;
+        }
+
+        if (sequence < nextSequence || sequence >= nextSequence + windowSize ||
+          pendingChunkMap.containsKey(sequence))
+        {
+          unexpectedReason = "Unexpected chunk " + sequence + " while waiting for " +
+            nextSequence;
+        }
+        else
+        {
+          pendingChunkMap.put(sequence, receivedMessage);
+
+          // Only one thread runs the handler, so the others return once the chunk is held
+          if (draining)
+          {
+            return;
+          }
+
+          draining = true;
+        }
+      }
+
+      if (unexpectedReason != null)
+      {
+        receivedMessage.respond(REJECTED_BYTES);
+        abort(unexpectedReason);
+        return;
+      }
+
+      drain();
+    }
+
+    private void onEnd(int chunkCount, ReceivedMessage receivedMessage)
+    {
+      lastActivityMillis = System.currentTimeMillis();
+
+      synchronized (this)
+      {
+        if (closed || endMessage != null)
+        {
+          receivedMessage.respond(REJECTED_BYTES);
+          return;
+        }
+
+        endMessage = receivedMessage;
+        endChunkCount = chunkCount;
+
+        if (draining)
+        {
+          return;
+        }
+
+        draining = true;
+      }
+
+      drain();
+    }
+
+    private void abort(String reason)
+    {
+      synchronized (this)
+      {
+        if (closed)
+        {
+          return;
+        }
+
+        closed = true;
+        streamMap.remove(streamKey, this);
+
+        for (ReceivedMessage pendingChunk : pendingChunkMap.values())
+        {
+          pendingChunk.respond(REJECTED_BYTES);
+        }
+
+        pendingChunkMap.clear();
+
+        if (endMessage != null)
+        {
+          endMessage.respond(REJECTED_BYTES);
+          endMessage = null;
+        }
+
+        // The handler is only called by the thread that drains the stream
+        abortReason = reason;
+
+        if (draining)
+        {
+          return;
+        }
+
+        draining = true;
+      }
+
+      drain();
+    }
+
+    /**
+     * Runs the handler for everything that is ready outside the lock, so threads with
+     * other chunks of the stream are not blocked while the handler runs. Only the thread
+     * that set the draining flag calls this.
+     */
+    private void drain()
+    {
+      while (true)
+      {
+        String reason;
+        ReceivedMessage nextChunk = null;
+        ReceivedMessage end = null;
+
+        synchronized (this)
+        {
+          reason = abortReason;
+          abortReason = null;
+
+          if (reason == null && !closed)
+          {
+            nextChunk = pendingChunkMap.remove(nextSequence);
+
+            if (nextChunk == null)
+            {
+              end = endMessage;
+              endMessage = null;
+            }
+          }
+
+          if (reason == null && nextChunk == null && end == null)
+          {
+            draining = false;
+            return;
+          }
+        }
+
+        if (reason != null)
+        {
+          notifyAbort(reason);
+        }
+        else if (nextChunk != null)
+        {
+          handleChunk(nextChunk);
+        }
+        else
+        {
+          complete(end);
+        }
+      }
+    }
+
+    private void handleChunk(ReceivedMessage nextChunk)
+    {
+      // The chunk is passed as a view of the message instead of a copy
+      byte[] messageBytes = nextChunk.getMessageBytes();
+      ByteBuffer chunk = ByteBuffer.wrap(messageBytes, StreamSender.CHUNK_HEADER_LENGTH,
+        messageBytes.length - StreamSender.CHUNK_HEADER_LENGTH).slice().asReadOnlyBuffer();
+
+      try
+      {
+        handler.onChunk(chunk);
+      }
+      catch (Exception ex)
+      {
+        // Aborted first so the abort the sender answers with is ignored
+        abort("Handler failed: " + ex);
+        nextChunk.respond(REJECTED_BYTES);
+        return;
+      }
+
+      synchronized (this)
+      {
+        nextSequence++;
+      }
+
+      nextChunk.respond(ACCEPTED_BYTES);
+    }
+
+    private void complete(ReceivedMessage end)
+    {
+      int chunkCount;
+      int handledCount;
+      boolean completed;
+
+      synchronized (this)
+      {
+        chunkCount = endChunkCount;
+        handledCount = nextSequence;
+
+        // The sender only ends a stream once every chunk is acknowledged
+        completed = !closed && chunkCount == handledCount && pendingChunkMap.isEmpty();
+
+        if (completed)
+        {
+          closed = true;
+          streamMap.remove(streamKey, this);
+        }
+      }
+
+      if (!completed)
+      {
+        end.respond(REJECTED_BYTES);
+        abort("Expected " + chunkCount + " chunks but handled " + handledCount);
+        return;
+      }
+
+      try
+      {
+        handler.onComplete();
+      }
+      catch (RuntimeException ex)
+      {
+        basicLogger.severe("Handler of stream %s on '%s' failed to complete: %s",
+          streamKey, channelName, ex);
+        end.respond(REJECTED_BYTES);
+        return;
+      }
+
+      basicLogger.debug("Completed stream %s on '%s' with %s chunks",
+        streamKey, channelName, chunkCount);
+      end.respond(ACCEPTED_BYTES);
+    }
+
+    private void notifyAbort(String reason)
+    {
+      basicLogger.debug("Aborted stream %s on '%s': %s", streamKey, channelName, reason);
+
+      try
+      {
+        handler.onAbort(reason);
+      }
+      catch (RuntimeException ex)
+      {
+        basicLogger.severe("Handler of stream %s on '%s' failed to abort: %s",
+          streamKey, channelName, ex);
+      }
+    }
+  }
+
+  private static final class StreamKey
+  {
+    private final String sourceServerName;
+    private final long streamId;
+
+    private StreamKey(String sourceServerName, long streamId)
+    {
+      this.sourceServerName = sourceServerName;
+      this.streamId = streamId;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (this == obj)
+      {
+        return true;
+      }
+
+      if (!(obj instanceof StreamKey))
+      {
+        return false;
+      }
+
+      StreamKey other = (StreamKey) obj;
+      return streamId == other.streamId &&
+        Objects.equals(sourceServerName, other.sourceServerName);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * Objects.hashCode(sourceServerName) + Long.hashCode(streamId);
+    }
+
+    @Override
+    public String toString()
+    {
+      return sourceServerName != null ? streamId + " from " + sourceServerName :
+        Long.toString(streamId);
+    }
+  }
+}
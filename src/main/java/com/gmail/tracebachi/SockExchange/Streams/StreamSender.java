@@ -0,0 +1,349 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Streams;
+
+import com.gmail.tracebachi.SockExchange.InlineConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.StreamTypes;
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sends an {@link InputStream} as a series of chunk messages that are small enough to
+ * be interleaved with other messages on the same connection
+ * <p>
+ * At most the window size of chunks are waiting to be acknowledged at once, and the
+ * receiver only acknowledges a chunk once its {@link StreamHandler} has handled it.
+ * The input stream is read on the executor and closed once the transfer ends.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class StreamSender
+{
+  public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+  public static final int DEFAULT_WINDOW_SIZE = 4;
+  public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+  static final int CHUNK_HEADER_LENGTH = 1 + 8 + 4;
+
+  private final Executor executor;
+  private final int chunkSize;
+  private final int windowSize;
+
+  public StreamSender(Executor executor)
+  {
+    this(executor, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * @param executor Executor to read input streams on
+   * @param chunkSize Maximum number of bytes in a chunk
+   * @param windowSize Maximum number of chunks of a stream that can wait to be acknowledged
+   */
+  public StreamSender(Executor executor, int chunkSize, int windowSize)
+  {
+    Preconditions.checkNotNull(executor, "executor");
+    Preconditions.checkArgument(chunkSize > 0 && chunkSize <= MAX_CHUNK_SIZE,
+      "chunkSize must be between 1 and " + MAX_CHUNK_SIZE);
+    Preconditions.checkArgument(windowSize > 0, "windowSize must be > 0");
+
+    this.executor = executor;
+    this.chunkSize = chunkSize;
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Opens a stream and sends the input stream through it
+   *
+   * @param channelName Name of the channel the receiver registered a handler for
+   * @param headerBytes Bytes passed to the receiver when the stream is opened
+   * @param inputStream Stream of the bytes to send
+   * @param messageSender Sends each message of the stream to the receiver
+   *
+   * @return Future that is completed with {@link ResponseStatus#OK} once every chunk
+   * has been handled, with a failure status if a message was not acknowledged, or
+   * exceptionally if the input stream could not be read
+   */
+  public CompletableFuture<ResponseStatus> send(
+    String channelName, byte[] headerBytes, InputStream inputStream,
+    MessageSender messageSender)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(headerBytes, "headerBytes");
+    Preconditions.checkNotNull(inputStream, "inputStream");
+    Preconditions.checkNotNull(messageSender, "messageSender");
+
+    OutgoingStream stream = new OutgoingStream(inputStream, messageSender);
+    stream.open(channelName, headerBytes);
+    return stream.future;
+  }
+
+  /**
+   * Sends one message of a stream to the receiver and runs the consumer with the
+   * acknowledgement (or a failure response)
+   */
+  @FunctionalInterface
+  public interface MessageSender
+  {
+    void send(byte[] messageBytes, Consumer<ResponseMessage> consumer);
+  }
+
+  private static boolean isAccepted(ResponseMessage responseMessage)
+  {
+    byte[] responseBytes = responseMessage.getMessageBytes();
+
+    return responseMessage.getResponseStatus().isOk() &&
+      responseBytes != null &&
+      responseBytes.length > 0 &&
+      responseBytes[0] == StreamTypes.ACCEPTED;
+  }
+
+  private static ResponseStatus getFailureStatus(ResponseMessage responseMessage)
+  {
+    ResponseStatus status = responseMessage.getResponseStatus();
+    return status.isOk() ? ResponseStatus.REJECTED : status;
+  }
+
+  private final class OutgoingStream
+  {
+    private final long streamId = ThreadLocalRandom.current().nextLong();
+    private final CompletableFuture<ResponseStatus> future = new CompletableFuture<>();
+    private final AtomicInteger chunksInFlight = new AtomicInteger();
+    private final AtomicBoolean pumping = new AtomicBoolean();
+    private final InputStream inputStream;
+    private final MessageSender messageSender;
+    private final InlineConsumer<ResponseMessage> onOpenResponse = this::onOpenResponse;
+    private final InlineConsumer<ResponseMessage> onChunkResponse = this::onChunkResponse;
+    private final InlineConsumer<ResponseMessage> onEndResponse = this::onEndResponse;
+    private volatile int nextSequence;
+    private volatile boolean endOfInput;
+    private volatile boolean endSent;
+
+    private OutgoingStream(InputStream inputStream, MessageSender messageSender)
+    {
+      this.inputStream = inputStream;
+      this.messageSender = messageSender;
+
+      future.whenComplete((status, throwable) -> closeInput());
+    }
+
+    private void open(String channelName, byte[] headerBytes)
+    {
+      ByteArrayDataOutput out = ByteStreams.newDataOutput(headerBytes.length + 64);
+      out.writeByte(StreamTypes.OPEN);
+      out.writeLong(streamId);
+      out.writeUTF(channelName);
+      out.writeInt(windowSize);
+      out.writeInt(headerBytes.length);
+      out.write(headerBytes);
+
+      messageSender.send(out.toByteArray(), onOpenResponse);
+    }
+
+    private void onOpenResponse(ResponseMessage responseMessage)
+    {
+      if (isAccepted(responseMessage))
+      {
+        executor.execute(this::pump);
+      }
+      else
+      {
+        fail(getFailureStatus(responseMessage));
+      }
+    }
+
+    private void onChunkResponse(ResponseMessage responseMessage)
+    {
+      if (isAccepted(responseMessage))
+      {
+        chunksInFlight.decrementAndGet();
+        executor.execute(this::pump);
+      }
+      else
+      {
+        fail(getFailureStatus(responseMessage));
+      }
+    }
+
+    private void onEndResponse(ResponseMessage responseMessage)
+    {
+      if (isAccepted(responseMessage))
+      {
+        future.complete(ResponseStatus.OK);
+      }
+      else
+      {
+        fail(getFailureStatus(responseMessage));
+      }
+    }
+
+    private void pump()
+    {
+      // Acknowledgements that arrive while another thread is pumping are picked up
+      // by the check after it is done
+      while (pumping.compareAndSet(false, true))
+      {
+        try
+        {
+          fillWindow();
+        }
+        catch (IOException | RuntimeException ex)
+        {
+          if (future.completeExceptionally(ex))
+          {
+            sendAbort();
+          }
+        }
+        finally
+        {
+          pumping.set(false);
+        }
+
+        if (!canPump())
+        {
+          return;
+        }
+      }
+    }
+
+    private boolean canPump()
+    {
+      if (future.isDone())
+      {
+        return false;
+      }
+
+      return endOfInput
+        ? !endSent && chunksInFlight.get() == 0
+        : chunksInFlight.get() < windowSize;
+    }
+
+    private void fillWindow() throws IOException
+    {
+      while (!future.isDone() && !endOfInput && chunksInFlight.get() < windowSize)
+      {
+        byte[] chunkMessage = readChunkMessage(nextSequence);
+
+        if (chunkMessage == null)
+        {
+          endOfInput = true;
+          break;
+        }
+
+        nextSequence++;
+        chunksInFlight.incrementAndGet();
+        messageSender.send(chunkMessage, onChunkResponse);
+      }
+
+      // The end is sent once every chunk is acknowledged so it is handled last
+      if (!future.isDone() && endOfInput && !endSent && chunksInFlight.get() == 0)
+      {
+        endSent = true;
+
+        ByteArrayDataOutput out = ByteStreams.newDataOutput(13);
+        out.writeByte(StreamTypes.END);
+        out.writeLong(streamId);
+        out.writeInt(nextSequence);
+
+        messageSender.send(out.toByteArray(), onEndResponse);
+      }
+    }
+
+    private byte[] readChunkMessage(int sequence) throws IOException
+    {
+      // Read straight into the message to avoid copying every chunk
+      byte[] messageBytes = new byte[CHUNK_HEADER_LENGTH + chunkSize];
+      int length = CHUNK_HEADER_LENGTH;
+
+      while (length < messageBytes.length)
+      {
+        int read = inputStream.read(messageBytes, length, messageBytes.length - length);
+
+        if (read < 0)
+        {
+          break;
+        }
+
+        length += read;
+      }
+
+      if (length == CHUNK_HEADER_LENGTH)
+      {
+        return null;
+      }
+
+      ByteBuffer.wrap(messageBytes)
+        .put(StreamTypes.CHUNK)
+        .putLong(streamId)
+        .putInt(sequence);
+
+      return (length == messageBytes.length)
+        ? messageBytes
+        : Arrays.copyOf(messageBytes, length);
+    }
+
+    private void fail(ResponseStatus responseStatus)
+    {
+      if (future.complete(responseStatus))
+      {
+        sendAbort();
+      }
+    }
+
+    private void sendAbort()
+    {
+      ByteArrayDataOutput out = ByteStreams.newDataOutput(9);
+      out.writeByte(StreamTypes.ABORT);
+      out.writeLong(streamId);
+
+      try
+      {
+        messageSender.send(out.toByteArray(), null);
+      }
+      catch (RuntimeException ignored)
+      {
+        // The receiver drops idle streams if the abort cannot be sent
+      }
+    }
+
+    private void closeInput()
+    {
+      try
+      {
+        inputStream.close();
+      }
+      catch (IOException ignored)
+      {
+        // Nothing else can be done with the stream
+      }
+    }
+  }
+}
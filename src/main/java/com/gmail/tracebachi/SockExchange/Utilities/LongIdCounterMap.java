@@ -19,56 +19,338 @@ package com.gmail.tracebachi.SockExchange.Utilities;
 
 import com.google.common.base.Preconditions;
 
-import java.util.Iterator;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
+ * Map of values by increasing ids, stored in a {@link StripedLongObjectMap} so ids are
+ * never boxed. Values put with an expiry time are also tracked by a hashed timing wheel
+ * so {@link #expire(long, Consumer)} only visits the wheel slots for the ticks that
+ * passed instead of scanning the whole map. Each slot is a linked list of its entries,
+ * so a value that is removed early is also unlinked from its slot.
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class LongIdCounterMap<V>
 {
+  public static final long DEFAULT_TICK_MILLIS = 10;
+
+  private static final int WHEEL_SIZE = 512;
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
   private final AtomicLong idCounter = new AtomicLong(0L);
-  private final ConcurrentHashMap<Long, V> map = new ConcurrentHashMap<>();
+  private final StripedLongObjectMap<Entry<V>> map = new StripedLongObjectMap<>();
+  private final long tickMillis;
+  private final long startMillis = System.currentTimeMillis();
+  private final Slot[] wheel = new Slot[WHEEL_SIZE];
+  private volatile long lastExpiredTick = 0;
+
+  public LongIdCounterMap()
+  {
+    this(DEFAULT_TICK_MILLIS);
+  }
+
+  public LongIdCounterMap(long tickMillis)
+  {
+    Preconditions.checkArgument(tickMillis > 0, "tickMillis");
+
+    this.tickMillis = tickMillis;
+
+    for (int i = 0; i < WHEEL_SIZE; i++)
+    {
+      wheel[i] = new Slot();
+    }
+  }
+
+  public long getTickMillis()
+  {
+    return tickMillis;
+  }
 
   public long put(V value)
   {
     Preconditions.checkNotNull(value, "value");
 
     long id = idCounter.incrementAndGet();
-    map.put(id, value);
+    map.put(id, new Entry<>(id, value, 0));
     return id;
   }
 
+  /**
+   * Puts a value that will be passed to the consumer of {@link #expire(long, Consumer)}
+   * if it is not removed before it expires
+   *
+   * @param value Value to put
+   * @param expiresAtMillis Time in milliseconds after which the value expires
+   * @return Id of the value
+   */
+  public long put(V value, long expiresAtMillis)
+  {
+    Preconditions.checkNotNull(value, "value");
+
+    // Round up so a value never expires early
+    long deadlineTick = Math.max(0, (expiresAtMillis - startMillis + tickMillis - 1) / tickMillis);
+    long slotTick = Math.max(deadlineTick, lastExpiredTick + 1);
+    long id = idCounter.incrementAndGet();
+    Entry<V> entry = new Entry<>(id, value, deadlineTick);
+
+    while (true)
+    {
+      Slot slot = wheel[(int) (slotTick & WHEEL_MASK)];
+
+      synchronized (slot)
+      {
+        // A sweep may have passed the slot after lastExpiredTick was read. The value is
+        // due by then, so it goes into the slot of the tick after that sweep instead.
+        if (slot.sweptTick >= slotTick)
+        {
+          slotTick = slot.sweptTick + 1;
+          continue;
+        }
+
+        // The value is only added to the map while the slot is locked, so a remove
+        // that finds it waits for it to be linked before unlinking it
+        slot.link(entry);
+        map.put(id, entry);
+      }
+
+      return id;
+    }
+  }
+
   public V remove(long id)
   {
-    return map.remove(id);
+    Entry<V> entry = map.remove(id);
+
+    if (entry == null)
+    {
+      return null;
+    }
+
+    unlink(entry);
+    return entry.value;
+  }
+
+  /**
+   * Removes the values that expired by the given time. This should be called every
+   * {@link #getTickMillis()} and never by more than one thread at a time.
+   *
+   * @param currentTimeMillis Current time in milliseconds
+   * @param onExpired Consumer of each value that expired before being removed
+   */
+  public void expire(long currentTimeMillis, Consumer<V> onExpired)
+  {
+    Preconditions.checkNotNull(onExpired, "onExpired");
+
+    long currentTick = (currentTimeMillis - startMillis) / tickMillis;
+    long fromTick = lastExpiredTick + 1;
+
+    if (currentTick < fromTick)
+    {
+      return;
+    }
+
+    // Visit every slot at most once, even if many ticks were missed
+    long toTick = Math.min(currentTick, fromTick + WHEEL_MASK);
+    Entry<V> expired = null;
+
+    for (long tick = fromTick; tick <= toTick; tick++)
+    {
+      Slot slot = wheel[(int) (tick & WHEEL_MASK)];
+
+      synchronized (slot)
+      {
+        expired = slot.unlinkExpired(currentTick, expired);
+      }
+    }
+
+    lastExpiredTick = currentTick;
+
+    for (Entry<V> entry = expired; entry != null; entry = entry.next)
+    {
+      // The value is gone if it was removed before it expired
+      if (map.remove(entry.id) == null)
+      {
+        continue;
+      }
+
+      try
+      {
+        onExpired.accept(entry.value);
+      }
+      catch (Exception ex)
+      {
+        ex.printStackTrace();
+      }
+    }
   }
 
   public void clear()
   {
     idCounter.set(0);
     map.clear();
+
+    for (Slot slot : wheel)
+    {
+      synchronized (slot)
+      {
+        slot.clear();
+      }
+    }
   }
 
   public void removeIf(Predicate<Map.Entry<Long, V>> predicate)
   {
-    Iterator<Map.Entry<Long, V>> iterator = map.entrySet().iterator();
-    while (iterator.hasNext())
+    List<Entry<V>> removed = new ArrayList<>();
+
+    map.removeIf((id, entry) ->
     {
       try
       {
-        if (predicate.test(iterator.next()))
+        if (predicate.test(new AbstractMap.SimpleImmutableEntry<>(id, entry.value)))
         {
-          iterator.remove();
+          removed.add(entry);
+          return true;
         }
+
+        return false;
       }
       catch (Exception ex)
       {
         ex.printStackTrace();
+        return false;
+      }
+    });
+
+    // Unlinked after the map is unlocked, since put locks a slot and then the map
+    for (Entry<V> entry : removed)
+    {
+      unlink(entry);
+    }
+  }
+
+  private void unlink(Entry<V> entry)
+  {
+    Slot slot = entry.slot;
+
+    if (slot == null)
+    {
+      return;
+    }
+
+    synchronized (slot)
+    {
+      // The entry may have expired or been cleared since its slot was read
+      if (entry.slot == slot)
+      {
+        slot.unlink(entry);
+      }
+    }
+  }
+
+  private static class Entry<V>
+  {
+    private final long id;
+    private final V value;
+    private final long deadlineTick;
+    private Slot slot;
+    private Entry<V> prev;
+    private Entry<V> next;
+
+    private Entry(long id, V value, long deadlineTick)
+    {
+      this.id = id;
+      this.value = value;
+      this.deadlineTick = deadlineTick;
+    }
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static class Slot
+  {
+    private Entry head;
+    private long sweptTick = 0;
+
+    private void link(Entry entry)
+    {
+      entry.slot = this;
+      entry.next = head;
+
+      if (head != null)
+      {
+        head.prev = entry;
+      }
+
+      head = entry;
+    }
+
+    private void unlink(Entry entry)
+    {
+      if (entry.prev != null)
+      {
+        entry.prev.next = entry.next;
+      }
+      else
+      {
+        head = entry.next;
+      }
+
+      if (entry.next != null)
+      {
+        entry.next.prev = entry.prev;
+      }
+
+      entry.slot = null;
+      entry.prev = null;
+      entry.next = null;
+    }
+
+    /**
+     * Unlinks the entries that are due at the current tick and pushes them onto the
+     * list of expired entries, which is linked through {@link Entry#next}
+     */
+    private <V> Entry<V> unlinkExpired(long currentTick, Entry<V> expired)
+    {
+      Entry<V> entry = head;
+
+      while (entry != null)
+      {
+        Entry<V> next = entry.next;
+
+        // Timeouts more than one rotation away stay in the slot
+        if (entry.deadlineTick <= currentTick)
+        {
+          unlink(entry);
+          entry.next = expired;
+          expired = entry;
+        }
+
+        entry = next;
       }
+
+      sweptTick = currentTick;
+      return expired;
+    }
+
+    private void clear()
+    {
+      Entry entry = head;
+
+      while (entry != null)
+      {
+        Entry next = entry.next;
+        entry.slot = null;
+        entry.prev = null;
+        entry.next = null;
+        entry = next;
+      }
+
+      head = null;
     }
   }
 }
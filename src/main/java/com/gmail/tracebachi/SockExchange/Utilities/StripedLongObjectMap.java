@@ -0,0 +1,320 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Utilities;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe map of primitive long keys to values without boxing the keys
+ * <p>
+ * Keys are spread over lock-striped open-addressing tables by their low bits, so
+ * sequential keys (like ids from a counter) land on different stripes. Each stripe uses
+ * linear probing with backward-shift deletion, so removals leave no tombstones behind.
+ * Null values are not allowed.
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class StripedLongObjectMap<V>
+{
+  private static final int DEFAULT_STRIPE_COUNT = 16;
+  private static final int INITIAL_STRIPE_CAPACITY = 64;
+
+  private final Stripe[] stripes;
+  private final int stripeMask;
+
+  public StripedLongObjectMap()
+  {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  public StripedLongObjectMap(int stripeCount)
+  {
+    Preconditions.checkArgument(stripeCount > 0, "stripeCount");
+    Preconditions.checkArgument(Integer.bitCount(stripeCount) == 1,
+      "stripeCount must be a power of two");
+
+    this.stripes = new Stripe[stripeCount];
+    this.stripeMask = stripeCount - 1;
+
+    int stripeShift = Integer.numberOfTrailingZeros(stripeCount);
+
+    for (int i = 0; i < stripeCount; i++)
+    {
+      stripes[i] = new Stripe(stripeShift);
+    }
+  }
+
+  public V put(long key, V value)
+  {
+    Preconditions.checkNotNull(value, "value");
+
+    Stripe stripe = stripes[(int) (key & stripeMask)];
+
+    synchronized (stripe)
+    {
+      return castValue(stripe.put(key, value));
+    }
+  }
+
+  public V get(long key)
+  {
+    Stripe stripe = stripes[(int) (key & stripeMask)];
+
+    synchronized (stripe)
+    {
+      return castValue(stripe.get(key));
+    }
+  }
+
+  public V remove(long key)
+  {
+    Stripe stripe = stripes[(int) (key & stripeMask)];
+
+    synchronized (stripe)
+    {
+      return castValue(stripe.remove(key));
+    }
+  }
+
+  public int size()
+  {
+    int size = 0;
+
+    for (Stripe stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        size += stripe.size;
+      }
+    }
+
+    return size;
+  }
+
+  public void clear()
+  {
+    for (Stripe stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        stripe.clear();
+      }
+    }
+  }
+
+  /**
+   * Removes the entries that match the predicate. Each stripe is locked while its
+   * entries are tested, so the predicate should be quick.
+   *
+   * @param predicate Predicate for the entries to remove
+   */
+  public void removeIf(EntryPredicate<V> predicate)
+  {
+    Preconditions.checkNotNull(predicate, "predicate");
+
+    for (Stripe stripe : stripes)
+    {
+      synchronized (stripe)
+      {
+        long[] matchingKeys = new long[stripe.size];
+        int matchingCount = 0;
+
+        for (int i = 0; i < stripe.values.length; i++)
+        {
+          Object value = stripe.values[i];
+
+          if (value != null && predicate.test(stripe.keys[i], castValue(value)))
+          {
+            matchingKeys[matchingCount++] = stripe.keys[i];
+          }
+        }
+
+        // Removing shifts entries back, so remove after the scan
+        for (int i = 0; i < matchingCount; i++)
+        {
+          stripe.remove(matchingKeys[i]);
+        }
+      }
+    }
+  }
+
+  @FunctionalInterface
+  public interface EntryPredicate<V>
+  {
+    boolean test(long key, V value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private V castValue(Object value)
+  {
+    return (V) value;
+  }
+
+  private static class Stripe
+  {
+    private final int shift;
+    private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+    private Object[] values = new Object[INITIAL_STRIPE_CAPACITY];
+    private int size = 0;
+
+    private Stripe(int shift)
+    {
+      // The low bits of the keys select the stripe, so they are the same in a stripe
+      this.shift = shift;
+    }
+
+    private Object put(long key, Object value)
+    {
+      // Resize at a load factor of 0.5 to keep probe sequences short
+      if ((size + 1) * 2 > values.length)
+      {
+        resize(values.length * 2);
+      }
+
+      int mask = values.length - 1;
+      int index = indexFor(key, mask);
+
+      while (values[index] != null)
+      {
+        if (keys[index] == key)
+        {
+          Object oldValue = values[index];
+          values[index] = value;
+          return oldValue;
+        }
+
+        index = (index + 1) & mask;
+      }
+
+      keys[index] = key;
+      values[index] = value;
+      size++;
+      return null;
+    }
+
+    private Object get(long key)
+    {
+      int mask = values.length - 1;
+      int index = indexFor(key, mask);
+
+      while (values[index] != null)
+      {
+        if (keys[index] == key)
+        {
+          return values[index];
+        }
+
+        index = (index + 1) & mask;
+      }
+
+      return null;
+    }
+
+    private Object remove(long key)
+    {
+      int mask = values.length - 1;
+      int index = indexFor(key, mask);
+
+      while (values[index] != null)
+      {
+        if (keys[index] == key)
+        {
+          Object oldValue = values[index];
+          shiftBack(index, mask);
+          size--;
+          return oldValue;
+        }
+
+        index = (index + 1) & mask;
+      }
+
+      return null;
+    }
+
+    private void shiftBack(int emptyIndex, int mask)
+    {
+      int index = emptyIndex;
+
+      while (true)
+      {
+        index = (index + 1) & mask;
+
+        if (values[index] == null)
+        {
+          break;
+        }
+
+        // Move the entry back if the empty slot is between its home and its slot
+        int homeIndex = indexFor(keys[index], mask);
+        int distanceToEntry = (index - homeIndex) & mask;
+        int distanceToEmpty = (emptyIndex - homeIndex) & mask;
+
+        if (distanceToEmpty < distanceToEntry)
+        {
+          keys[emptyIndex] = keys[index];
+          values[emptyIndex] = values[index];
+          emptyIndex = index;
+        }
+      }
+
+      values[emptyIndex] = null;
+    }
+
+    private void resize(int newCapacity)
+    {
+      long[] oldKeys = keys;
+      Object[] oldValues = values;
+
+      keys = new long[newCapacity];
+      values = new Object[newCapacity];
+      size = 0;
+
+      for (int i = 0; i < oldValues.length; i++)
+      {
+        if (oldValues[i] != null)
+        {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+
+    private void clear()
+    {
+      if (values.length > INITIAL_STRIPE_CAPACITY)
+      {
+        keys = new long[INITIAL_STRIPE_CAPACITY];
+        values = new Object[INITIAL_STRIPE_CAPACITY];
+      }
+      else
+      {
+        Arrays.fill(values, null);
+      }
+
+      size = 0;
+    }
+
+    private int indexFor(long key, int mask)
+    {
+      // Fibonacci hashing spreads sequential keys over the table
+      long hash = (key >>> shift) * 0x9E3779B97F4A7C15L;
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+  }
+}
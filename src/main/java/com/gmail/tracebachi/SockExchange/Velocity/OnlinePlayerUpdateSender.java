@@ -17,17 +17,18 @@
  */
 package com.gmail.tracebachi.SockExchange.Velocity;
 
+import com.gmail.tracebachi.SockExchange.Bungee.PlayerUpdateStream;
 import com.gmail.tracebachi.SockExchange.Bungee.SockExchangeApi;
-import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
 import com.google.common.base.Preconditions;
-import com.google.common.io.ByteArrayDataOutput;
-import com.google.common.io.ByteStreams;
+import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.DisconnectEvent;
+import com.velocitypowered.api.event.connection.PostLoginEvent;
 import com.velocitypowered.api.proxy.Player;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
@@ -35,52 +36,57 @@ import java.util.concurrent.TimeUnit;
 public class OnlinePlayerUpdateSender implements Registerable
 {
   private final SockExchangePlugin plugin;
-  private final SockExchangeApi api;
-  private final long updatePeriodMillis;
-  private ScheduledFuture<?> updateFuture;
+  private final PlayerUpdateStream playerUpdateStream;
 
   public OnlinePlayerUpdateSender(
-          SockExchangePlugin plugin, SockExchangeApi api, long updatePeriodMillis)
+          SockExchangePlugin plugin, SockExchangeApi api, long snapshotPeriodMillis)
   {
     Preconditions.checkNotNull(plugin, "plugin");
     Preconditions.checkNotNull(api, "api");
-    Preconditions.checkArgument(updatePeriodMillis > 0, "updatePeriodMillis");
+    Preconditions.checkArgument(snapshotPeriodMillis > 0, "snapshotPeriodMillis");
+
+    Collection<Player> players = plugin.getProxy().getAllPlayers();
+    List<String> playerNames = new ArrayList<>(players.size());
+
+    for (Player player : players)
+    {
+      playerNames.add(player.getUsername());
+    }
 
     this.plugin = plugin;
-    this.api = api;
-    this.updatePeriodMillis = updatePeriodMillis;
+    this.playerUpdateStream = new PlayerUpdateStream(api, playerNames, snapshotPeriodMillis);
   }
 
   @Override
   public void register()
   {
-    updateFuture = api.getScheduledExecutorService().scheduleAtFixedRate(
-      this::sendPlayerUpdate, updatePeriodMillis, updatePeriodMillis,
-      TimeUnit.MILLISECONDS);
+    playerUpdateStream.register();
+    plugin.getProxy().getEventManager().register(plugin, this);
   }
 
   @Override
   public void unregister()
   {
-    if (updateFuture != null)
-    {
-      updateFuture.cancel(false);
-      updateFuture = null;
-    }
+    plugin.getProxy().getEventManager().unregisterListener(plugin, this);
+    playerUpdateStream.unregister();
   }
 
-  private void sendPlayerUpdate()
+  @Subscribe
+  public void onPostLogin(PostLoginEvent event)
   {
-    ByteArrayDataOutput out = ByteStreams.newDataOutput(1024);
-    Collection<Player> players = plugin.getProxy().getAllPlayers();
+    playerUpdateStream.onJoin(event.getPlayer().getUsername());
+  }
 
-    out.writeInt(players.size());
+  @Subscribe
+  public void onDisconnect(DisconnectEvent event)
+  {
+    DisconnectEvent.LoginStatus loginStatus = event.getLoginStatus();
 
-    for (Player proxiedPlayer : players)
+    // Only players that made it past PostLoginEvent were counted as joined
+    if (loginStatus == DisconnectEvent.LoginStatus.SUCCESSFUL_LOGIN ||
+      loginStatus == DisconnectEvent.LoginStatus.PRE_SERVER_JOIN)
     {
-      out.writeUTF(proxiedPlayer.getUsername());
+      playerUpdateStream.onLeave(event.getPlayer().getUsername());
     }
-
-    api.sendToServers(Channels.PLAYER_UPDATE, out.toByteArray());
   }
 }
@@ -17,6 +17,9 @@
  */
 package com.gmail.tracebachi.SockExchange.Velocity;
 
+import com.gmail.tracebachi.SockExchange.Netty.OverflowPolicy;
+import com.gmail.tracebachi.SockExchange.Netty.TransportOptions;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
 import com.gmail.tracebachi.SockExchange.Utilities.CaseInsensitiveSet;
 import com.gmail.tracebachi.SockExchange.Utilities.MessageFormatMap;
 import ninja.leaping.configurate.ConfigurationNode;
@@ -33,6 +36,16 @@ class SockExchangeConfiguration
   private int port;
   private int connectionThreads;
   private String registrationPassword;
+  private boolean flushConsolidationEnabled;
+  private int flushConsolidationMaxPackets;
+  private long timeoutTickMillis;
+  private WorkerPool.Type workerPoolType;
+  private int workerPoolThreads;
+  private TransportOptions transportOptions;
+  private int writeBufferLowWaterMark;
+  private int writeBufferHighWaterMark;
+  private OverflowPolicy overflowPolicy;
+  private long overflowMaxBlockMillis;
   private MessageFormatMap messageFormatMap;
   private boolean debugMode;
   private final CaseInsensitiveSet privateServers = new CaseInsensitiveSet(new HashSet<>());
@@ -42,6 +55,47 @@ class SockExchangeConfiguration
     port = configuration.getNode("SockExchangeServer", "Port").getInt(20000);
     connectionThreads = configuration.getNode("SockExchangeServer", "Threads").getInt(2);
     registrationPassword = configuration.getNode("SockExchangeServer", "Password").getString("FreshSocks");
+    flushConsolidationEnabled = configuration.getNode(
+      "SockExchangeServer", "FlushConsolidation", "Enabled").getBoolean(false);
+    flushConsolidationMaxPackets = configuration.getNode(
+      "SockExchangeServer", "FlushConsolidation", "MaxPackets").getInt(64);
+    timeoutTickMillis = configuration.getNode(
+      "SockExchangeServer", "TimeoutTickMillis").getLong(10);
+    workerPoolType = WorkerPool.Type.fromName(configuration.getNode(
+      "SockExchangeServer", "WorkerPool", "Type").getString("WORK_STEALING"),
+      WorkerPool.Type.WORK_STEALING);
+    workerPoolThreads = configuration.getNode(
+      "SockExchangeServer", "WorkerPool", "Threads").getInt(0);
+
+    transportOptions = new TransportOptions();
+    transportOptions.setNativeTransportPreferred(configuration.getNode(
+      "SockExchangeServer", "Transport", "Native").getBoolean(true));
+    transportOptions.setTcpNoDelay(configuration.getNode(
+      "SockExchangeServer", "Transport", "TcpNoDelay").getBoolean(true));
+    transportOptions.setKeepAlive(configuration.getNode(
+      "SockExchangeServer", "Transport", "KeepAlive").getBoolean(true));
+    transportOptions.setReceiveBufferSize(configuration.getNode(
+      "SockExchangeServer", "Transport", "ReceiveBufferSize").getInt(0));
+    transportOptions.setSendBufferSize(configuration.getNode(
+      "SockExchangeServer", "Transport", "SendBufferSize").getInt(0));
+    transportOptions.setBacklog(configuration.getNode(
+      "SockExchangeServer", "Transport", "Backlog").getInt(128));
+    transportOptions.setDomainSocketPath(configuration.getNode(
+      "SockExchangeServer", "Transport", "DomainSocketPath").getString(""));
+    transportOptions.setCompressionThreshold(configuration.getNode(
+      "SockExchangeServer", "Compression", "Threshold").getInt(0));
+    transportOptions.setCompressionLevel(configuration.getNode(
+      "SockExchangeServer", "Compression", "Level").getInt(6));
+
+    writeBufferLowWaterMark = configuration.getNode(
+      "SockExchangeServer", "Backpressure", "LowWaterMark").getInt(1024 * 1024);
+    writeBufferHighWaterMark = configuration.getNode(
+      "SockExchangeServer", "Backpressure", "HighWaterMark").getInt(8 * 1024 * 1024);
+    overflowPolicy = OverflowPolicy.fromName(configuration.getNode(
+      "SockExchangeServer", "Backpressure", "Policy").getString("QUEUE"),
+      OverflowPolicy.QUEUE);
+    overflowMaxBlockMillis = configuration.getNode(
+      "SockExchangeServer", "Backpressure", "MaxBlockMillis").getLong(50);
     debugMode = configuration.getNode("DebugMode").getBoolean(false);
     messageFormatMap = new MessageFormatMap();
 
@@ -73,6 +127,56 @@ class SockExchangeConfiguration
     return Objects.equals(registrationPassword, input);
   }
 
+  boolean isFlushConsolidationEnabled()
+  {
+    return flushConsolidationEnabled;
+  }
+
+  int getFlushConsolidationMaxPackets()
+  {
+    return flushConsolidationMaxPackets;
+  }
+
+  long getTimeoutTickMillis()
+  {
+    return timeoutTickMillis;
+  }
+
+  WorkerPool.Type getWorkerPoolType()
+  {
+    return workerPoolType;
+  }
+
+  int getWorkerPoolThreads()
+  {
+    return workerPoolThreads;
+  }
+
+  TransportOptions getTransportOptions()
+  {
+    return transportOptions;
+  }
+
+  int getWriteBufferLowWaterMark()
+  {
+    return writeBufferLowWaterMark;
+  }
+
+  int getWriteBufferHighWaterMark()
+  {
+    return writeBufferHighWaterMark;
+  }
+
+  OverflowPolicy getOverflowPolicy()
+  {
+    return overflowPolicy;
+  }
+
+  long getOverflowMaxBlockMillis()
+  {
+    return overflowMaxBlockMillis;
+  }
+
   MessageFormatMap getMessageFormatMap()
   {
     return messageFormatMap;
@@ -27,10 +27,14 @@ import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.BungeeToSpigotConnection;
+import com.gmail.tracebachi.SockExchange.Netty.PacketBroadcaster;
 import com.gmail.tracebachi.SockExchange.Netty.SockExchangeServer;
+import com.gmail.tracebachi.SockExchange.Netty.TrafficStatistics;
 import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
 import com.gmail.tracebachi.SockExchange.Scheduler.ScheduledExecutorServiceWrapper;
+import com.gmail.tracebachi.SockExchange.Scheduler.WorkerPool;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
+import com.gmail.tracebachi.SockExchange.Streams.StreamReceiver;
 import com.gmail.tracebachi.SockExchange.Utilities.*;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -74,12 +78,15 @@ public class SockExchangePlugin implements BungeeTieIn
 
   private BasicLogger basicLogger;
   private ScheduledThreadPoolExecutor threadPoolExecutor;
+  private WorkerPool workerPool;
   private AwaitableExecutor awaitableExecutor;
   private ReceivedMessageNotifier messageNotifier;
   private LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap;
   private ScheduledFuture<?> consumerTimeoutCleanupFuture;
+  private PacketBroadcaster packetBroadcaster;
   private CaseInsensitiveMap<BungeeToSpigotConnection> spigotConnectionMap;
   private SockExchangeServer sockExchangeServer;
+  private StreamReceiver streamReceiver;
 
   private OnlinePlayerUpdateSender onlinePlayerUpdateSender;
   private BungeeKeepAliveSender bungeeKeepAliveSender;
@@ -116,10 +123,18 @@ public class SockExchangePlugin implements BungeeTieIn
     // Create the logger based on Java.Util.Logging
     basicLogger = new SlfBasicLogger(logger, debugMode);
 
-    // Create the shared thread pool executor
+    // Create the scheduler for timers and the worker pool for everything else
     buildThreadPoolExecutor();
+    workerPool = new WorkerPool(
+      configuration.getWorkerPoolType(), configuration.getWorkerPoolThreads());
+    if (workerPool.getType() != configuration.getWorkerPoolType())
+    {
+      logger.warn("WorkerPool type " + configuration.getWorkerPoolType() +
+        " is not available. Using " + workerPool.getType() + " instead.");
+    }
+
     ScheduledExecutorServiceWrapper wrappedThreadPool =
-      new ScheduledExecutorServiceWrapper(threadPoolExecutor);
+      new ScheduledExecutorServiceWrapper(threadPoolExecutor, workerPool.getExecutorService());
 
     // Create the AwaitableExecutor
     awaitableExecutor = new AwaitableExecutor(wrappedThreadPool);
@@ -128,27 +143,48 @@ public class SockExchangePlugin implements BungeeTieIn
     messageNotifier = new ReceivedMessageNotifier(awaitableExecutor);
 
     // Create the map that manages consumers for responses to sent message
-    responseConsumerMap = new LongIdCounterMap<>();
+    long timeoutTickMillis = configuration.getTimeoutTickMillis();
+    responseConsumerMap = new LongIdCounterMap<>(timeoutTickMillis);
 
-    // Schedule a task to clean up the responseConsumerMap (handling timeouts)
-    consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleWithFixedDelay(
-      this::checkForConsumerTimeouts, 5, 5, TimeUnit.SECONDS);
+    // Schedule a task to expire consumers in the responseConsumerMap every tick
+    consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleAtFixedRate(
+      this::checkForConsumerTimeouts, timeoutTickMillis, timeoutTickMillis,
+      TimeUnit.MILLISECONDS);
+
+    // Create the broadcaster which encodes messages for many servers once
+    packetBroadcaster = new PacketBroadcaster(new TrafficStatistics());
 
     // Create the map of known spigot servers that can connect to Bungee
     spigotConnectionMap = new CaseInsensitiveMap<>(new ConcurrentHashMap<>());
     for (RegisteredServer server : server.getAllServers())
     {
       BungeeToSpigotConnection connection = new BungeeToSpigotConnection(server.getServerInfo().getName(),
-              awaitableExecutor, messageNotifier, responseConsumerMap, basicLogger, this);
+              awaitableExecutor, messageNotifier, responseConsumerMap, basicLogger, this,
+              packetBroadcaster);
+
+      if (configuration.isFlushConsolidationEnabled())
+      {
+        connection.setFlushConsolidation(configuration.getFlushConsolidationMaxPackets());
+      }
+
+      connection.setBackpressure(configuration.getWriteBufferLowWaterMark(),
+        configuration.getWriteBufferHighWaterMark(), configuration.getOverflowPolicy(),
+        configuration.getOverflowMaxBlockMillis());
 
       spigotConnectionMap.put(server.getServerInfo().getName(), connection);
     }
 
+    // Create the receiver that reassembles streams sent to this server
+    streamReceiver = new StreamReceiver(messageNotifier, wrappedThreadPool, basicLogger);
+
     // Create the API
-    SockExchangeApi api = new SockExchangeApi(this, wrappedThreadPool, messageNotifier);
+    SockExchangeApi api = new SockExchangeApi(this, wrappedThreadPool, workerPool,
+      messageNotifier, packetBroadcaster, streamReceiver);
     SockExchangeApi.setInstance(api);
 
-    onlinePlayerUpdateSender = new OnlinePlayerUpdateSender(this, api, 5000);
+    streamReceiver.register();
+
+    onlinePlayerUpdateSender = new OnlinePlayerUpdateSender(this, api, 60000);
     onlinePlayerUpdateSender.register();
 
     bungeeKeepAliveSender = new BungeeKeepAliveSender(this, api, 2000);
@@ -168,8 +204,18 @@ public class SockExchangePlugin implements BungeeTieIn
 
     try
     {
-      sockExchangeServer = new SockExchangeServer(port, connectionThreads, this);
+      sockExchangeServer = new SockExchangeServer(port, connectionThreads, this,
+        configuration.getTransportOptions(), packetBroadcaster.getTrafficStatistics());
       sockExchangeServer.start();
+
+      logger.info("SockExchange server started using the " +
+        (sockExchangeServer.isEpoll() ? "epoll" : "NIO") + " transport");
+
+      if (sockExchangeServer.getDomainSocketPath() != null)
+      {
+        logger.info("SockExchange server also listening on " +
+          sockExchangeServer.getDomainSocketPath());
+      }
     }
     catch (Exception e)
     {
@@ -233,6 +279,12 @@ public class SockExchangePlugin implements BungeeTieIn
       onlinePlayerUpdateSender = null;
     }
 
+    if (streamReceiver != null)
+    {
+      streamReceiver.unregister();
+      streamReceiver = null;
+    }
+
     SockExchangeApi.setInstance(null);
 
     if (spigotConnectionMap != null)
@@ -255,10 +307,17 @@ public class SockExchangePlugin implements BungeeTieIn
 
     if (threadPoolExecutor != null)
     {
-      shutdownThreadPoolExecutor();
+      shutdownExecutor(threadPoolExecutor, "ScheduledThreadPoolExecutor");
       threadPoolExecutor = null;
     }
 
+    if (workerPool != null)
+    {
+      shutdownExecutor(workerPool.getExecutorService(), "WorkerPool");
+      workerPool = null;
+    }
+
+    packetBroadcaster = null;
     messageNotifier = null;
     basicLogger = null;
   }
@@ -362,6 +421,17 @@ public class SockExchangePlugin implements BungeeTieIn
     }
   }
 
+  @Override
+  public void onServerStatusChange(String serverName, boolean online)
+  {
+    BungeeKeepAliveSender keepAliveSender = bungeeKeepAliveSender;
+
+    if (keepAliveSender != null)
+    {
+      keepAliveSender.onServerStatusChange();
+    }
+  }
+
   private boolean reloadConfiguration()
   {
     File file = BungeeResourceUtil.saveResource(this, dataFolder,
@@ -390,26 +460,10 @@ public class SockExchangePlugin implements BungeeTieIn
 
   private void checkForConsumerTimeouts()
   {
-    long currentTimeMillis = System.currentTimeMillis();
-
-    responseConsumerMap.removeIf((entry) ->
+    responseConsumerMap.expire(System.currentTimeMillis(), (responseConsumer) ->
     {
-      ExpirableConsumer<ResponseMessage> responseConsumer = entry.getValue();
-
-      if (responseConsumer.getExpiresAtMillis() > currentTimeMillis)
-      {
-        // Keep the entry
-        return false;
-      }
-
-      awaitableExecutor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
-        responseConsumer.accept(responseMessage);
-      });
-
-      // Remove the entry
-      return true;
+      ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
+      responseConsumer.acceptOn(awaitableExecutor, responseMessage);
     });
   }
 
@@ -418,7 +472,7 @@ public class SockExchangePlugin implements BungeeTieIn
     try
     {
       awaitableExecutor.setAcceptingTasks(false);
-      awaitableExecutor.awaitTasksWithSleep(10, 1000);
+      awaitableExecutor.awaitQuiescence(10, TimeUnit.SECONDS);
       awaitableExecutor.shutdown();
     }
     catch (InterruptedException ex)
@@ -435,45 +489,44 @@ public class SockExchangePlugin implements BungeeTieIn
     ThreadFactory threadFactory = factoryBuilder.build();
     threadPoolExecutor = new ScheduledThreadPoolExecutor(2, threadFactory);
 
-    threadPoolExecutor.setMaximumPoolSize(8);
     threadPoolExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
     threadPoolExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
   }
 
-  private void shutdownThreadPoolExecutor()
+  private void shutdownExecutor(ExecutorService executor, String executorName)
   {
-    if (!threadPoolExecutor.isShutdown())
+    if (!executor.isShutdown())
     {
       // Disable new tasks from being submitted to service
-      threadPoolExecutor.shutdown();
+      executor.shutdown();
 
-      logger.info("ScheduledThreadPoolExecutor being shutdown()");
+      logger.info(executorName + " being shutdown()");
 
       try
       {
         // Await termination for a minute
-        if (!threadPoolExecutor.awaitTermination(60, TimeUnit.SECONDS))
+        if (!executor.awaitTermination(60, TimeUnit.SECONDS))
         {
           // Force shutdown
-          threadPoolExecutor.shutdownNow();
+          executor.shutdownNow();
 
-          logger.error("ScheduledThreadPoolExecutor being shutdownNow()");
+          logger.error(executorName + " being shutdownNow()");
 
           // Await termination again for another minute
-          if (!threadPoolExecutor.awaitTermination(60, TimeUnit.SECONDS))
+          if (!executor.awaitTermination(60, TimeUnit.SECONDS))
           {
-            logger.error("ScheduledThreadPoolExecutor not shutdown after shutdownNow()");
+            logger.error(executorName + " not shutdown after shutdownNow()");
           }
         }
       }
       catch (InterruptedException ex)
       {
-        logger.error("ScheduledThreadPoolExecutor shutdown interrupted");
+        logger.error(executorName + " shutdown interrupted");
 
         // Re-cancel if current thread also interrupted
-        threadPoolExecutor.shutdownNow();
+        executor.shutdownNow();
 
-        logger.error("ScheduledThreadPoolExecutor being shutdownNow()");
+        logger.error(executorName + " being shutdownNow()");
 
         // Preserve interrupt status
         Thread.currentThread().interrupt();
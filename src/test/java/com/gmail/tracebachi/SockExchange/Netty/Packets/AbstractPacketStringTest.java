@@ -0,0 +1,147 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Round trips of {@link AbstractPacket#writeString(ByteBuf, String)} and
+ * {@link AbstractPacket#readString(ByteBuf)} over random Unicode strings
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class AbstractPacketStringTest
+{
+  private static final int ITERATIONS = 10000;
+  private static final byte SENTINEL = 0x5A;
+
+  @Test
+  public void roundTripsFixedStrings()
+  {
+    String[] values = {
+      "",
+      "Channel-Name",
+      "caf\u00E9",
+      "\u65E5\u672C\u8A9E",
+      "a\uD83D\uDE00b",
+      "\uD800",
+      "\uDC00",
+      "\uD800a",
+      "\uD800\u00E9",
+      "\uD800\u65E5",
+      "\uD800\uD800\uDC00",
+      "\uDC00\uD800",
+      "end\uDBFF"
+    };
+
+    for (String value : values)
+    {
+      assertRoundTrip(value);
+    }
+  }
+
+  @Test
+  public void roundTripsRandomStrings()
+  {
+    Random random = new Random(0x5EEDL);
+
+    for (int i = 0; i < ITERATIONS; i++)
+    {
+      assertRoundTrip(randomString(random));
+    }
+  }
+
+  private static void assertRoundTrip(String value)
+  {
+    // Unpaired surrogates cannot be encoded, so they are expected as the JDK writes them
+    byte[] expectedBytes = value.getBytes(StandardCharsets.UTF_8);
+    String expected = new String(expectedBytes, StandardCharsets.UTF_8);
+    ByteBuf buf = Unpooled.buffer();
+
+    try
+    {
+      AbstractPacket.writeString(buf, value);
+      buf.writeByte(SENTINEL);
+
+      int startIndex = buf.readerIndex();
+      assertEquals(expectedBytes.length, AbstractPacket.readVarInt(buf), describe(value));
+      buf.readerIndex(startIndex);
+
+      assertEquals(expected, AbstractPacket.readString(buf), describe(value));
+      assertEquals(SENTINEL, buf.readByte(), describe(value));
+      assertEquals(buf.writerIndex(), buf.readerIndex(), describe(value));
+    }
+    finally
+    {
+      buf.release();
+    }
+  }
+
+  private static String randomString(Random random)
+  {
+    int length = random.nextInt(32);
+    StringBuilder builder = new StringBuilder(length * 2);
+
+    for (int i = 0; i < length; i++)
+    {
+      switch (random.nextInt(6))
+      {
+        case 0:
+          builder.append((char) random.nextInt(0x80));
+          break;
+        case 1:
+          builder.append((char) (0x80 + random.nextInt(0x800 - 0x80)));
+          break;
+        case 2:
+          // Anything in the BMP, including unpaired surrogates
+          builder.append((char) random.nextInt(0x10000));
+          break;
+        case 3:
+          builder.appendCodePoint(0x10000 + random.nextInt(0x110000 - 0x10000));
+          break;
+        case 4:
+          builder.append((char) (Character.MIN_HIGH_SURROGATE + random.nextInt(0x400)));
+          break;
+        default:
+          builder.append((char) (Character.MIN_LOW_SURROGATE + random.nextInt(0x400)));
+          break;
+      }
+    }
+
+    return builder.toString();
+  }
+
+  private static String describe(String value)
+  {
+    StringBuilder builder = new StringBuilder("String:");
+
+    for (int i = 0; i < value.length(); i++)
+    {
+      builder.append(String.format(" %04X", (int) value.charAt(i)));
+    }
+
+    return builder.toString();
+  }
+}